@@ -21,6 +21,37 @@ public class ProductAggregate {
     private final List<ReviewSummary> reviews;
     private final ServiceAddresses serviceAddresses;
 
+    // true if the product info is the last known good copy, served while product-service is unavailable
+    private final boolean stale;
+
+    /*
+        recommendations and reviews only hold the first page of each. These are the pageTokens of their next
+        pages at /product-composite/{productId}/recommendations and /reviews, null if there are no more.
+     */
+    private final String recommendationsPageToken;
+    private final String reviewsPageToken;
+
+    public ProductAggregate(
+            int productId,
+            String name,
+            int weight,
+            List<RecommendationSummary> recommendations,
+            List<ReviewSummary> reviews,
+            ServiceAddresses serviceAddresses) {
+        this(productId, name, weight, recommendations, reviews, serviceAddresses, false);
+    }
+
+    public ProductAggregate(
+            int productId,
+            String name,
+            int weight,
+            List<RecommendationSummary> recommendations,
+            List<ReviewSummary> reviews,
+            ServiceAddresses serviceAddresses,
+            boolean stale) {
+        this(productId, name, weight, recommendations, reviews, serviceAddresses, stale, null, null);
+    }
+
     public ProductAggregate() {
         this.productId = 0;
         this.name = null;
@@ -28,5 +59,8 @@ public class ProductAggregate {
         this.recommendations = null;
         this.reviews = null;
         this.serviceAddresses = null;
+        this.stale = false;
+        this.recommendationsPageToken = null;
+        this.reviewsPageToken = null;
     }
 }
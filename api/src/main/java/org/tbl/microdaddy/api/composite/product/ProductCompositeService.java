@@ -12,8 +12,12 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
+import org.tbl.microdaddy.api.paging.Page;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
 import static org.springframework.http.HttpStatus.ACCEPTED;
 
 @SecurityRequirement(name="security_auth")
@@ -54,7 +58,8 @@ public interface ProductCompositeService {
             @ApiResponse(responseCode = "200", description = "${api.responseCodes.ok.description}"),
             @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}"),
             @ApiResponse(responseCode = "404", description = "${api.responseCodes.notFound.description}"),
-            @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}")
+            @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}"),
+            @ApiResponse(responseCode = "503", description = "${api.responseCodes.serviceUnavailable.description}")
     })
     @GetMapping(
             value = "/product-composite/{productId}",
@@ -64,6 +69,114 @@ public interface ProductCompositeService {
             @RequestParam(value = "delay", required = false, defaultValue = "0") int delay,
             @RequestParam(value = "faultPercent", required = false, defaultValue = "0") int faultPercent);
 
+    /**
+     * Usage:
+     *      "curl ${HOST}:${PORT}/product-composite/1/recommendations?pageToken=...&pageSize=20"
+     * @param productId id of the product
+     * @param pageToken recommendationsPageToken of the composite, or nextPageToken of the previous page
+     * @param pageSize max number of recommendations in the page, 0 for the default
+     * @return the next page of the recommendations of the product
+     */
+    @Operation(
+            summary = "${api.product-composite.get-composite-product-recommendations.description}",
+            description = "${api.product-composite.get-composite-product-recommendations.notes}")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "${api.responseCodes.ok.description}"),
+            @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}"),
+            @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}"),
+            @ApiResponse(responseCode = "503", description = "${api.responseCodes.serviceUnavailable.description}")
+    })
+    @GetMapping(
+            value = "/product-composite/{productId}/recommendations",
+            produces = "application/json")
+    Mono<Page<RecommendationSummary>> getProductRecommendations(
+            @PathVariable int productId,
+            @RequestParam(value = "pageToken", required = false) String pageToken,
+            @RequestParam(value = "pageSize", required = false, defaultValue = "0") int pageSize);
+
+    /**
+     * Usage:
+     *      "curl ${HOST}:${PORT}/product-composite/1/reviews?pageToken=...&pageSize=20"
+     * @param productId id of the product
+     * @param pageToken reviewsPageToken of the composite, or nextPageToken of the previous page
+     * @param pageSize max number of reviews in the page, 0 for the default
+     * @return the next page of the reviews of the product
+     */
+    @Operation(
+            summary = "${api.product-composite.get-composite-product-reviews.description}",
+            description = "${api.product-composite.get-composite-product-reviews.notes}")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "${api.responseCodes.ok.description}"),
+            @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}"),
+            @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}"),
+            @ApiResponse(responseCode = "503", description = "${api.responseCodes.serviceUnavailable.description}")
+    })
+    @GetMapping(
+            value = "/product-composite/{productId}/reviews",
+            produces = "application/json")
+    Mono<Page<ReviewSummary>> getProductReviews(
+            @PathVariable int productId,
+            @RequestParam(value = "pageToken", required = false) String pageToken,
+            @RequestParam(value = "pageSize", required = false, defaultValue = "0") int pageSize);
+
+    /**
+     * Usage:
+     *      "curl ${HOST}:${PORT}/product-composite/1/summary"
+     * @param productId id of the product
+     * @return the product w/ the counts, rate statistics and latest few of its recommendations and reviews
+     */
+    @Operation(
+            summary = "${api.product-composite.get-composite-product-summary.description}",
+            description = "${api.product-composite.get-composite-product-summary.notes}")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "${api.responseCodes.ok.description}"),
+            @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}"),
+            @ApiResponse(responseCode = "404", description = "${api.responseCodes.notFound.description}"),
+            @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}"),
+            @ApiResponse(responseCode = "503", description = "${api.responseCodes.serviceUnavailable.description}")
+    })
+    @GetMapping(
+            value = "/product-composite/{productId}/summary",
+            produces = "application/json")
+    Mono<ProductSummary> getProductSummary(@PathVariable int productId);
+
+    /**
+     * Usage:
+     *      "curl ${HOST}:${PORT}/product-composite?ids=1,2,3"
+     * @param productIds ids of the products
+     * @return composite product info of the products that were found, in the requested order
+     */
+    @Operation(
+            summary = "${api.product-composite.get-composite-products.description}",
+            description = "${api.product-composite.get-composite-products.notes}")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "${api.responseCodes.ok.description}"),
+            @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}"),
+            @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}"),
+            @ApiResponse(responseCode = "503", description = "${api.responseCodes.serviceUnavailable.description}")
+    })
+    @GetMapping(
+            value = "/product-composite",
+            params = "ids",
+            produces = "application/json")
+    Flux<ProductAggregate> getProducts(@RequestParam(value = "ids") List<Integer> productIds);
+
+    /**
+     * Usage:
+     *      "curl -H "Accept: application/x-ndjson" ${HOST}:${PORT}/product-composite/export"
+     * @return composite product info of every product, ordered by productId, as a stream of newline
+     * delimited JSON
+     */
+    @Operation(
+            summary = "${api.product-composite.export-composite-products.description}",
+            description = "${api.product-composite.export-composite-products.notes}")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "${api.responseCodes.ok.description}")
+    })
+    @GetMapping(
+            value = "/product-composite/export",
+            produces = "application/x-ndjson")
+    Flux<ProductAggregate> exportProducts();
 
     /**
      * Usage: "curl -X DELETE ${HOST}:${PORT}/product-composite/1"
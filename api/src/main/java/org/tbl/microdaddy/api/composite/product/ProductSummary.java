@@ -0,0 +1,52 @@
+package org.tbl.microdaddy.api.composite.product;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+import java.util.Map;
+
+/*
+    The product w/ the precomputed statistics of its recommendations and reviews instead of all of them:
+    the counts, the average rate and rate histogram, and only the latest few recommendations and reviews.
+    Its cost doesn't depend on how many recommendations and reviews the product has.
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+@EqualsAndHashCode
+public class ProductSummary {
+
+    private final int productId;
+    private final String name;
+    private final int weight;
+
+    private final long recommendationCount;
+    private final double averageRate;
+    private final Map<Integer, Long> rateHistogram;
+    private final List<RecommendationSummary> latestRecommendations;
+
+    private final long reviewCount;
+    private final List<ReviewSummary> latestReviews;
+
+    private final ServiceAddresses serviceAddresses;
+
+    // true if the product info is the last known good copy, served while product-service is unavailable
+    private final boolean stale;
+
+    public ProductSummary() {
+        this.productId = 0;
+        this.name = null;
+        this.weight = 0;
+        this.recommendationCount = 0;
+        this.averageRate = 0;
+        this.rateHistogram = null;
+        this.latestRecommendations = null;
+        this.reviewCount = 0;
+        this.latestReviews = null;
+        this.serviceAddresses = null;
+        this.stale = false;
+    }
+}
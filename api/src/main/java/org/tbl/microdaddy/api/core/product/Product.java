@@ -1,9 +1,12 @@
 package org.tbl.microdaddy.api.core.product;
 
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
+import static com.fasterxml.jackson.annotation.JsonInclude.Include.NON_DEFAULT;
+
 @Data
 @AllArgsConstructor
 public class Product {
@@ -13,11 +16,20 @@ public class Product {
     private int weight;
     private String serviceAddress;
 
+    // only ever set by product-composite, when it serves the last known good copy of a product
+    @JsonInclude(NON_DEFAULT)
+    private boolean stale;
+
     public Product() {
         this.productId = 0;
         this.name = null;
         this.weight = 0;
         this.serviceAddress = null;
+        this.stale = false;
+    }
+
+    public Product(int productId, String name, int weight, String serviceAddress) {
+        this(productId, name, weight, serviceAddress, false);
     }
 
 }
@@ -3,8 +3,11 @@ package org.tbl.microdaddy.api.core.product;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestParam;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
 public interface ProductService {
 
     Mono<Product> createProduct(Product body);
@@ -16,12 +19,32 @@ public interface ProductService {
      */
     @GetMapping(
             value = "/product/{productId}",
-            produces = "application/json")
+            produces = {"application/json", "application/x-jackson-smile"})
     Mono<Product> getProduct(
             @PathVariable int productId,
             @RequestParam(value = "delay", required = false, defaultValue = "0") int delay,
             @RequestParam(value = "faultPercent", required = false, defaultValue = "0") int faultPercent);
 
+    /**
+     * Usage: "curl ${HOST}:${PORT}/product?productIds=1,2,3
+     * @param productIds ids of the products
+     * @return the products that were found, missing ids are skipped
+     */
+    @GetMapping(
+            value = "/product",
+            params = "productIds",
+            produces = {"application/json", "application/x-jackson-smile"})
+    Flux<Product> getProducts(@RequestParam(value = "productIds") List<Integer> productIds);
+
+    /**
+     * Usage: "curl -H "Accept: application/x-ndjson" ${HOST}:${PORT}/product/export
+     * @return every product, ordered by productId, as a stream of newline delimited JSON
+     */
+    @GetMapping(
+            value = "/product/export",
+            produces = "application/x-ndjson")
+    Flux<Product> exportProducts();
+
     Mono<Void> deleteProduct(int productId);
 
 }
@@ -2,9 +2,12 @@ package org.tbl.microdaddy.api.core.recommendation;
 
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.tbl.microdaddy.api.paging.Page;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
 public interface RecommendationService {
 
     Mono<Recommendation> createRecommendation(Recommendation body);
@@ -17,8 +20,59 @@ public interface RecommendationService {
      */
     @GetMapping(
             value = "/recommendation",
-            produces = "application/json")
+            produces = {"application/json", "application/x-jackson-smile"})
     Flux<Recommendation> getRecommendations(@RequestParam(value = "productId") int productId);
 
+    /**
+     * Usage: "curl ${HOST}:${PORT}/recommendation/page?productId=1&pageSize=20&pageToken=...
+     *
+     * @param productId id of product
+     * @param pageToken nextPageToken of the previous page, none for the first page
+     * @param pageSize max number of recommendations in the page, 0 for the default
+     * @return a page of the recommendations of the requested product ordered by recommendationId, w/ the token
+     * of the next page
+     */
+    @GetMapping(
+            value = "/recommendation/page",
+            produces = {"application/json", "application/x-jackson-smile"})
+    Mono<Page<Recommendation>> getRecommendationPage(
+            @RequestParam(value = "productId") int productId,
+            @RequestParam(value = "pageToken", required = false) String pageToken,
+            @RequestParam(value = "pageSize", required = false, defaultValue = "0") int pageSize);
+
+    /**
+     * Usage: "curl ${HOST}:${PORT}/recommendation/statistics?productId=1
+     *
+     * @param productId id of product
+     * @return the precomputed recommendation statistics of the requested product, w/ a count of 0 if it has none
+     */
+    @GetMapping(
+            value = "/recommendation/statistics",
+            produces = {"application/json", "application/x-jackson-smile"})
+    Mono<RecommendationStatistics> getRecommendationStatistics(@RequestParam(value = "productId") int productId);
+
+    /**
+     * Usage: "curl ${HOST}:${PORT}/recommendation?productIds=1,2,3
+     *
+     * @param productIds ids of the products
+     * @return recommendations of all requested products
+     */
+    @GetMapping(
+            value = "/recommendation",
+            params = "productIds",
+            produces = {"application/json", "application/x-jackson-smile"})
+    Flux<Recommendation> getRecommendationsForProducts(@RequestParam(value = "productIds") List<Integer> productIds);
+
+    /**
+     * Usage: "curl -H "Accept: application/x-ndjson" ${HOST}:${PORT}/recommendation/export
+     *
+     * @return every recommendation, ordered by productId and recommendationId, as a stream of newline
+     * delimited JSON
+     */
+    @GetMapping(
+            value = "/recommendation/export",
+            produces = "application/x-ndjson")
+    Flux<Recommendation> exportRecommendations();
+
     Mono<Void> deleteRecommendations(int productId);
 }
@@ -0,0 +1,35 @@
+package org.tbl.microdaddy.api.core.recommendation;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+import java.util.Map;
+
+/*
+    Precomputed per product: count, averageRate and rateHistogram (rate -> number of recommendations) are
+    maintained on every create/delete, latest are the recommendations w/ the highest recommendationIds
+    (app.statistics.latestSize of them).
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+@EqualsAndHashCode
+public class RecommendationStatistics {
+
+    private final int productId;
+    private final long count;
+    private final double averageRate;
+    private final Map<Integer, Long> rateHistogram;
+    private final List<Recommendation> latest;
+
+    public RecommendationStatistics() {
+        this.productId = 0;
+        this.count = 0;
+        this.averageRate = 0;
+        this.rateHistogram = null;
+        this.latest = null;
+    }
+}
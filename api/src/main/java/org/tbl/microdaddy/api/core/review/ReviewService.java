@@ -2,9 +2,12 @@ package org.tbl.microdaddy.api.core.review;
 
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.tbl.microdaddy.api.paging.Page;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
 public interface ReviewService {
 
     Mono<Review> createReview(Review body);
@@ -17,8 +20,57 @@ public interface ReviewService {
      */
     @GetMapping(
             value = "/review",
-            produces = "application/json")
+            produces = {"application/json", "application/x-jackson-smile"})
     Flux<Review> getReviews(@RequestParam(value = "productId") int productId);
 
+    /**
+     * Usage: "curl ${HOST}:${PORT}/review/page?productId=1&pageSize=20&pageToken=...
+     *
+     * @param productId id of product
+     * @param pageToken nextPageToken of the previous page, none for the first page
+     * @param pageSize max number of reviews in the page, 0 for the default
+     * @return a page of the reviews of the requested product ordered by reviewId, w/ the token of the next page
+     */
+    @GetMapping(
+            value = "/review/page",
+            produces = {"application/json", "application/x-jackson-smile"})
+    Mono<Page<Review>> getReviewPage(
+            @RequestParam(value = "productId") int productId,
+            @RequestParam(value = "pageToken", required = false) String pageToken,
+            @RequestParam(value = "pageSize", required = false, defaultValue = "0") int pageSize);
+
+    /**
+     * Usage: "curl ${HOST}:${PORT}/review/statistics?productId=1
+     *
+     * @param productId id of product
+     * @return the precomputed review statistics of the requested product, w/ a count of 0 if it has none
+     */
+    @GetMapping(
+            value = "/review/statistics",
+            produces = {"application/json", "application/x-jackson-smile"})
+    Mono<ReviewStatistics> getReviewStatistics(@RequestParam(value = "productId") int productId);
+
+    /**
+     * Usage: "curl ${HOST}:${PORT}/review?productIds=1,2,3
+     *
+     * @param productIds ids of the products
+     * @return reviews of all requested products
+     */
+    @GetMapping(
+            value = "/review",
+            params = "productIds",
+            produces = {"application/json", "application/x-jackson-smile"})
+    Flux<Review> getReviewsForProducts(@RequestParam(value = "productIds") List<Integer> productIds);
+
+    /**
+     * Usage: "curl -H "Accept: application/x-ndjson" ${HOST}:${PORT}/review/export
+     *
+     * @return every review, ordered by productId and reviewId, as a stream of newline delimited JSON
+     */
+    @GetMapping(
+            value = "/review/export",
+            produces = "application/x-ndjson")
+    Flux<Review> exportReviews();
+
     Mono<Void> deleteReviews(int productId);
 }
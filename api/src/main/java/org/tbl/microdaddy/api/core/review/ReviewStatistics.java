@@ -0,0 +1,29 @@
+package org.tbl.microdaddy.api.core.review;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+/*
+    Precomputed per product: count is maintained on every create/delete, latest are the reviews w/ the
+    highest reviewIds (app.statistics.latestSize of them).
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+@EqualsAndHashCode
+public class ReviewStatistics {
+
+    private final int productId;
+    private final long count;
+    private final List<Review> latest;
+
+    public ReviewStatistics() {
+        this.productId = 0;
+        this.count = 0;
+        this.latest = null;
+    }
+}
@@ -0,0 +1,21 @@
+package org.tbl.microdaddy.api.exceptions;
+
+import lombok.Getter;
+
+import java.util.Set;
+
+/*
+    A batch write that failed after storing part of the batch. applied holds the indexes (in the list given to
+    the batch write) of the records that were stored, so a retry of the batch can tell the duplicates it
+    caused itself from the ones that were already there.
+ */
+@Getter
+public class BatchWriteException extends EventProcessingException {
+
+    private final Set<Integer> applied;
+
+    public BatchWriteException(Set<Integer> applied, Throwable cause) {
+        super("Batch write failed after storing " + applied.size() + " records: " + cause.getMessage(), cause);
+        this.applied = Set.copyOf(applied);
+    }
+}
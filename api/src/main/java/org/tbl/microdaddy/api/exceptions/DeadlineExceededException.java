@@ -0,0 +1,20 @@
+package org.tbl.microdaddy.api.exceptions;
+
+
+import lombok.NoArgsConstructor;
+
+@NoArgsConstructor
+public class DeadlineExceededException extends RuntimeException{
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+
+    public DeadlineExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public DeadlineExceededException(Throwable cause) {
+        super(cause);
+    }
+}
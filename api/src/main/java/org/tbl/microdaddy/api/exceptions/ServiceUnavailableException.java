@@ -0,0 +1,20 @@
+package org.tbl.microdaddy.api.exceptions;
+
+
+import lombok.NoArgsConstructor;
+
+@NoArgsConstructor
+public class ServiceUnavailableException extends RuntimeException{
+
+    public ServiceUnavailableException(String message) {
+        super(message);
+    }
+
+    public ServiceUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public ServiceUnavailableException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,27 @@
+package org.tbl.microdaddy.api.paging;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+/*
+    One page of a keyset paginated read. nextPageToken is opaque to the client, it is passed back as the
+    pageToken of the request for the next page, and is null on the last page.
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+@EqualsAndHashCode
+public class Page<T> {
+
+    private final List<T> items;
+    private final String nextPageToken;
+
+    public Page() {
+        this.items = null;
+        this.nextPageToken = null;
+    }
+}
@@ -10,6 +10,8 @@ repositories {
 }
 
 dependencies {
+    // only the classes of util (e.g. CachingReactiveJwtDecoder), not the service dependencies of util and api
+    implementation(project(":util")) { isTransitive = false }
     implementation("org.springframework.boot:spring-boot-starter-actuator")
     implementation("org.springframework.cloud:spring-cloud-starter-gateway:4.0.6")
     implementation("org.springframework.retry:spring-retry:2.0.2")
@@ -18,7 +20,12 @@ dependencies {
     implementation("org.springframework.security:spring-security-oauth2-resource-server")
     implementation("org.springframework.security:spring-security-oauth2-jose")
     implementation("io.micrometer:micrometer-tracing-bridge-otel:1.1.2")
+    implementation("org.springframework.cloud:spring-cloud-starter-stream-rabbit:4.0.3")
+    implementation("org.springframework.cloud:spring-cloud-starter-stream-kafka:4.0.3")
+    implementation("com.github.ben-manes.caffeine:caffeine")
     testImplementation("org.springframework.boot:spring-boot-starter-test")
+    testImplementation("org.springframework.cloud:spring-cloud-stream-test-binder:4.0.3")
+    testImplementation("io.projectreactor:reactor-test")
 
 }
 
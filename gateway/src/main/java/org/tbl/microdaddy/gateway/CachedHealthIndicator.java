@@ -0,0 +1,93 @@
+package org.tbl.microdaddy.gateway;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.ReactiveHealthIndicator;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    Health of a service, checked in the background instead of on every probe of /actuator/health.
+
+    Once started, the check runs every interval plus a random jitter of up to jitter (the first one after
+    a random jitter), so the targets and the gateway instances don't all check at the same time. A check
+    that doesn't answer within timeout is DOWN. health() returns the result of the last check right away,
+    w/ when it was made (checkedAt) and how old it is (ageMs); UNKNOWN until the first check is done.
+ */
+@Slf4j
+public class CachedHealthIndicator implements ReactiveHealthIndicator {
+
+    private record Result(Health health, Instant checkedAt) {}
+
+    private final String name;
+    private final Mono<Health> check;
+    private final Duration interval;
+    private final Duration jitter;
+    private final Duration timeout;
+
+    private final AtomicReference<Result> last = new AtomicReference<>();
+    private Disposable checking;
+
+    public CachedHealthIndicator(String name, Mono<Health> check, Duration interval, Duration jitter,
+                                 Duration timeout) {
+
+        log.info("Creating cached health indicator {} with interval = {}, jitter = {}, timeout = {}",
+                name, interval, jitter, timeout);
+
+        this.name = name;
+        this.check = check;
+        this.interval = interval;
+        this.jitter = jitter;
+        this.timeout = timeout;
+    }
+
+    public void start() {
+        checking = Mono.delay(randomJitter())
+                .thenMany(Mono.defer(this::check)
+                        .then(Mono.defer(() -> Mono.delay(interval.plus(randomJitter()))))
+                        .repeat())
+                .subscribe();
+    }
+
+    public void stop() {
+        if (checking != null) {
+            checking.dispose();
+        }
+    }
+
+    @Override
+    public Mono<Health> health() {
+        Result result = last.get();
+        if (result == null) {
+            return Mono.just(Health.unknown().withDetail("checkedAt", "never").build());
+        }
+
+        return Mono.just(Health.status(result.health().getStatus())
+                .withDetails(result.health().getDetails())
+                .withDetail("checkedAt", result.checkedAt().toString())
+                .withDetail("ageMs", Duration.between(result.checkedAt(), Instant.now()).toMillis())
+                .build());
+    }
+
+    private Mono<Void> check() {
+        return check
+                .timeout(timeout, Mono.error(() -> new TimeoutException("No answer within " + timeout)))
+                .onErrorResume(ex -> Mono.just(Health.down().withException(ex).build()))
+                .doOnNext(health -> {
+                    log.debug("Health of {}: {}", name, health.getStatus());
+                    last.set(new Result(health, Instant.now()));
+                })
+                .then();
+    }
+
+    private Duration randomJitter() {
+        return jitter.isZero() ? Duration.ZERO
+                : Duration.ofMillis(ThreadLocalRandom.current().nextLong(jitter.toMillis() + 1));
+    }
+}
@@ -0,0 +1,42 @@
+package org.tbl.microdaddy.gateway;
+
+import org.springframework.cloud.gateway.filter.ratelimit.KeyResolver;
+import org.springframework.http.HttpMethod;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+/*
+    Rate limiting key of the RequestRateLimiter filter (see LocalRateLimiter): the scope the request needs,
+    product:read for GET and HEAD, product:write for everything else (as in the composite's
+    SecurityConfiguration), and the client, the client_id of the JWT or its subject.
+
+    Requests w/o a JWT have no key, the filter rejects them.
+ */
+@Component
+public class ClientScopeKeyResolver implements KeyResolver {
+
+    static final String READ = "product:read";
+    static final String WRITE = "product:write";
+
+    @Override
+    public Mono<String> resolve(ServerWebExchange exchange) {
+        HttpMethod method = exchange.getRequest().getMethod();
+        String scope = method == HttpMethod.GET || method == HttpMethod.HEAD ? READ : WRITE;
+
+        return exchange.getPrincipal()
+                .filter(JwtAuthenticationToken.class::isInstance)
+                .map(principal -> scope + " " + client(((JwtAuthenticationToken) principal).getToken()));
+    }
+
+    static boolean isWrite(String key) {
+        return key.startsWith(WRITE);
+    }
+
+    private static String client(Jwt jwt) {
+        String clientId = jwt.getClaimAsString("client_id");
+        return clientId != null ? clientId : jwt.getSubject();
+    }
+}
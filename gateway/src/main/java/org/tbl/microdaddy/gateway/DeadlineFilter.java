@@ -0,0 +1,85 @@
+package org.tbl.microdaddy.gateway;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+import static org.springframework.http.HttpStatus.GATEWAY_TIMEOUT;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
+
+/*
+    Sets the deadline of every routed request: the gateway gives up on it after timeoutMs (or the client's
+    own X-Deadline-Ms, if that's shorter) w/ a 504, and tells the services behind it how long they have in
+    the X-Deadline-Ms header, so they stop working on it too (see Deadline in util).
+
+    Streams (application/x-ndjson) have no deadline, they run for as long as the client keeps reading.
+ */
+@Slf4j
+@Component
+public class DeadlineFilter implements GlobalFilter, Ordered {
+
+    static final String HEADER = "X-Deadline-Ms";
+
+    private final long timeoutMs;
+
+    @Autowired
+    public DeadlineFilter(@Value("${app.deadline.timeoutMs:10000}") Long timeoutMs) {
+
+        log.info("Creating deadline filter with timeoutMs = {}", timeoutMs);
+
+        this.timeoutMs = timeoutMs;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+
+        if (isStream(exchange)) {
+            return chain.filter(exchange.mutate()
+                    .request(request -> request.headers(headers -> headers.remove(HEADER)))
+                    .build());
+        }
+
+        long deadlineMs = Math.min(timeoutMs, clientDeadlineMs(exchange));
+
+        ServerWebExchange withDeadline = exchange.mutate()
+                .request(request -> request.headers(headers -> headers.set(HEADER, String.valueOf(deadlineMs))))
+                .build();
+
+        return chain.filter(withDeadline)
+                .timeout(Duration.ofMillis(deadlineMs), Mono.error(() -> new ResponseStatusException(GATEWAY_TIMEOUT,
+                        "Deadline of " + deadlineMs + " ms exceeded")));
+    }
+
+    // first of the route filters, they all count against the deadline
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+
+    private long clientDeadlineMs(ServerWebExchange exchange) {
+        String value = exchange.getRequest().getHeaders().getFirst(HEADER);
+        if (value != null) {
+            try {
+                return Math.max(0, Long.parseLong(value.trim()));
+            } catch (NumberFormatException ex) {
+                log.debug("Ignoring invalid {} header: {}", HEADER, value);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private static boolean isStream(ServerWebExchange exchange) {
+        return exchange.getRequest().getHeaders().getAccept().stream()
+                .anyMatch(mediaType -> mediaType.isCompatibleWith(APPLICATION_NDJSON)
+                        && !mediaType.isWildcardType());
+    }
+}
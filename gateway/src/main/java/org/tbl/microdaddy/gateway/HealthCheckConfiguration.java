@@ -1,45 +1,95 @@
 package org.tbl.microdaddy.gateway;
 
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.health.CompositeReactiveHealthContributor;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.boot.actuate.health.ReactiveHealthContributor;
-import org.springframework.boot.actuate.health.ReactiveHealthIndicator;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 import static java.util.logging.Level.FINE;
 
+/*
+    The health of the services behind the gateway, as part of the gateway's own. Each service is checked in
+    the background (see CachedHealthIndicator), a probe only reads the results of the last checks.
+
+    intervalMs, jitterMs and timeoutMs of app.healthCheck apply to all of them, and can be overridden per
+    service, e.g. app.healthCheck.auth-server.timeoutMs.
+ */
 @Slf4j
 @Configuration
 public class HealthCheckConfiguration {
 
     private WebClient webClient;
 
+    private final Environment environment;
+    private final Integer intervalMs;
+    private final Integer jitterMs;
+    private final Integer timeoutMs;
+
+    private final Map<String, CachedHealthIndicator> healthCheckRegistry = new LinkedHashMap<>();
+
     @Autowired
-    public HealthCheckConfiguration(WebClient.Builder webClientBuilder) {
+    public HealthCheckConfiguration(
+            WebClient.Builder webClientBuilder,
+            Environment environment,
+            @Value("${app.healthCheck.intervalMs:10000}") Integer intervalMs,
+            @Value("${app.healthCheck.jitterMs:2000}") Integer jitterMs,
+            @Value("${app.healthCheck.timeoutMs:3000}") Integer timeoutMs) {
         this.webClient = webClientBuilder.build();
+        this.environment = environment;
+        this.intervalMs = intervalMs;
+        this.jitterMs = jitterMs;
+        this.timeoutMs = timeoutMs;
     }
 
     @Bean
     ReactiveHealthContributor healthcheckMicroservices() {
-        final Map<String, ReactiveHealthIndicator> healthCheckRegistry = new LinkedHashMap<>();
 
-        healthCheckRegistry.put("product", () -> getHealth("http://product"));
-        healthCheckRegistry.put("recommendation", () -> getHealth("http://recommendation"));
-        healthCheckRegistry.put("review", () -> getHealth("http://review"));
-        healthCheckRegistry.put("product-composite", () -> getHealth("http://product-composite"));
-        healthCheckRegistry.put("auth-server", () -> getHealth("http://auth-server"));
+        healthCheckRegistry.put("product", healthIndicator("product", "http://product"));
+        healthCheckRegistry.put("recommendation", healthIndicator("recommendation", "http://recommendation"));
+        healthCheckRegistry.put("review", healthIndicator("review", "http://review"));
+        healthCheckRegistry.put("product-composite", healthIndicator("product-composite", "http://product-composite"));
+        healthCheckRegistry.put("auth-server", healthIndicator("auth-server", "http://auth-server"));
 
         return CompositeReactiveHealthContributor.fromMap(healthCheckRegistry);
     }
 
+    @EventListener(ApplicationReadyEvent.class)
+    public void startHealthChecks() {
+        healthCheckRegistry.values().forEach(CachedHealthIndicator::start);
+    }
+
+    @PreDestroy
+    public void stopHealthChecks() {
+        healthCheckRegistry.values().forEach(CachedHealthIndicator::stop);
+    }
+
+    private CachedHealthIndicator healthIndicator(String name, String baseUrl) {
+        return new CachedHealthIndicator(
+                name,
+                Mono.defer(() -> getHealth(baseUrl)),
+                Duration.ofMillis(setting(name, "intervalMs", intervalMs)),
+                Duration.ofMillis(setting(name, "jitterMs", jitterMs)),
+                Duration.ofMillis(setting(name, "timeoutMs", timeoutMs)));
+    }
+
+    private int setting(String name, String setting, Integer defaultValue) {
+        return environment.getProperty("app.healthCheck." + name + "." + setting, Integer.class, defaultValue);
+    }
+
     private Mono<Health> getHealth(String baseUrl) {
         String url = baseUrl + "/actuator/health";
         log.debug("Calling health API at URL: {}", url);
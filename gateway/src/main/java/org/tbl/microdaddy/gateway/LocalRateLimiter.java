@@ -0,0 +1,133 @@
+package org.tbl.microdaddy.gateway;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.ratelimit.AbstractRateLimiter;
+import org.springframework.cloud.gateway.support.ConfigurationService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    In-memory token bucket rate limiter for the RequestRateLimiter filter, instead of the RedisRateLimiter:
+    every gateway instance limits on its own, so the limits are per instance.
+
+    There is a bucket per route and key (see ClientScopeKeyResolver: the client and the scope it uses). It
+    holds up to burstCapacity tokens and gets replenishRate tokens per second, every request takes one. The
+    limits of the read and write scopes are set per route w/ the local-rate-limiter args of the filter (see
+    gateway.yml), routes w/o them get the defaults of Config.
+
+    A bucket is a single AtomicLong, the time at which it would be full again (GCRA), moved forward w/ a CAS
+    per request, so there are no locks. The buckets live in a Caffeine cache, and are dropped when they
+    haven't been used for idleSeconds: by then they are full again, like a new one.
+
+    A rejected request gets a 429 (from the filter) w/ Retry-After: the seconds until the bucket has a token.
+ */
+@Slf4j
+@Component
+public class LocalRateLimiter extends AbstractRateLimiter<LocalRateLimiter.Config> {
+
+    public static final String CONFIGURATION_PROPERTY_NAME = "local-rate-limiter";
+
+    private static final Response ALLOWED = new Response(true, Map.of());
+
+    private final Cache<String, TokenBucket> buckets;
+    private final MeterRegistry meterRegistry;
+    private final Config defaultConfig = new Config();
+
+    @Autowired
+    public LocalRateLimiter(
+            ConfigurationService configurationService,
+            @Value("${app.rateLimiter.maxKeys:100000}") Integer maxKeys,
+            @Value("${app.rateLimiter.idleSeconds:600}") Integer idleSeconds,
+            MeterRegistry meterRegistry) {
+
+        super(Config.class, CONFIGURATION_PROPERTY_NAME, configurationService);
+
+        log.info("Creating local rate limiter with maxKeys = {}, idleSeconds = {}", maxKeys, idleSeconds);
+
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxKeys)
+                .expireAfterAccess(Duration.ofSeconds(idleSeconds))
+                .build();
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Mono<Response> isAllowed(String routeId, String id) {
+        Config config = getConfig().getOrDefault(routeId, defaultConfig);
+        boolean write = ClientScopeKeyResolver.isWrite(id);
+        Limit limit = write ? config.getWrite() : config.getRead();
+
+        long waitNanos = buckets.get(routeId + " " + id, key -> new TokenBucket()).take(limit, System.nanoTime());
+        if (waitNanos == 0) {
+            return Mono.just(ALLOWED);
+        }
+
+        log.debug("rateLimiter::{}::{}::REJECTED", routeId, id);
+        rejectedCounter(routeId, write ? ClientScopeKeyResolver.WRITE : ClientScopeKeyResolver.READ).increment();
+
+        long retryAfterSeconds = TimeUnit.NANOSECONDS.toSeconds(waitNanos - 1) + 1;
+        return Mono.just(new Response(false, Map.of(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))));
+    }
+
+    private Counter rejectedCounter(String routeId, String scope) {
+        return Counter.builder("gateway.ratelimiter.rejected")
+                .description("Number of requests rejected w/ a 429, because the client used up its tokens")
+                .tag("route", routeId)
+                .tag("scope", scope)
+                .register(meterRegistry);
+    }
+
+    static class TokenBucket {
+
+        // when the bucket will be full again, in System.nanoTime(): the theoretical arrival time of GCRA
+        private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE);
+
+        // 0 if a token was taken, otherwise the nanos until there is one
+        long take(Limit limit, long now) {
+            long interval = TimeUnit.SECONDS.toNanos(1) / limit.getReplenishRate();
+            long capacity = interval * limit.getBurstCapacity();
+
+            while (true) {
+                long current = fullAt.get();
+                long next = Math.max(current, now) + interval;
+
+                long wait = next - now - capacity;
+                if (wait > 0) {
+                    return wait;
+                }
+                if (fullAt.compareAndSet(current, next)) {
+                    return 0;
+                }
+            }
+        }
+    }
+
+    @Data
+    public static class Config {
+        private Limit read = new Limit(50, 100);
+        private Limit write = new Limit(10, 20);
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Limit {
+        private int replenishRate;
+        private int burstCapacity;
+    }
+}
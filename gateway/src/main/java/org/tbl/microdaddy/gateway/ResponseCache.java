@@ -0,0 +1,231 @@
+package org.tbl.microdaddy.gateway;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    Cache of GET responses, see ResponseCacheGatewayFilterFactory. Every gateway instance has its own, there
+    is nothing to share or coordinate between them.
+
+    Responses are keyed by route, path, query and the scopes of the caller's JWT, so a caller only gets
+    responses that were produced for the same scopes. A response is kept for as long as its Cache-Control
+    allows (s-maxage, or max-age), at most maxTtlSeconds, and purged early when an event arrives for one of
+    the productIds it is about (see ResponseCachePurgeConfig). A response that was on its way while a purge
+    happened isn't kept, it may have been read before the change.
+
+    Hit ratio per route: gateway.response.cache.requests{route, result=hit|miss} and
+    gateway.response.cache.hit.ratio{route}.
+ */
+@Slf4j
+@Component
+public class ResponseCache {
+
+    private static final String CACHE_NAME = "gatewayResponse";
+
+    record Key(String routeId, String path, String query, String scopes) {}
+
+    record CachedResponse(HttpHeaders headers, byte[] body, Set<Integer> productIds, long storedAtNanos,
+                          long ttlNanos) {
+
+        Duration age() {
+            return Duration.ofNanos(System.nanoTime() - storedAtNanos);
+        }
+    }
+
+    private final Cache<Key, CachedResponse> cache;
+    private final Duration maxTtl;
+    private final MeterRegistry meterRegistry;
+
+    // incremented on every purge, see put()
+    private final AtomicLong purges = new AtomicLong();
+    private final Counter purged;
+
+    private final Map<String, RouteStats> routeStats = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ResponseCache(
+            @Value("${app.responseCache.maxSize:10000}") Integer maxSize,
+            @Value("${app.responseCache.maxTtlSeconds:60}") Integer maxTtlSeconds,
+            MeterRegistry meterRegistry) {
+
+        log.info("Creating gatewayResponse cache with maxSize = {}, maxTtlSeconds = {}", maxSize, maxTtlSeconds);
+
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<Key, CachedResponse>() {
+                    @Override
+                    public long expireAfterCreate(Key key, CachedResponse value, long currentTime) {
+                        return value.ttlNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Key key, CachedResponse value, long currentTime,
+                                                  long currentDuration) {
+                        return value.ttlNanos();
+                    }
+
+                    @Override
+                    public long expireAfterRead(Key key, CachedResponse value, long currentTime,
+                                                long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        this.maxTtl = Duration.ofSeconds(maxTtlSeconds);
+        this.meterRegistry = meterRegistry;
+
+        // size and evictions are reported as cache.* meters tagged w/ cache=gatewayResponse
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+
+        this.purged = Counter.builder("cache.invalidations")
+                .description("Number of explicit invalidations, by the source that triggered them")
+                .tag("cache", CACHE_NAME)
+                .tag("source", "event")
+                .register(meterRegistry);
+    }
+
+    public Optional<CachedResponse> get(Key key) {
+        CachedResponse cached = cache.getIfPresent(key);
+
+        RouteStats stats = stats(key.routeId());
+        if (cached == null) {
+            stats.misses.increment();
+        } else {
+            stats.hits.increment();
+        }
+        return Optional.ofNullable(cached);
+    }
+
+    // a request that bypasses the cache (Cache-Control: no-cache), counted as a miss
+    public void bypass(Key key) {
+        stats(key.routeId()).misses.increment();
+    }
+
+    // to be passed to put(), read before the request is sent
+    public long generation() {
+        return purges.get();
+    }
+
+    /*
+        Keeps the response for the freshness lifetime of its Cache-Control (capped at maxTtlSeconds), unless
+        there was a purge since generation. The check comes after the put, so a purge running at the same
+        time can't be missed: either it removes the entry, or the check sees it.
+     */
+    public void put(Key key, HttpHeaders headers, byte[] body, Set<Integer> productIds, long generation) {
+        Optional<Duration> ttl = freshness(headers);
+        if (ttl.isEmpty()) {
+            return;
+        }
+
+        cache.put(key, new CachedResponse(headers, body, productIds, System.nanoTime(), ttl.get().toNanos()));
+
+        if (purges.get() != generation) {
+            log.debug("responseCache::{}::NOT_CACHED (purged while in flight)", key.path());
+            cache.invalidate(key);
+        }
+    }
+
+    /*
+        Drops every response that is about the productId, called when an event for it is consumed.
+     */
+    public void purge(int productId) {
+        purges.incrementAndGet();
+
+        int before = cache.asMap().size();
+        cache.asMap().values().removeIf(cached -> cached.productIds().contains(productId));
+        log.debug("responseCache::productId::{}::PURGED ({} responses)", productId, before - cache.asMap().size());
+        purged.increment();
+    }
+
+    /*
+        How long a response may be served from the cache, empty if it may not be stored at all. Only
+        responses that say so are stored: no-store, private and no-cache (we don't revalidate) keep them out,
+        as does a missing Cache-Control. s-maxage wins over max-age, as we're a shared cache.
+     */
+    Optional<Duration> freshness(HttpHeaders headers) {
+        String cacheControl = headers.getCacheControl();
+        if (cacheControl == null) {
+            return Optional.empty();
+        }
+
+        long maxAge = -1;
+        long sharedMaxAge = -1;
+        for (String directive : cacheControl.toLowerCase().split(",")) {
+            directive = directive.trim();
+            if (directive.startsWith("no-store") || directive.startsWith("private")
+                    || directive.startsWith("no-cache")) {
+                return Optional.empty();
+            } else if (directive.startsWith("s-maxage=")) {
+                sharedMaxAge = seconds(directive.substring("s-maxage=".length()));
+            } else if (directive.startsWith("max-age=")) {
+                maxAge = seconds(directive.substring("max-age=".length()));
+            }
+        }
+
+        long seconds = sharedMaxAge >= 0 ? sharedMaxAge : maxAge;
+        if (seconds <= 0) {
+            return Optional.empty();
+        }
+        Duration ttl = Duration.ofSeconds(seconds);
+        return Optional.of(ttl.compareTo(maxTtl) < 0 ? ttl : maxTtl);
+    }
+
+    private static long seconds(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    private RouteStats stats(String routeId) {
+        return routeStats.computeIfAbsent(routeId, id -> new RouteStats(id, meterRegistry));
+    }
+
+    private static class RouteStats {
+
+        private final Counter hits;
+        private final Counter misses;
+
+        RouteStats(String routeId, MeterRegistry meterRegistry) {
+            this.hits = requestCounter(routeId, "hit", meterRegistry);
+            this.misses = requestCounter(routeId, "miss", meterRegistry);
+
+            Gauge.builder("gateway.response.cache.hit.ratio", this, RouteStats::hitRatio)
+                    .description("Share of the GET requests of the route that were served from the cache")
+                    .tag("route", routeId)
+                    .register(meterRegistry);
+        }
+
+        double hitRatio() {
+            double requests = hits.count() + misses.count();
+            return requests == 0 ? 0 : hits.count() / requests;
+        }
+
+        private static Counter requestCounter(String routeId, String result, MeterRegistry meterRegistry) {
+            return Counter.builder("gateway.response.cache.requests")
+                    .description("Number of GET requests that were served from the cache, or not")
+                    .tag("route", routeId)
+                    .tag("result", result)
+                    .register(meterRegistry);
+        }
+    }
+}
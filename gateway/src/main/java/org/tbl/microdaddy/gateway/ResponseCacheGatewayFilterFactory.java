@@ -0,0 +1,236 @@
+package org.tbl.microdaddy.gateway;
+
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.OrderedGatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.tbl.microdaddy.gateway.ResponseCache.CachedResponse;
+import org.tbl.microdaddy.gateway.ResponseCache.Key;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.springframework.cloud.gateway.filter.NettyWriteResponseFilter.WRITE_RESPONSE_FILTER_ORDER;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+import static org.springframework.http.HttpStatus.NOT_MODIFIED;
+import static org.springframework.http.HttpStatus.OK;
+
+/*
+    Serves repeated GETs of a route from the ResponseCache, instead of proxying each of them. Enabled per
+    route w/ the ResponseCache filter (see the product-composite route in gateway.yml).
+
+    Only 200 JSON responses w/ a Cache-Control that allows a shared cache to store them are kept (see
+    ResponseCache.freshness()), up to maxBodyBytes each. A hit is answered w/ the stored headers, plus Age,
+    or w/ a 304 if the client's If-None-Match matches the stored ETag. Clients can skip the cache w/
+    Cache-Control: no-cache, the response is still stored.
+
+    The productIds a response is about, to purge it by, are the numeric segments of the path and the ids
+    query parameter, e.g. /product-composite/1/reviews or /product-composite?ids=1,2,3.
+ */
+@Slf4j
+@Component
+public class ResponseCacheGatewayFilterFactory
+        extends AbstractGatewayFilterFactory<ResponseCacheGatewayFilterFactory.Config> {
+
+    private final ResponseCache responseCache;
+    private final int maxBodyBytes;
+
+    @Autowired
+    public ResponseCacheGatewayFilterFactory(
+            ResponseCache responseCache,
+            @Value("${app.responseCache.maxBodyBytes:1048576}") Integer maxBodyBytes) {
+
+        super(Config.class);
+
+        log.info("Creating response cache filter with maxBodyBytes = {}", maxBodyBytes);
+
+        this.responseCache = responseCache;
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    public static class Config {
+    }
+
+    // has to wrap the response before NettyWriteResponseFilter writes it
+    @Override
+    public GatewayFilter apply(Config config) {
+        return new OrderedGatewayFilter(this::filter, WRITE_RESPONSE_FILTER_ORDER - 1);
+    }
+
+    private Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+
+        ServerHttpRequest request = exchange.getRequest();
+        if (request.getMethod() != HttpMethod.GET) {
+            return chain.filter(exchange);
+        }
+
+        return scopes(exchange).flatMap(scopes -> {
+            Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+            Key key = new Key(
+                    route == null ? "" : route.getId(),
+                    request.getPath().pathWithinApplication().value(),
+                    request.getURI().getRawQuery() == null ? "" : request.getURI().getRawQuery(),
+                    scopes);
+
+            if (isNoCache(request)) {
+                responseCache.bypass(key);
+            } else {
+                CachedResponse cached = responseCache.get(key).orElse(null);
+                if (cached != null) {
+                    return writeCached(exchange, cached);
+                }
+            }
+
+            long generation = responseCache.generation();
+            return chain.filter(exchange.mutate()
+                    .response(new CachingResponse(exchange.getResponse(), key, productIds(request), generation))
+                    .build());
+        });
+    }
+
+    private Mono<Void> writeCached(ServerWebExchange exchange, CachedResponse cached) {
+        ServerHttpResponse response = exchange.getResponse();
+        response.getHeaders().putAll(cached.headers());
+        response.getHeaders().set(HttpHeaders.AGE, String.valueOf(cached.age().toSeconds()));
+
+        String etag = cached.headers().getETag();
+        if (etag != null && exchange.getRequest().getHeaders().getIfNoneMatch().stream()
+                .anyMatch(ifNoneMatch -> weakly(ifNoneMatch).equals(weakly(etag)))) {
+            response.setStatusCode(NOT_MODIFIED);
+            response.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+            return response.setComplete();
+        }
+
+        response.setStatusCode(OK);
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(cached.body())));
+    }
+
+    /*
+        Copies the body as it is written to the client, and stores the response once it's complete.
+     */
+    private class CachingResponse extends ServerHttpResponseDecorator {
+
+        private final Key key;
+        private final Set<Integer> productIds;
+        private final long generation;
+
+        CachingResponse(ServerHttpResponse delegate, Key key, Set<Integer> productIds, long generation) {
+            super(delegate);
+            this.key = key;
+            this.productIds = productIds;
+            this.generation = generation;
+        }
+
+        @Override
+        public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+            if (!isCacheable()) {
+                return super.writeWith(body);
+            }
+
+            ByteArrayOutputStream copy = new ByteArrayOutputStream();
+            AtomicBoolean tooLarge = new AtomicBoolean();
+            return super.writeWith(Flux.from(body)
+                    .doOnNext(buffer -> {
+                        int length = buffer.readableByteCount();
+                        if (tooLarge.get() || copy.size() + length > maxBodyBytes) {
+                            tooLarge.set(true);
+                            return;
+                        }
+                        byte[] bytes = new byte[length];
+                        buffer.toByteBuffer(buffer.readPosition(), ByteBuffer.wrap(bytes), 0, length);
+                        copy.writeBytes(bytes);
+                    })
+                    .doOnComplete(() -> {
+                        if (!tooLarge.get()) {
+                            store(copy.toByteArray());
+                        }
+                    }));
+        }
+
+        private boolean isCacheable() {
+            HttpHeaders headers = getHeaders();
+            MediaType contentType = headers.getContentType();
+
+            return (getStatusCode() == null || getStatusCode().value() == OK.value())
+                    && contentType != null && contentType.isCompatibleWith(MediaType.APPLICATION_JSON)
+                    && !headers.containsKey(HttpHeaders.SET_COOKIE)
+                    && responseCache.freshness(headers).isPresent();
+        }
+
+        private void store(byte[] body) {
+            HttpHeaders headers = new HttpHeaders();
+            getHeaders().forEach((name, values) -> headers.put(name, List.copyOf(values)));
+            // the body is written in one piece on a hit
+            headers.remove(HttpHeaders.TRANSFER_ENCODING);
+            headers.setContentLength(body.length);
+
+            responseCache.put(key, HttpHeaders.readOnlyHttpHeaders(headers), body, productIds, generation);
+        }
+    }
+
+    private static Mono<String> scopes(ServerWebExchange exchange) {
+        return exchange.getPrincipal()
+                .filter(JwtAuthenticationToken.class::isInstance)
+                .map(principal -> ((JwtAuthenticationToken) principal).getAuthorities().stream()
+                        .map(GrantedAuthority::getAuthority)
+                        .filter(authority -> authority.startsWith("SCOPE_"))
+                        .sorted()
+                        .collect(Collectors.joining(" ")))
+                .defaultIfEmpty("");
+    }
+
+    private static Set<Integer> productIds(ServerHttpRequest request) {
+        Set<Integer> productIds = new HashSet<>();
+
+        for (String segment : request.getPath().pathWithinApplication().value().split("/")) {
+            addProductId(productIds, segment);
+        }
+        for (String ids : request.getQueryParams().getOrDefault("ids", List.of())) {
+            for (String id : ids.split(",")) {
+                addProductId(productIds, id);
+            }
+        }
+
+        return productIds;
+    }
+
+    private static void addProductId(Set<Integer> productIds, String value) {
+        try {
+            productIds.add(Integer.parseInt(value.trim()));
+        } catch (NumberFormatException ex) {
+            // not a productId
+        }
+    }
+
+    private static boolean isNoCache(ServerHttpRequest request) {
+        String cacheControl = request.getHeaders().getCacheControl();
+        return cacheControl != null && cacheControl.toLowerCase().contains("no-cache");
+    }
+
+    private static String weakly(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+}
@@ -0,0 +1,44 @@
+package org.tbl.microdaddy.gateway;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.function.Consumer;
+
+/*
+    Consumes the products, recommendations and reviews topics (see responseCachePurge-in-0 in gateway.yml)
+    and purges the cached responses of the productId of each event. The binding has no consumer group, so
+    every gateway instance gets its own copy of each event.
+ */
+@Configuration
+@Slf4j
+public class ResponseCachePurgeConfig {
+
+    private final ResponseCache responseCache;
+
+    @Autowired
+    public ResponseCachePurgeConfig(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    @Bean
+    public Consumer<ProductEvent> responseCachePurge() {
+        return event -> {
+            log.debug("Purge responses of productId {} ({} event)", event.key(), event.eventType());
+
+            if (event.key() != null) {
+                responseCache.purge(event.key());
+            }
+        };
+    }
+
+    /*
+        The part of an event (see Event in api) the purge needs: the key is the productId on all three topics.
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record ProductEvent(String eventType, Integer key) {
+    }
+}
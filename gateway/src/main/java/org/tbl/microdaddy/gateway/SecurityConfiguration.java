@@ -3,15 +3,18 @@ package org.tbl.microdaddy.gateway;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
 import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
 import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.tbl.microdaddy.util.security.JwtDecoderConfiguration;
 
 import static org.springframework.security.config.Customizer.withDefaults;
 
 @Slf4j
 @EnableWebFluxSecurity
 @Configuration
+@Import(JwtDecoderConfiguration.class)
 public class SecurityConfiguration {
 
     @Bean
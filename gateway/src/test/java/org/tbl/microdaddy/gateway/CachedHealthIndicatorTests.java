@@ -0,0 +1,86 @@
+package org.tbl.microdaddy.gateway;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CachedHealthIndicatorTests {
+
+    private CachedHealthIndicator indicator;
+
+    @AfterEach
+    void tearDown() {
+        indicator.stop();
+    }
+
+    @Test
+    void unknownUntilTheFirstCheck() {
+
+        indicator = indicator(Mono.just(Health.up().build()));
+
+        assertEquals(Status.UNKNOWN, indicator.health().block().getStatus());
+    }
+
+    @Test
+    void probesReadTheLastCheck() throws InterruptedException {
+
+        AtomicInteger checks = new AtomicInteger();
+        indicator = indicator(Mono.fromSupplier(() -> {
+            checks.incrementAndGet();
+            return Health.up().build();
+        }));
+        indicator.start();
+
+        Health health = awaitStatus(Status.UP);
+        assertTrue(health.getDetails().containsKey("checkedAt"));
+        assertTrue((Long) health.getDetails().get("ageMs") >= 0);
+
+        // probes don't check
+        int checksSoFar = checks.get();
+        for (int i = 0; i < 100; i++) {
+            indicator.health().block();
+        }
+        assertTrue(checks.get() <= checksSoFar + 1);
+    }
+
+    @Test
+    void slowServiceIsDownAfterTheTimeout() throws InterruptedException {
+
+        indicator = indicator(Mono.never());
+        indicator.start();
+
+        long start = System.nanoTime();
+        Health health = awaitStatus(Status.DOWN);
+        assertTrue(health.getDetails().get("error").toString().contains("TimeoutException"));
+
+        // the probe itself never waits
+        long probeStart = System.nanoTime();
+        indicator.health().block();
+        assertTrue(Duration.ofNanos(System.nanoTime() - probeStart).toMillis() < 50);
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 2000);
+    }
+
+    private CachedHealthIndicator indicator(Mono<Health> check) {
+        return new CachedHealthIndicator("test", check, Duration.ofMillis(200), Duration.ofMillis(10),
+                Duration.ofMillis(100));
+    }
+
+    private Health awaitStatus(Status status) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            Health health = indicator.health().block();
+            if (health.getStatus().equals(status)) {
+                return health;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Status never became " + status);
+    }
+}
@@ -0,0 +1,135 @@
+package org.tbl.microdaddy.gateway;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.filter.ratelimit.RateLimiter.Response;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.web.server.ServerWebExchange;
+import org.tbl.microdaddy.gateway.LocalRateLimiter.Config;
+import org.tbl.microdaddy.gateway.LocalRateLimiter.Limit;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocalRateLimiterTests {
+
+    private static final String ROUTE = "product-composite";
+
+    private SimpleMeterRegistry meterRegistry;
+    private LocalRateLimiter rateLimiter;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        rateLimiter = new LocalRateLimiter(null, 1000, 600, meterRegistry);
+
+        Config config = new Config();
+        config.setRead(new Limit(1, 3));
+        config.setWrite(new Limit(1, 1));
+        rateLimiter.getConfig().put(ROUTE, config);
+    }
+
+    @Test
+    void burstIsAllowedThenRejectedWithRetryAfter() {
+
+        String reader = "product:read reader";
+        for (int i = 0; i < 3; i++) {
+            assertTrue(isAllowed(ROUTE, reader).isAllowed());
+        }
+
+        Response rejected = isAllowed(ROUTE, reader);
+        assertFalse(rejected.isAllowed());
+        assertEquals("1", rejected.getHeaders().get(HttpHeaders.RETRY_AFTER));
+
+        assertEquals(1.0, meterRegistry.get("gateway.ratelimiter.rejected")
+                .tag("route", ROUTE).tag("scope", "product:read").counter().count());
+    }
+
+    @Test
+    void everyClientAndScopeHasItsOwnBucket() {
+
+        assertTrue(isAllowed(ROUTE, "product:write writer").isAllowed());
+        assertFalse(isAllowed(ROUTE, "product:write writer").isAllowed());
+
+        // the writer can still read, other writers can still write
+        assertTrue(isAllowed(ROUTE, "product:read writer").isAllowed());
+        assertTrue(isAllowed(ROUTE, "product:write other-writer").isAllowed());
+    }
+
+    @Test
+    void routesWithoutLimitsGetTheDefaults() {
+
+        for (int i = 0; i < new Config().getWrite().getBurstCapacity(); i++) {
+            assertTrue(isAllowed("other-route", "product:write writer").isAllowed());
+        }
+        assertFalse(isAllowed("other-route", "product:write writer").isAllowed());
+    }
+
+    @Test
+    void tokensAreReplenished() {
+
+        LocalRateLimiter.TokenBucket bucket = new LocalRateLimiter.TokenBucket();
+        Limit limit = new Limit(10, 1);
+        long now = System.nanoTime();
+
+        assertEquals(0, bucket.take(limit, now));
+        // the next token after 1 / replenishRate seconds
+        assertEquals(100_000_000, bucket.take(limit, now));
+        assertEquals(0, bucket.take(limit, now + 100_000_000));
+    }
+
+    @Test
+    void keyIsTheScopeAndTheClient() {
+
+        ClientScopeKeyResolver keyResolver = new ClientScopeKeyResolver();
+
+        assertEquals("product:read writer", keyResolver.resolve(
+                authenticated(MockServerHttpRequest.get("/product-composite/1"), "writer")).block());
+        assertEquals("product:write writer", keyResolver.resolve(
+                authenticated(MockServerHttpRequest.delete("/product-composite/1"), "writer")).block());
+        assertNull(keyResolver.resolve(
+                MockServerWebExchange.from(MockServerHttpRequest.get("/product-composite/1"))).block());
+    }
+
+    @Test
+    void isAllowedTakesLessThan50Microseconds() {
+
+        rateLimiter.getConfig().get(ROUTE).setRead(new Limit(1_000_000_000, 1_000_000_000));
+        for (int i = 0; i < 100_000; i++) {
+            isAllowed(ROUTE, "product:read reader-" + (i % 100));
+        }
+
+        int calls = 100_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            isAllowed(ROUTE, "product:read reader-" + (i % 100));
+        }
+        long averageNanos = (System.nanoTime() - start) / calls;
+
+        assertTrue(averageNanos < 50_000, "average: " + averageNanos + " ns");
+    }
+
+    private Response isAllowed(String routeId, String key) {
+        return rateLimiter.isAllowed(routeId, key).block();
+    }
+
+    private ServerWebExchange authenticated(MockServerHttpRequest.BaseBuilder<?> request, String clientId) {
+        Jwt jwt = Jwt.withTokenValue("token").header("alg", "none")
+                .subject(clientId + "@clients")
+                .claim("client_id", clientId)
+                .build();
+        return MockServerWebExchange.from(request).mutate()
+                .principal(Mono.just(new JwtAuthenticationToken(jwt, List.of())))
+                .build();
+    }
+}
@@ -0,0 +1,153 @@
+package org.tbl.microdaddy.gateway;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpResponse;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+import static org.springframework.http.HttpStatus.NOT_MODIFIED;
+import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+class ResponseCacheTests {
+
+    private static final String READ_SCOPE = "SCOPE_product:read";
+
+    private final Route route = Route.async()
+            .id("product-composite")
+            .uri("http://product-composite")
+            .predicate(exchange -> true)
+            .build();
+
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+    private String upstreamCacheControl = "max-age=0, s-maxage=30";
+
+    private SimpleMeterRegistry meterRegistry;
+    private ResponseCache responseCache;
+    private GatewayFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        responseCache = new ResponseCache(100, 60, meterRegistry);
+        filter = new ResponseCacheGatewayFilterFactory(responseCache, 1024)
+                .apply(new ResponseCacheGatewayFilterFactory.Config());
+    }
+
+    @Test
+    void repeatedGetIsServedFromTheCache() {
+
+        assertEquals("{\"call\":1}", get("/product-composite/1", READ_SCOPE).getBodyAsString().block());
+
+        MockServerHttpResponse response = get("/product-composite/1", READ_SCOPE);
+        assertEquals("{\"call\":1}", response.getBodyAsString().block());
+        assertEquals(OK, response.getStatusCode());
+        assertEquals(APPLICATION_JSON, response.getHeaders().getContentType());
+        assertEquals("0", response.getHeaders().getFirst(HttpHeaders.AGE));
+
+        assertEquals(1, upstreamCalls.get());
+        assertEquals(0.5, meterRegistry.get("gateway.response.cache.hit.ratio")
+                .tag("route", "product-composite").gauge().value());
+    }
+
+    @Test
+    void scopesArePartOfTheKey() {
+
+        get("/product-composite/1", READ_SCOPE);
+        get("/product-composite/1", READ_SCOPE + " SCOPE_product:write");
+
+        assertEquals(2, upstreamCalls.get());
+    }
+
+    @Test
+    void responsesTheCompositeDoesNotAllowToStoreAreNotCached() {
+
+        upstreamCacheControl = "no-cache, no-store, max-age=0, must-revalidate";
+
+        get("/product-composite/1", READ_SCOPE);
+        get("/product-composite/1", READ_SCOPE);
+
+        assertEquals(2, upstreamCalls.get());
+    }
+
+    @Test
+    void eventPurgesTheResponsesOfItsProduct() {
+
+        get("/product-composite/1/reviews", READ_SCOPE);
+        get("/product-composite?ids=1,2", READ_SCOPE);
+        get("/product-composite/2", READ_SCOPE);
+
+        responseCache.purge(1);
+
+        get("/product-composite/1/reviews", READ_SCOPE);
+        get("/product-composite?ids=1,2", READ_SCOPE);
+        get("/product-composite/2", READ_SCOPE);
+
+        assertEquals(5, upstreamCalls.get());
+    }
+
+    @Test
+    void matchingEtagIsAnsweredWithNotModified() {
+
+        get("/product-composite/1", READ_SCOPE);
+
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/product-composite/1")
+                .ifNoneMatch("\"etag-1\""));
+        MockServerHttpResponse response = filter(exchange, READ_SCOPE);
+
+        assertEquals(NOT_MODIFIED, response.getStatusCode());
+        assertEquals("\"etag-1\"", response.getHeaders().getETag());
+        assertEquals(1, upstreamCalls.get());
+    }
+
+    private MockServerHttpResponse get(String uri, String scopes) {
+        return filter(MockServerWebExchange.from(MockServerHttpRequest.get(uri)), scopes);
+    }
+
+    private MockServerHttpResponse filter(MockServerWebExchange exchange, String scopes) {
+        exchange.getAttributes().put(GATEWAY_ROUTE_ATTR, route);
+
+        Jwt jwt = Jwt.withTokenValue("token").header("alg", "none").claim("scope", scopes).build();
+        List<SimpleGrantedAuthority> authorities = List.of(scopes.split(" ")).stream()
+                .map(SimpleGrantedAuthority::new)
+                .toList();
+        ServerWebExchange authenticated = exchange.mutate()
+                .principal(Mono.just(new JwtAuthenticationToken(jwt, authorities)))
+                .build();
+
+        filter.filter(authenticated, upstream()).block(Duration.ofSeconds(1));
+        return exchange.getResponse();
+    }
+
+    // the composite, answering w/ the number of the call
+    private GatewayFilterChain upstream() {
+        return exchange -> {
+            int call = upstreamCalls.incrementAndGet();
+
+            ServerHttpResponse response = exchange.getResponse();
+            response.setStatusCode(OK);
+            response.getHeaders().setContentType(APPLICATION_JSON);
+            response.getHeaders().setCacheControl(upstreamCacheControl);
+            response.getHeaders().setETag("\"etag-" + call + "\"");
+            return response.writeWith(Mono.just(response.bufferFactory().wrap(("{\"call\":" + call + "}").getBytes())));
+        };
+    }
+}
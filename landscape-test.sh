@@ -198,14 +198,15 @@ function testCircuitBreaker() {
   assertEqual "OPEN" "$($EXEC curl -s  http://localhost/actuator/health | jq -r .components.circuitBreakers.details.product.details.state)"
 
   # Exec slow call again, and confirm its still open
-  # Verify a 200 is back, and fail fast is working
+  # Verify a 200 is back, w/ the last known good (stale) product, and fail fast is working
   assertCurl 200 "curl -k https://$HOST:$PORT/product-composite/$PRODUCT_ID_OK?delay=3 $AUTH -s"
-  assertEqual "Fallback product$PRODUCT_ID_OK" "$(echo $RESPONSE | jq -r .name)"
+  assertEqual "product name C" "$(echo $RESPONSE | jq -r .name)"
+  assertEqual "true" "$(echo $RESPONSE | jq -r .stale)"
 
   # Exec normal call and confirm its still open
   # Verify a 200 is back, and fail fast is working
   assertCurl 200 "curl -k https://$HOST:$PORT/product-composite/$PRODUCT_ID_OK $AUTH -s"
-  assertEqual "Fallback product$PRODUCT_ID_OK" "$(echo $RESPONSE | jq -r .name)"
+  assertEqual "product name C" "$(echo $RESPONSE | jq -r .name)"
 
   # Verify that 404 (Not Found) is returned for non-existing product
   assertCurl 404 "curl -k https://$HOST:$PORT/product-composite/$PRODUCT_ID_NOT_FOUND $AUTH -s"
@@ -13,6 +13,8 @@ dependencies {
     implementation(project(":util"))
     implementation("org.springframework.boot:spring-boot-starter-actuator")
     implementation("org.springframework.boot:spring-boot-starter-webflux")
+    implementation("org.springframework.boot:spring-boot-starter-data-mongodb-reactive")
+    implementation("com.fasterxml.jackson.dataformat:jackson-dataformat-smile")
     implementation("org.springframework.boot:spring-boot-starter-security")
     implementation("org.springframework.boot:spring-boot-starter-aop")
     implementation("org.springframework.security:spring-security-oauth2-resource-server")
@@ -20,12 +22,14 @@ dependencies {
     implementation("org.springframework.cloud:spring-cloud-starter-stream-rabbit:4.0.3")
     implementation("org.springframework.cloud:spring-cloud-starter-stream-kafka:4.0.3")
     implementation("org.springframework.cloud:spring-cloud-commons:4.0.3")
+    implementation("org.springframework.cloud:spring-cloud-starter-loadbalancer:4.0.3")
     implementation("io.micrometer:micrometer-tracing-bridge-otel:1.1.2")
     implementation("org.springframework.retry:spring-retry:2.0.2")
     implementation("org.springframework.boot:spring-boot-starter-aop")
     implementation("org.springdoc:springdoc-openapi-starter-webflux-ui:2.1.0")
     implementation("io.github.resilience4j:resilience4j-spring-boot3:2.0.2")
     implementation("io.github.resilience4j:resilience4j-reactor:2.0.2")
+    implementation("com.github.ben-manes.caffeine:caffeine")
     testImplementation("org.projectlombok:lombok:1.18.26")
     compileOnly("org.projectlombok:lombok")
     developmentOnly("org.springframework.boot:spring-boot-devtools")
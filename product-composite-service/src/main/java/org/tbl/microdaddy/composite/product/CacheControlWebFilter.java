@@ -0,0 +1,98 @@
+package org.tbl.microdaddy.composite.product;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import static org.springframework.http.HttpMethod.GET;
+import static org.springframework.http.HttpStatus.OK;
+
+/*
+    Lets the gateway's response cache keep successful GET /product-composite/** responses for
+    sharedMaxAgeSeconds (s-maxage). Clients are told not to keep them (max-age=0): the gateway purges its
+    copies when a product changes, a client couldn't.
+
+    Spring Security's Cache-Control: no-store is only added when the response doesn't have a Cache-Control
+    yet, so this has to run first. Errors, streams and chaos requests (delay/faultPercent) keep no-store, and
+    so do degraded responses (a stale product, or recommendations/reviews left out after a failed call): the
+    handler marks them w/ noStore(), so the gateway doesn't keep serving them after the core services recover.
+
+    The gateway and product-composite drop their copies on the same events, independently of each other. If
+    the gateway purges first, a request in between can fill it again from the composite's copy, which is then
+    kept for up to sharedMaxAgeSeconds: a change shows at the gateway at most sharedMaxAgeSeconds after the
+    composite has seen it (app.productCache.ttlSeconds + sharedMaxAgeSeconds if the composite misses the event).
+ */
+@Slf4j
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class CacheControlWebFilter implements WebFilter {
+
+    private static final String NO_STORE_ATTRIBUTE = CacheControlWebFilter.class.getName() + ".noStore";
+
+    private final String cacheControl;
+
+    @Autowired
+    public CacheControlWebFilter(@Value("${app.cacheControl.sharedMaxAgeSeconds:30}") Integer sharedMaxAgeSeconds) {
+
+        log.info("Creating cache control filter with sharedMaxAgeSeconds = {}", sharedMaxAgeSeconds);
+
+        this.cacheControl = sharedMaxAgeSeconds > 0 ? "max-age=0, s-maxage=" + sharedMaxAgeSeconds : null;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+
+        if (cacheControl != null && isCacheable(exchange.getRequest())) {
+            ServerHttpResponse response = exchange.getResponse();
+            response.beforeCommit(() -> {
+                HttpStatusCode status = response.getStatusCode();
+                MediaType contentType = response.getHeaders().getContentType();
+
+                if (exchange.getAttribute(NO_STORE_ATTRIBUTE) != null) {
+                    response.getHeaders().setCacheControl(CacheControl.noStore());
+                } else if ((status == null || status.value() == OK.value())
+                        && contentType != null && contentType.isCompatibleWith(MediaType.APPLICATION_JSON)) {
+                    response.getHeaders().setCacheControl(cacheControl);
+                }
+                return Mono.empty();
+            });
+
+            return chain.filter(exchange)
+                    .contextWrite(Context.of(ServerWebExchange.class, exchange));
+        }
+
+        return chain.filter(exchange);
+    }
+
+    /*
+        Keeps the response of the current request out of the gateway's response cache. Has to be part of the
+        handler's Mono (it's found through the Reactor context), and to complete before the response is written.
+     */
+    public static Mono<Void> noStore() {
+        return Mono.deferContextual(context -> {
+            context.<ServerWebExchange>getOrEmpty(ServerWebExchange.class)
+                    .ifPresent(exchange -> exchange.getAttributes().put(NO_STORE_ATTRIBUTE, true));
+            return Mono.empty();
+        });
+    }
+
+    private static boolean isCacheable(ServerHttpRequest request) {
+        return request.getMethod() == GET
+                && request.getPath().pathWithinApplication().value().startsWith("/product-composite")
+                && !request.getQueryParams().containsKey("delay")
+                && !request.getQueryParams().containsKey("faultPercent");
+    }
+}
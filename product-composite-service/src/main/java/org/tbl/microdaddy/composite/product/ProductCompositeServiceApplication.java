@@ -6,7 +6,6 @@ import io.swagger.v3.oas.models.info.Contact;
 import io.swagger.v3.oas.models.info.Info;
 import io.swagger.v3.oas.models.info.License;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -14,9 +13,11 @@ import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
-import reactor.core.scheduler.Scheduler;
-import reactor.core.scheduler.Schedulers;
+import org.tbl.microdaddy.composite.product.services.PeakEwmaLoadBalancer;
+import org.tbl.microdaddy.util.http.Deadline;
+import reactor.netty.http.client.HttpClient;
 
 
 @Slf4j
@@ -74,30 +75,16 @@ public class ProductCompositeServiceApplication {
                 .externalDocs(externalDocumentation);
     }
 
-    private final Integer threadPoolSize;
-    private final Integer taskQueueSize;
-
-    @Autowired
-    public ProductCompositeServiceApplication(
-            @Value("${app.threadPoolSize:10}")
-            Integer threadPoolSize,
-            @Value("${app.taskQueueSize:100}")
-            Integer taskQueueSize) {
-
-        this.threadPoolSize = threadPoolSize;
-        this.taskQueueSize = taskQueueSize;
-    }
-
-    @Bean
-    public Scheduler publishEventScheduler() {
-        log.info("Creating messageScheduler with connectionPoolSize = {}", threadPoolSize);
-        return Schedulers.newBoundedElastic(threadPoolSize, taskQueueSize, "publish-pool");
-    }
-
+    // trackCalls has to be added here: the load balancer's own filter is added after it, and runs inside it.
+    // The deadline goes around both, a call cut short by the deadline of the request is cancelled, not failed.
+    // The connections are pooled by downstreamHttpClient, see DownstreamHttpClientConfig.
     @Bean
     @LoadBalanced
-    public WebClient.Builder loadBalancedWebClientBuilder() {
-        return WebClient.builder();
+    public WebClient.Builder loadBalancedWebClientBuilder(HttpClient downstreamHttpClient) {
+        return WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(downstreamHttpClient))
+                .filter(Deadline.propagate())
+                .filter(PeakEwmaLoadBalancer.trackCalls());
     }
 
     public static void main(String[] args) {
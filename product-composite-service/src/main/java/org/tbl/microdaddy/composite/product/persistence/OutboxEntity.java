@@ -0,0 +1,61 @@
+package org.tbl.microdaddy.composite.product.persistence;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.tbl.microdaddy.api.event.Event;
+
+import java.time.Instant;
+
+import static java.lang.String.format;
+
+/*
+    One composite write (create or delete of a whole product aggregate), waiting to be relayed as events.
+    Published records are removed by a TTL index a day after they were published.
+
+    Records are relayed in the order of their sequence, taken from a counter when the record is written (see
+    ProductCompositeOutbox). The _id can't be used for that, an ObjectId only has a resolution of a second,
+    and the order within a second differs per composite instance. A record that can't be relayed (its
+    aggregate can't be read) is marked published w/ a failure and w/o publishedAt, so it is kept.
+ */
+@Data
+@NoArgsConstructor
+@Document(collection = "outbox")
+@CompoundIndex(name = "published_sequence", def = "{'published': 1, 'sequence': 1}")
+public class OutboxEntity {
+
+    @Id
+    private String id;
+
+    private long sequence;
+
+    private Event.Type eventType;
+    private int productId;
+
+    // the ProductAggregate as JSON, null for deletes
+    private String aggregate;
+
+    private Instant createdAt;
+
+    private boolean published;
+
+    private String failure;
+
+    @Indexed(expireAfter = "1d")
+    private Instant publishedAt;
+
+    public OutboxEntity(Event.Type eventType, int productId, String aggregate) {
+        this.eventType = eventType;
+        this.productId = productId;
+        this.aggregate = aggregate;
+        this.createdAt = Instant.now();
+    }
+
+    @Override
+    public String toString() {
+        return format("OutboxEntity: %s %s", eventType, productId);
+    }
+}
@@ -0,0 +1,11 @@
+package org.tbl.microdaddy.composite.product.persistence;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Flux;
+
+public interface OutboxRepository extends ReactiveCrudRepository<OutboxEntity, String> {
+
+    // oldest unpublished records first, served by the { published, sequence } index
+    Flux<OutboxEntity> findByPublishedFalseOrderBySequenceAsc(Pageable pageable);
+}
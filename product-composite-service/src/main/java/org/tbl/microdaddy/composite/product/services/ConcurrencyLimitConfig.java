@@ -0,0 +1,46 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/*
+    One ConcurrencyLimiter per downstream, see app.concurrencyLimit in product-composite.yml.
+ */
+@Configuration
+public class ConcurrencyLimitConfig {
+
+    @Bean
+    public ConcurrencyLimiter productLimiter(
+            @Value("${app.concurrencyLimit.product.enabled:false}") Boolean enabled,
+            @Value("${app.concurrencyLimit.product.initialLimit:20}") Integer initialLimit,
+            @Value("${app.concurrencyLimit.product.minLimit:5}") Integer minLimit,
+            @Value("${app.concurrencyLimit.product.maxLimit:200}") Integer maxLimit,
+            MeterRegistry meterRegistry) {
+
+        return new ConcurrencyLimiter("product", enabled, initialLimit, minLimit, maxLimit, meterRegistry);
+    }
+
+    @Bean
+    public ConcurrencyLimiter recommendationLimiter(
+            @Value("${app.concurrencyLimit.recommendation.enabled:false}") Boolean enabled,
+            @Value("${app.concurrencyLimit.recommendation.initialLimit:20}") Integer initialLimit,
+            @Value("${app.concurrencyLimit.recommendation.minLimit:5}") Integer minLimit,
+            @Value("${app.concurrencyLimit.recommendation.maxLimit:200}") Integer maxLimit,
+            MeterRegistry meterRegistry) {
+
+        return new ConcurrencyLimiter("recommendation", enabled, initialLimit, minLimit, maxLimit, meterRegistry);
+    }
+
+    @Bean
+    public ConcurrencyLimiter reviewLimiter(
+            @Value("${app.concurrencyLimit.review.enabled:false}") Boolean enabled,
+            @Value("${app.concurrencyLimit.review.initialLimit:20}") Integer initialLimit,
+            @Value("${app.concurrencyLimit.review.minLimit:5}") Integer minLimit,
+            @Value("${app.concurrencyLimit.review.maxLimit:200}") Integer maxLimit,
+            MeterRegistry meterRegistry) {
+
+        return new ConcurrencyLimiter("review", enabled, initialLimit, minLimit, maxLimit, meterRegistry);
+    }
+}
@@ -0,0 +1,191 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.tbl.microdaddy.api.exceptions.ServiceUnavailableException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Adaptive concurrency limit (gradient, along the lines of Netflix' Gradient2).
+
+    A call is only sent if fewer than limit calls are in flight, otherwise it fails right away w/ a
+    ServiceUnavailableException, instead of queueing up on a downstream that is already saturated.
+
+    The limit follows the round trip time: longRtt is a moving average, each call is compared to it. While
+    calls are as fast as the average (within TOLERANCE) the limit grows by sqrt(limit) per call, when they
+    get slower than that it shrinks in proportion (at most halved per call), both smoothed by SMOOTHING.
+    A call that failed because the downstream is overloaded (5xx, timeout, connection error) multiplies
+    the limit by DROP_BACKOFF.
+
+    Calls made while less than half the limit was in flight don't change it, the downstream wasn't the
+    bottleneck then. A cancelled call (the loser of a hedge, or a timeout) is a sample of what it took
+    until then.
+ */
+@Slf4j
+public class ConcurrencyLimiter {
+
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double DROP_BACKOFF = 0.9;
+
+    // the long RTT is a simple average over the first WARMUP samples, then an EWMA w/ this weight
+    private static final int WARMUP = 10;
+    private static final double LONG_RTT_WEIGHT = 2.0 / (600 + 1);
+
+    private final String name;
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+
+    // guarded by this
+    private double estimatedLimit;
+    private double longRttNanos;
+    private int samples;
+
+    // read by tryAcquire w/o the lock
+    private volatile int limit;
+
+    private final Counter rejected;
+
+    public ConcurrencyLimiter(
+            String name,
+            boolean enabled,
+            int initialLimit,
+            int minLimit,
+            int maxLimit,
+            MeterRegistry meterRegistry) {
+
+        log.info("Creating concurrency limiter {} with enabled = {}, initialLimit = {}, minLimit = {}, maxLimit = {}",
+                name, enabled, initialLimit, minLimit, maxLimit);
+
+        this.name = name;
+        this.enabled = enabled;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.estimatedLimit = initialLimit;
+        this.limit = initialLimit;
+
+        Gauge.builder("concurrency.limit", this, ConcurrencyLimiter::getLimit)
+                .description("Current number of concurrent calls allowed")
+                .tag("name", name)
+                .register(meterRegistry);
+        Gauge.builder("concurrency.inflight", inflight, AtomicInteger::get)
+                .description("Number of calls in flight")
+                .tag("name", name)
+                .register(meterRegistry);
+
+        this.rejected = Counter.builder("concurrency.rejected")
+                .description("Number of calls rejected because the limit was reached")
+                .tag("name", name)
+                .register(meterRegistry);
+    }
+
+    public <T> Mono<T> execute(Mono<T> call) {
+        return execute(call.flux()).next();
+    }
+
+    public <T> Flux<T> execute(Flux<T> call) {
+        if (!enabled) {
+            return call;
+        }
+
+        return Flux.defer(() -> {
+            int startInflight = tryAcquire();
+            if (startInflight < 0) {
+                rejected.increment();
+                log.debug("concurrency-limiter::{}::REJECTED", name);
+                return Flux.error(new ServiceUnavailableException(
+                        "Too many concurrent calls to " + name + ", limit: " + limit));
+            }
+
+            long start = System.nanoTime();
+            AtomicBoolean dropped = new AtomicBoolean();
+
+            return call
+                    .doOnError(ex -> dropped.set(isDrop(ex)))
+                    .doFinally(signal -> {
+                        inflight.decrementAndGet();
+                        if (dropped.get()) {
+                            onDrop();
+                        } else {
+                            onSample(System.nanoTime() - start, startInflight);
+                        }
+                    });
+        });
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    // the number of calls in flight including this one, or -1 if the limit is reached
+    private int tryAcquire() {
+        int current;
+        do {
+            current = inflight.get();
+            if (current >= limit) {
+                return -1;
+            }
+        } while (!inflight.compareAndSet(current, current + 1));
+        return current + 1;
+    }
+
+    synchronized void onSample(long rttNanos, int startInflight) {
+
+        if (rttNanos <= 0) {
+            return;
+        }
+
+        if (samples < WARMUP) {
+            samples++;
+            longRttNanos += (rttNanos - longRttNanos) / samples;
+        } else {
+            longRttNanos = longRttNanos * (1 - LONG_RTT_WEIGHT) + rttNanos * LONG_RTT_WEIGHT;
+        }
+
+        // the downstream got a lot faster (e.g. it recovered), don't let the old average keep the limit up
+        if (longRttNanos / rttNanos > 2) {
+            longRttNanos *= 0.95;
+        }
+
+        if (startInflight < estimatedLimit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRttNanos / rttNanos));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        setEstimatedLimit(estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING);
+    }
+
+    synchronized void onDrop() {
+        setEstimatedLimit(estimatedLimit * DROP_BACKOFF);
+    }
+
+    private void setEstimatedLimit(double newLimit) {
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+
+        int rounded = (int) estimatedLimit;
+        if (rounded != limit) {
+            log.debug("concurrency-limiter::{}::LIMIT {} -> {}", name, limit, rounded);
+            limit = rounded;
+        }
+    }
+
+    private static boolean isDrop(Throwable ex) {
+        return (ex instanceof WebClientResponseException responseException
+                        && responseException.getStatusCode().is5xxServerError())
+                || ex instanceof WebClientRequestException
+                || ex instanceof TimeoutException;
+    }
+}
@@ -0,0 +1,82 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    The instances of a service are the addresses its host name (the service id) resolves to: every container
+    of a scaled docker compose service, or every pod of a headless Kubernetes service. A ClusterIP service
+    resolves to its single virtual IP, so there is one instance and the mesh balances behind it.
+
+    Resolved again every refreshInterval, in the background. Lookups block, so they run on boundedElastic.
+    If a lookup fails the last known instances are kept.
+ */
+@Slf4j
+public class DnsServiceInstanceListSupplier implements ServiceInstanceListSupplier {
+
+    private final String serviceId;
+    private final int port;
+    private final AtomicReference<List<ServiceInstance>> lastInstances = new AtomicReference<>(List.of());
+    private final Flux<List<ServiceInstance>> instances;
+
+    public DnsServiceInstanceListSupplier(String serviceId, int port, Duration refreshInterval) {
+
+        log.info("Creating DNS instance list for {} with port = {}, refreshInterval = {}",
+                serviceId, port, refreshInterval);
+
+        this.serviceId = serviceId;
+        this.port = port;
+
+        // a single lookup loop per service, shared by all calls. New subscribers get the latest list.
+        this.instances = Flux.interval(Duration.ZERO, refreshInterval)
+                .onBackpressureDrop()
+                .concatMap(tick -> resolve(), 1)
+                .distinctUntilChanged()
+                .doOnNext(resolved -> log.info("Instances of {}: {}", serviceId,
+                        resolved.stream().map(ServiceInstance::getInstanceId).toList()))
+                .replay(1)
+                .autoConnect();
+    }
+
+    @Override
+    public String getServiceId() {
+        return serviceId;
+    }
+
+    @Override
+    public Flux<List<ServiceInstance>> get() {
+        return instances;
+    }
+
+    private Mono<List<ServiceInstance>> resolve() {
+        return Mono.fromCallable(() -> Arrays.stream(InetAddress.getAllByName(serviceId))
+                        .map(InetAddress::getHostAddress)
+                        .distinct()
+                        .sorted(Comparator.naturalOrder())
+                        .map(this::toServiceInstance)
+                        .toList())
+                .subscribeOn(Schedulers.boundedElastic())
+                .doOnNext(lastInstances::set)
+                .onErrorResume(UnknownHostException.class, ex -> {
+                    log.warn("Failed to resolve the instances of {}: {}", serviceId, ex.toString());
+                    return Mono.just(lastInstances.get());
+                });
+    }
+
+    private ServiceInstance toServiceInstance(String address) {
+        return new DefaultServiceInstance(address + ":" + port, serviceId, address, port, false);
+    }
+}
@@ -0,0 +1,78 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.Http2AllocationStrategy;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/*
+    The HTTP client behind the @LoadBalanced WebClient, i.e. of the calls to product, recommendation and review.
+
+    Reactor Netty keeps a pool of connections per remote address, so every instance of a core service gets a
+    pool of its own, of up to maxConnections. At most pendingAcquireMaxCount calls wait for a connection of a
+    pool, for at most pendingAcquireTimeoutMs; more calls fail right away instead of piling up. Connections
+    idle for maxIdleTimeMs, or older than maxLifeTimeMs, are closed by an eviction every evictIntervalMs.
+    The pools are reported as reactor.netty.connection.provider.* meters tagged w/ name=downstream.
+
+    With h2c, the core services are called over cleartext HTTP/2 (prior knowledge, they accept it w/
+    server.http2.enabled), up to maxConcurrentStreams calls multiplexed over each connection. A new connection
+    is only opened when all of them are busy, still up to maxConnections per instance.
+ */
+@Slf4j
+@Configuration
+public class DownstreamHttpClientConfig {
+
+    private static final String POOL_NAME = "downstream";
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider downstreamConnectionProvider(
+            @Value("${app.downstreamHttpClient.h2c:false}") Boolean h2c,
+            @Value("${app.downstreamHttpClient.maxConnections:50}") Integer maxConnections,
+            @Value("${app.downstreamHttpClient.maxConcurrentStreams:100}") Integer maxConcurrentStreams,
+            @Value("${app.downstreamHttpClient.pendingAcquireMaxCount:200}") Integer pendingAcquireMaxCount,
+            @Value("${app.downstreamHttpClient.pendingAcquireTimeoutMs:1000}") Integer pendingAcquireTimeoutMs,
+            @Value("${app.downstreamHttpClient.maxIdleTimeMs:20000}") Integer maxIdleTimeMs,
+            @Value("${app.downstreamHttpClient.maxLifeTimeMs:300000}") Integer maxLifeTimeMs,
+            @Value("${app.downstreamHttpClient.evictIntervalMs:10000}") Integer evictIntervalMs) {
+
+        log.info("Creating downstream connection pools with h2c = {}, maxConnections = {}, " +
+                        "maxConcurrentStreams = {}, pendingAcquireMaxCount = {}, pendingAcquireTimeoutMs = {}, " +
+                        "maxIdleTimeMs = {}, maxLifeTimeMs = {}",
+                h2c, maxConnections, maxConcurrentStreams, pendingAcquireMaxCount, pendingAcquireTimeoutMs,
+                maxIdleTimeMs, maxLifeTimeMs);
+
+        ConnectionProvider.Builder builder = ConnectionProvider.builder(POOL_NAME)
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeoutMs))
+                .maxIdleTime(Duration.ofMillis(maxIdleTimeMs))
+                .maxLifeTime(Duration.ofMillis(maxLifeTimeMs))
+                .evictInBackground(Duration.ofMillis(evictIntervalMs))
+                .metrics(true);
+
+        if (h2c) {
+            builder.allocationStrategy(Http2AllocationStrategy.builder()
+                    .minConnections(1)
+                    .maxConnections(maxConnections)
+                    .maxConcurrentStreams(maxConcurrentStreams)
+                    .build());
+        }
+
+        return builder.build();
+    }
+
+    @Bean
+    public HttpClient downstreamHttpClient(
+            ConnectionProvider downstreamConnectionProvider,
+            @Value("${app.downstreamHttpClient.h2c:false}") Boolean h2c) {
+
+        return HttpClient.create(downstreamConnectionProvider)
+                .protocol(h2c ? HttpProtocol.H2C : HttpProtocol.HTTP11);
+    }
+}
@@ -0,0 +1,295 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/*
+    Publishes events w/o tying up a thread per create/delete request.
+
+    Every binding has a bounded queue and one drain loop, on a daemon thread of its own as it blocks on the
+    queue for as long as the service runs. The drain loop takes the first queued event, waits up to lingerMs
+    for more, sends up to batchSize events back to back w/o waiting for the broker, then waits for the acks
+    of the whole batch (up to confirmTimeoutMs), so a batch costs about one round trip instead of one per
+    event. A failure only fails the batch at hand, the loop goes on w/ the next one. An interrupt fails the
+    batch and whatever is queued, and ends the loop, the next event of the binding starts a new one.
+    Callers get a Mono that completes when the event is acknowledged, or fails right away when the queue
+    of the binding is full. Events of a binding are sent in the order they were queued.
+
+    When is an event acknowledged, see acks:
+    - RABBIT_CONFIRMS (publisher confirms and useConfirmHeader on the producer bindings, see
+      product-composite.yml): when RabbitMQ confirms it.
+    - KAFKA_SEND_FUTURES (async producer bindings): when the send future of the record completes, see
+      KafkaSendFutures.
+    - SEND: when StreamBridge.send returns.
+ */
+@Slf4j
+@Component
+public class EventPublisher {
+
+    public enum Acks { SEND, RABBIT_CONFIRMS, KAFKA_SEND_FUTURES }
+
+    private record PendingEvent(Message<?> message, Sinks.One<Void> result) { }
+
+    private final class BindingQueue {
+
+        private final String bindingName;
+        private final BlockingQueue<PendingEvent> events;
+        private final DistributionSummary batchSize;
+        private final Counter rejected;
+        private final Thread drainer;
+        // set once the drain loop is interrupted, no more events are taken from then on
+        private volatile boolean closed;
+
+        private BindingQueue(String bindingName) {
+            this.bindingName = bindingName;
+            this.events = new ArrayBlockingQueue<>(queueCapacity);
+
+            // registered once per binding, the queue may be replaced after an interrupt
+            Gauge.builder("publisher.queue.depth", EventPublisher.this,
+                            publisher -> publisher.queueDepth(bindingName))
+                    .description("Number of events waiting to be sent")
+                    .tag("binding", bindingName)
+                    .register(meterRegistry);
+
+            this.batchSize = DistributionSummary.builder("publisher.batch.size")
+                    .description("Number of events sent per batch")
+                    .tag("binding", bindingName)
+                    .register(meterRegistry);
+
+            this.rejected = Counter.builder("publisher.rejected")
+                    .description("Number of events rejected because the queue was full")
+                    .tag("binding", bindingName)
+                    .register(meterRegistry);
+
+            this.drainer = new Thread(this::drain, "event-publisher-" + bindingName);
+            drainer.setDaemon(true);
+            drainer.start();
+        }
+
+        private void drain() {
+            log.info("Starting event publisher for binding {}", bindingName);
+
+            List<PendingEvent> batch = new ArrayList<>(maxBatchSize);
+            // on shutdown, whatever is queued is still sent
+            while (running || !events.isEmpty()) {
+                try {
+                    PendingEvent first = events.poll(POLL_INTERVAL_MS, MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+
+                    long lingerUntil = System.nanoTime() + linger.toNanos();
+                    while (batch.size() < maxBatchSize) {
+                        PendingEvent next = events.poll(lingerUntil - System.nanoTime(), NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+
+                    batchSize.record(batch.size());
+                    List<CompletableFuture<Void>> acks = new ArrayList<>(batch.size());
+                    for (PendingEvent event : batch) {
+                        acks.add(send(bindingName, event));
+                    }
+                    awaitAcks(acks);
+
+                } catch (InterruptedException ex) {
+                    log.warn("Event publisher for binding {} was interrupted, failing {} events", bindingName,
+                            batch.size() + events.size());
+                    close(batch, ex);
+                    Thread.currentThread().interrupt();
+                    return;
+
+                } catch (RuntimeException ex) {
+                    log.warn("Failed to send a batch of {} events to {}: {}", batch.size(), bindingName,
+                            ex.toString());
+                    batch.forEach(event -> event.result().tryEmitError(ex));
+                } finally {
+                    batch.clear();
+                }
+            }
+
+            log.info("Stopped event publisher for binding {}", bindingName);
+        }
+
+        // events published after closed is set see it once they are queued, see publish()
+        private void close(List<PendingEvent> batch, InterruptedException ex) {
+            closed = true;
+            queues.remove(bindingName, this);
+
+            batch.forEach(event -> event.result().tryEmitError(ex));
+            PendingEvent queued;
+            while ((queued = events.poll()) != null) {
+                queued.result().tryEmitError(ex);
+            }
+        }
+    }
+
+    private static final long POLL_INTERVAL_MS = 100;
+
+    private final StreamBridge streamBridge;
+    private final int queueCapacity;
+    private final int maxBatchSize;
+    private final Duration linger;
+    private final Acks acks;
+    private final KafkaSendFutures kafkaSendFutures;
+    private final Duration confirmTimeout;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, BindingQueue> queues = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+
+    @Autowired
+    public EventPublisher(
+            StreamBridge streamBridge,
+            @Value("${app.eventPublisher.queueCapacity:1000}") Integer queueCapacity,
+            @Value("${app.eventPublisher.batchSize:50}") Integer batchSize,
+            @Value("${app.eventPublisher.lingerMs:5}") Integer lingerMs,
+            @Value("${app.eventPublisher.acks:SEND}") Acks acks,
+            @Value("${app.eventPublisher.confirmTimeoutMs:5000}") Integer confirmTimeoutMs,
+            KafkaSendFutures kafkaSendFutures,
+            MeterRegistry meterRegistry) {
+
+        log.info("Creating event publisher with queueCapacity = {}, batchSize = {}, lingerMs = {}, " +
+                "acks = {}", queueCapacity, batchSize, lingerMs, acks);
+
+        this.streamBridge = streamBridge;
+        this.queueCapacity = queueCapacity;
+        this.maxBatchSize = batchSize;
+        this.linger = Duration.ofMillis(lingerMs);
+        this.acks = acks;
+        this.confirmTimeout = Duration.ofMillis(confirmTimeoutMs);
+        this.kafkaSendFutures = kafkaSendFutures;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public Mono<Void> publish(String bindingName, Message<?> message) {
+        return Mono.defer(() -> {
+            if (!running) {
+                return Mono.error(new RejectedExecutionException("Event publisher is shutting down"));
+            }
+
+            BindingQueue queue = queues.computeIfAbsent(bindingName, BindingQueue::new);
+
+            Sinks.One<Void> result = Sinks.one();
+            PendingEvent event = new PendingEvent(message, result);
+            if (!queue.events.offer(event)) {
+                queue.rejected.increment();
+                log.warn("Event queue for binding {} is full, rejecting event", bindingName);
+                return Mono.error(new RejectedExecutionException(
+                        "Event queue for binding " + bindingName + " is full"));
+            }
+
+            // queued after the drain loop was interrupted, and not failed by it
+            if (queue.closed && queue.events.remove(event)) {
+                return Mono.error(new RejectedExecutionException(
+                        "Event publisher for binding " + bindingName + " was interrupted"));
+            }
+
+            return result.asMono();
+        });
+    }
+
+    // waits for the queued events to be sent, up to confirmTimeoutMs per binding
+    @PreDestroy
+    public void stop() {
+        running = false;
+        try {
+            for (BindingQueue queue : queues.values()) {
+                queue.drainer.join(confirmTimeout.toMillis());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int queueDepth(String bindingName) {
+        BindingQueue queue = queues.get(bindingName);
+        return queue != null ? queue.events.size() : 0;
+    }
+
+    // the ack of the event, its result is emitted once it completes
+    private CompletableFuture<Void> send(String bindingName, PendingEvent event) {
+        CompletableFuture<Void> ack;
+        try {
+            ack = switch (acks) {
+                case RABBIT_CONFIRMS -> sendWithConfirm(bindingName, event.message());
+                case KAFKA_SEND_FUTURES -> kafkaSendFutures.send(streamBridge, bindingName, event.message());
+                case SEND -> streamBridge.send(bindingName, event.message())
+                        ? CompletableFuture.completedFuture(null)
+                        : CompletableFuture.failedFuture(
+                                new IllegalStateException("Failed to send event to " + bindingName));
+            };
+        } catch (RuntimeException ex) {
+            ack = CompletableFuture.failedFuture(ex);
+        }
+
+        return ack
+                .orTimeout(confirmTimeout.toMillis(), MILLISECONDS)
+                .whenComplete((unused, ex) -> {
+                    if (ex != null) {
+                        log.warn("Event sent to {} wasn't acknowledged: {}", bindingName, ex.toString());
+                        event.result().tryEmitError(ex);
+                    } else {
+                        event.result().tryEmitEmpty();
+                    }
+                });
+    }
+
+    // each ack times out on its own, so this waits up to confirmTimeoutMs
+    private static void awaitAcks(List<CompletableFuture<Void>> acks) throws InterruptedException {
+        try {
+            CompletableFuture.allOf(acks.toArray(CompletableFuture[]::new)).get();
+        } catch (ExecutionException ex) {
+            // already emitted to the callers of the failed events
+        }
+    }
+
+    private CompletableFuture<Void> sendWithConfirm(String bindingName, Message<?> message) {
+        CorrelationData correlationData = new CorrelationData();
+        Message<?> confirmedMessage = MessageBuilder.fromMessage(message)
+                .setHeader(AmqpHeaders.PUBLISH_CONFIRM_CORRELATION, correlationData)
+                .build();
+
+        if (!streamBridge.send(bindingName, confirmedMessage)) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Failed to send event to " + bindingName));
+        }
+
+        return correlationData.getFuture().thenAccept(confirm -> {
+            if (!confirm.isAck()) {
+                throw new IllegalStateException(
+                        "Event sent to " + bindingName + " was nacked: " + confirm.getReason());
+            }
+        });
+    }
+}
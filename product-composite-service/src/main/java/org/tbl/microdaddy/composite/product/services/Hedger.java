@@ -0,0 +1,160 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.extern.slf4j.Slf4j;
+import org.tbl.microdaddy.composite.product.services.PeakEwmaLoadBalancer.HedgedCall;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/*
+    Hedged requests.
+
+    The call is made once, and if nothing has come back after the hedge delay, it's made a second time, to
+    another instance than the first call (see PeakEwmaLoadBalancer.HedgedCall). Whichever of the two signals
+    first wins and the other one is cancelled, except for an error: while the other call is still running,
+    it gets to answer instead.
+
+    The hedge delay is the configured percentile of the latency of the first calls that completed (measured
+    client side over a sliding window), but never less than minDelay.
+
+    Hedges are paid for from a token bucket: every call deposits budgetPercent / 100 of a token, every hedge
+    withdraws a whole one, so hedges never add more than budgetPercent extra load.
+ */
+@Slf4j
+public class Hedger {
+
+    private static final long TOKEN = 1000;
+    private static final long MAX_TOKENS = 10 * TOKEN;
+
+    private final String name;
+    private final boolean enabled;
+    private final double percentile;
+    private final Duration minDelay;
+    private final long depositPerCall;
+
+    private final AtomicLong tokens = new AtomicLong();
+
+    private final Timer latency;
+    private final Counter hedged;
+    private final Counter budgetExhausted;
+
+    public Hedger(
+            String name,
+            boolean enabled,
+            double percentile,
+            Duration minDelay,
+            int budgetPercent,
+            MeterRegistry meterRegistry) {
+
+        log.info("Creating hedger {} with enabled = {}, percentile = {}, minDelay = {}, budgetPercent = {}",
+                name, enabled, percentile, minDelay, budgetPercent);
+
+        this.name = name;
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.minDelay = minDelay;
+        this.depositPerCall = TOKEN * budgetPercent / 100;
+
+        this.latency = Timer.builder("hedge.latency")
+                .description("Latency of the first (non hedged) call")
+                .tag("name", name)
+                .publishPercentiles(percentile)
+                .register(meterRegistry);
+
+        this.hedged = hedgeCounter(meterRegistry, "sent");
+        this.budgetExhausted = hedgeCounter(meterRegistry, "budget_exhausted");
+    }
+
+    public <T> Flux<T> execute(Supplier<Flux<T>> call) {
+        if (!enabled) {
+            return call.get();
+        }
+
+        return Flux.defer(() -> {
+            deposit();
+
+            HedgedCall hedgedCall = new HedgedCall();
+            // the first call, and the hedge once it's sent
+            AtomicInteger running = new AtomicInteger(1);
+
+            Flux<T> first = timed(call.get())
+                    .onErrorResume(ex -> lastToFail(running, ex))
+                    .contextWrite(hedgedCall.attempt(false));
+
+            Flux<T> hedge = Mono.delay(getHedgeDelay())
+                    .flatMapMany(tick -> {
+                        if (!tryWithdraw()) {
+                            budgetExhausted.increment();
+                            return Flux.never();
+                        }
+
+                        log.debug("hedger::{}::HEDGING", name);
+                        hedged.increment();
+                        running.incrementAndGet();
+
+                        return call.get()
+                                .onErrorResume(ex -> lastToFail(running, ex))
+                                .contextWrite(hedgedCall.attempt(true));
+                    });
+
+            return Flux.firstWithSignal(first, hedge);
+        });
+    }
+
+    Duration getHedgeDelay() {
+        for (ValueAtPercentile value : latency.takeSnapshot().percentileValues()) {
+            if (value.percentile() == percentile) {
+                Duration delay = Duration.ofMillis((long) value.value(MILLISECONDS));
+                return delay.compareTo(minDelay) > 0 ? delay : minDelay;
+            }
+        }
+        return minDelay;
+    }
+
+    // a failing call must not win over one that might still succeed, only the last one to fail does
+    private static <T> Flux<T> lastToFail(AtomicInteger running, Throwable ex) {
+        return running.decrementAndGet() == 0 ? Flux.error(ex) : Flux.never();
+    }
+
+    // cancelled calls (lost to their hedge) and failed ones would skew the delay, only completed ones count
+    private <T> Flux<T> timed(Flux<T> call) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            return call.doOnComplete(() -> latency.record(System.nanoTime() - start, NANOSECONDS));
+        });
+    }
+
+    private void deposit() {
+        tokens.updateAndGet(current -> Math.min(MAX_TOKENS, current + depositPerCall));
+    }
+
+    private boolean tryWithdraw() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current < TOKEN) {
+                return false;
+            }
+        } while (!tokens.compareAndSet(current, current - TOKEN));
+        return true;
+    }
+
+    private Counter hedgeCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("hedge.requests")
+                .description("Number of hedges sent, or skipped because the budget was exhausted")
+                .tag("name", name)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
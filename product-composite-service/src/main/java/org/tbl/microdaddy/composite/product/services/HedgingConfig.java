@@ -0,0 +1,39 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/*
+    One Hedger per downstream that supports hedging, see app.hedge in product-composite.yml.
+ */
+@Configuration
+public class HedgingConfig {
+
+    @Bean
+    public Hedger recommendationHedger(
+            @Value("${app.hedge.recommendation.enabled:false}") Boolean enabled,
+            @Value("${app.hedge.recommendation.percentile:0.95}") Double percentile,
+            @Value("${app.hedge.recommendation.minDelayMs:20}") Integer minDelayMs,
+            @Value("${app.hedge.recommendation.budgetPercent:5}") Integer budgetPercent,
+            MeterRegistry meterRegistry) {
+
+        return new Hedger("recommendation", enabled, percentile, Duration.ofMillis(minDelayMs), budgetPercent,
+                meterRegistry);
+    }
+
+    @Bean
+    public Hedger reviewHedger(
+            @Value("${app.hedge.review.enabled:false}") Boolean enabled,
+            @Value("${app.hedge.review.percentile:0.95}") Double percentile,
+            @Value("${app.hedge.review.minDelayMs:20}") Integer minDelayMs,
+            @Value("${app.hedge.review.budgetPercent:5}") Integer budgetPercent,
+            MeterRegistry meterRegistry) {
+
+        return new Hedger("review", enabled, percentile, Duration.ofMillis(minDelayMs), budgetPercent,
+                meterRegistry);
+    }
+}
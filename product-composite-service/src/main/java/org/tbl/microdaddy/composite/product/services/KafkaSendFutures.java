@@ -0,0 +1,77 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import org.springframework.cloud.stream.config.ProducerMessageHandlerCustomizer;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.kafka.outbound.KafkaProducerMessageHandler;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.springframework.integration.kafka.support.KafkaIntegrationHeaders.FUTURE_TOKEN;
+
+/*
+    Kafka has no publisher confirms, and a sync producer binding waits for the broker on every record. So the
+    producer bindings stay async, and the Kafka binder hands the send future of every record w/ a future
+    token header back on a futures channel, while StreamBridge.send is still on the stack (see
+    KafkaProducerMessageHandler). The EventPublisher sends a whole batch, then waits for the futures of all
+    of its records, so the Kafka producer gets to batch them.
+
+    Only picked up by the Kafka binder, the RabbitMQ one asks for a customizer of its own handler type.
+ */
+@Component
+public class KafkaSendFutures implements ProducerMessageHandlerCustomizer<KafkaProducerMessageHandler<?, ?>> {
+
+    private final DirectChannel futuresChannel = new DirectChannel();
+    private final Map<String, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+
+    public KafkaSendFutures() {
+        futuresChannel.subscribe(this::onSendFuture);
+    }
+
+    @Override
+    public void configure(KafkaProducerMessageHandler<?, ?> handler, String destinationName) {
+        handler.setFuturesChannel(futuresChannel);
+    }
+
+    // completes when the broker has acknowledged the record, or fails w/ the reason it didn't
+    public CompletableFuture<Void> send(StreamBridge streamBridge, String bindingName, Message<?> message) {
+        String token = UUID.randomUUID().toString();
+        CompletableFuture<Void> ack = new CompletableFuture<>();
+        pending.put(token, ack);
+
+        try {
+            if (!streamBridge.send(bindingName, MessageBuilder.fromMessage(message)
+                    .setHeader(FUTURE_TOKEN, token)
+                    .build())) {
+                ack.completeExceptionally(new IllegalStateException("Failed to send event to " + bindingName));
+            }
+        } finally {
+            // still pending if the binder didn't hand over a send future, e.g. not a Kafka binding
+            if (pending.remove(token) != null) {
+                ack.completeExceptionally(new IllegalStateException(
+                        "No send future for event sent to " + bindingName));
+            }
+        }
+
+        return ack;
+    }
+
+    private void onSendFuture(Message<?> message) {
+        CompletableFuture<Void> ack = pending.remove(message.getHeaders().get(FUTURE_TOKEN, String.class));
+        if (ack != null) {
+            ((CompletableFuture<?>) message.getPayload()).whenComplete((sendResult, ex) -> {
+                if (ex != null) {
+                    ack.completeExceptionally(ex);
+                } else {
+                    ack.complete(null);
+                }
+            });
+        }
+    }
+}
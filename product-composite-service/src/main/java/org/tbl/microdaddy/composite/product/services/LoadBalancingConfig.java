@@ -0,0 +1,13 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import org.springframework.cloud.loadbalancer.annotation.LoadBalancerClients;
+import org.springframework.context.annotation.Configuration;
+
+/*
+    Every service called through the @LoadBalanced WebClient (product, recommendation, review) gets its own
+    PeakEwmaLoadBalancer, see PeakEwmaLoadBalancerConfiguration and app.loadBalancer in product-composite.yml.
+ */
+@Configuration
+@LoadBalancerClients(defaultConfiguration = PeakEwmaLoadBalancerConfiguration.class)
+public class LoadBalancingConfig {
+}
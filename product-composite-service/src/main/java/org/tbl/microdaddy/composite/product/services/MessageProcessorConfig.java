@@ -0,0 +1,58 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.tbl.microdaddy.api.event.Event;
+import org.tbl.microdaddy.api.exceptions.EventProcessingException;
+
+import java.util.function.Consumer;
+
+/*
+    Consumes the products, recommendations and reviews topics (see messageProcessor-in-0 in
+    product-composite.yml). The binding has no consumer group, so every composite replica gets its own
+    copy of each event and can keep its ProductAggregate cache coherent.
+
+    Only the key and the type of the event are used, so the payload is left as a generic Object.
+ */
+@Configuration
+@Slf4j
+public class MessageProcessorConfig {
+
+    private final ProductAggregateCache productAggregateCache;
+    private final ProductFallbackCache productFallbackCache;
+
+    @Autowired
+    public MessageProcessorConfig(
+            ProductAggregateCache productAggregateCache,
+            ProductFallbackCache productFallbackCache) {
+        this.productAggregateCache = productAggregateCache;
+        this.productFallbackCache = productFallbackCache;
+    }
+
+    @Bean
+    public Consumer<Event<Integer, Object>> messageProcessor() {
+        return event -> {
+            log.debug("Process message created at {}...", event.getEventCreatedAt());
+
+            switch (event.getEventType()) {
+                case CREATE -> productAggregateCache.evictOnEvent(event.getKey());
+
+                case DELETE -> {
+                    productAggregateCache.evictOnEvent(event.getKey());
+                    productFallbackCache.evict(event.getKey());
+                }
+
+                default -> {
+                    String errorMessage = "Incorrect event type: " + event.getEventType() +
+                            ", expected a CREATE or DELETE event";
+                    log.warn(errorMessage);
+                    throw new EventProcessingException(errorMessage);
+                }
+            }
+
+            log.debug("Message processing complete");
+        };
+    }
+}
@@ -0,0 +1,348 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import org.tbl.microdaddy.api.composite.product.ProductAggregate;
+import org.tbl.microdaddy.composite.product.persistence.OutboxEntity;
+import org.tbl.microdaddy.composite.product.persistence.OutboxRepository;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+import static org.tbl.microdaddy.api.event.Event.Type.CREATE;
+
+/*
+    Publishes the records of the ProductCompositeOutbox in the order of their sequence.
+
+    Every pollIntervalMs the relay reads up to batchSize unpublished records and publishes their events through
+    the EventPublisher (so they are batched per binding). The records of a batch are published in windows of at
+    most maxEventsInFlight events (the queue capacity of the EventPublisher), a create being 1 event plus one
+    per recommendation and review, so the relay never overflows the publisher queues. Every window is
+    checkpointed by marking its records published in one update: all of them, or the records up to the first
+    one that failed, after which the relay waits for the next poll. A full batch is followed by the next one
+    right away.
+
+    A sequence is taken before its record is written, so a record can become visible after one w/ a higher
+    sequence. The lease document keeps the highest sequence checkpointed, and a batch stops before a gap after
+    it, until the missing record shows up, or gapTimeoutMs has passed since the record after the gap was
+    written (its write failed, the sequence is never used).
+
+    A record whose aggregate can't be read is marked published w/ the failure (and w/o publishedAt, so the TTL
+    index keeps it), counted by outbox.failed, and the relay moves on.
+
+    Only one composite instance relays at a time: the relay holds a lease in the outbox_lease collection,
+    renewed before every batch and taken over by another instance once it has expired.
+
+    Delivery is at least once. A crash between publishing a window and checkpointing it, or a failed record,
+    publishes the events of the (rest of the) window again, which the core services already have to cope with
+    (messages are redelivered by the broker as well).
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "app.outbox.enabled", havingValue = "true")
+public class OutboxRelay {
+
+    private static final String LEASE_COLLECTION = "outbox_lease";
+    private static final String LEASE_ID = "relay";
+    private static final String LEASE_SEQUENCE = "sequence";
+
+    // a record and the number of events it is published as, none if its aggregate can't be read
+    private record Pending(OutboxEntity record, ProductAggregate aggregate, int events) {}
+
+    private record WindowResult(int published, boolean complete) {}
+
+    private final int batchSize;
+    private final int maxEventsInFlight;
+    private final Duration pollInterval;
+    private final Duration leaseDuration;
+    private final Duration gapTimeout;
+    private final OutboxRepository repository;
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final ObjectMapper mapper;
+    private final ProductCompositeEvents compositeEvents;
+
+    private final String instanceId = UUID.randomUUID().toString();
+    private final Counter relayed;
+    private final Counter failed;
+    private final Timer lag;
+
+    private Disposable relaying;
+
+    @Autowired
+    public OutboxRelay(
+            @Value("${app.outbox.batchSize:100}") Integer batchSize,
+            @Value("${app.outbox.pollIntervalMs:200}") Integer pollIntervalMs,
+            @Value("${app.outbox.leaseSeconds:30}") Integer leaseSeconds,
+            @Value("${app.outbox.gapTimeoutMs:5000}") Integer gapTimeoutMs,
+            @Value("${app.eventPublisher.queueCapacity:1000}") Integer maxEventsInFlight,
+            OutboxRepository repository,
+            ReactiveMongoTemplate mongoTemplate,
+            ObjectMapper mapper,
+            ProductCompositeEvents compositeEvents,
+            MeterRegistry meterRegistry) {
+
+        log.info("Creating outbox relay with batchSize = {}, pollIntervalMs = {}, gapTimeoutMs = {}, " +
+                        "maxEventsInFlight = {}", batchSize, pollIntervalMs, gapTimeoutMs, maxEventsInFlight);
+
+        this.batchSize = batchSize;
+        this.maxEventsInFlight = maxEventsInFlight;
+        this.pollInterval = Duration.ofMillis(pollIntervalMs);
+        this.leaseDuration = Duration.ofSeconds(leaseSeconds);
+        this.gapTimeout = Duration.ofMillis(gapTimeoutMs);
+        this.repository = repository;
+        this.mongoTemplate = mongoTemplate;
+        this.mapper = mapper;
+        this.compositeEvents = compositeEvents;
+
+        this.relayed = Counter.builder("outbox.relayed")
+                .description("Number of outbox records published")
+                .register(meterRegistry);
+
+        this.failed = Counter.builder("outbox.failed")
+                .description("Number of outbox records marked failed, their aggregate couldn't be read")
+                .register(meterRegistry);
+
+        this.lag = Timer.builder("outbox.lag")
+                .description("Time from an outbox record being written until it is published")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        relaying = Flux.interval(pollInterval)
+                .onBackpressureDrop()
+                .concatMap(tick -> relay()
+                        .onErrorResume(ex -> {
+                            log.warn("Outbox relay failed, retrying in {}: {}", pollInterval, ex.toString());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (relaying != null) {
+            relaying.dispose();
+        }
+    }
+
+    /*
+        Relays until the outbox is empty, as long as this instance holds the lease. Emits the number of records
+        published.
+     */
+    public Mono<Integer> relay() {
+        return relayBatchIfLeaseHeld()
+                .expand(published -> published == batchSize ? relayBatchIfLeaseHeld() : Mono.empty())
+                .reduce(0, Integer::sum);
+    }
+
+    private Mono<Integer> relayBatchIfLeaseHeld() {
+        return acquireLease()
+                .flatMap(this::relayBatch)
+                .defaultIfEmpty(0);
+    }
+
+    private Mono<Integer> relayBatch(long relayedSequence) {
+        return repository.findByPublishedFalseOrderBySequenceAsc(PageRequest.of(0, batchSize))
+                .takeWhile(new InSequence(relayedSequence, Instant.now()))
+                .map(this::pending)
+                .bufferUntil(new EventWindow(), true)
+                .concatMap(window -> publish(window)
+                        .flatMap(published -> checkpoint(published).thenReturn(
+                                new WindowResult(published.size(), published.size() == window.size()))))
+                // a failed record stops the batch, the rest is published on the next poll
+                .takeUntil(result -> !result.complete())
+                .map(WindowResult::published)
+                .reduce(0, Integer::sum);
+    }
+
+    /*
+        Publishes the records of a window all at once, their events queued in outbox order. Emits the records
+        up to the first one that failed.
+     */
+    private Mono<List<OutboxEntity>> publish(List<Pending> window) {
+        return Flux.fromIterable(window)
+                .flatMapSequential(pending -> publish(pending)
+                        .thenReturn(true)
+                        .onErrorResume(ex -> {
+                            log.warn("Failed to publish {}: {}", pending.record(), ex.toString());
+                            return Mono.just(false);
+                        }), window.size())
+                .collectList()
+                .map(published -> {
+                    int failed = published.indexOf(false);
+                    return window.subList(0, failed < 0 ? window.size() : failed).stream()
+                            .map(Pending::record)
+                            .toList();
+                });
+    }
+
+    private Mono<Void> publish(Pending pending) {
+        OutboxEntity record = pending.record();
+        if (record.getFailure() != null) {
+            return markFailed(record);
+        }
+
+        Mono<Void> events = record.getEventType() == CREATE
+                ? compositeEvents.create(pending.aggregate())
+                : compositeEvents.delete(record.getProductId());
+
+        return events.doOnSuccess(unused -> {
+            relayed.increment();
+            lag.record(Duration.between(record.getCreatedAt(), Instant.now()));
+        });
+    }
+
+    private Pending pending(OutboxEntity record) {
+        if (record.getEventType() != CREATE) {
+            // the product, its recommendations and its reviews
+            return new Pending(record, null, 3);
+        }
+
+        try {
+            ProductAggregate aggregate = mapper.readValue(record.getAggregate(), ProductAggregate.class);
+            int events = 1
+                    + (aggregate.getRecommendations() == null ? 0 : aggregate.getRecommendations().size())
+                    + (aggregate.getReviews() == null ? 0 : aggregate.getReviews().size());
+            return new Pending(record, aggregate, events);
+        } catch (JsonProcessingException ex) {
+            record.setFailure(ex.getOriginalMessage());
+            return new Pending(record, null, 0);
+        }
+    }
+
+    private Mono<Void> markFailed(OutboxEntity record) {
+        log.error("Invalid outbox record {}, marking it failed: {}", record.getId(), record.getFailure());
+
+        return mongoTemplate.updateFirst(
+                        query(where("_id").is(record.getId())),
+                        new Update().set("published", true).set("failure", record.getFailure()),
+                        OutboxEntity.class)
+                .doOnSuccess(result -> failed.increment())
+                .then();
+    }
+
+    /*
+        Marks the records published, and moves the sequence of the lease document past them. Failed records
+        are already marked.
+     */
+    private Mono<Void> checkpoint(List<OutboxEntity> records) {
+        if (records.isEmpty()) {
+            return Mono.empty();
+        }
+
+        List<String> ids = records.stream()
+                .filter(record -> record.getFailure() == null)
+                .map(OutboxEntity::getId)
+                .toList();
+        log.debug("Checkpointing {} outbox records", ids.size());
+
+        Mono<Void> published = ids.isEmpty() ? Mono.empty() : mongoTemplate.updateMulti(
+                        query(where("_id").in(ids)),
+                        new Update().set("published", true).set("publishedAt", Instant.now()),
+                        OutboxEntity.class)
+                .then();
+
+        return published.then(mongoTemplate.updateFirst(
+                        query(where("_id").is(LEASE_ID)),
+                        new Update().max(LEASE_SEQUENCE, records.get(records.size() - 1).getSequence()),
+                        LEASE_COLLECTION)
+                .then());
+    }
+
+    /*
+        Passes records up to the first gap in the sequence after relayedSequence, unless the record after the gap
+        was written more than gapTimeout ago. Records w/ a lower sequence (left unpublished by a failed
+        checkpoint) pass as well.
+     */
+    private final class InSequence implements Predicate<OutboxEntity> {
+
+        private final Instant gapGivenUpBefore;
+        private long next;
+
+        InSequence(long relayedSequence, Instant now) {
+            this.gapGivenUpBefore = now.minus(gapTimeout);
+            this.next = relayedSequence + 1;
+        }
+
+        @Override
+        public boolean test(OutboxEntity record) {
+            if (record.getSequence() < next) {
+                return true;
+            }
+            if (record.getSequence() > next && !record.getCreatedAt().isBefore(gapGivenUpBefore)) {
+                log.debug("Waiting for outbox record {} before {}", next, record.getSequence());
+                return false;
+            }
+            next = record.getSequence() + 1;
+            return true;
+        }
+    }
+
+    /*
+        Closes a window before the record that would take it over maxEventsInFlight events. A record w/ more
+        events than that gets a window of its own.
+     */
+    private final class EventWindow implements Predicate<Pending> {
+
+        private int events;
+
+        @Override
+        public boolean test(Pending pending) {
+            if (events > 0 && events + pending.events() > maxEventsInFlight) {
+                events = pending.events();
+                return true;
+            }
+            events += pending.events();
+            return false;
+        }
+    }
+
+    /*
+        Upsert of the lease document, matching only if this instance holds the lease or it has expired.
+        If another instance holds it, the upsert tries to insert a second document w/ the same _id. Emits the
+        highest sequence checkpointed, nothing if the lease is held by another instance.
+     */
+    private Mono<Long> acquireLease() {
+        Instant now = Instant.now();
+
+        Criteria leaseAvailable = where("_id").is(LEASE_ID).orOperator(
+                where("owner").is(instanceId),
+                where("leaseUntil").lt(now));
+
+        return mongoTemplate.findAndModify(
+                        query(leaseAvailable),
+                        new Update().set("owner", instanceId).set("leaseUntil", now.plus(leaseDuration)),
+                        FindAndModifyOptions.options().upsert(true).returnNew(true),
+                        Document.class,
+                        LEASE_COLLECTION)
+                .map(lease -> lease.get(LEASE_SEQUENCE, 0L))
+                .onErrorResume(DuplicateKeyException.class, ex -> Mono.empty());
+    }
+}
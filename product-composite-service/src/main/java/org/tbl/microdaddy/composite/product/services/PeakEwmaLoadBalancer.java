@@ -0,0 +1,323 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.DefaultResponse;
+import org.springframework.cloud.client.loadbalancer.EmptyResponse;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.RequestData;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    Peak EWMA load balancing w/ the power of two choices.
+
+    Every instance has a cost: a moving average of its latency, times its outstanding calls + 1. Each call
+    picks two instances at random and goes to the cheaper one. A slow instance (a GC pause, a noisy neighbour)
+    builds up outstanding calls and a high average within a few calls and stops getting traffic, w/o all the
+    callers herding onto the single best instance.
+
+    The average is "peak" sensitive: a latency above it replaces it right away, one below it is blended in
+    w/ a weight that decays over decayTime. It also decays towards 0 while an instance gets no calls, so an
+    instance that was slow is tried again after a while. An instance w/o samples costs 0, unless it has
+    outstanding calls, then it waits for its first answer. A failed call counts as FAILED_CALL_LATENCY.
+
+    Latencies are measured by trackCalls(), which has to be the outermost filter of the @LoadBalanced
+    WebClient. The filter of the load balancer itself doesn't report cancelled calls (the losers of hedged
+    requests), so its lifecycle callbacks would leak outstanding calls.
+
+    The hedge of a call (see Hedger) never goes to the instance picked for the first call, unless there is
+    no other one. The two share a HedgedCall, handed to trackCalls() in the Reactor context of the calls.
+ */
+@Slf4j
+public class PeakEwmaLoadBalancer implements ReactorServiceInstanceLoadBalancer {
+
+    private static final String CALL_ATTRIBUTE = PeakEwmaLoadBalancer.class.getName() + ".call";
+    private static final String HEDGE_ATTRIBUTE = PeakEwmaLoadBalancer.class.getName() + ".hedge";
+    private static final long FAILED_CALL_LATENCY = Duration.ofSeconds(1).toNanos();
+
+    // way above any latency, so an unmeasured instance w/ outstanding calls is only picked if both are
+    private static final double UNMEASURED_PENALTY = 1e15;
+
+    private final String serviceId;
+    private final ServiceInstanceListSupplier instanceListSupplier;
+    private final double decayNanos;
+    private final MeterRegistry meterRegistry;
+
+    // by host:port
+    private final Map<String, InstanceStats> stats = new ConcurrentHashMap<>();
+
+    public PeakEwmaLoadBalancer(
+            String serviceId,
+            ServiceInstanceListSupplier instanceListSupplier,
+            Duration decayTime,
+            MeterRegistry meterRegistry) {
+
+        log.info("Creating peak EWMA load balancer for {} with decayTime = {}", serviceId, decayTime);
+
+        this.serviceId = serviceId;
+        this.instanceListSupplier = instanceListSupplier;
+        this.decayNanos = decayTime.toNanos();
+        this.meterRegistry = meterRegistry;
+    }
+
+    /*
+        Tracks the outstanding calls and latency of the instance the load balancer picks for each call.
+     */
+    public static ExchangeFilterFunction trackCalls() {
+        return (request, next) -> Mono.deferContextual(context -> {
+            Call call = new Call();
+            ClientRequest.Builder trackedRequest = ClientRequest.from(request).attribute(CALL_ATTRIBUTE, call);
+            context.<HedgeAttempt>getOrEmpty(HEDGE_ATTRIBUTE)
+                    .ifPresent(attempt -> trackedRequest.attribute(HEDGE_ATTRIBUTE, attempt));
+
+            return next.exchange(trackedRequest.build())
+                    .doOnSuccess(response -> call.end(false))
+                    .doOnError(ex -> call.end(true))
+                    .doOnCancel(call::cancel);
+        });
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Mono<Response<ServiceInstance>> choose(Request request) {
+        return instanceListSupplier.get(request)
+                .next()
+                .map(instances -> choose(instances, request));
+    }
+
+    private Response<ServiceInstance> choose(List<ServiceInstance> instances, Request<?> request) {
+
+        if (instances.isEmpty()) {
+            log.warn("No instances available for {}", serviceId);
+            return new EmptyResponse();
+        }
+
+        // instances that are gone leave their stats behind
+        if (stats.size() > instances.size()) {
+            removeStats(instances);
+        }
+
+        HedgeAttempt hedgeAttempt = attribute(request, HEDGE_ATTRIBUTE, HedgeAttempt.class);
+        if (hedgeAttempt != null && hedgeAttempt.hedge()) {
+            instances = hedgeAttempt.hedgedCall().withoutFirstInstance(instances);
+        }
+
+        ServiceInstance chosen = instances.get(0);
+        InstanceStats chosenStats = stats(chosen);
+
+        if (instances.size() > 1) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(instances.size());
+            int second = random.nextInt(instances.size() - 1);
+            if (second >= first) {
+                second++;
+            }
+
+            long now = System.nanoTime();
+            InstanceStats firstStats = stats(instances.get(first));
+            InstanceStats secondStats = stats(instances.get(second));
+            if (firstStats.cost(now) <= secondStats.cost(now)) {
+                chosen = instances.get(first);
+                chosenStats = firstStats;
+            } else {
+                chosen = instances.get(second);
+                chosenStats = secondStats;
+            }
+        }
+
+        Call call = attribute(request, CALL_ATTRIBUTE, Call.class);
+        if (call != null) {
+            call.start(chosenStats);
+        }
+
+        if (hedgeAttempt != null && !hedgeAttempt.hedge()) {
+            hedgeAttempt.hedgedCall().firstInstance.set(key(chosen));
+        }
+
+        return new DefaultResponse(chosen);
+    }
+
+    private static <T> T attribute(Request<?> request, String name, Class<T> type) {
+        if (request.getContext() instanceof RequestDataContext context) {
+            RequestData requestData = context.getClientRequest();
+            if (requestData != null && requestData.getAttributes() != null
+                    && type.isInstance(requestData.getAttributes().get(name))) {
+                return type.cast(requestData.getAttributes().get(name));
+            }
+        }
+        return null;
+    }
+
+    private static String key(ServiceInstance instance) {
+        return instance.getHost() + ":" + instance.getPort();
+    }
+
+    private InstanceStats stats(ServiceInstance instance) {
+        return stats.computeIfAbsent(key(instance), this::newStats);
+    }
+
+    private InstanceStats newStats(String instance) {
+        InstanceStats instanceStats = new InstanceStats(decayNanos);
+
+        instanceStats.meters = List.of(
+                Gauge.builder("loadbalancer.instance.cost", instanceStats,
+                                stats -> stats.cost(System.nanoTime()))
+                        .description("Latency average times (outstanding calls + 1), lower is picked")
+                        .tag("service", serviceId)
+                        .tag("instance", instance)
+                        .register(meterRegistry),
+                Gauge.builder("loadbalancer.instance.latency", instanceStats,
+                                stats -> stats.latencyNanos(System.nanoTime()) / 1_000_000)
+                        .description("Peak EWMA of the latency")
+                        .baseUnit("milliseconds")
+                        .tag("service", serviceId)
+                        .tag("instance", instance)
+                        .register(meterRegistry),
+                Gauge.builder("loadbalancer.instance.outstanding", instanceStats, InstanceStats::outstanding)
+                        .description("Calls sent and not answered yet")
+                        .tag("service", serviceId)
+                        .tag("instance", instance)
+                        .register(meterRegistry));
+
+        return instanceStats;
+    }
+
+    private void removeStats(List<ServiceInstance> instances) {
+
+        Set<String> current = new HashSet<>();
+        instances.forEach(instance -> current.add(key(instance)));
+
+        stats.entrySet().removeIf(entry -> {
+            if (current.contains(entry.getKey())) {
+                return false;
+            }
+            log.debug("Removing the stats of {} instance {}", serviceId, entry.getKey());
+            entry.getValue().meters.forEach(meterRegistry::remove);
+            return true;
+        });
+    }
+
+    /*
+        A call and its hedge. Each runs w/ attempt() in its Reactor context, the instance picked for the first
+        call (the last one, if it was retried) is left out when picking the one for the hedge.
+     */
+    public static final class HedgedCall {
+
+        private final AtomicReference<String> firstInstance = new AtomicReference<>();
+
+        public Context attempt(boolean hedge) {
+            return Context.of(HEDGE_ATTRIBUTE, new HedgeAttempt(this, hedge));
+        }
+
+        private List<ServiceInstance> withoutFirstInstance(List<ServiceInstance> instances) {
+            String first = firstInstance.get();
+            if (first == null) {
+                return instances;
+            }
+
+            List<ServiceInstance> others = instances.stream()
+                    .filter(instance -> !first.equals(key(instance)))
+                    .toList();
+            return others.isEmpty() ? instances : others;
+        }
+    }
+
+    private record HedgeAttempt(HedgedCall hedgedCall, boolean hedge) { }
+
+    static final class InstanceStats {
+
+        private final double decayNanos;
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        // guarded by this
+        private double ewmaNanos;
+        private long stampNanos = System.nanoTime();
+
+        private List<Meter> meters = List.of();
+
+        InstanceStats(double decayNanos) {
+            this.decayNanos = decayNanos;
+        }
+
+        synchronized double latencyNanos(long now) {
+            return ewmaNanos * Math.exp(-Math.max(0, now - stampNanos) / decayNanos);
+        }
+
+        double cost(long now) {
+            double latency = latencyNanos(now);
+            int calls = outstanding.get();
+            if (latency == 0 && calls > 0) {
+                return UNMEASURED_PENALTY + calls;
+            }
+            return latency * (calls + 1);
+        }
+
+        int outstanding() {
+            return outstanding.get();
+        }
+
+        synchronized void record(long now, long latencyNanos) {
+            double weight = Math.exp(-Math.max(0, now - stampNanos) / decayNanos);
+            ewmaNanos = latencyNanos > ewmaNanos ? latencyNanos : ewmaNanos * weight + latencyNanos * (1 - weight);
+            stampNanos = now;
+        }
+    }
+
+    // one call through trackCalls(), the instance is set by choose
+    private static final class Call {
+
+        private InstanceStats stats;
+        private long startNanos;
+        private boolean ended;
+
+        synchronized void start(InstanceStats instanceStats) {
+            // chosen again, for a retry
+            if (stats != null && !ended) {
+                stats.outstanding.decrementAndGet();
+            }
+            stats = instanceStats;
+            startNanos = System.nanoTime();
+            ended = false;
+            stats.outstanding.incrementAndGet();
+        }
+
+        synchronized void end(boolean failed) {
+            if (stats == null || ended) {
+                return;
+            }
+            ended = true;
+            long now = System.nanoTime();
+            stats.record(now, failed ? Math.max(FAILED_CALL_LATENCY, now - startNanos) : now - startNanos);
+            stats.outstanding.decrementAndGet();
+        }
+
+        // no latency sample, the call was only as slow as the caller's patience
+        synchronized void cancel() {
+            if (stats == null || ended) {
+                return;
+            }
+            ended = true;
+            stats.outstanding.decrementAndGet();
+        }
+    }
+}
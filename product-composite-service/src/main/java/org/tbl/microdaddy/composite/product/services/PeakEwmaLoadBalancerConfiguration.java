@@ -0,0 +1,46 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ReactorLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+
+import java.time.Duration;
+
+/*
+    Not a @Configuration on purpose: it is only registered in the load balancer context of each service,
+    where LoadBalancerClientFactory.PROPERTY_NAME is the service id. Picked up by the component scan it
+    would apply to the application context instead.
+ */
+public class PeakEwmaLoadBalancerConfiguration {
+
+    @Bean
+    public ServiceInstanceListSupplier serviceInstanceListSupplier(
+            Environment environment,
+            @Value("${app.loadBalancer.port:80}") Integer port,
+            @Value("${app.loadBalancer.refreshIntervalMs:5000}") Integer refreshIntervalMs) {
+
+        return new DnsServiceInstanceListSupplier(
+                environment.getProperty(LoadBalancerClientFactory.PROPERTY_NAME),
+                port,
+                Duration.ofMillis(refreshIntervalMs));
+    }
+
+    @Bean
+    public ReactorLoadBalancer<ServiceInstance> reactorServiceInstanceLoadBalancer(
+            Environment environment,
+            ServiceInstanceListSupplier serviceInstanceListSupplier,
+            @Value("${app.loadBalancer.decayTimeMs:10000}") Integer decayTimeMs,
+            MeterRegistry meterRegistry) {
+
+        return new PeakEwmaLoadBalancer(
+                environment.getProperty(LoadBalancerClientFactory.PROPERTY_NAME),
+                serviceInstanceListSupplier,
+                Duration.ofMillis(decayTimeMs),
+                meterRegistry);
+    }
+}
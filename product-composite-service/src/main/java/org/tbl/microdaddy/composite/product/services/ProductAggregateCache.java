@@ -0,0 +1,135 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.tbl.microdaddy.api.composite.product.ProductAggregate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    Bounded (size + TTL) cache of assembled ProductAggregates, keyed by productId and Shape.
+
+    Entries are invalidated whenever this instance publishes an event for a productId, and whenever
+    an event for that productId shows up on the products/recommendations/reviews topics (so that the
+    other composite replicas drop their copies as well). The TTL is the upper bound on staleness if an
+    invalidation is ever missed.
+ */
+@Slf4j
+@Component
+public class ProductAggregateCache {
+
+    private static final String CACHE_NAME = "productAggregate";
+
+    /*
+        getProduct's aggregates hold the first page of recommendations and reviews, w/ the tokens of the next
+        pages. getProducts' hold all of them, w/o tokens. Either is only served to the call it was built for.
+     */
+    public enum Shape { FIRST_PAGE, COMPLETE }
+
+    private record Key(int productId, Shape shape) {}
+
+    private final Cache<Key, ProductAggregate> cache;
+    private final AtomicLong invalidations = new AtomicLong();
+    private final Counter publishInvalidations;
+    private final Counter eventInvalidations;
+
+    @Autowired
+    public ProductAggregateCache(
+            @Value("${app.productCache.maxSize:10000}") Integer maxSize,
+            @Value("${app.productCache.ttlSeconds:60}") Integer ttlSeconds,
+            MeterRegistry meterRegistry) {
+
+        log.info("Creating productAggregate cache with maxSize = {}, ttlSeconds = {}", maxSize, ttlSeconds);
+
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+
+        // hits, misses, puts, evictions and size are reported as cache.* meters tagged w/ cache=productAggregate
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+
+        this.publishInvalidations = invalidationCounter(meterRegistry, "publish");
+        this.eventInvalidations = invalidationCounter(meterRegistry, "event");
+    }
+
+    public Optional<ProductAggregate> get(int productId, Shape shape) {
+        return Optional.ofNullable(cache.getIfPresent(new Key(productId, shape)));
+    }
+
+    // to be passed to put(), read before the aggregate is fetched
+    public long generation() {
+        return invalidations.get();
+    }
+
+    /*
+        Stale aggregates (served from the product fallback cache) are never cached, so the next request
+        after product-service recovers gets fresh data.
+
+        Neither is an aggregate fetched before an invalidation that ran while it was in flight: it may be
+        missing the change the invalidation was about. The check comes after the put, so an invalidation
+        running at the same time can't be missed: either it removes the entry, or the check sees it.
+     */
+    public void put(ProductAggregate aggregate, Shape shape, long generation) {
+        if (aggregate.isStale()) {
+            log.debug("productAggregateCache::productId::{}::NOT_CACHED (stale)", aggregate.getProductId());
+            return;
+        }
+
+        Key key = new Key(aggregate.getProductId(), shape);
+        cache.put(key, aggregate);
+
+        if (invalidations.get() != generation) {
+            log.debug("productAggregateCache::productId::{}::NOT_CACHED (invalidated while in flight)",
+                    aggregate.getProductId());
+            cache.asMap().remove(key, aggregate);
+        }
+    }
+
+    /*
+        Called when this instance publishes a CREATE/DELETE for the productId.
+     */
+    public void evictOnPublish(int productId) {
+        log.debug("productAggregateCache::productId::{}::EVICTED (publish)", productId);
+        invalidate(productId);
+        publishInvalidations.increment();
+    }
+
+    /*
+        Called when a CREATE/DELETE for the productId is consumed from one of the topics.
+     */
+    public void evictOnEvent(int productId) {
+        log.debug("productAggregateCache::productId::{}::EVICTED (event)", productId);
+        invalidate(productId);
+        eventInvalidations.increment();
+    }
+
+    public void evictAll() {
+        invalidations.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    private void invalidate(int productId) {
+        invalidations.incrementAndGet();
+        cache.invalidateAll(List.of(new Key(productId, Shape.FIRST_PAGE), new Key(productId, Shape.COMPLETE)));
+    }
+
+    private Counter invalidationCounter(MeterRegistry meterRegistry, String source) {
+        return Counter.builder("cache.invalidations")
+                .description("Number of explicit invalidations, by the source that triggered them")
+                .tag("cache", CACHE_NAME)
+                .tag("source", source)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,70 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.tbl.microdaddy.api.composite.product.ProductAggregate;
+import org.tbl.microdaddy.api.core.product.Product;
+import org.tbl.microdaddy.api.core.recommendation.Recommendation;
+import org.tbl.microdaddy.api.core.review.Review;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Decomposes a composite write into the events for the product, recommendation and review topics.
+    Used directly by ProductCompositeServiceImpl, or by the OutboxRelay when the outbox is enabled.
+ */
+@Component
+public class ProductCompositeEvents {
+
+    private final ProductCompositeIntegration integration;
+
+    @Autowired
+    public ProductCompositeEvents(ProductCompositeIntegration integration) {
+        this.integration = integration;
+    }
+
+    public Mono<Void> create(ProductAggregate body) {
+
+        List<Mono<?>> monos = new ArrayList<>();
+
+        Product product = new Product(body.getProductId(), body.getName(), body.getWeight(), null);
+        monos.add(integration.createProduct(product));
+
+        if (body.getRecommendations() != null) {
+            body.getRecommendations().forEach(recommendationSummary -> {
+                Recommendation recommendation = new Recommendation(
+                        body.getProductId(),
+                        recommendationSummary.getRecommendationId(),
+                        recommendationSummary.getAuthor(),
+                        recommendationSummary.getRate(),
+                        recommendationSummary.getContent(),
+                        null);
+                monos.add(integration.createRecommendation(recommendation));
+            });
+        }
+
+        if (body.getReviews() != null) {
+            body.getReviews().forEach(reviewSummary -> {
+                Review review = new Review(
+                        body.getProductId(),
+                        reviewSummary.getReviewId(),
+                        reviewSummary.getAuthor(),
+                        reviewSummary.getSubject(),
+                        reviewSummary.getContent(),
+                        null);
+                monos.add(integration.createReview(review));
+            });
+        }
+
+        return Mono.when(monos);
+    }
+
+    public Mono<Void> delete(int productId) {
+        return Mono.when(
+                integration.deleteProduct(productId),
+                integration.deleteRecommendations(productId),
+                integration.deleteReviews(productId));
+    }
+}
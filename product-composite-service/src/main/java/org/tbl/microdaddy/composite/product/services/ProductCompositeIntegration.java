@@ -9,10 +9,12 @@ import io.micrometer.observation.annotation.Observed;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.health.Health;
-import org.springframework.cloud.stream.function.StreamBridge;
-import org.springframework.context.annotation.Lazy;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Component;
@@ -23,23 +25,31 @@ import org.tbl.microdaddy.api.core.product.Product;
 import org.tbl.microdaddy.api.core.product.ProductService;
 import org.tbl.microdaddy.api.core.recommendation.Recommendation;
 import org.tbl.microdaddy.api.core.recommendation.RecommendationService;
+import org.tbl.microdaddy.api.core.recommendation.RecommendationStatistics;
 import org.tbl.microdaddy.api.core.review.Review;
 import org.tbl.microdaddy.api.core.review.ReviewService;
+import org.tbl.microdaddy.api.core.review.ReviewStatistics;
 import org.tbl.microdaddy.api.event.Event;
 import org.tbl.microdaddy.api.exceptions.InvalidInputException;
 import org.tbl.microdaddy.api.exceptions.NotFoundException;
+import org.tbl.microdaddy.api.paging.Page;
 import org.tbl.microdaddy.util.http.HttpErrorInfo;
 import org.tbl.microdaddy.util.http.ServiceUtil;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Scheduler;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
 
 import static java.util.logging.Level.FINE;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
 import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
 import static org.tbl.microdaddy.api.event.Event.Type.CREATE;
 import static org.tbl.microdaddy.api.event.Event.Type.DELETE;
 import static reactor.core.publisher.Flux.empty;
@@ -52,28 +62,66 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
     private static final String RECOMMENDATION_SERVICE_URL = "http://recommendation";
     private static final String REVIEW_SERVICE_URL = "http://review";
 
+    // binary Jackson format, a lot cheaper to encode/decode than JSON text. JSON stays as the fallback.
+    private static final MediaType APPLICATION_SMILE = new MediaType("application", "x-jackson-smile");
 
+    private static final ParameterizedTypeReference<Page<Recommendation>> RECOMMENDATION_PAGE =
+            new ParameterizedTypeReference<>() {};
+    private static final ParameterizedTypeReference<Page<Review>> REVIEW_PAGE =
+            new ParameterizedTypeReference<>() {};
+
+
+    // gives up when the deadline of the request passes, see Deadline.propagate()
     private final WebClient webClient;
     private final ObjectMapper mapper;
-    private final Scheduler publishEventScheduler;
-    private final StreamBridge streamBridge;
+    private final ObjectMapper smileMapper = Jackson2ObjectMapperBuilder.smile().build();
+    private final EventPublisher eventPublisher;
+    private final ProductAggregateCache productAggregateCache;
+    private final ProductFallbackCache productFallbackCache;
+    private final Hedger recommendationHedger;
+    private final Hedger reviewHedger;
+    private final ConcurrencyLimiter productLimiter;
+    private final ConcurrencyLimiter recommendationLimiter;
+    private final ConcurrencyLimiter reviewLimiter;
+    private final RetryBudget productRetryBudget;
 
     private final ServiceUtil serviceUtil;
 
     @Autowired
     public ProductCompositeIntegration(
-            // Had to set this to @Lazy to solve the circular dependency e/
-            // product composite service application.
-            @Qualifier("publishEventScheduler") @Lazy Scheduler publishEventScheduler,
             WebClient.Builder webClientBuilder,
             ObjectMapper mapper,
-            StreamBridge streamBridge,
+            EventPublisher eventPublisher,
+            ProductAggregateCache productAggregateCache,
+            ProductFallbackCache productFallbackCache,
+            @Qualifier("recommendationHedger") Hedger recommendationHedger,
+            @Qualifier("reviewHedger") Hedger reviewHedger,
+            @Qualifier("productLimiter") ConcurrencyLimiter productLimiter,
+            @Qualifier("recommendationLimiter") ConcurrencyLimiter recommendationLimiter,
+            @Qualifier("reviewLimiter") ConcurrencyLimiter reviewLimiter,
+            @Qualifier("productRetryBudget") RetryBudget productRetryBudget,
+            @Value("${app.binaryCodec.enabled:true}") Boolean binaryCodecEnabled,
             ServiceUtil serviceUtil) {
 
-        this.publishEventScheduler = publishEventScheduler;
-        this.webClient = webClientBuilder.build();
+        log.info("Creating integration with binaryCodecEnabled = {}", binaryCodecEnabled);
+
+        this.webClient = binaryCodecEnabled
+                ? webClientBuilder.clone()
+                        .defaultHeaders(headers -> headers.setAccept(List.of(
+                                APPLICATION_SMILE,
+                                new MediaType(APPLICATION_JSON, Map.of("q", "0.9")))))
+                        .build()
+                : webClientBuilder.build();
         this.mapper = mapper;
-        this.streamBridge = streamBridge;
+        this.eventPublisher = eventPublisher;
+        this.productAggregateCache = productAggregateCache;
+        this.productFallbackCache = productFallbackCache;
+        this.recommendationHedger = recommendationHedger;
+        this.reviewHedger = reviewHedger;
+        this.productLimiter = productLimiter;
+        this.recommendationLimiter = recommendationLimiter;
+        this.reviewLimiter = reviewLimiter;
+        this.productRetryBudget = productRetryBudget;
         this.serviceUtil = serviceUtil;
     }
 
@@ -85,10 +133,8 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
     @Override
     public Mono<Product> createProduct(Product body) {
 
-        return Mono.fromCallable(() -> {
-            sendMessage("products-out-0", new Event(CREATE, body.getProductId(), body));
-            return body;
-        }).subscribeOn(publishEventScheduler);
+        return sendMessage("products-out-0", new Event(CREATE, body.getProductId(), body))
+                .thenReturn(body);
 
     }
 
@@ -109,33 +155,80 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 
         log.info("Calling getProduct endpoint at URL: {}", url);
 
-        return webClient.get()
-                .uri(url)
-                .retrieve()
-                .bodyToMono(Product.class)
+        return productLimiter.execute(webClient.get()
+                        .uri(url)
+                        .retrieve()
+                        .bodyToMono(Product.class))
+                .doOnNext(productFallbackCache::put)
+                // pays for the retries of @Retry(name = "product"), see RetryBudgetConfig
+                .doOnNext(product -> productRetryBudget.deposit())
                 .log(log.getName(), FINE)
                 .onErrorMap(WebClientResponseException.class, this::handleException);
 
     }
 
+    @Observed(
+            name = "getProducts",
+            contextualName = "product-composite-integration.get-products"
+    )
+    @Override
+    @Retry(name = "product")
+    @CircuitBreaker(name = "product")
+    public Flux<Product> getProducts(List<Integer> productIds) {
+
+        URI url = UriComponentsBuilder
+                .fromUriString(PRODUCT_SERVICE_URL + "/product?productIds={productIds}")
+                .build(toQueryValue(productIds));
+
+        log.info("Calling getProducts endpoint at URL: {}", url);
+
+        return productLimiter.execute(webClient.get()
+                        .uri(url)
+                        .retrieve()
+                        .bodyToFlux(Product.class))
+                .doOnComplete(productRetryBudget::deposit)
+                .log(log.getName(), FINE)
+                .onErrorMap(WebClientResponseException.class, this::handleException);
+    }
+
     private Mono<Product> getProductFallbackValue(
             int productId, int delay, int faultPercent, CallNotPermittedException ex) {
 
-        log.warn("Creating a fail-fast product for productId = {}, delay = {}, faultPercent = {} and exception = {}",
-                productId, delay, faultPercent, ex.toString());
+        log.warn("Serving the last known good product for productId = {}, delay = {}, faultPercent = {} " +
+                        "and exception = {}", productId, delay, faultPercent, ex.toString());
 
-        if (productId == 13) {
-            String errorMessage = "Product Id: " + productId + " not found in fallback cache.";
-            log.warn(errorMessage);
-            throw new NotFoundException(errorMessage);
-        }
+        return productFallbackCache.getStale(productId)
+                .map(Mono::just)
+                .orElseGet(() -> {
+                    String errorMessage = "Product Id: " + productId + " not found in fallback cache.";
+                    log.warn(errorMessage);
+                    return Mono.error(new NotFoundException(errorMessage));
+                });
+    }
+
+    @Observed(
+            name = "exportProducts",
+            contextualName = "product-composite-integration.export-products"
+    )
+    @Override
+    public Flux<Product> exportProducts() {
 
-        return Mono.just(new Product(
-                productId,
-                "Fallback product" + productId,
-                productId,
-                serviceUtil.getServiceAddress()
-        ));
+        URI url = UriComponentsBuilder
+                .fromUriString(PRODUCT_SERVICE_URL + "/product/export")
+                .build().toUri();
+
+        log.info("Calling exportProducts endpoint at URL: {}", url);
+
+        // no retry/circuit breaker/time limiter: an export runs for as long as it takes, and a retry
+        // half way through would emit the products it already emitted a second time. No concurrency limit
+        // either, the duration of an export says nothing about how loaded the product service is.
+        return webClient.get()
+                .uri(url)
+                .accept(APPLICATION_NDJSON)
+                .retrieve()
+                .bodyToFlux(Product.class)
+                .log(log.getName(), FINE)
+                .onErrorMap(WebClientResponseException.class, this::handleException);
     }
 
     @Observed(
@@ -145,10 +238,7 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
     @Override
     public Mono<Void> deleteProduct(int productId) {
 
-        return Mono.fromRunnable(() -> sendMessage("products-out-0",
-                        new Event(DELETE, productId, null)))
-                .subscribeOn(publishEventScheduler)
-                .then();
+        return sendMessage("products-out-0", new Event(DELETE, productId, null));
 
     }
 
@@ -159,10 +249,8 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
     @Override
     public Mono<Recommendation> createRecommendation(Recommendation body) {
 
-        return Mono.fromCallable(() -> {
-            sendMessage("recommendations-out-0", new Event(CREATE, body.getProductId(), body));
-            return body;
-        }).subscribeOn(publishEventScheduler);
+        return sendMessage("recommendations-out-0", new Event(CREATE, body.getProductId(), body))
+                .thenReturn(body);
 
     }
 
@@ -180,16 +268,109 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 
         // returns an empty result so composite supports partial results if something happens during the
         // call to recommendation service
+        return recommendationHedger.execute(() -> recommendationLimiter.execute(webClient.get()
+                        .uri(url)
+                        .retrieve()
+                        .bodyToFlux(Recommendation.class)))
+                .log(log.getName(), FINE)
+                .onErrorResume(error -> empty());
+
+    }
+
+
+    /*
+        Unlike getRecommendations, errors are propagated: an empty page w/o a nextPageToken would look like the
+        last page. ProductCompositeServiceImpl falls back to an empty first page for partial results.
+     */
+    @Observed(
+            name = "getRecommendationPage",
+            contextualName = "product-composite-integration.get-recommendation-page"
+    )
+    @Override
+    public Mono<Page<Recommendation>> getRecommendationPage(int productId, String pageToken, int pageSize) {
+
+        URI url = UriComponentsBuilder
+                .fromUriString(RECOMMENDATION_SERVICE_URL +
+                        "/recommendation/page?productId={productId}&pageSize={pageSize}")
+                .queryParamIfPresent("pageToken", Optional.ofNullable(pageToken))
+                .build(productId, pageSize);
+        log.debug("Calling getRecommendationPage endpoint on URL: {}", url);
+
+        return recommendationHedger.execute(() -> recommendationLimiter.execute(webClient.get()
+                        .uri(url)
+                        .retrieve()
+                        .bodyToFlux(RECOMMENDATION_PAGE)))
+                .next()
+                .log(log.getName(), FINE)
+                .onErrorMap(WebClientResponseException.class, this::handleException);
+    }
+
+    // same error semantics as getRecommendationPage
+    @Observed(
+            name = "getRecommendationStatistics",
+            contextualName = "product-composite-integration.get-recommendation-statistics"
+    )
+    @Override
+    public Mono<RecommendationStatistics> getRecommendationStatistics(int productId) {
+
+        URI url = UriComponentsBuilder
+                .fromUriString(RECOMMENDATION_SERVICE_URL + "/recommendation/statistics?productId={productId}")
+                .build(productId);
+        log.debug("Calling getRecommendationStatistics endpoint on URL: {}", url);
+
+        return recommendationHedger.execute(() -> recommendationLimiter.execute(webClient.get()
+                        .uri(url)
+                        .retrieve()
+                        .bodyToFlux(RecommendationStatistics.class)))
+                .next()
+                .log(log.getName(), FINE)
+                .onErrorMap(WebClientResponseException.class, this::handleException);
+    }
+
+    @Observed(
+            name = "getRecommendationsForProducts",
+            contextualName = "product-composite-integration.get-recommendations-for-products"
+    )
+    @Override
+    public Flux<Recommendation> getRecommendationsForProducts(List<Integer> productIds) {
+
+        URI url = UriComponentsBuilder
+                .fromUriString(RECOMMENDATION_SERVICE_URL + "/recommendation?productIds={productIds}")
+                .build(toQueryValue(productIds));
+        log.debug("Calling getRecommendationsForProducts endpoint on URL: {}", url);
+
+        // same partial result semantics as getRecommendations
+        return recommendationLimiter.execute(webClient.get()
+                        .uri(url)
+                        .retrieve()
+                        .bodyToFlux(Recommendation.class))
+                .log(log.getName(), FINE)
+                .onErrorResume(error -> empty());
+    }
+
+    @Observed(
+            name = "exportRecommendations",
+            contextualName = "product-composite-integration.export-recommendations"
+    )
+    @Override
+    public Flux<Recommendation> exportRecommendations() {
+
+        URI url = UriComponentsBuilder
+                .fromUriString(RECOMMENDATION_SERVICE_URL + "/recommendation/export")
+                .build().toUri();
+
+        log.info("Calling exportRecommendations endpoint at URL: {}", url);
+
+        // unlike getRecommendations, errors are not swallowed: a silently truncated export is worse than a failed one
         return webClient.get()
                 .uri(url)
+                .accept(APPLICATION_NDJSON)
                 .retrieve()
                 .bodyToFlux(Recommendation.class)
                 .log(log.getName(), FINE)
-                .onErrorResume(error -> empty());
-
+                .onErrorMap(WebClientResponseException.class, this::handleException);
     }
 
-
     @Observed(
             name = "deleteRecommendations",
             contextualName = "product-composite-integration.delete-recommendations"
@@ -197,10 +378,7 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
     @Override
     public Mono<Void> deleteRecommendations(int productId) {
 
-        return Mono.fromRunnable(() -> sendMessage("recommendations-out-0",
-                        new Event(DELETE, productId, null)))
-                .subscribeOn(publishEventScheduler)
-                .then();
+        return sendMessage("recommendations-out-0", new Event(DELETE, productId, null));
 
     }
 
@@ -211,10 +389,8 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
     @Override
     public Mono<Review> createReview(Review body) {
 
-        return Mono.fromCallable(() -> {
-            sendMessage("reviews-out-0", new Event(CREATE, body.getProductId(), body));
-            return body;
-        }).subscribeOn(publishEventScheduler);
+        return sendMessage("reviews-out-0", new Event(CREATE, body.getProductId(), body))
+                .thenReturn(body);
 
     }
 
@@ -233,13 +409,102 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 
         // returns an empty result so composite supports partial results if something happens during the
         // call to recommendation service
+        return reviewHedger.execute(() -> reviewLimiter.execute(webClient.get()
+                        .uri(url)
+                        .retrieve()
+                        .bodyToFlux(Review.class)))
+                .log(log.getName(), FINE)
+                .onErrorResume(error -> empty());
+
+    }
+
+    // same error semantics as getRecommendationPage
+    @Observed(
+            name = "getReviewPage",
+            contextualName = "product-composite-integration.get-review-page"
+    )
+    @Override
+    public Mono<Page<Review>> getReviewPage(int productId, String pageToken, int pageSize) {
+
+        URI url = UriComponentsBuilder
+                .fromUriString(REVIEW_SERVICE_URL + "/review/page?productId={productId}&pageSize={pageSize}")
+                .queryParamIfPresent("pageToken", Optional.ofNullable(pageToken))
+                .build(productId, pageSize);
+        log.info("Calling getReviewPage endpoint at URL: {}", url);
+
+        return reviewHedger.execute(() -> reviewLimiter.execute(webClient.get()
+                        .uri(url)
+                        .retrieve()
+                        .bodyToFlux(REVIEW_PAGE)))
+                .next()
+                .log(log.getName(), FINE)
+                .onErrorMap(WebClientResponseException.class, this::handleException);
+    }
+
+    // same error semantics as getRecommendationPage
+    @Observed(
+            name = "getReviewStatistics",
+            contextualName = "product-composite-integration.get-review-statistics"
+    )
+    @Override
+    public Mono<ReviewStatistics> getReviewStatistics(int productId) {
+
+        URI url = UriComponentsBuilder
+                .fromUriString(REVIEW_SERVICE_URL + "/review/statistics?productId={productId}")
+                .build(productId);
+        log.info("Calling getReviewStatistics endpoint at URL: {}", url);
+
+        return reviewHedger.execute(() -> reviewLimiter.execute(webClient.get()
+                        .uri(url)
+                        .retrieve()
+                        .bodyToFlux(ReviewStatistics.class)))
+                .next()
+                .log(log.getName(), FINE)
+                .onErrorMap(WebClientResponseException.class, this::handleException);
+    }
+
+    @Observed(
+            name = "getReviewsForProducts",
+            contextualName = "product-composite-integration.get-reviews-for-products"
+    )
+    @Override
+    public Flux<Review> getReviewsForProducts(List<Integer> productIds) {
+
+        URI url = UriComponentsBuilder
+                .fromUriString(REVIEW_SERVICE_URL + "/review?productIds={productIds}")
+                .build(toQueryValue(productIds));
+        log.info("Calling getReviewsForProducts endpoint at URL: {}", url);
+
+        // same partial result semantics as getReviews
+        return reviewLimiter.execute(webClient.get()
+                        .uri(url)
+                        .retrieve()
+                        .bodyToFlux(Review.class))
+                .log(log.getName(), FINE)
+                .onErrorResume(error -> empty());
+    }
+
+    @Observed(
+            name = "exportReviews",
+            contextualName = "product-composite-integration.export-reviews"
+    )
+    @Override
+    public Flux<Review> exportReviews() {
+
+        URI url = UriComponentsBuilder
+                .fromUriString(REVIEW_SERVICE_URL + "/review/export")
+                .build().toUri();
+
+        log.info("Calling exportReviews endpoint at URL: {}", url);
+
+        // same as exportRecommendations, errors are propagated
         return webClient.get()
                 .uri(url)
+                .accept(APPLICATION_NDJSON)
                 .retrieve()
                 .bodyToFlux(Review.class)
                 .log(log.getName(), FINE)
-                .onErrorResume(error -> empty());
-
+                .onErrorMap(WebClientResponseException.class, this::handleException);
     }
 
     @Observed(
@@ -249,22 +514,35 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
     @Override
     public Mono<Void> deleteReviews(int productId) {
 
-        return Mono.fromRunnable(() -> sendMessage("reviews-out-0",
-                        new Event(DELETE, productId, null)))
-                .subscribeOn(publishEventScheduler)
-                .then();
+        return sendMessage("reviews-out-0", new Event(DELETE, productId, null));
     }
 
     @Observed(
             name = "sendMessage",
             contextualName = "product-composite-integration.send-message"
     )
-    private void sendMessage(String bindingName, Event event) {
+    private Mono<Void> sendMessage(String bindingName, Event event) {
         log.debug("Sending a {} message to {}", event.getEventType(), bindingName);
         Message message = MessageBuilder.withPayload(event)
                 .setHeader("partitionKey", event.getKey())
                 .build();
-        streamBridge.send(bindingName, message);
+
+        return eventPublisher.publish(bindingName, message)
+                .doOnSuccess(unused -> {
+                    // the composite view of this product is no longer valid on this instance.
+                    productAggregateCache.evictOnPublish((Integer) event.getKey());
+
+                    // ...and a deleted product must not come back as a stale copy during an outage.
+                    if (event.getEventType() == DELETE) {
+                        productFallbackCache.evict((Integer) event.getKey());
+                    }
+                });
+    }
+
+    private String toQueryValue(List<Integer> productIds) {
+        return productIds.stream()
+                .map(String::valueOf)
+                .collect(Collectors.joining(","));
     }
 
     private Throwable handleException(Throwable throwable) {
@@ -288,6 +566,11 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 
     private String getErrorMessage(WebClientResponseException exception) {
         try {
+            MediaType contentType = exception.getHeaders().getContentType();
+            if (contentType != null && contentType.isCompatibleWith(APPLICATION_SMILE)) {
+                return smileMapper.readValue(exception.getResponseBodyAsByteArray(), HttpErrorInfo.class)
+                        .getMessage();
+            }
             return mapper.readValue(exception.getResponseBodyAsString(), HttpErrorInfo.class).getMessage();
         } catch (IOException ex) {
             return exception.getMessage();
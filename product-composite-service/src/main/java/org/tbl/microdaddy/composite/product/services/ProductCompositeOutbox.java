@@ -0,0 +1,95 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import org.tbl.microdaddy.api.composite.product.ProductAggregate;
+import org.tbl.microdaddy.api.exceptions.InvalidInputException;
+import org.tbl.microdaddy.composite.product.persistence.OutboxEntity;
+import org.tbl.microdaddy.composite.product.persistence.OutboxRepository;
+import reactor.core.publisher.Mono;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+import static org.tbl.microdaddy.api.event.Event.Type.CREATE;
+import static org.tbl.microdaddy.api.event.Event.Type.DELETE;
+
+/*
+    Transactional outbox for composite writes, only created when app.outbox.enabled is true.
+
+    A create or delete of a whole product aggregate is a single insert of one outbox record, so it either
+    happens completely or not at all. The OutboxRelay turns the record into the events for the core
+    services afterwards, and keeps retrying until all of them have been published.
+
+    Every record gets the next value of the outbox_sequence counter (a findAndModify $inc, shared by all
+    composite instances), the relay publishes the records in that order.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "app.outbox.enabled", havingValue = "true")
+public class ProductCompositeOutbox {
+
+    private static final String SEQUENCE_COLLECTION = "outbox_sequence";
+    private static final String SEQUENCE_ID = "outbox";
+
+    private final OutboxRepository repository;
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final ObjectMapper mapper;
+
+    @Autowired
+    public ProductCompositeOutbox(
+            OutboxRepository repository,
+            ReactiveMongoTemplate mongoTemplate,
+            ObjectMapper mapper) {
+
+        log.info("Creating outbox");
+
+        this.repository = repository;
+        this.mongoTemplate = mongoTemplate;
+        this.mapper = mapper;
+    }
+
+    public Mono<Void> appendCreate(ProductAggregate body) {
+        return Mono.fromCallable(() -> new OutboxEntity(CREATE, body.getProductId(), toJson(body)))
+                .flatMap(this::append);
+    }
+
+    public Mono<Void> appendDelete(int productId) {
+        return append(new OutboxEntity(DELETE, productId, null));
+    }
+
+    private Mono<Void> append(OutboxEntity entity) {
+        return nextSequence()
+                .flatMap(sequence -> {
+                    entity.setSequence(sequence);
+                    return repository.save(entity);
+                })
+                .doOnNext(saved -> log.debug("Appended {} to the outbox w/ sequence {}", saved, saved.getSequence()))
+                .then();
+    }
+
+    private Mono<Long> nextSequence() {
+        return mongoTemplate.findAndModify(
+                        query(where("_id").is(SEQUENCE_ID)),
+                        new Update().inc("value", 1L),
+                        FindAndModifyOptions.options().upsert(true).returnNew(true),
+                        Document.class,
+                        SEQUENCE_COLLECTION)
+                .map(counter -> counter.get("value", Number.class).longValue());
+    }
+
+    private String toJson(ProductAggregate body) {
+        try {
+            return mapper.writeValueAsString(body);
+        } catch (JsonProcessingException ex) {
+            throw new InvalidInputException("Invalid product aggregate: " + ex.getMessage());
+        }
+    }
+}
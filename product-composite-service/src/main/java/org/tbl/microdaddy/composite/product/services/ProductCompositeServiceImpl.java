@@ -1,8 +1,10 @@
 package org.tbl.microdaddy.composite.product.services;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.observation.annotation.Observed;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextImpl;
 import org.springframework.security.oauth2.jwt.Jwt;
@@ -10,36 +12,74 @@ import org.springframework.security.oauth2.server.resource.authentication.JwtAut
 import org.springframework.web.bind.annotation.RestController;
 import org.tbl.microdaddy.api.composite.product.ProductAggregate;
 import org.tbl.microdaddy.api.composite.product.ProductCompositeService;
+import org.tbl.microdaddy.api.composite.product.ProductSummary;
 import org.tbl.microdaddy.api.composite.product.RecommendationSummary;
 import org.tbl.microdaddy.api.composite.product.ReviewSummary;
 import org.tbl.microdaddy.api.composite.product.ServiceAddresses;
 import org.tbl.microdaddy.api.core.product.Product;
 import org.tbl.microdaddy.api.core.recommendation.Recommendation;
+import org.tbl.microdaddy.api.core.recommendation.RecommendationStatistics;
 import org.tbl.microdaddy.api.core.review.Review;
+import org.tbl.microdaddy.api.core.review.ReviewStatistics;
+import org.tbl.microdaddy.api.exceptions.InvalidInputException;
+import org.tbl.microdaddy.api.exceptions.NotFoundException;
+import org.tbl.microdaddy.api.paging.Page;
+import org.tbl.microdaddy.composite.product.CacheControlWebFilter;
 import org.tbl.microdaddy.util.http.ServiceUtil;
+import org.tbl.microdaddy.util.paging.KeysetPaging;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.util.logging.Level.FINE;
 import static org.springframework.security.core.context.ReactiveSecurityContextHolder.getContext;
+import static org.tbl.microdaddy.composite.product.services.ProductAggregateCache.Shape.COMPLETE;
+import static org.tbl.microdaddy.composite.product.services.ProductAggregateCache.Shape.FIRST_PAGE;
 
 @Slf4j
 @RestController
 public class ProductCompositeServiceImpl implements ProductCompositeService {
 
     private static final String NO_JWT_TESTING_MSG = "No JWT based Authentication supplied. Are we running tests??";
+    private static final int MAX_BATCH_SIZE = 100;
 
     private final SecurityContext nullSecurityContext = new SecurityContextImpl();
     private final ServiceUtil serviceUtil;
     private final ProductCompositeIntegration integration;
+    private final ProductAggregateCache productAggregateCache;
+    private final SingleFlight<Integer, FetchedAggregate> inFlightAggregates;
+    private final ProductView productView;
+    private final ProductCompositeEvents compositeEvents;
+    private final Optional<ProductCompositeOutbox> outbox;
+    private final int viewPageSize;
 
     @Autowired
-    public ProductCompositeServiceImpl(ServiceUtil serviceUtil, ProductCompositeIntegration integration) {
+    public ProductCompositeServiceImpl(
+            ServiceUtil serviceUtil,
+            ProductCompositeIntegration integration,
+            ProductAggregateCache productAggregateCache,
+            ProductView productView,
+            ProductCompositeEvents compositeEvents,
+            Optional<ProductCompositeOutbox> outbox,
+            @Value("${app.materializedView.pageSize:20}") int viewPageSize,
+            MeterRegistry meterRegistry) {
         this.serviceUtil = serviceUtil;
         this.integration = integration;
+        this.productAggregateCache = productAggregateCache;
+        this.inFlightAggregates = new SingleFlight<>("productAggregate", meterRegistry);
+        this.productView = productView;
+        this.compositeEvents = compositeEvents;
+        this.outbox = outbox;
+        this.viewPageSize = viewPageSize;
     }
 
     @Observed(name = "createProduct", contextualName = "product-composite-service.create-product")
@@ -47,47 +87,18 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
     public Mono<Void> createProduct(ProductAggregate body) {
 
         try {
-            List<Mono> monos = new ArrayList<>();
-
-            monos.add(getLogAuthorizationInfoMono());
-
             log.debug("createCompositeProduct::productId::{}::CREATING", body.getProductId());
 
-            Product product = new Product(body.getProductId(), body.getName(), body.getWeight(), null);
-            monos.add(integration.createProduct(product));
-
-            if (body.getRecommendations() != null) {
-                body.getRecommendations().forEach(recommendationSummary-> {
-                    Recommendation recommendation = new Recommendation(
-                            body.getProductId(),
-                            recommendationSummary.getRecommendationId(),
-                            recommendationSummary.getAuthor(),
-                            recommendationSummary.getRate(),
-                            recommendationSummary.getContent(),
-                            null);
-                    monos.add(integration.createRecommendation(recommendation));
-                });
-            }
-
-            if (body.getReviews() != null) {
-                body.getReviews().forEach(reviewSummary -> {
-                    Review review = new Review(
-                            body.getProductId(),
-                            reviewSummary.getReviewId(),
-                            reviewSummary.getAuthor(),
-                            reviewSummary.getSubject(),
-                            reviewSummary.getContent(),
-                            null);
-                    monos.add(integration.createReview(review));
-                });
-
-            }
+            // one local write w/ the outbox, otherwise one event per product/recommendation/review
+            Mono<Void> write = outbox
+                    .map(o -> o.appendCreate(body))
+                    .orElseGet(() -> compositeEvents.create(body));
 
             log.debug("createCompositeProduct::productId::{}::CREATED", body.getProductId());
 
-            return Mono.zip(objects -> "", monos.toArray(new Mono[0]))
-                    .doOnError(ex -> log.warn("createCompositeProduct::FAILED::{}", ex.toString()))
-                    .then();
+            return getLogAuthorizationInfoMono()
+                    .then(write)
+                    .doOnError(ex -> log.warn("createCompositeProduct::FAILED::{}", ex.toString()));
 
         } catch (RuntimeException ex) {
             log.warn("createCompositeProduct::FAILED::{}", ex.toString());
@@ -103,21 +114,257 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
 
         log.debug("getCompositeProduct::productId::{}", productId);
 
-        return Mono.zip(objects -> createProductAggregate(
-                (SecurityContext) objects[0],
-                (Product) objects[1],
-                (List<Recommendation>) objects[2],
-                (List<Review>) objects[3],
-                serviceUtil.getServiceAddress()),
-                getSecurityContextMono(),
-                integration.getProduct(productId, delay, faultPercent),
-                integration.getRecommendations(productId).collectList(),
-                integration.getReviews(productId).collectList())
+        // Chaos requests (delay/faultPercent) always go to the core services, bypassing both the cache and
+        // the in-flight deduplication.
+        if (delay != 0 || faultPercent != 0) {
+            return getLogAuthorizationInfoMono()
+                    .then(getProductAggregate(productId, delay, faultPercent))
+                    .map(FetchedAggregate::aggregate)
+                    .doOnError(ex -> log.warn("getCompositeProduct::FAILED::{}", ex.toString()))
+                    .log(log.getName(), FINE);
+        }
+
+        // materialized mode: a single lookup in the view, no calls to the core services.
+        if (productView.isReady()) {
+            return getLogAuthorizationInfoMono()
+                    .then(Mono.fromSupplier(() -> productView.get(productId).orElse(null)))
+                    .map(entry -> createProductAggregate(
+                            entry.product(),
+                            KeysetPaging.toPage(entry.recommendationList(), viewPageSize, productId,
+                                    Recommendation::getRecommendationId),
+                            KeysetPaging.toPage(entry.reviewList(), viewPageSize, productId, Review::getReviewId),
+                            serviceUtil.getServiceAddress()))
+                    .switchIfEmpty(Mono.error(new NotFoundException("No product found for productId: " + productId)))
+                    .doOnError(ex -> log.warn("getCompositeProduct::FAILED::{}", ex.toString()))
+                    .log(log.getName(), FINE);
+        }
+
+        Optional<ProductAggregate> cached = productAggregateCache.get(productId, FIRST_PAGE);
+        if (cached.isPresent()) {
+            log.debug("getCompositeProduct::productId::{}::CACHED", productId);
+            return getLogAuthorizationInfoMono().thenReturn(cached.get());
+        }
+
+        // concurrent callers for the same productId share a single fan-out to the core services.
+        // Partial aggregates (recommendations/reviews missing after a failed call) are served, not cached.
+        return getLogAuthorizationInfoMono()
+                .then(inFlightAggregates.execute(productId, id -> {
+                    long generation = productAggregateCache.generation();
+                    return getProductAggregate(id, 0, 0)
+                            .doOnNext(fetched -> {
+                                if (!fetched.partial()) {
+                                    productAggregateCache.put(fetched.aggregate(), FIRST_PAGE, generation);
+                                }
+                            });
+                }))
+                .flatMap(ProductCompositeServiceImpl::notStoredIfDegraded)
                 .doOnError(ex -> log.warn("getCompositeProduct::FAILED::{}", ex.toString()))
                 .log(log.getName(), FINE);
 
     }
 
+    @Observed(
+            name = "getProducts",
+            contextualName = "product-composite-service.get-products")
+    @Override
+    public Flux<ProductAggregate> getProducts(List<Integer> productIds) {
+
+        if (productIds.isEmpty() || productIds.size() > MAX_BATCH_SIZE) {
+            throw new InvalidInputException(
+                    "Invalid number of productIds: " + productIds.size() + ", expected 1 to " + MAX_BATCH_SIZE);
+        }
+
+        log.debug("getCompositeProducts::productIds::{}", productIds);
+
+        List<Integer> distinctProductIds = productIds.stream().distinct().toList();
+
+        Map<Integer, ProductAggregate> aggregates = new HashMap<>();
+        List<Integer> misses = new ArrayList<>();
+        distinctProductIds.forEach(productId -> productAggregateCache.get(productId, COMPLETE).ifPresentOrElse(
+                aggregate -> aggregates.put(productId, aggregate),
+                () -> misses.add(productId)));
+
+        log.debug("getCompositeProducts::CACHED::{}::MISSES::{}", aggregates.size(), misses.size());
+
+        // one call per core service for all the products that aren't cached
+        long generation = productAggregateCache.generation();
+        Mono<List<ProductAggregate>> fetched = misses.isEmpty() ? Mono.just(List.of()) : Mono.zip(
+                integration.getProducts(misses).collectList(),
+                integration.getRecommendationsForProducts(misses).collectMultimap(Recommendation::getProductId),
+                integration.getReviewsForProducts(misses).collectMultimap(Review::getProductId))
+                .map(tuple -> tuple.getT1().stream()
+                        .map(product -> createProductAggregate(
+                                product,
+                                List.copyOf(tuple.getT2().getOrDefault(product.getProductId(), List.of())),
+                                List.copyOf(tuple.getT3().getOrDefault(product.getProductId(), List.of())),
+                                serviceUtil.getServiceAddress()))
+                        .peek(aggregate -> productAggregateCache.put(aggregate, COMPLETE, generation))
+                        .toList());
+
+        return getLogAuthorizationInfoMono()
+                .then(fetched)
+                .flatMapMany(fetchedAggregates -> {
+                    fetchedAggregates.forEach(aggregate -> aggregates.put(aggregate.getProductId(), aggregate));
+
+                    // requested order, products that weren't found are skipped.
+                    return Flux.fromStream(distinctProductIds.stream()
+                            .map(aggregates::get)
+                            .filter(Objects::nonNull));
+                })
+                .doOnError(ex -> log.warn("getCompositeProducts::FAILED::{}", ex.toString()))
+                .log(log.getName(), FINE);
+    }
+
+    /*
+        Sort-merge join of the three export streams. Each core service streams its whole collection ordered by
+        productId, mergeComparing interleaves them into a single stream ordered by productId, and
+        bufferUntilChanged cuts that stream into one group per productId. Only one group (plus the prefetch
+        of each source) is in memory at any time, and demand from the client is what drives the reads.
+
+        Recommendations/reviews w/o a product (e.g. a delete that's still propagating) are dropped.
+     */
+    @Observed(
+            name = "exportProducts",
+            contextualName = "product-composite-service.export-products")
+    @Override
+    public Flux<ProductAggregate> exportProducts() {
+
+        log.debug("exportCompositeProducts");
+
+        String serviceAddress = serviceUtil.getServiceAddress();
+
+        Flux<ExportItem> merged = Flux.mergeComparing(
+                Comparator.comparingInt(ExportItem::productId),
+                integration.exportProducts().map(product -> new ExportItem(product.getProductId(), product)),
+                integration.exportRecommendations()
+                        .map(recommendation -> new ExportItem(recommendation.getProductId(), recommendation)),
+                integration.exportReviews().map(review -> new ExportItem(review.getProductId(), review)));
+
+        return getLogAuthorizationInfoMono()
+                .thenMany(merged)
+                .bufferUntilChanged(ExportItem::productId)
+                .<ProductAggregate>handle((group, sink) -> {
+                    Product product = null;
+                    List<Recommendation> recommendations = new ArrayList<>();
+                    List<Review> reviews = new ArrayList<>();
+
+                    for (ExportItem item : group) {
+                        if (item.value() instanceof Product p) {
+                            product = p;
+                        } else if (item.value() instanceof Recommendation recommendation) {
+                            recommendations.add(recommendation);
+                        } else if (item.value() instanceof Review review) {
+                            reviews.add(review);
+                        }
+                    }
+
+                    if (product == null) {
+                        log.debug("exportCompositeProducts::productId::{}::NO_PRODUCT", group.get(0).productId());
+                    } else {
+                        sink.next(createProductAggregate(product, recommendations, reviews, serviceAddress));
+                    }
+                })
+                .doOnError(ex -> log.warn("exportCompositeProducts::FAILED::{}", ex.toString()))
+                .log(log.getName(), FINE);
+    }
+
+    private record ExportItem(int productId, Object value) {}
+
+    @Observed(
+            name = "getProductRecommendations",
+            contextualName = "product-composite-service.get-product-recommendations")
+    @Override
+    public Mono<Page<RecommendationSummary>> getProductRecommendations(int productId, String pageToken, int pageSize) {
+
+        log.debug("getCompositeProductRecommendations::productId::{}::pageToken::{}", productId, pageToken);
+
+        return getLogAuthorizationInfoMono()
+                .then(integration.getRecommendationPage(productId, pageToken, pageSize))
+                .map(page -> new Page<>(summarizeRecommendations(page.getItems()), page.getNextPageToken()))
+                .doOnError(ex -> log.warn("getCompositeProductRecommendations::FAILED::{}", ex.toString()))
+                .log(log.getName(), FINE);
+    }
+
+    @Observed(
+            name = "getProductReviews",
+            contextualName = "product-composite-service.get-product-reviews")
+    @Override
+    public Mono<Page<ReviewSummary>> getProductReviews(int productId, String pageToken, int pageSize) {
+
+        log.debug("getCompositeProductReviews::productId::{}::pageToken::{}", productId, pageToken);
+
+        return getLogAuthorizationInfoMono()
+                .then(integration.getReviewPage(productId, pageToken, pageSize))
+                .map(page -> new Page<>(summarizeReviews(page.getItems()), page.getNextPageToken()))
+                .doOnError(ex -> log.warn("getCompositeProductReviews::FAILED::{}", ex.toString()))
+                .log(log.getName(), FINE);
+    }
+
+    /*
+        The statistics are precomputed by recommendation-service and review-service, so unlike the aggregate
+        this is three index lookups no matter how many recommendations and reviews the product has.
+        If either statistics call fails the summary is still returned, w/ empty statistics (partial result).
+     */
+    @Observed(
+            name = "getProductSummary",
+            contextualName = "product-composite-service.get-product-summary")
+    @Override
+    public Mono<ProductSummary> getProductSummary(int productId) {
+
+        log.debug("getCompositeProductSummary::productId::{}", productId);
+
+        return getLogAuthorizationInfoMono()
+                .then(Mono.zip(
+                        integration.getProduct(productId, 0, 0),
+                        integration.getRecommendationStatistics(productId)
+                                .onErrorReturn(new RecommendationStatistics(productId, 0, 0, Map.of(), List.of())),
+                        integration.getReviewStatistics(productId)
+                                .onErrorReturn(new ReviewStatistics(productId, 0, List.of()))))
+                .map(tuple -> createProductSummary(
+                        tuple.getT1(), tuple.getT2(), tuple.getT3(), serviceUtil.getServiceAddress()))
+                .doOnError(ex -> log.warn("getCompositeProductSummary::FAILED::{}", ex.toString()))
+                .log(log.getName(), FINE);
+    }
+
+    // only the first page (default page size) of recommendations and reviews, w/ the tokens of the next ones.
+    // If either call fails the aggregate is still returned, w/o them (partial result).
+    private Mono<FetchedAggregate> getProductAggregate(int productId, int delay, int faultPercent) {
+        return Mono.defer(() -> {
+            AtomicBoolean partial = new AtomicBoolean();
+            return Mono.zip(
+                    integration.getProduct(productId, delay, faultPercent),
+                    integration.getRecommendationPage(productId, null, 0).onErrorResume(ex -> emptyPage(partial)),
+                    integration.getReviewPage(productId, null, 0).onErrorResume(ex -> emptyPage(partial)))
+                    .map(tuple -> new FetchedAggregate(
+                            createProductAggregate(
+                                    tuple.getT1(),
+                                    tuple.getT2(),
+                                    tuple.getT3(),
+                                    serviceUtil.getServiceAddress()),
+                            partial.get()));
+        });
+    }
+
+    private static <T> Mono<Page<T>> emptyPage(AtomicBoolean partial) {
+        partial.set(true);
+        return Mono.just(new Page<>(List.of(), null));
+    }
+
+    // partial: the recommendations or reviews are missing because their call failed
+    private record FetchedAggregate(ProductAggregate aggregate, boolean partial) {
+
+        boolean isDegraded() {
+            return partial || aggregate.isStale();
+        }
+    }
+
+    // degraded aggregates are served, but not kept by the gateway. Checked per caller, as they share the fetch.
+    private static Mono<ProductAggregate> notStoredIfDegraded(FetchedAggregate fetched) {
+        return fetched.isDegraded()
+                ? CacheControlWebFilter.noStore().thenReturn(fetched.aggregate())
+                : Mono.just(fetched.aggregate());
+    }
+
     @Observed(
             name = "deleteProduct",
             contextualName = "product-composite-service.delete-product"
@@ -128,29 +375,52 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
             log.debug("deleteCompositeProduct::productId::{}", productId);
 
 
-            return Mono.zip(objects -> "",
-                            getLogAuthorizationInfoMono(),
-                            integration.deleteProduct(productId),
-                            integration.deleteRecommendations(productId),
-                            integration.deleteReviews(productId))
+            Mono<Void> write = outbox
+                    .map(o -> o.appendDelete(productId))
+                    .orElseGet(() -> compositeEvents.delete(productId));
+
+            return getLogAuthorizationInfoMono()
+                    .then(write)
                     .doOnError(ex -> log.warn("deleteCompositeProduct::FAILED::{}", ex.toString()))
-                    .log(log.getName(), FINE)
-                    .then();
+                    .log(log.getName(), FINE);
         } catch (RuntimeException ex) {
             log.warn("deleteCompositeProduct::FAILED::{}", ex.toString());
             throw ex;
         }
     }
 
-    @Observed(name = "createProductAggregate", contextualName = "product-composite-service.create-product-aggregate")
     private ProductAggregate createProductAggregate(
-            SecurityContext securityContext,
+            Product product,
+            Page<Recommendation> recommendations,
+            Page<Review> reviews,
+            String serviceAddress) {
+
+        return createProductAggregate(
+                product,
+                recommendations.getItems(),
+                reviews.getItems(),
+                recommendations.getNextPageToken(),
+                reviews.getNextPageToken(),
+                serviceAddress);
+    }
+
+    private ProductAggregate createProductAggregate(
             Product product,
             List<Recommendation> recommendations,
             List<Review> reviews,
             String serviceAddress) {
 
-        logAuthorizationInfo(securityContext);
+        return createProductAggregate(product, recommendations, reviews, null, null, serviceAddress);
+    }
+
+    @Observed(name = "createProductAggregate", contextualName = "product-composite-service.create-product-aggregate")
+    private ProductAggregate createProductAggregate(
+            Product product,
+            List<Recommendation> recommendations,
+            List<Review> reviews,
+            String recommendationsPageToken,
+            String reviewsPageToken,
+            String serviceAddress) {
 
         // product info
         int productId = product.getProductId();
@@ -158,26 +428,10 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
         int weight = product.getWeight();
 
         // summarize recommendations
-        List<RecommendationSummary> recommendationSummaries =
-                (recommendations == null) ? null : recommendations.stream()
-                        .map(recommendation -> new RecommendationSummary(
-                                recommendation.getRecommendationId(),
-                                recommendation.getAuthor(),
-                                recommendation.getRate(),
-                                recommendation.getContent()
-                        ))
-                        .toList();
+        List<RecommendationSummary> recommendationSummaries = summarizeRecommendations(recommendations);
 
         // summarize reviews
-        List<ReviewSummary> reviewSummaries =
-                (reviews == null) ? null : reviews.stream()
-                        .map(review -> new ReviewSummary(
-                                review.getReviewId(),
-                                review.getAuthor(),
-                                review.getSubject(),
-                                review.getContent()
-                        ))
-                        .toList();
+        List<ReviewSummary> reviewSummaries = summarizeReviews(reviews);
 
 
         // get addresses and aggregate them
@@ -199,7 +453,62 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
                 weight,
                 recommendationSummaries,
                 reviewSummaries,
-                serviceAddresses);
+                serviceAddresses,
+                product.isStale(),
+                recommendationsPageToken,
+                reviewsPageToken);
+    }
+
+    private ProductSummary createProductSummary(
+            Product product,
+            RecommendationStatistics recommendations,
+            ReviewStatistics reviews,
+            String serviceAddress) {
+
+        List<Recommendation> latestRecommendations = recommendations.getLatest();
+        List<Review> latestReviews = reviews.getLatest();
+
+        ServiceAddresses serviceAddresses = new ServiceAddresses(
+                serviceAddress,
+                product.getServiceAddress(),
+                (latestReviews != null && !latestReviews.isEmpty()) ? latestReviews.get(0).getServiceAddress() : "",
+                (latestRecommendations != null && !latestRecommendations.isEmpty())
+                        ? latestRecommendations.get(0).getServiceAddress() : "");
+
+        return new ProductSummary(
+                product.getProductId(),
+                product.getName(),
+                product.getWeight(),
+                recommendations.getCount(),
+                recommendations.getAverageRate(),
+                recommendations.getRateHistogram(),
+                summarizeRecommendations(latestRecommendations),
+                reviews.getCount(),
+                summarizeReviews(latestReviews),
+                serviceAddresses,
+                product.isStale());
+    }
+
+    private List<RecommendationSummary> summarizeRecommendations(List<Recommendation> recommendations) {
+        return (recommendations == null) ? null : recommendations.stream()
+                .map(recommendation -> new RecommendationSummary(
+                        recommendation.getRecommendationId(),
+                        recommendation.getAuthor(),
+                        recommendation.getRate(),
+                        recommendation.getContent()
+                ))
+                .toList();
+    }
+
+    private List<ReviewSummary> summarizeReviews(List<Review> reviews) {
+        return (reviews == null) ? null : reviews.stream()
+                .map(review -> new ReviewSummary(
+                        review.getReviewId(),
+                        review.getAuthor(),
+                        review.getSubject(),
+                        review.getContent()
+                ))
+                .toList();
     }
 
     private Mono<SecurityContext> getLogAuthorizationInfoMono() {
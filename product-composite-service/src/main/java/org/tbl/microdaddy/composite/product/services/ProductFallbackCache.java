@@ -0,0 +1,101 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.tbl.microdaddy.api.core.product.Product;
+
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+    Last known good copy of every Product that getProduct has returned successfully, bounded by size only.
+
+    This is what the "product" circuit breaker falls back to, so there's deliberately no TTL: while
+    product-service is down an old copy is better than no copy. Every productId that has been served from
+    here is remembered until a fresh copy arrives, so it can be refreshed when the breaker goes half-open.
+ */
+@Slf4j
+@Component
+public class ProductFallbackCache {
+
+    private static final String CACHE_NAME = "productFallback";
+
+    private final Cache<Integer, Product> cache;
+    private final Set<Integer> servedStale = ConcurrentHashMap.newKeySet();
+    private final Counter staleHits;
+
+    @Autowired
+    public ProductFallbackCache(
+            @Value("${app.productFallbackCache.maxSize:10000}") Integer maxSize,
+            MeterRegistry meterRegistry) {
+
+        log.info("Creating productFallback cache with maxSize = {}", maxSize);
+
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .evictionListener((Integer productId, Product product, RemovalCause cause) ->
+                        servedStale.remove(productId))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+
+        this.staleHits = Counter.builder("cache.stale.served")
+                .description("Number of responses served from the last known good copy")
+                .tag("cache", CACHE_NAME)
+                .register(meterRegistry);
+    }
+
+    public void put(Product product) {
+        cache.put(product.getProductId(), product);
+        servedStale.remove(product.getProductId());
+    }
+
+    /*
+        Returns a copy of the last known good product, marked as stale.
+     */
+    public Optional<Product> getStale(int productId) {
+        Product product = cache.getIfPresent(productId);
+        if (product == null) {
+            return Optional.empty();
+        }
+
+        log.debug("productFallbackCache::productId::{}::STALE", productId);
+        servedStale.add(productId);
+        staleHits.increment();
+
+        return Optional.of(new Product(
+                product.getProductId(),
+                product.getName(),
+                product.getWeight(),
+                product.getServiceAddress(),
+                true));
+    }
+
+    /*
+        The productIds that have been served stale since their last successful lookup.
+     */
+    public Set<Integer> getServedStale() {
+        return Set.copyOf(servedStale);
+    }
+
+    public void evict(int productId) {
+        log.debug("productFallbackCache::productId::{}::EVICTED", productId);
+        cache.invalidate(productId);
+        servedStale.remove(productId);
+    }
+
+    public void evictAll() {
+        cache.invalidateAll();
+        servedStale.clear();
+    }
+}
@@ -0,0 +1,77 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.circuitbreaker.event.CircuitBreakerOnStateTransitionEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.tbl.microdaddy.api.core.product.Product;
+import org.tbl.microdaddy.api.exceptions.NotFoundException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Set;
+
+import static io.github.resilience4j.circuitbreaker.CircuitBreaker.State.HALF_OPEN;
+
+/*
+    Revalidates the products that were served stale during an outage as soon as the "product" circuit
+    breaker lets trial calls through again.
+
+    The refresh goes through ProductCompositeIntegration.getProduct (i.e. through the breaker), so it doubles
+    as the breaker's trial calls. No calls are made while the breaker is open, and the refresh stops at the
+    first product that comes back stale, since that means the breaker has stopped permitting calls.
+ */
+@Slf4j
+@Component
+public class ProductFallbackRefresher {
+
+    private static final String CIRCUIT_BREAKER_NAME = "product";
+
+    private final ProductCompositeIntegration integration;
+    private final ProductFallbackCache productFallbackCache;
+
+    @Autowired
+    public ProductFallbackRefresher(
+            CircuitBreakerRegistry circuitBreakerRegistry,
+            ProductCompositeIntegration integration,
+            ProductFallbackCache productFallbackCache) {
+
+        this.integration = integration;
+        this.productFallbackCache = productFallbackCache;
+
+        CircuitBreaker circuitBreaker = circuitBreakerRegistry.circuitBreaker(CIRCUIT_BREAKER_NAME);
+        circuitBreaker.getEventPublisher().onStateTransition(this::onStateTransition);
+    }
+
+    private void onStateTransition(CircuitBreakerOnStateTransitionEvent event) {
+        if (event.getStateTransition().getToState() == HALF_OPEN) {
+            refresh().subscribe();
+        }
+    }
+
+    Mono<Void> refresh() {
+        Set<Integer> productIds = productFallbackCache.getServedStale();
+
+        if (productIds.isEmpty()) {
+            return Mono.empty();
+        }
+
+        log.info("Refreshing {} stale product(s): {}", productIds.size(), productIds);
+
+        return Flux.fromIterable(productIds)
+                .concatMap(productId -> integration.getProduct(productId, 0, 0)
+                        .onErrorResume(NotFoundException.class, ex -> {
+                            // deleted while product-service was unavailable
+                            productFallbackCache.evict(productId);
+                            return Mono.empty();
+                        })
+                        .onErrorResume(ex -> {
+                            log.debug("Refresh of stale productId = {} failed: {}", productId, ex.toString());
+                            return Mono.empty();
+                        }))
+                .takeUntil(Product::isStale)
+                .then();
+    }
+}
@@ -0,0 +1,298 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.tbl.microdaddy.api.core.product.Product;
+import org.tbl.microdaddy.api.core.recommendation.Recommendation;
+import org.tbl.microdaddy.api.core.review.Review;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static java.time.Duration.ofSeconds;
+
+/*
+    CQRS read side: a denormalized, in-memory view of every product w/ its recommendations and reviews,
+    kept up to date from the products, recommendations and reviews topics (see ProductViewProcessorConfig).
+
+    Only used when app.materializedView.enabled is true (the materialized_view profile). The view is built
+    from scratch from the export endpoints of the core services at startup, and can be rebuilt at any time
+    through the productview actuator endpoint. getProduct only uses the view once a build has completed.
+
+    The events are the ones the composite publishes, applied before the core services have processed them.
+    A CREATE is applied the way the core services do: it is ignored if its product (recommendation, review)
+    is already in the view, as they reject it as a duplicate. Other failures of a core service (e.g. a batch
+    dead lettered after its retries) aren't seen here, the view diverges from it until the next rebuild.
+
+    Events that arrive while a rebuild is running are applied to the current view right away, and are
+    replayed on top of the new view before it replaces the current one. A replayed CREATE the export
+    already reflected is ignored as a duplicate, a DELETE of something already deleted does nothing.
+ */
+@Slf4j
+@Component
+public class ProductView {
+
+    public record Entry(Product product, Map<Integer, Recommendation> recommendations, Map<Integer, Review> reviews) {
+
+        private static final Entry EMPTY = new Entry(null, Map.of(), Map.of());
+
+        public List<Recommendation> recommendationList() {
+            return List.copyOf(recommendations.values());
+        }
+
+        public List<Review> reviewList() {
+            return List.copyOf(reviews.values());
+        }
+
+        private Entry withProduct(Product product) {
+            return new Entry(product, recommendations, reviews);
+        }
+
+        private Entry withRecommendation(Recommendation recommendation) {
+            Map<Integer, Recommendation> updated = new TreeMap<>(recommendations);
+            updated.put(recommendation.getRecommendationId(), recommendation);
+            return new Entry(product, updated, reviews);
+        }
+
+        private Entry withReview(Review review) {
+            Map<Integer, Review> updated = new TreeMap<>(reviews);
+            updated.put(review.getReviewId(), review);
+            return new Entry(product, recommendations, updated);
+        }
+
+        // a null entry is removed from the view
+        private Entry orNullIfEmpty() {
+            return product == null && recommendations.isEmpty() && reviews.isEmpty() ? null : this;
+        }
+    }
+
+    private final boolean enabled;
+    private final ProductCompositeIntegration integration;
+
+    private final Object lock = new Object();
+    private volatile Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean ready = false;
+
+    // not null while a rebuild is running, guarded by lock
+    private List<Consumer<Map<Integer, Entry>>> pendingEvents = null;
+
+    private final Timer lag;
+    private final Counter rebuilds;
+
+    @Autowired
+    public ProductView(
+            @Value("${app.materializedView.enabled:false}") Boolean enabled,
+            ProductCompositeIntegration integration,
+            MeterRegistry meterRegistry) {
+
+        log.info("Creating product view with enabled = {}", enabled);
+
+        this.enabled = enabled;
+        this.integration = integration;
+
+        this.lag = Timer.builder("productview.lag")
+                .description("Time from an event being published until it is applied to the product view")
+                .register(meterRegistry);
+
+        this.rebuilds = Counter.builder("productview.rebuilds")
+                .description("Number of completed rebuilds of the product view")
+                .register(meterRegistry);
+
+        Gauge.builder("productview.size", this, view -> view.entries.size())
+                .description("Number of products in the product view")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isReady() {
+        return enabled && ready;
+    }
+
+    public boolean isRebuilding() {
+        synchronized (lock) {
+            return pendingEvents != null;
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /*
+        The entry for the productId, if the product itself is known (recommendations and reviews can show up
+        before their product does).
+     */
+    public Optional<Entry> get(int productId) {
+        return Optional.ofNullable(entries.get(productId)).filter(entry -> entry.product() != null);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        if (!enabled) {
+            return;
+        }
+
+        // the core services might not be up yet
+        rebuild()
+                .retryWhen(Retry.backoff(10, ofSeconds(2))
+                        .filter(ex -> !(ex instanceof IllegalStateException)))
+                .subscribe(
+                        unused -> { },
+                        ex -> log.error("Initial build of the product view failed: {}", ex.toString()));
+    }
+
+    /*
+        Whichever way the rebuild ends (completed, failed or cancelled), another one can be started afterwards.
+     */
+    public Mono<Void> rebuild() {
+        return Mono.defer(() -> {
+            List<Consumer<Map<Integer, Entry>>> pending = new ArrayList<>();
+            synchronized (lock) {
+                if (pendingEvents != null) {
+                    return Mono.error(new IllegalStateException("A rebuild of the product view is already running"));
+                }
+                pendingEvents = pending;
+            }
+
+            log.info("Rebuilding product view");
+
+            Map<Integer, Entry> rebuilt = new ConcurrentHashMap<>();
+
+            return Flux.merge(
+                            integration.exportProducts().doOnNext(product -> upsertProduct(rebuilt, product)),
+                            integration.exportRecommendations()
+                                    .doOnNext(recommendation -> upsertRecommendation(rebuilt, recommendation)),
+                            integration.exportReviews().doOnNext(review -> upsertReview(rebuilt, review)))
+                    .then(Mono.fromRunnable(() -> {
+                        synchronized (lock) {
+                            log.info("Product view rebuilt w/ {} entries, replaying {} events received meanwhile",
+                                    rebuilt.size(), pending.size());
+                            pending.forEach(event -> event.accept(rebuilt));
+                            entries = rebuilt;
+                            pendingEvents = null;
+                            ready = true;
+                        }
+                        rebuilds.increment();
+                    }))
+                    .doOnError(ex -> log.warn("Rebuild of the product view failed: {}", ex.toString()))
+                    .doOnCancel(() -> log.warn("Rebuild of the product view was cancelled"))
+                    .doFinally(signal -> {
+                        synchronized (lock) {
+                            if (pendingEvents == pending) {
+                                pendingEvents = null;
+                            }
+                        }
+                    })
+                    .then();
+        });
+    }
+
+    public void onProductCreated(Product product, ZonedDateTime eventCreatedAt) {
+        apply(view -> insertProduct(view, product), eventCreatedAt);
+    }
+
+    public void onProductDeleted(int productId, ZonedDateTime eventCreatedAt) {
+        apply(view -> view.remove(productId), eventCreatedAt);
+    }
+
+    public void onRecommendationCreated(Recommendation recommendation, ZonedDateTime eventCreatedAt) {
+        apply(view -> insertRecommendation(view, recommendation), eventCreatedAt);
+    }
+
+    public void onRecommendationsDeleted(int productId, ZonedDateTime eventCreatedAt) {
+        apply(view -> view.computeIfPresent(productId,
+                (id, entry) -> new Entry(entry.product(), Map.of(), entry.reviews()).orNullIfEmpty()),
+                eventCreatedAt);
+    }
+
+    public void onReviewCreated(Review review, ZonedDateTime eventCreatedAt) {
+        apply(view -> insertReview(view, review), eventCreatedAt);
+    }
+
+    public void onReviewsDeleted(int productId, ZonedDateTime eventCreatedAt) {
+        apply(view -> view.computeIfPresent(productId,
+                (id, entry) -> new Entry(entry.product(), entry.recommendations(), Map.of()).orNullIfEmpty()),
+                eventCreatedAt);
+    }
+
+    private void apply(Consumer<Map<Integer, Entry>> event, ZonedDateTime eventCreatedAt) {
+        synchronized (lock) {
+            event.accept(entries);
+            if (pendingEvents != null) {
+                pendingEvents.add(event);
+            }
+        }
+
+        if (eventCreatedAt != null) {
+            lag.record(Duration.between(eventCreatedAt, ZonedDateTime.now()));
+        }
+    }
+
+    private static void upsertProduct(Map<Integer, Entry> view, Product product) {
+        view.compute(product.getProductId(), (id, entry) -> orEmpty(entry).withProduct(product));
+    }
+
+    private static void upsertRecommendation(Map<Integer, Entry> view, Recommendation recommendation) {
+        view.compute(recommendation.getProductId(), (id, entry) -> orEmpty(entry).withRecommendation(recommendation));
+    }
+
+    private static void upsertReview(Map<Integer, Entry> view, Review review) {
+        view.compute(review.getProductId(), (id, entry) -> orEmpty(entry).withReview(review));
+    }
+
+    // the inserts of CREATE events, ignored where the core services reject them as invalid or duplicates
+
+    private static void insertProduct(Map<Integer, Entry> view, Product product) {
+        if (product == null || product.getProductId() < 1) {
+            return;
+        }
+        view.compute(product.getProductId(), (id, entry) -> entry != null && entry.product() != null
+                ? entry
+                : orEmpty(entry).withProduct(product));
+    }
+
+    private static void insertRecommendation(Map<Integer, Entry> view, Recommendation recommendation) {
+        if (recommendation == null || recommendation.getProductId() < 1) {
+            return;
+        }
+        view.compute(recommendation.getProductId(), (id, entry) ->
+                entry != null && entry.recommendations().containsKey(recommendation.getRecommendationId())
+                        ? entry
+                        : orEmpty(entry).withRecommendation(recommendation));
+    }
+
+    private static void insertReview(Map<Integer, Entry> view, Review review) {
+        if (review == null || review.getProductId() < 1) {
+            return;
+        }
+        view.compute(review.getProductId(), (id, entry) ->
+                entry != null && entry.reviews().containsKey(review.getReviewId())
+                        ? entry
+                        : orEmpty(entry).withReview(review));
+    }
+
+    private static Entry orEmpty(Entry entry) {
+        return entry == null ? Entry.EMPTY : entry;
+    }
+}
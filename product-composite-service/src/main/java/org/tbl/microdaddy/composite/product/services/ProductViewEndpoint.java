@@ -0,0 +1,48 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+/*
+    /actuator/productview
+
+    GET returns the state of the product view, POST rebuilds it from scratch and returns the state once the
+    rebuild has completed. The rebuild runs to the end even if the request doesn't (e.g. the client goes away
+    or the request times out).
+ */
+@Component
+@Endpoint(id = "productview")
+public class ProductViewEndpoint {
+
+    private final ProductView productView;
+
+    @Autowired
+    public ProductViewEndpoint(ProductView productView) {
+        this.productView = productView;
+    }
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        return Map.of(
+                "enabled", productView.isEnabled(),
+                "ready", productView.isReady(),
+                "rebuilding", productView.isRebuilding(),
+                "size", productView.size());
+    }
+
+    @WriteOperation
+    public Mono<Map<String, Object>> rebuild() {
+        if (!productView.isEnabled()) {
+            return Mono.just(status());
+        }
+        Mono<Void> rebuild = productView.rebuild().cache();
+        rebuild.subscribe(unused -> { }, ex -> { });
+        return rebuild.then(Mono.fromCallable(this::status));
+    }
+}
@@ -0,0 +1,79 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.tbl.microdaddy.api.core.product.Product;
+import org.tbl.microdaddy.api.core.recommendation.Recommendation;
+import org.tbl.microdaddy.api.core.review.Review;
+import org.tbl.microdaddy.api.event.Event;
+import org.tbl.microdaddy.api.exceptions.EventProcessingException;
+
+import java.util.function.Consumer;
+
+/*
+    Feeds the ProductView from the products, recommendations and reviews topics, one binding per topic so
+    the payloads can be typed (see the materialized_view profile in product-composite.yml).
+
+    Like messageProcessor these bindings have no consumer group, every composite replica keeps its own view.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.materializedView.enabled", havingValue = "true")
+@Slf4j
+public class ProductViewProcessorConfig {
+
+    private final ProductView productView;
+
+    @Autowired
+    public ProductViewProcessorConfig(ProductView productView) {
+        this.productView = productView;
+    }
+
+    @Bean
+    public Consumer<Event<Integer, Product>> productViewProcessor() {
+        return event -> {
+            log.debug("Apply product event created at {} to the product view...", event.getEventCreatedAt());
+
+            switch (event.getEventType()) {
+                case CREATE -> productView.onProductCreated(event.getData(), event.getEventCreatedAt());
+                case DELETE -> productView.onProductDeleted(event.getKey(), event.getEventCreatedAt());
+                default -> throw incorrectEventType(event);
+            }
+        };
+    }
+
+    @Bean
+    public Consumer<Event<Integer, Recommendation>> recommendationViewProcessor() {
+        return event -> {
+            log.debug("Apply recommendation event created at {} to the product view...", event.getEventCreatedAt());
+
+            switch (event.getEventType()) {
+                case CREATE -> productView.onRecommendationCreated(event.getData(), event.getEventCreatedAt());
+                case DELETE -> productView.onRecommendationsDeleted(event.getKey(), event.getEventCreatedAt());
+                default -> throw incorrectEventType(event);
+            }
+        };
+    }
+
+    @Bean
+    public Consumer<Event<Integer, Review>> reviewViewProcessor() {
+        return event -> {
+            log.debug("Apply review event created at {} to the product view...", event.getEventCreatedAt());
+
+            switch (event.getEventType()) {
+                case CREATE -> productView.onReviewCreated(event.getData(), event.getEventCreatedAt());
+                case DELETE -> productView.onReviewsDeleted(event.getKey(), event.getEventCreatedAt());
+                default -> throw incorrectEventType(event);
+            }
+        };
+    }
+
+    private EventProcessingException incorrectEventType(Event<Integer, ?> event) {
+        String errorMessage = "Incorrect event type: " + event.getEventType() +
+                ", expected a CREATE or DELETE event";
+        log.warn(errorMessage);
+        return new EventProcessingException(errorMessage);
+    }
+}
@@ -0,0 +1,129 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Retry budget.
+
+    The retries of a downstream are paid for from a token bucket: every successful call deposits
+    percent / 100 of a token, every retry withdraws a whole one. Deposits and withdrawals only count for
+    window, so during an outage (no more successful calls) the retries dry up after at most window, instead
+    of multiplying the load on the failing service by max-attempts. minRetriesPerSecond are always allowed,
+    so a downstream w/ little traffic still gets its occasional retry.
+
+    canRetry() and withdraw() are separate steps (see RetryBudgetConfig), concurrent failures can overdraw
+    the budget by the number of calls failing at the same time.
+ */
+@Slf4j
+public class RetryBudget {
+
+    private final String name;
+    private final double depositPerCall;
+    private final int minRetriesPerSecond;
+    private final int windowSeconds;
+
+    // one bucket per second of the window, guarded by this
+    private final long[] bucketSeconds;
+    private final long[] deposits;
+    private final long[] withdrawals;
+
+    private final Counter retried;
+    private final Counter budgetExhausted;
+
+    public RetryBudget(
+            String name,
+            int percent,
+            int minRetriesPerSecond,
+            int windowSeconds,
+            MeterRegistry meterRegistry) {
+
+        log.info("Creating retry budget {} with percent = {}, minRetriesPerSecond = {}, windowSeconds = {}",
+                name, percent, minRetriesPerSecond, windowSeconds);
+
+        this.name = name;
+        this.depositPerCall = percent / 100.0;
+        this.minRetriesPerSecond = minRetriesPerSecond;
+        this.windowSeconds = windowSeconds;
+
+        this.bucketSeconds = new long[windowSeconds];
+        this.deposits = new long[windowSeconds];
+        this.withdrawals = new long[windowSeconds];
+        Arrays.fill(bucketSeconds, Long.MIN_VALUE);
+
+        Gauge.builder("retry.budget.balance", this, RetryBudget::getBalance)
+                .description("Number of retries that are currently allowed")
+                .tag("name", name)
+                .register(meterRegistry);
+
+        this.retried = retryCounter(meterRegistry, "retried");
+        this.budgetExhausted = retryCounter(meterRegistry, "budget_exhausted");
+    }
+
+    // a successful call
+    public synchronized void deposit() {
+        deposits[bucket(now())]++;
+    }
+
+    // true if a failed call may be retried, withdraw() once it is
+    public boolean canRetry() {
+        if (getBalance() >= 1) {
+            return true;
+        }
+
+        log.debug("retry-budget::{}::EXHAUSTED", name);
+        budgetExhausted.increment();
+        return false;
+    }
+
+    public void withdraw() {
+        synchronized (this) {
+            withdrawals[bucket(now())]++;
+        }
+        retried.increment();
+    }
+
+    public synchronized double getBalance() {
+        long now = now();
+
+        long depositsInWindow = 0;
+        long withdrawalsInWindow = 0;
+        for (int i = 0; i < windowSeconds; i++) {
+            if (bucketSeconds[i] > now - windowSeconds) {
+                depositsInWindow += deposits[i];
+                withdrawalsInWindow += withdrawals[i];
+            }
+        }
+
+        return (double) minRetriesPerSecond * windowSeconds + depositsInWindow * depositPerCall
+                - withdrawalsInWindow;
+    }
+
+    // the bucket of this second, emptied if it was last used a window ago
+    private int bucket(long second) {
+        int index = Math.floorMod(second, windowSeconds);
+        if (bucketSeconds[index] != second) {
+            bucketSeconds[index] = second;
+            deposits[index] = 0;
+            withdrawals[index] = 0;
+        }
+        return index;
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+    }
+
+    private Counter retryCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("retry.budget.calls")
+                .description("Number of failed calls retried, or not retried because the budget was exhausted")
+                .tag("name", name)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
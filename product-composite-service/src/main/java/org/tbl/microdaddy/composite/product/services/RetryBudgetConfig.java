@@ -0,0 +1,81 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import io.github.resilience4j.common.retry.configuration.RetryConfigCustomizer;
+import io.github.resilience4j.core.IntervalBiFunction;
+import io.github.resilience4j.core.registry.EntryAddedEvent;
+import io.github.resilience4j.core.registry.EntryRemovedEvent;
+import io.github.resilience4j.core.registry.EntryReplacedEvent;
+import io.github.resilience4j.core.registry.RegistryEventConsumer;
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.Exceptions;
+
+/*
+    Puts a RetryBudget behind the @Retry(name = "product") of ProductCompositeIntegration, see app.retryBudget
+    in product-composite.yml.
+
+    resilience4j asks its retry exception predicate before it checks max-attempts, so the budget is checked
+    by the interval function instead, which is only asked for the wait of a retry that is about to happen.
+    Over the budget, it rethrows the failure, which fails the call w/ it (and w/o a retry event). The budget
+    is withdrawn from once the retry actually happens (the retry event).
+ */
+@Configuration
+public class RetryBudgetConfig {
+
+    private static final String PRODUCT = "product";
+
+    @Bean
+    public RetryBudget productRetryBudget(
+            @Value("${app.retryBudget.product.percent:10}") Integer percent,
+            @Value("${app.retryBudget.product.minRetriesPerSecond:1}") Integer minRetriesPerSecond,
+            @Value("${app.retryBudget.product.windowSeconds:10}") Integer windowSeconds,
+            MeterRegistry meterRegistry) {
+
+        return new RetryBudget(PRODUCT, percent, minRetriesPerSecond, windowSeconds, meterRegistry);
+    }
+
+    @Bean
+    public RetryConfigCustomizer productRetryBudgetCustomizer(RetryBudget productRetryBudget) {
+        return RetryConfigCustomizer.of(PRODUCT, builder -> {
+            // handed over as a raw type
+            RetryConfig.Builder<?> retryConfigBuilder = builder;
+            withRetryBudget(retryConfigBuilder, productRetryBudget);
+        });
+    }
+
+    @Bean
+    public RegistryEventConsumer<Retry> productRetryBudgetConsumer(RetryBudget productRetryBudget) {
+        return new RegistryEventConsumer<>() {
+            @Override
+            public void onEntryAddedEvent(EntryAddedEvent<Retry> entryAddedEvent) {
+                Retry retry = entryAddedEvent.getAddedEntry();
+                if (PRODUCT.equals(retry.getName())) {
+                    retry.getEventPublisher().onRetry(event -> productRetryBudget.withdraw());
+                }
+            }
+
+            @Override
+            public void onEntryRemovedEvent(EntryRemovedEvent<Retry> entryRemoveEvent) {
+            }
+
+            @Override
+            public void onEntryReplacedEvent(EntryReplacedEvent<Retry> entryReplacedEvent) {
+            }
+        };
+    }
+
+    private static <T> void withRetryBudget(RetryConfig.Builder<T> builder, RetryBudget retryBudget) {
+        IntervalBiFunction<T> intervalBiFunction = builder.build().getIntervalBiFunction();
+
+        builder.intervalBiFunction((attempt, either) -> {
+            if (either.isLeft() && !retryBudget.canRetry()) {
+                throw Exceptions.propagate(either.getLeft());
+            }
+            return intervalBiFunction.apply(attempt, either);
+        });
+    }
+}
@@ -0,0 +1,62 @@
+package org.tbl.microdaddy.composite.product.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/*
+    In-flight request deduplication (a.k.a. "single flight").
+
+    The first caller for a key creates the Mono and becomes the leader. Every caller that shows up for the
+    same key before the leader's Mono terminates subscribes to the same shared Mono, so the upstream work
+    is only done once. The entry is removed as soon as the shared Mono terminates, so nothing is remembered
+    after that (caching results is someone else's job).
+ */
+@Slf4j
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter leaders;
+    private final Counter joiners;
+
+    public SingleFlight(String name, MeterRegistry meterRegistry) {
+        this.leaders = counter(meterRegistry, name, "leader");
+        this.joiners = counter(meterRegistry, name, "joined");
+    }
+
+    public Mono<V> execute(K key, Function<K, Mono<V>> supplier) {
+        return Mono.defer(() -> {
+            AtomicReference<Mono<V>> created = new AtomicReference<>();
+
+            Mono<V> shared = inFlight.computeIfAbsent(key, k -> {
+                created.set(Mono.defer(() -> supplier.apply(k))
+                        .doFinally(signal -> inFlight.remove(k, created.get()))
+                        .cache());
+                return created.get();
+            });
+
+            if (shared == created.get()) {
+                leaders.increment();
+            } else {
+                log.debug("singleFlight::key::{}::JOINED", key);
+                joiners.increment();
+            }
+            return shared;
+        });
+    }
+
+    private Counter counter(MeterRegistry meterRegistry, String name, String role) {
+        return Counter.builder("singleflight.calls")
+                .description("Number of callers that started (leader) or attached to (joined) an in-flight call")
+                .tag("name", name)
+                .tag("role", role)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,115 @@
+package org.tbl.microdaddy.composite.product;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.tbl.microdaddy.api.exceptions.ServiceUnavailableException;
+import org.tbl.microdaddy.composite.product.services.ConcurrencyLimiter;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.time.Duration.ofMillis;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+
+class ConcurrencyLimiterTests {
+
+    private static final int INITIAL_LIMIT = 4;
+
+    private SimpleMeterRegistry meterRegistry;
+    private ConcurrencyLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        limiter = new ConcurrencyLimiter("test", true, INITIAL_LIMIT, 2, 100, meterRegistry);
+    }
+
+    @Test
+    void callsOverTheLimitAreRejectedRightAway() {
+
+        List<Disposable> outstanding = new ArrayList<>();
+        for (int i = 0; i < INITIAL_LIMIT; i++) {
+            outstanding.add(limiter.execute(Flux.never()).subscribe());
+        }
+
+        StepVerifier.create(limiter.execute(Mono.just("over the limit")))
+                .expectError(ServiceUnavailableException.class)
+                .verify(Duration.ofSeconds(1));
+
+        assertEquals(1.0, meterRegistry.get("concurrency.rejected").counter().count());
+        assertEquals(INITIAL_LIMIT, meterRegistry.get("concurrency.inflight").gauge().value());
+
+        // cancelled calls give their slot back
+        outstanding.forEach(Disposable::dispose);
+        assertEquals(0.0, meterRegistry.get("concurrency.inflight").gauge().value());
+
+        StepVerifier.create(limiter.execute(Mono.just("within the limit")))
+                .expectNext("within the limit")
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void limitGrowsWhileLatencyIsStable() {
+
+        // keep the limiter busy, calls made w/ less than half the limit in flight don't change it
+        for (int round = 0; round < 10; round++) {
+            callsAtTheLimit(ofMillis(10));
+        }
+
+        assertTrue(limiter.getLimit() > INITIAL_LIMIT, "limit: " + limiter.getLimit());
+        assertEquals(limiter.getLimit(), meterRegistry.get("concurrency.limit").gauge().value());
+    }
+
+    @Test
+    void limitShrinksWhenLatencyGoesUp() {
+
+        limiter = new ConcurrencyLimiter("test", true, 20, 2, 100, new SimpleMeterRegistry());
+
+        for (int round = 0; round < 3; round++) {
+            callsAtTheLimit(ofMillis(10));
+        }
+        int limitBefore = limiter.getLimit();
+
+        // ten times slower than the average so far
+        for (int round = 0; round < 3; round++) {
+            callsAtTheLimit(ofMillis(100));
+        }
+
+        assertTrue(limiter.getLimit() < limitBefore, "limit: " + limiter.getLimit() + ", was: " + limitBefore);
+    }
+
+    @Test
+    void limitBacksOffOnServerErrors() {
+
+        limiter = new ConcurrencyLimiter("test", true, 20, 2, 100, new SimpleMeterRegistry());
+
+        for (int i = 0; i < 10; i++) {
+            StepVerifier.create(limiter.execute(Mono.error(WebClientResponseException.create(
+                            SERVICE_UNAVAILABLE.value(), "Service Unavailable", null, null, null))))
+                    .expectError(WebClientResponseException.class)
+                    .verify(Duration.ofSeconds(1));
+        }
+
+        // 20 * 0.9^10
+        assertEquals(6, limiter.getLimit());
+    }
+
+    // as many calls as the limit allows, all at the same time. The last ones are rejected if it goes down.
+    private void callsAtTheLimit(Duration latency) {
+        int limit = limiter.getLimit();
+        Flux.range(0, limit)
+                .flatMap(i -> limiter.execute(Mono.delay(latency))
+                        .onErrorResume(ServiceUnavailableException.class, ex -> Mono.empty()), limit)
+                .blockLast();
+    }
+}
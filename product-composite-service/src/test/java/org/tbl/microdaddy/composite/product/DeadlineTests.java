@@ -0,0 +1,116 @@
+package org.tbl.microdaddy.composite.product;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.tbl.microdaddy.api.exceptions.DeadlineExceededException;
+import org.tbl.microdaddy.util.http.Deadline;
+import org.tbl.microdaddy.util.http.DeadlineWebFilter;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.http.HttpStatus.GATEWAY_TIMEOUT;
+import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+import static org.springframework.web.reactive.function.server.ServerResponse.ok;
+
+class DeadlineTests {
+
+    private final List<ClientRequest> sent = new ArrayList<>();
+
+    @Test
+    void remainingTimeIsSentAlong() {
+
+        StepVerifier.create(call(Mono.just(ClientResponse.create(OK).build()))
+                        .contextWrite(context -> context.put(Deadline.class, Deadline.after(Duration.ofSeconds(5)))))
+                .expectNextCount(1)
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+
+        long remainingMs = Long.parseLong(sent.get(0).headers().getFirst(Deadline.HEADER));
+        assertTrue(remainingMs > 4000 && remainingMs <= 5000, "remaining: " + remainingMs);
+    }
+
+    @Test
+    void callIsCutShortByTheDeadline() {
+
+        StepVerifier.create(call(Mono.never())
+                        .contextWrite(context -> context.put(Deadline.class, Deadline.after(Duration.ofMillis(100)))))
+                .expectError(DeadlineExceededException.class)
+                .verify(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void noCallOnceTheDeadlineHasPassed() {
+
+        StepVerifier.create(call(Mono.never())
+                        .contextWrite(context -> context.put(Deadline.class, Deadline.after(Duration.ZERO))))
+                .expectError(DeadlineExceededException.class)
+                .verify(Duration.ofSeconds(1));
+
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    void noDeadlineNoHeader() {
+
+        StepVerifier.create(call(Mono.just(ClientResponse.create(OK).build())))
+                .expectNextCount(1)
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+
+        assertNull(sent.get(0).headers().getFirst(Deadline.HEADER));
+    }
+
+    @Test
+    void requestIsCancelledWhenItsDeadlinePasses() {
+
+        AtomicBoolean cancelled = new AtomicBoolean();
+
+        WebTestClient client = WebTestClient
+                .bindToRouterFunction(route(GET("/slow"), request -> ok().body(
+                        Mono.delay(Duration.ofSeconds(5)).doOnCancel(() -> cancelled.set(true)), Long.class)))
+                .webFilter(new DeadlineWebFilter())
+                .build();
+
+        client.get()
+                .uri("/slow")
+                .header(Deadline.HEADER, "200")
+                .exchange()
+                .expectStatus().isEqualTo(GATEWAY_TIMEOUT);
+
+        assertTrue(cancelled.get());
+
+        // an expired deadline isn't processed at all
+        cancelled.set(false);
+        client.get()
+                .uri("/slow")
+                .header(Deadline.HEADER, "0")
+                .exchange()
+                .expectStatus().isEqualTo(GATEWAY_TIMEOUT);
+
+        assertFalse(cancelled.get());
+    }
+
+    private Mono<ClientResponse> call(Mono<ClientResponse> response) {
+        ExchangeFunction next = request -> {
+            sent.add(request);
+            return response;
+        };
+        return Deadline.propagate()
+                .filter(ClientRequest.create(HttpMethod.GET, URI.create("http://product/product/1")).build(), next);
+    }
+}
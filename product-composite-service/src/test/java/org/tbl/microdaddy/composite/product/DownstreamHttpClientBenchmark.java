@@ -0,0 +1,122 @@
+package org.tbl.microdaddy.composite.product;
+
+import com.sun.management.OperatingSystemMXBean;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.tbl.microdaddy.composite.product.services.DownstreamHttpClientConfig;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+    Compares the two setups of DownstreamHttpClientConfig, a pool of HTTP/1.1 connections and h2c, for the
+    fan-out of product-composite: connections opened, calls per second and CPU time per call, w/ CONCURRENCY
+    calls in flight to a local core service. CPU time is the one of the whole process (client and server),
+    as the calls run on the Netty event loops.
+
+    Not part of the regular test run:
+        BENCHMARK=true ./gradlew :product-composite-service:test --tests '*DownstreamHttpClientBenchmark' -i
+ */
+@Slf4j
+@EnabledIfEnvironmentVariable(named = "BENCHMARK", matches = "true")
+class DownstreamHttpClientBenchmark {
+
+    private static final int WARMUP_CALLS = 10_000;
+    private static final int CALLS = 50_000;
+    private static final int CONCURRENCY = 64;
+    private static final int MAX_CONNECTIONS = 50;
+
+    // about the size of a page of reviews
+    private static final String BODY = "[" + "{\"productId\":1,\"reviewId\":1,\"author\":\"author\"},".repeat(40)
+            + "{}]";
+
+    @Test
+    void compareHttp11AndH2c() {
+
+        Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+        DisposableServer server = HttpServer.create()
+                .port(0)
+                .protocol(HttpProtocol.H2C, HttpProtocol.HTTP11)
+                .handle((request, response) -> {
+                    clientPorts.add(request.remoteAddress().getPort());
+                    return response.sendString(Mono.just(BODY));
+                })
+                .bindNow();
+
+        try {
+            Result http11 = measure("http/1.1", false, server, clientPorts);
+            Result h2c = measure("h2c", true, server, clientPorts);
+
+            log.info("{}", http11);
+            log.info("{}", h2c);
+            log.info("h2c/http/1.1: connections = {}%, calls/s = {}%, cpu = {}%",
+                    100 * h2c.connections / http11.connections,
+                    100 * h2c.callsPerSecond / http11.callsPerSecond,
+                    100 * h2c.cpuNanosPerCall / http11.cpuNanosPerCall);
+
+            assertTrue(h2c.connections < http11.connections);
+        } finally {
+            server.disposeNow();
+        }
+    }
+
+    private record Result(String protocol, long connections, long callsPerSecond, long cpuNanosPerCall) {
+        @Override
+        public String toString() {
+            return String.format("%-8s connections = %3d, calls/s = %7d, cpu/call = %7d ns",
+                    protocol, connections, callsPerSecond, cpuNanosPerCall);
+        }
+    }
+
+    private Result measure(String protocol, boolean h2c, DisposableServer server, Set<Integer> clientPorts) {
+
+        DownstreamHttpClientConfig config = new DownstreamHttpClientConfig();
+        ConnectionProvider connectionProvider = config.downstreamConnectionProvider(h2c, MAX_CONNECTIONS, 100,
+                1000, 1000, 20000, 300000, 10000);
+        WebClient webClient = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(config.downstreamHttpClient(connectionProvider, h2c)))
+                .baseUrl("http://localhost:" + server.port())
+                .build();
+
+        try {
+            clientPorts.clear();
+            call(webClient, WARMUP_CALLS);
+
+            OperatingSystemMXBean os = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+            long startCpu = os.getProcessCpuTime();
+            long start = System.nanoTime();
+            call(webClient, CALLS);
+            long elapsedNanos = System.nanoTime() - start;
+            long cpuNanos = os.getProcessCpuTime() - startCpu;
+
+            return new Result(protocol, clientPorts.size(), CALLS * 1_000_000_000L / elapsedNanos,
+                    cpuNanos / CALLS);
+        } finally {
+            connectionProvider.dispose();
+        }
+    }
+
+    private void call(WebClient webClient, int calls) {
+        long bytes = Flux.range(0, calls)
+                .flatMap(i -> webClient.get().uri("/review?productId=1").retrieve().bodyToMono(String.class),
+                        CONCURRENCY)
+                .map(String::length)
+                .reduce(0L, Long::sum)
+                .block(Duration.ofMinutes(2));
+        assertEquals((long) calls * BODY.length(), bytes);
+    }
+}
@@ -0,0 +1,114 @@
+package org.tbl.microdaddy.composite.product;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.tbl.microdaddy.composite.product.services.DownstreamHttpClientConfig;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DownstreamHttpClientTests {
+
+    private static final int CALLS = 20;
+    private static final String HTTP2_STREAM_ID = "x-http2-stream-id";
+    private static final String H2C = "h2c";
+    private static final String HTTP11 = "http/1.1";
+
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    private DisposableServer server;
+    private ConnectionProvider connectionProvider;
+
+    @BeforeEach
+    void setUp() {
+        // a core service: Netty w/ server.http2.enabled, answering w/ the protocol of the call after 100ms.
+        // HTTP/2 streams are handed over as HTTP/1.1 requests, w/ the stream id as an extension header.
+        server = HttpServer.create()
+                .port(0)
+                .protocol(HttpProtocol.H2C, HttpProtocol.HTTP11)
+                .handle((request, response) -> {
+                    clientPorts.add(request.remoteAddress().getPort());
+                    String protocol = request.requestHeaders().contains(HTTP2_STREAM_ID) ? H2C : HTTP11;
+                    return response.sendString(Mono.delay(Duration.ofMillis(100)).thenReturn(protocol));
+                })
+                .bindNow();
+    }
+
+    @AfterEach
+    void tearDown() {
+        connectionProvider.dispose();
+        server.disposeNow();
+    }
+
+    @Test
+    void http11CallsShareAPoolOfUpToMaxConnections() {
+
+        List<String> protocols = callConcurrently(webClient(false, 4, 100));
+
+        assertEquals(CALLS, protocols.size());
+        assertTrue(protocols.stream().allMatch(HTTP11::equals));
+        assertTrue(clientPorts.size() <= 4, "connections: " + clientPorts.size());
+    }
+
+    @Test
+    void h2cCallsAreMultiplexed() {
+
+        List<String> protocols = callConcurrently(webClient(true, 4, 100));
+
+        assertEquals(CALLS, protocols.size());
+        assertTrue(protocols.stream().allMatch(H2C::equals));
+        assertTrue(clientPorts.size() < CALLS / 4, "connections: " + clientPorts.size());
+    }
+
+    @Test
+    void callsOverThePendingAcquireLimitFailRightAway() {
+
+        WebClient webClient = webClient(false, 1, 1);
+
+        long start = System.nanoTime();
+        List<Boolean> succeeded = Flux.range(0, CALLS)
+                .flatMap(i -> call(webClient).map(protocol -> true).onErrorReturn(false), CALLS)
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        // one call on the connection, one waiting for it, the others rejected
+        assertEquals(2, succeeded.stream().filter(ok -> ok).count());
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 1000);
+    }
+
+    private WebClient webClient(boolean h2c, int maxConnections, int pendingAcquireMaxCount) {
+        DownstreamHttpClientConfig config = new DownstreamHttpClientConfig();
+        connectionProvider = config.downstreamConnectionProvider(h2c, maxConnections, 100, pendingAcquireMaxCount,
+                1000, 20000, 300000, 10000);
+        return WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(
+                        config.downstreamHttpClient(connectionProvider, h2c)))
+                .baseUrl("http://localhost:" + server.port())
+                .build();
+    }
+
+    private List<String> callConcurrently(WebClient webClient) {
+        return Flux.range(0, CALLS)
+                .flatMap(i -> call(webClient), CALLS)
+                .collectList()
+                .block(Duration.ofSeconds(10));
+    }
+
+    private static Mono<String> call(WebClient webClient) {
+        return webClient.get().uri("/product/1").retrieve().bodyToMono(String.class);
+    }
+}
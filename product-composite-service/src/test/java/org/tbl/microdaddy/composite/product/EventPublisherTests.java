@@ -0,0 +1,221 @@
+package org.tbl.microdaddy.composite.product;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.integration.kafka.outbound.KafkaProducerMessageHandler;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.tbl.microdaddy.composite.product.services.EventPublisher;
+import org.tbl.microdaddy.composite.product.services.KafkaSendFutures;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BooleanSupplier;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.integration.kafka.support.KafkaIntegrationHeaders.FUTURE_TOKEN;
+import static org.tbl.microdaddy.composite.product.services.EventPublisher.Acks.KAFKA_SEND_FUTURES;
+import static org.tbl.microdaddy.composite.product.services.EventPublisher.Acks.SEND;
+
+class EventPublisherTests {
+
+    private static final String BINDING = "products-out-0";
+
+    private final CountDownLatch firstSendStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseFirstSend = new CountDownLatch(1);
+
+    // the drainer of the publisher under test, other publishers (of application contexts) use the same names
+    private volatile Thread sendingThread;
+
+    private StreamBridge streamBridge;
+    private SimpleMeterRegistry meterRegistry;
+    private EventPublisher publisher;
+
+    @BeforeEach
+    void setUp() {
+        streamBridge = mock(StreamBridge.class);
+        meterRegistry = new SimpleMeterRegistry();
+
+        // the first send blocks until released, everything queued meanwhile ends up in the next batch
+        when(streamBridge.send(eq(BINDING), any(Message.class))).thenAnswer(invocation -> {
+            sendingThread = Thread.currentThread();
+            firstSendStarted.countDown();
+            releaseFirstSend.await(5, SECONDS);
+            return true;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        releaseFirstSend.countDown();
+        if (publisher != null) {
+            publisher.stop();
+        }
+    }
+
+    @Test
+    void eventsQueuedWhileSendingAreSentAsOneBatch() throws InterruptedException {
+
+        EventPublisher publisher = publisher(100);
+
+        Mono<Void> first = publisher.publish(BINDING, message(1)).cache();
+        first.subscribe();
+        assertTrue(firstSendStarted.await(5, SECONDS));
+
+        Flux<Void> rest = Flux.range(2, 5)
+                .flatMap(productId -> publisher.publish(BINDING, message(productId)))
+                .cache();
+        rest.subscribe();
+
+        releaseFirstSend.countDown();
+
+        StepVerifier.create(first.thenMany(rest)).expectComplete().verify(Duration.ofSeconds(5));
+
+        DistributionSummary batchSize = meterRegistry.get("publisher.batch.size").tag("binding", BINDING).summary();
+        assertEquals(2, batchSize.count());
+        assertEquals(5.0, batchSize.max());
+    }
+
+    @Test
+    void eventIsRejectedWhenQueueIsFull() throws InterruptedException {
+
+        EventPublisher publisher = publisher(1);
+
+        publisher.publish(BINDING, message(1)).subscribe();
+        assertTrue(firstSendStarted.await(5, SECONDS));
+
+        // fills the queue
+        publisher.publish(BINDING, message(2)).subscribe();
+
+        StepVerifier.create(publisher.publish(BINDING, message(3)))
+                .expectError(RejectedExecutionException.class)
+                .verify(Duration.ofSeconds(5));
+
+        assertEquals(1.0, meterRegistry.get("publisher.rejected").tag("binding", BINDING).counter().count());
+    }
+
+    @Test
+    void failedSendFailsTheCaller() {
+
+        when(streamBridge.send(eq(BINDING), any(Message.class))).thenReturn(false);
+
+        StepVerifier.create(publisher(100).publish(BINDING, message(1)))
+                .expectError(IllegalStateException.class)
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void kafkaBatchIsSentBeforeItsAcksAreAwaited() {
+
+        KafkaSendFutures kafkaSendFutures = new KafkaSendFutures();
+        KafkaProducerMessageHandler<?, ?> handler = mock(KafkaProducerMessageHandler.class);
+        kafkaSendFutures.configure(handler, "products");
+        ArgumentCaptor<MessageChannel> futuresChannel = ArgumentCaptor.forClass(MessageChannel.class);
+        verify(handler).setFuturesChannel(futuresChannel.capture());
+
+        // the binder hands back a send future per record, completed by the broker later on
+        List<CompletableFuture<Object>> sendFutures = new CopyOnWriteArrayList<>();
+        when(streamBridge.send(eq(BINDING), any(Message.class))).thenAnswer(invocation -> {
+            CompletableFuture<Object> sendFuture = new CompletableFuture<>();
+            sendFutures.add(sendFuture);
+            Message<?> message = invocation.getArgument(1);
+            futuresChannel.getValue().send(MessageBuilder.withPayload(sendFuture)
+                    .setHeader(FUTURE_TOKEN, message.getHeaders().get(FUTURE_TOKEN))
+                    .build());
+            return true;
+        });
+
+        publisher = new EventPublisher(streamBridge, 100, 50, 50, KAFKA_SEND_FUTURES, 5000, kafkaSendFutures,
+                meterRegistry);
+
+        Mono<Void> sent = publisher.publish(BINDING, message(1)).cache();
+        Mono<Void> failed = publisher.publish(BINDING, message(2)).cache();
+        Mono<Void> sentToo = publisher.publish(BINDING, message(3)).cache();
+        sent.subscribe(null, ex -> { });
+        failed.subscribe(null, ex -> { });
+        sentToo.subscribe(null, ex -> { });
+
+        // all of the batch is sent w/o waiting for the broker
+        await(() -> sendFutures.size() == 3);
+        sendFutures.get(0).complete(null);
+        sendFutures.get(1).completeExceptionally(new IllegalStateException("not leader"));
+        sendFutures.get(2).complete(null);
+
+        StepVerifier.create(sent).expectComplete().verify(Duration.ofSeconds(5));
+        StepVerifier.create(failed).expectError(IllegalStateException.class).verify(Duration.ofSeconds(5));
+        StepVerifier.create(sentToo).expectComplete().verify(Duration.ofSeconds(5));
+        assertEquals(1, meterRegistry.get("publisher.batch.size").tag("binding", BINDING).summary().count());
+    }
+
+    private EventPublisher publisher(int queueCapacity) {
+        publisher = new EventPublisher(streamBridge, queueCapacity, 50, 0, SEND, 5000, new KafkaSendFutures(),
+                meterRegistry);
+        return publisher;
+    }
+
+    @Test
+    void interruptFailsTheQueuedEventsAndEndsTheDrainLoop() throws InterruptedException {
+
+        EventPublisher publisher = publisher(100);
+
+        Mono<Void> first = publisher.publish(BINDING, message(1)).cache();
+        first.subscribe(null, ex -> { });
+        assertTrue(firstSendStarted.await(5, SECONDS));
+
+        Mono<Void> queued = publisher.publish(BINDING, message(2)).cache();
+        queued.subscribe(null, ex -> { });
+
+        Thread drainer = sendingThread;
+        drainer.interrupt();
+
+        StepVerifier.create(first)
+                .expectError(InterruptedException.class)
+                .verify(Duration.ofSeconds(5));
+        StepVerifier.create(queued)
+                .expectError(InterruptedException.class)
+                .verify(Duration.ofSeconds(5));
+
+        drainer.join(5000);
+        assertFalse(drainer.isAlive());
+
+        // the next event starts a new drain loop
+        releaseFirstSend.countDown();
+
+        StepVerifier.create(publisher.publish(BINDING, message(3)))
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.onSpinWait();
+        }
+    }
+
+    private Message<Integer> message(int productId) {
+        return MessageBuilder.withPayload(productId).build();
+    }
+}
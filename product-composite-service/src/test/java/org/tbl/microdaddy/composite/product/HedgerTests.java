@@ -0,0 +1,143 @@
+package org.tbl.microdaddy.composite.product;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.tbl.microdaddy.composite.product.services.Hedger;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.time.Duration.ofMillis;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HedgerTests {
+
+    private static final int BUDGET_PERCENT = 5;
+
+    private SimpleMeterRegistry meterRegistry;
+    private Hedger hedger;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        hedger = new Hedger("test", true, 0.95, ofMillis(50), BUDGET_PERCENT, meterRegistry);
+    }
+
+    @Test
+    void slowCallIsHedgedWithinBudget() {
+
+        fillBudget();
+
+        AtomicInteger calls = new AtomicInteger();
+
+        // first call is slow, the hedge answers right away
+        Flux<String> result = hedger.execute(() -> calls.incrementAndGet() == 1
+                ? Flux.just("slow").delayElements(Duration.ofSeconds(5))
+                : Flux.just("hedge"));
+
+        StepVerifier.create(result)
+                .expectNext("hedge")
+                .expectComplete()
+                .verify(Duration.ofSeconds(2));
+
+        assertEquals(2, calls.get());
+        assertEquals(1.0, meterRegistry.get("hedge.requests").tag("result", "sent").counter().count());
+
+        // the cancelled first call doesn't count towards the hedge delay
+        assertEquals(100 / BUDGET_PERCENT, meterRegistry.get("hedge.latency").timer().count());
+    }
+
+    @Test
+    void failingFirstCallDefersToTheHedge() {
+
+        fillBudget();
+
+        AtomicInteger calls = new AtomicInteger();
+
+        // first call fails while the hedge is still running
+        Flux<String> result = hedger.execute(() -> calls.incrementAndGet() == 1
+                ? Flux.<String>error(new IllegalStateException("first")).delaySubscription(ofMillis(100))
+                : Flux.just("hedge").delayElements(ofMillis(200)));
+
+        StepVerifier.create(result)
+                .expectNext("hedge")
+                .expectComplete()
+                .verify(Duration.ofSeconds(2));
+    }
+
+    @Test
+    void errorOfTheLastCallToFailIsPropagated() {
+
+        fillBudget();
+
+        AtomicInteger calls = new AtomicInteger();
+
+        Flux<String> result = hedger.execute(() -> calls.incrementAndGet() == 1
+                ? Flux.<String>error(new IllegalStateException("first")).delaySubscription(ofMillis(100))
+                : Flux.<String>error(new IllegalStateException("hedge")).delaySubscription(ofMillis(200)));
+
+        StepVerifier.create(result)
+                .expectErrorMessage("hedge")
+                .verify(Duration.ofSeconds(2));
+    }
+
+    @Test
+    void failingCallIsNotHedged() {
+
+        AtomicInteger calls = new AtomicInteger();
+
+        StepVerifier.create(hedger.execute(() -> {
+                    calls.incrementAndGet();
+                    return Flux.<String>error(new IllegalStateException("first"));
+                }))
+                .expectErrorMessage("first")
+                .verify(Duration.ofSeconds(2));
+
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void noHedgeWhenBudgetIsExhausted() {
+
+        AtomicInteger calls = new AtomicInteger();
+
+        Flux<String> result = hedger.execute(() -> {
+            calls.incrementAndGet();
+            return Flux.just("slow").delayElements(ofMillis(200));
+        });
+
+        StepVerifier.create(result)
+                .expectNext("slow")
+                .verifyComplete();
+
+        assertEquals(1, calls.get());
+        assertEquals(1.0, meterRegistry.get("hedge.requests").tag("result", "budget_exhausted").counter().count());
+    }
+
+    @Test
+    void fastCallIsNotHedged() {
+
+        fillBudget();
+
+        AtomicInteger calls = new AtomicInteger();
+
+        StepVerifier.create(hedger.execute(() -> {
+                    calls.incrementAndGet();
+                    return Flux.just("fast");
+                }))
+                .expectNext("fast")
+                .verifyComplete();
+
+        assertEquals(1, calls.get());
+    }
+
+    // every call deposits BUDGET_PERCENT / 100 of a hedge
+    private void fillBudget() {
+        for (int i = 0; i < 100 / BUDGET_PERCENT; i++) {
+            hedger.execute(() -> Flux.just("fast")).blockLast();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.tbl.microdaddy.composite.product;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.tbl.microdaddy.util.security.CachingReactiveJwtDecoder;
+import org.tbl.microdaddy.util.security.RefreshingJwkSource;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.springframework.http.HttpHeaders.CONTENT_TYPE;
+import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+
+class JwtCacheTests {
+
+    private static final String JWK_SET_URI = "http://auth-server/oauth2/jwks";
+
+    private final AtomicInteger jwkSetFetches = new AtomicInteger();
+    private final AtomicInteger decodes = new AtomicInteger();
+
+    private RSAKey signingKey;
+    private RefreshingJwkSource jwkSource;
+    private CachingReactiveJwtDecoder decoder;
+
+    @BeforeEach
+    void setUp() throws JOSEException, InterruptedException {
+        signingKey = new RSAKeyGenerator(2048).keyID("key-1").generate();
+
+        // the auth server, serving the public part of the signing key
+        WebClient webClient = WebClient.builder()
+                .exchangeFunction(request -> {
+                    jwkSetFetches.incrementAndGet();
+                    return Mono.just(ClientResponse.create(OK)
+                            .header(CONTENT_TYPE, APPLICATION_JSON_VALUE)
+                            .body(new JWKSet(signingKey.toPublicJWK()).toString())
+                            .build());
+                })
+                .build();
+
+        jwkSource = new RefreshingJwkSource("", JWK_SET_URI, Duration.ofMinutes(5), Duration.ofSeconds(30),
+                webClient);
+
+        ReactiveJwtDecoder nimbus = NimbusReactiveJwtDecoder.withJwkSource(jwkSource::keys).build();
+        ReactiveJwtDecoder counting = token -> {
+            decodes.incrementAndGet();
+            return nimbus.decode(token);
+        };
+        decoder = new CachingReactiveJwtDecoder(counting, jwkSource, 100, new SimpleMeterRegistry());
+
+        // the prefetch runs in the background
+        for (int i = 0; i < 100 && jwkSetFetches.get() == 0; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        decoder.close();
+    }
+
+    @Test
+    void jwkSetIsFetchedAheadOfTheFirstToken() throws JOSEException {
+
+        assertEquals(1, jwkSetFetches.get());
+
+        StepVerifier.create(decoder.decode(token(signingKey, Instant.now().plusSeconds(60))))
+                .expectNextCount(1)
+                .verifyComplete();
+
+        assertEquals(1, jwkSetFetches.get());
+    }
+
+    @Test
+    void tokenIsVerifiedOnceUntilItExpires() throws JOSEException {
+
+        String token = token(signingKey, Instant.now().plusSeconds(60));
+
+        Jwt first = decoder.decode(token).block();
+        Jwt second = decoder.decode(token).block();
+
+        assertSame(first, second);
+        assertEquals(1, decodes.get());
+    }
+
+    @Test
+    void expiredTokenIsEvicted() throws JOSEException, InterruptedException {
+
+        // still accepted afterwards, within the clock skew of the validator
+        String token = token(signingKey, Instant.now().plusMillis(1100));
+
+        decoder.decode(token).block();
+        Thread.sleep(1200);
+        decoder.decode(token).block();
+
+        assertEquals(2, decodes.get());
+    }
+
+    @Test
+    void invalidTokenIsNotCached() throws JOSEException {
+
+        RSAKey otherKey = new RSAKeyGenerator(2048).keyID("key-1").generate();
+        String forged = token(otherKey, Instant.now().plusSeconds(60));
+
+        for (int i = 0; i < 2; i++) {
+            StepVerifier.create(decoder.decode(forged))
+                    .expectError(JwtException.class)
+                    .verify(Duration.ofSeconds(5));
+        }
+        assertEquals(2, decodes.get());
+    }
+
+    @Test
+    void unknownKeyFetchesTheJwkSetAtMostOncePerInterval() throws JOSEException {
+
+        RSAKey unknownKey = new RSAKeyGenerator(2048).keyID("key-2").generate();
+
+        for (int i = 0; i < 3; i++) {
+            StepVerifier.create(decoder.decode(token(unknownKey, Instant.now().plusSeconds(60))))
+                    .expectError(JwtException.class)
+                    .verify(Duration.ofSeconds(5));
+        }
+
+        // the prefetch, and one on demand
+        assertEquals(2, jwkSetFetches.get());
+    }
+
+    private static String token(RSAKey key, Instant expiresAt) throws JOSEException {
+        SignedJWT jwt = new SignedJWT(
+                new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(),
+                new JWTClaimsSet.Builder()
+                        .subject("writer")
+                        .claim("scope", "product:read product:write")
+                        .issueTime(new Date())
+                        .expirationTime(Date.from(expiresAt))
+                        .build());
+        jwt.sign(new RSASSASigner(key));
+        return jwt.serialize();
+    }
+}
@@ -0,0 +1,100 @@
+package org.tbl.microdaddy.composite.product;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.tbl.microdaddy.util.security.CachingReactiveJwtDecoder;
+import reactor.core.publisher.Flux;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Instant;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+    Compares the CPU time the gateway and product-composite spend authenticating a request w/ a bearer
+    token that was seen before: parsing and verifying the JWT every time, or once per token w/
+    CachingReactiveJwtDecoder.
+
+    Not part of the regular test run:
+        BENCHMARK=true ./gradlew :product-composite-service:test --tests '*JwtDecoderBenchmark' -i
+ */
+@Slf4j
+@EnabledIfEnvironmentVariable(named = "BENCHMARK", matches = "true")
+class JwtDecoderBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 5_000;
+    private static final int ITERATIONS = 20_000;
+
+    @Test
+    void compareUncachedAndCached() throws Exception {
+
+        RSAKey key = new RSAKeyGenerator(2048).keyID("key-1").generate();
+        RSAKey publicKey = key.toPublicJWK();
+        String token = token(key);
+
+        ReactiveJwtDecoder uncached = NimbusReactiveJwtDecoder.withJwkSource(jwt -> Flux.just(publicKey)).build();
+        ReactiveJwtDecoder cached = new CachingReactiveJwtDecoder(
+                NimbusReactiveJwtDecoder.withJwkSource(jwt -> Flux.just(publicKey)).build(),
+                null, 100, new SimpleMeterRegistry());
+
+        Result uncachedResult = measure("uncached", uncached, token);
+        Result cachedResult = measure("cached", cached, token);
+
+        log.info("{}", uncachedResult);
+        log.info("{}", cachedResult);
+        log.info("cached/uncached: cpu = {}%",
+                100 * cachedResult.cpuNanosPerRequest / uncachedResult.cpuNanosPerRequest);
+
+        assertTrue(cachedResult.cpuNanosPerRequest < uncachedResult.cpuNanosPerRequest);
+    }
+
+    private record Result(String decoder, long cpuNanosPerRequest) {
+        @Override
+        public String toString() {
+            return String.format("%-8s cpu/request = %7d ns", decoder, cpuNanosPerRequest);
+        }
+    }
+
+    private Result measure(String name, ReactiveJwtDecoder decoder, String token) {
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            decoder.decode(token).block();
+        }
+
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        long start = threadMXBean.getCurrentThreadCpuTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertEquals("writer", decoder.decode(token).block().getSubject());
+        }
+        long cpuNanos = threadMXBean.getCurrentThreadCpuTime() - start;
+
+        return new Result(name, cpuNanos / ITERATIONS);
+    }
+
+    private static String token(RSAKey key) throws Exception {
+        SignedJWT jwt = new SignedJWT(
+                new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(),
+                new JWTClaimsSet.Builder()
+                        .subject("writer")
+                        .claim("scope", "product:read product:write")
+                        .issueTime(new Date())
+                        .expirationTime(Date.from(Instant.now().plusSeconds(3600)))
+                        .build());
+        jwt.sign(new RSASSASigner(key));
+        return jwt.serialize();
+    }
+}
@@ -41,7 +41,9 @@ import static reactor.core.publisher.Mono.just;
         properties = {
                 "spring.security.oauth2.resourceserver.jwt.issuer-uri=",
                 "spring.main.allow-bean-definition-overriding=true",
-                "spring.cloud.stream.default-binder=rabbit"
+                "spring.cloud.stream.default-binder=rabbit",
+                // the test binder would otherwise hand the published events to our own consumer.
+                "spring.cloud.stream.bindings.messageProcessor-in-0.destination=messagingTestsInput"
         }
 )
 @Import({TestChannelBinderConfiguration.class})
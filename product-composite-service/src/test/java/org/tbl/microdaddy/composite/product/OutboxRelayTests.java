@@ -0,0 +1,284 @@
+package org.tbl.microdaddy.composite.product;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.result.UpdateResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.tbl.microdaddy.api.composite.product.ProductAggregate;
+import org.tbl.microdaddy.api.composite.product.ReviewSummary;
+import org.tbl.microdaddy.composite.product.persistence.OutboxEntity;
+import org.tbl.microdaddy.composite.product.persistence.OutboxRepository;
+import org.tbl.microdaddy.composite.product.services.OutboxRelay;
+import org.tbl.microdaddy.composite.product.services.ProductCompositeEvents;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.tbl.microdaddy.api.event.Event.Type.CREATE;
+import static org.tbl.microdaddy.api.event.Event.Type.DELETE;
+
+class OutboxRelayTests {
+
+    private static final int BATCH_SIZE = 2;
+    private static final int MAX_EVENTS_IN_FLIGHT = 5;
+    private static final int GAP_TIMEOUT_MS = 5000;
+    private static final String LEASE_COLLECTION = "outbox_lease";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    // the sequence of the lease document, moved by the checkpoints
+    private final AtomicLong leaseSequence = new AtomicLong();
+
+    private OutboxRepository repository;
+    private ReactiveMongoTemplate mongoTemplate;
+    private ProductCompositeEvents compositeEvents;
+    private OutboxRelay relay;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(OutboxRepository.class);
+        mongoTemplate = mock(ReactiveMongoTemplate.class);
+        compositeEvents = mock(ProductCompositeEvents.class);
+        relay = new OutboxRelay(BATCH_SIZE, 200, 30, GAP_TIMEOUT_MS, MAX_EVENTS_IN_FLIGHT, repository, mongoTemplate,
+                mapper, compositeEvents, new SimpleMeterRegistry());
+
+        when(acquireLease()).thenAnswer(invocation -> lease());
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(LEASE_COLLECTION)))
+                .thenAnswer(invocation -> {
+                    Update update = invocation.getArgument(1);
+                    leaseSequence.accumulateAndGet(
+                            update.getUpdateObject().get("$max", Document.class).get("sequence", Long.class),
+                            Math::max);
+                    return Mono.just(UpdateResult.acknowledged(1, 1L, null));
+                });
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(OutboxEntity.class)))
+                .thenReturn(Mono.just(UpdateResult.acknowledged(1, 1L, null)));
+        when(mongoTemplate.updateMulti(any(Query.class), any(UpdateDefinition.class), eq(OutboxEntity.class)))
+                .thenReturn(Mono.just(UpdateResult.acknowledged(BATCH_SIZE, (long) BATCH_SIZE, null)));
+        when(compositeEvents.create(any())).thenReturn(Mono.empty());
+        when(compositeEvents.delete(anyInt())).thenReturn(Mono.empty());
+    }
+
+    @Test
+    void relaysAndCheckpointsUntilOutboxIsEmpty() throws Exception {
+
+        List<OutboxEntity> records = IntStream.rangeClosed(1, 3).mapToObj(this::createRecord).toList();
+        records.get(2).setEventType(DELETE);
+        records.get(2).setAggregate(null);
+
+        // a full batch, then the rest
+        when(repository.findByPublishedFalseOrderBySequenceAsc(any(Pageable.class)))
+                .thenReturn(Flux.fromIterable(records.subList(0, 2)))
+                .thenReturn(Flux.fromIterable(records.subList(2, 3)));
+
+        assertEquals(3, relay.relay().block());
+
+        verify(compositeEvents, times(2)).create(any(ProductAggregate.class));
+        verify(compositeEvents).delete(3);
+        verify(mongoTemplate, times(2)).updateMulti(any(Query.class), any(UpdateDefinition.class),
+                eq(OutboxEntity.class));
+    }
+
+    @Test
+    void failedPublishIsNotCheckpointed() {
+
+        when(repository.findByPublishedFalseOrderBySequenceAsc(any(Pageable.class)))
+                .thenReturn(Flux.just(createRecord(1)));
+        when(compositeEvents.create(any())).thenReturn(Mono.error(new IllegalStateException("broker down")));
+
+        relay.relay().onErrorResume(ex -> Mono.just(0)).block();
+
+        verify(mongoTemplate, never()).updateMulti(any(Query.class), any(UpdateDefinition.class),
+                eq(OutboxEntity.class));
+    }
+
+    @Test
+    void noRelayWithoutLease() {
+
+        when(acquireLease()).thenReturn(Mono.error(new DuplicateKeyException("held by another instance")));
+
+        assertEquals(0, relay.relay().block());
+
+        verify(repository, never()).findByPublishedFalseOrderBySequenceAsc(any(Pageable.class));
+    }
+
+    @Test
+    void recordsInFlightAreLimitedByTheirNumberOfEvents() {
+
+        // 1 + 3 events each, so only one of them fits in MAX_EVENTS_IN_FLIGHT
+        List<OutboxEntity> records = List.of(createRecord(1, 3), createRecord(2, 3));
+        when(repository.findByPublishedFalseOrderBySequenceAsc(any(Pageable.class)))
+                .thenReturn(Flux.fromIterable(records))
+                .thenReturn(Flux.empty());
+
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        when(compositeEvents.create(any())).thenReturn(Mono.defer(() -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            return Mono.delay(Duration.ofMillis(10)).doOnTerminate(inFlight::decrementAndGet).then();
+        }));
+
+        assertEquals(2, relay.relay().block());
+
+        assertEquals(1, maxInFlight.get());
+        verify(mongoTemplate, times(2)).updateMulti(any(Query.class), any(UpdateDefinition.class),
+                eq(OutboxEntity.class));
+    }
+
+    @Test
+    void recordsBeforeAFailedOneAreCheckpointed() {
+
+        when(repository.findByPublishedFalseOrderBySequenceAsc(any(Pageable.class)))
+                .thenReturn(Flux.just(createRecord(1), createRecord(2)));
+        when(compositeEvents.create(any()))
+                .thenReturn(Mono.empty())
+                .thenReturn(Mono.error(new IllegalStateException("queue full")));
+
+        assertEquals(1, relay.relay().block());
+
+        ArgumentCaptor<Query> checkpointed = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).updateMulti(checkpointed.capture(), any(UpdateDefinition.class),
+                eq(OutboxEntity.class));
+        assertTrue(checkpointed.getValue().toString().contains("id-1"));
+        assertFalse(checkpointed.getValue().toString().contains("id-2"));
+    }
+
+    @Test
+    void leaseIsRenewedBeforeEveryBatch() {
+
+        when(repository.findByPublishedFalseOrderBySequenceAsc(any(Pageable.class)))
+                .thenReturn(Flux.just(createRecord(1), createRecord(2)))
+                .thenReturn(Flux.just(createRecord(3), createRecord(4)))
+                .thenReturn(Flux.empty());
+
+        assertEquals(4, relay.relay().block());
+
+        verify(mongoTemplate, times(3)).findAndModify(any(Query.class), any(UpdateDefinition.class),
+                any(FindAndModifyOptions.class), eq(Document.class), eq(LEASE_COLLECTION));
+    }
+
+    @Test
+    void relayStopsWhenTheLeaseIsLost() {
+
+        when(repository.findByPublishedFalseOrderBySequenceAsc(any(Pageable.class)))
+                .thenReturn(Flux.just(createRecord(1), createRecord(2)));
+        when(acquireLease())
+                .thenAnswer(invocation -> lease())
+                .thenReturn(Mono.error(new DuplicateKeyException("taken over by another instance")));
+
+        assertEquals(2, relay.relay().block());
+
+        verify(repository, times(1)).findByPublishedFalseOrderBySequenceAsc(any(Pageable.class));
+    }
+
+    @Test
+    void recordsAfterAGapWaitForTheMissingOne() {
+
+        // 2 has taken its sequence, but isn't written yet
+        when(repository.findByPublishedFalseOrderBySequenceAsc(any(Pageable.class)))
+                .thenReturn(Flux.just(createRecord(1), createRecord(3)));
+
+        assertEquals(1, relay.relay().block());
+
+        verify(compositeEvents, times(1)).create(any(ProductAggregate.class));
+        assertEquals(1, leaseSequence.get());
+    }
+
+    @Test
+    void gapIsSkippedAfterTheGapTimeout() {
+
+        OutboxEntity afterGap = createRecord(3);
+        afterGap.setCreatedAt(Instant.now().minusMillis(GAP_TIMEOUT_MS + 1000));
+        when(repository.findByPublishedFalseOrderBySequenceAsc(any(Pageable.class)))
+                .thenReturn(Flux.just(createRecord(1), afterGap))
+                .thenReturn(Flux.empty());
+
+        assertEquals(2, relay.relay().block());
+
+        verify(compositeEvents, times(2)).create(any(ProductAggregate.class));
+        assertEquals(3, leaseSequence.get());
+    }
+
+    @Test
+    void undecodableRecordIsMarkedFailedAndSkipped() {
+
+        OutboxEntity undecodable = createRecord(1);
+        undecodable.setAggregate("{ not an aggregate");
+        when(repository.findByPublishedFalseOrderBySequenceAsc(any(Pageable.class)))
+                .thenReturn(Flux.just(undecodable, createRecord(2)))
+                .thenReturn(Flux.empty());
+
+        assertEquals(2, relay.relay().block());
+
+        verify(compositeEvents, times(1)).create(any(ProductAggregate.class));
+
+        ArgumentCaptor<Query> markedFailed = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<UpdateDefinition> failure = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoTemplate).updateFirst(markedFailed.capture(), failure.capture(), eq(OutboxEntity.class));
+        assertTrue(markedFailed.getValue().toString().contains("id-1"));
+        assertTrue(failure.getValue().getUpdateObject().get("$set", Document.class).containsKey("failure"));
+
+        // published, but w/o publishedAt, the TTL index keeps it
+        ArgumentCaptor<Query> checkpointed = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).updateMulti(checkpointed.capture(), any(UpdateDefinition.class),
+                eq(OutboxEntity.class));
+        assertFalse(checkpointed.getValue().toString().contains("id-1"));
+        assertTrue(checkpointed.getValue().toString().contains("id-2"));
+        assertEquals(2, leaseSequence.get());
+    }
+
+    private Mono<Document> acquireLease() {
+        return mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class),
+                any(FindAndModifyOptions.class), eq(Document.class), eq(LEASE_COLLECTION));
+    }
+
+    private Mono<Document> lease() {
+        return Mono.just(new Document("sequence", leaseSequence.get()));
+    }
+
+    private OutboxEntity createRecord(int productId) {
+        return createRecord(productId, 0);
+    }
+
+    private OutboxEntity createRecord(int productId, int reviews) {
+        try {
+            List<ReviewSummary> reviewSummaries = IntStream.rangeClosed(1, reviews)
+                    .mapToObj(reviewId -> new ReviewSummary(reviewId, "author", "subject", "content"))
+                    .toList();
+            OutboxEntity record = new OutboxEntity(CREATE, productId, mapper.writeValueAsString(
+                    new ProductAggregate(productId, "name", 1, null, reviewSummaries, null)));
+            record.setId("id-" + productId);
+            record.setSequence(productId);
+            return record;
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.tbl.microdaddy.composite.product;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.DefaultRequest;
+import org.springframework.cloud.client.loadbalancer.RequestData;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.tbl.microdaddy.composite.product.services.PeakEwmaLoadBalancer;
+import org.tbl.microdaddy.composite.product.services.PeakEwmaLoadBalancer.HedgedCall;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static java.time.Duration.ofMillis;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.springframework.http.HttpMethod.GET;
+import static org.springframework.http.HttpStatus.OK;
+
+class PeakEwmaLoadBalancerTests {
+
+    private static final ServiceInstance SLOW = instance("10.0.0.1");
+    private static final ServiceInstance FAST = instance("10.0.0.2");
+
+    private final ExchangeFilterFunction trackCalls = PeakEwmaLoadBalancer.trackCalls();
+
+    private SimpleMeterRegistry meterRegistry;
+    private PeakEwmaLoadBalancer loadBalancer;
+    private List<ServiceInstance> chosen;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        loadBalancer = new PeakEwmaLoadBalancer("review", supplier(List.of(SLOW, FAST)), Duration.ofSeconds(10),
+                meterRegistry);
+        chosen = new ArrayList<>();
+    }
+
+    @Test
+    void slowInstanceStopsGettingCalls() {
+
+        Map<ServiceInstance, Duration> latencies = Map.of(SLOW, ofMillis(100), FAST, ofMillis(5));
+
+        // the very first call pays for class loading, and would make whichever instance it went to look slow
+        PeakEwmaLoadBalancer measured = loadBalancer;
+        loadBalancer = new PeakEwmaLoadBalancer("warmup", supplier(List.of(FAST)), Duration.ofSeconds(10),
+                new SimpleMeterRegistry());
+        call(instance -> Mono.delay(latencies.get(instance)).then(ok())).block();
+        loadBalancer = measured;
+        chosen.clear();
+
+        for (int i = 0; i < 20; i++) {
+            call(instance -> Mono.delay(latencies.get(instance)).then(ok())).block();
+        }
+
+        // once to measure it, whichever of the two is tried first
+        assertEquals(1, chosen.stream().filter(SLOW::equals).count());
+        assertEquals(19, chosen.stream().filter(FAST::equals).count());
+    }
+
+    @Test
+    void outstandingCallsAreAvoidedAndCancelledCallsReleased() {
+
+        // never answers, like a hung instance
+        Disposable first = call(instance -> Mono.never()).subscribe();
+        ServiceInstance hung = chosen.get(0);
+
+        call(instance -> ok()).block();
+        assertEquals(List.of(hung, hung.equals(SLOW) ? FAST : SLOW), chosen);
+        assertEquals(1.0, outstanding(hung));
+
+        // e.g. the losing call of a hedged request
+        first.dispose();
+        assertEquals(0.0, outstanding(hung));
+    }
+
+    @Test
+    void hedgeAvoidsTheInstanceOfTheFirstCall() {
+
+        for (int i = 0; i < 20; i++) {
+            HedgedCall hedgedCall = new HedgedCall();
+            call(instance -> ok()).contextWrite(hedgedCall.attempt(false)).block();
+            call(instance -> ok()).contextWrite(hedgedCall.attempt(true)).block();
+
+            assertNotEquals(chosen.get(2 * i), chosen.get(2 * i + 1));
+        }
+    }
+
+    // what the load balancer's own filter does: choose an instance, then call it
+    private Mono<ClientResponse> call(Function<ServiceInstance, Mono<ClientResponse>> instance) {
+        ClientRequest request = ClientRequest.create(GET, URI.create("http://review/review")).build();
+
+        return trackCalls.filter(request, trackedRequest -> loadBalancer
+                .choose(new DefaultRequest<>(new RequestDataContext(new RequestData(trackedRequest))))
+                .flatMap(response -> {
+                    chosen.add(response.getServer());
+                    return instance.apply(response.getServer());
+                }));
+    }
+
+    private double outstanding(ServiceInstance instance) {
+        return meterRegistry.get("loadbalancer.instance.outstanding")
+                .tag("instance", instance.getHost() + ":80")
+                .gauge()
+                .value();
+    }
+
+    private static Mono<ClientResponse> ok() {
+        return Mono.just(ClientResponse.create(OK).build());
+    }
+
+    private static ServiceInstance instance(String host) {
+        return new DefaultServiceInstance(host + ":80", "review", host, 80, false);
+    }
+
+    private static ServiceInstanceListSupplier supplier(List<ServiceInstance> instances) {
+        return new ServiceInstanceListSupplier() {
+            @Override
+            public String getServiceId() {
+                return "review";
+            }
+
+            @Override
+            public Flux<List<ServiceInstance>> get() {
+                return Flux.just(instances);
+            }
+        };
+    }
+}
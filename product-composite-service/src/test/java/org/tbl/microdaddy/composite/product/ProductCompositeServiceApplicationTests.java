@@ -3,29 +3,51 @@ package org.tbl.microdaddy.composite.product;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.HttpStatus;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import org.tbl.microdaddy.api.composite.product.ProductAggregate;
+import org.tbl.microdaddy.api.composite.product.ProductCompositeService;
 import org.tbl.microdaddy.api.core.product.Product;
 import org.tbl.microdaddy.api.core.recommendation.Recommendation;
+import org.tbl.microdaddy.api.core.recommendation.RecommendationStatistics;
 import org.tbl.microdaddy.api.core.review.Review;
+import org.tbl.microdaddy.api.event.Event;
 import org.tbl.microdaddy.api.exceptions.InvalidInputException;
 import org.tbl.microdaddy.api.exceptions.NotFoundException;
+import org.tbl.microdaddy.api.paging.Page;
+import org.tbl.microdaddy.composite.product.services.ProductAggregateCache;
 import org.tbl.microdaddy.composite.product.services.ProductCompositeIntegration;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
 
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
+import static java.time.Duration.ofMillis;
 import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.http.HttpHeaders.CACHE_CONTROL;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
 import static org.springframework.http.HttpStatus.OK;
 import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
+import static org.tbl.microdaddy.api.event.Event.Type.DELETE;
+import static org.tbl.microdaddy.composite.product.services.ProductAggregateCache.Shape.FIRST_PAGE;
 
 @SpringBootTest(
         webEnvironment = RANDOM_PORT,
@@ -47,29 +69,41 @@ class ProductCompositeServiceApplicationTests {
     @MockBean
     private ProductCompositeIntegration compositeIntegration;
 
+    @Autowired
+    private ProductCompositeService compositeService;
+
+    @Autowired
+    private ProductAggregateCache productAggregateCache;
+
+    @Autowired
+    @Qualifier("messageProcessor")
+    private Consumer<Event<Integer, Object>> messageProcessor;
+
     @BeforeEach
     void setUp() {
 
+        productAggregateCache.evictAll();
+
         when(compositeIntegration.getProduct(eq(PRODUCT_ID_OK), anyInt(), anyInt()))
                 .thenReturn(Mono.just(new Product(PRODUCT_ID_OK, "name", 1, "mock-address")));
 
-        when(compositeIntegration.getRecommendations(PRODUCT_ID_OK))
-                .thenReturn(Flux.fromIterable(singletonList(new Recommendation(
+        when(compositeIntegration.getRecommendationPage(eq(PRODUCT_ID_OK), isNull(), anyInt()))
+                .thenReturn(Mono.just(new Page<>(singletonList(new Recommendation(
                         PRODUCT_ID_OK,
                         1,
                         "author",
                         1,
                         "content",
-                        "mock address"))));
+                        "mock address")), null)));
 
-        when(compositeIntegration.getReviews(PRODUCT_ID_OK))
-                .thenReturn(Flux.fromIterable(singletonList(new Review(
+        when(compositeIntegration.getReviewPage(eq(PRODUCT_ID_OK), isNull(), anyInt()))
+                .thenReturn(Mono.just(new Page<>(singletonList(new Review(
                     PRODUCT_ID_OK,
                     1,
                     "author",
                     "subject",
                     "content",
-                    "mock address"))));
+                    "mock address")), null)));
 
         when(compositeIntegration.getProduct(eq(PRODUCT_ID_NOT_FOUND), anyInt(), anyInt()))
                 .thenThrow(new NotFoundException("NOT FOUND: " + PRODUCT_ID_NOT_FOUND));
@@ -87,6 +121,70 @@ class ProductCompositeServiceApplicationTests {
                 .jsonPath("$.reviews.length()").isEqualTo(1);
     }
 
+    @Test
+    void getProductWithMoreReviewsThanOnePage() {
+
+        when(compositeIntegration.getReviewPage(eq(PRODUCT_ID_OK), isNull(), anyInt()))
+                .thenReturn(Mono.just(new Page<>(singletonList(
+                        new Review(PRODUCT_ID_OK, 1, "author", "subject", "content", "mock address")), "token")));
+
+        when(compositeIntegration.getReviewPage(eq(PRODUCT_ID_OK), eq("token"), anyInt()))
+                .thenReturn(Mono.just(new Page<>(singletonList(
+                        new Review(PRODUCT_ID_OK, 2, "author", "subject", "content", "mock address")), null)));
+
+        getAndVerifyProduct(PRODUCT_ID_OK, OK)
+                .jsonPath("$.reviews.length()").isEqualTo(1)
+                .jsonPath("$.reviewsPageToken").isEqualTo("token")
+                .jsonPath("$.recommendationsPageToken").doesNotExist();
+
+        getAndVerifyProduct(PRODUCT_ID_OK + "/reviews?pageToken=token", OK)
+                .jsonPath("$.items.length()").isEqualTo(1)
+                .jsonPath("$.items[0].reviewId").isEqualTo(2)
+                .jsonPath("$.nextPageToken").doesNotExist();
+    }
+
+    @Test
+    void getProductWithFailingRecommendations() {
+
+        when(compositeIntegration.getRecommendationPage(eq(PRODUCT_ID_OK), isNull(), anyInt()))
+                .thenReturn(Mono.error(new RuntimeException("recommendation-service is down")));
+
+        // partial result
+        getAndVerifyProduct(PRODUCT_ID_OK, OK)
+                .jsonPath("$.recommendations.length()").isEqualTo(0)
+                .jsonPath("$.reviews.length()").isEqualTo(1);
+    }
+
+    @Test
+    void getProductSummary() {
+
+        when(compositeIntegration.getRecommendationStatistics(PRODUCT_ID_OK))
+                .thenReturn(Mono.just(new RecommendationStatistics(PRODUCT_ID_OK, 2, 3.5, Map.of(3, 1L, 4, 1L),
+                        singletonList(new Recommendation(PRODUCT_ID_OK, 2, "author", 4, "content", "mock address")))));
+
+        when(compositeIntegration.getReviewStatistics(PRODUCT_ID_OK))
+                .thenReturn(Mono.error(new RuntimeException("review-service is down")));
+
+        // partial result, w/o the review statistics
+        getAndVerifyProduct(PRODUCT_ID_OK + "/summary", OK)
+                .jsonPath("$.recommendationCount").isEqualTo(2)
+                .jsonPath("$.averageRate").isEqualTo(3.5)
+                .jsonPath("$.rateHistogram.4").isEqualTo(1)
+                .jsonPath("$.latestRecommendations[0].recommendationId").isEqualTo(2)
+                .jsonPath("$.reviewCount").isEqualTo(0)
+                .jsonPath("$.latestReviews.length()").isEqualTo(0);
+    }
+
+    @Test
+    void getProductRecommendationsInvalidPageToken() {
+
+        when(compositeIntegration.getRecommendationPage(eq(PRODUCT_ID_OK), eq("bad"), anyInt()))
+                .thenReturn(Mono.error(new InvalidInputException("Invalid pageToken: bad")));
+
+        getAndVerifyProduct(PRODUCT_ID_OK + "/recommendations?pageToken=bad", UNPROCESSABLE_ENTITY)
+                .jsonPath("$.message").isEqualTo("Invalid pageToken: bad");
+    }
+
     @Test
     void getProductNotFound() {
 
@@ -103,10 +201,275 @@ class ProductCompositeServiceApplicationTests {
                 .jsonPath("$.message").isEqualTo("INVALID: " + PRODUCT_ID_INVALID);
     }
 
+    @Test
+    void getProductFromCache() {
+
+        getAndVerifyProduct(PRODUCT_ID_OK, OK);
+        getAndVerifyProduct(PRODUCT_ID_OK, OK)
+                .jsonPath("$.productId").isEqualTo(PRODUCT_ID_OK)
+                .jsonPath("$.recommendations.length()").isEqualTo(1)
+                .jsonPath("$.reviews.length()").isEqualTo(1);
+
+        verify(compositeIntegration, times(1)).getProduct(eq(PRODUCT_ID_OK), anyInt(), anyInt());
+    }
+
+    @Test
+    void getProductAfterEventInvalidatesCache() {
+
+        getAndVerifyProduct(PRODUCT_ID_OK, OK);
+        messageProcessor.accept(new Event<>(DELETE, PRODUCT_ID_OK, null));
+        getAndVerifyProduct(PRODUCT_ID_OK, OK);
+
+        verify(compositeIntegration, times(2)).getProduct(eq(PRODUCT_ID_OK), anyInt(), anyInt());
+    }
+
+    @Test
+    void getProductWithChaosParametersBypassesCache() {
+
+        getAndVerifyProduct(PRODUCT_ID_OK + "?faultPercent=10", OK);
+        getAndVerifyProduct(PRODUCT_ID_OK + "?faultPercent=10", OK);
+
+        verify(compositeIntegration, times(2)).getProduct(eq(PRODUCT_ID_OK), anyInt(), anyInt());
+    }
+
+    @Test
+    void onlySuccessfulGetsMayBeCachedByTheGateway() {
+
+        client.get()
+                .uri("/product-composite/" + PRODUCT_ID_OK)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(OK)
+                .expectHeader().valueEquals(CACHE_CONTROL, "max-age=0, s-maxage=30");
+
+        client.get()
+                .uri("/product-composite/" + PRODUCT_ID_NOT_FOUND)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(NOT_FOUND)
+                .expectHeader().value(CACHE_CONTROL, cacheControl -> assertTrue(cacheControl.contains("no-store")));
+    }
+
+    @Test
+    void degradedProductsAreNotKeptByTheGateway() {
+
+        // recommendations left out after a failed call
+        when(compositeIntegration.getRecommendationPage(eq(PRODUCT_ID_OK), isNull(), anyInt()))
+                .thenReturn(Mono.error(new IllegalStateException("recommendation-service down")));
+
+        client.get()
+                .uri("/product-composite/" + PRODUCT_ID_OK)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(OK)
+                .expectHeader().value(CACHE_CONTROL, cacheControl -> assertTrue(cacheControl.contains("no-store")))
+                .expectBody()
+                .jsonPath("$.recommendations.length()").isEqualTo(0);
+
+        // served from the product fallback cache
+        productAggregateCache.evictAll();
+        when(compositeIntegration.getProduct(eq(PRODUCT_ID_OK), anyInt(), anyInt()))
+                .thenReturn(Mono.just(new Product(PRODUCT_ID_OK, "name", 1, "mock-address", true)));
+
+        client.get()
+                .uri("/product-composite/" + PRODUCT_ID_OK)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(OK)
+                .expectHeader().value(CACHE_CONTROL, cacheControl -> assertTrue(cacheControl.contains("no-store")))
+                .expectBody()
+                .jsonPath("$.stale").isEqualTo(true);
+    }
+
+    @Test
+    void partialProductIsNotCached() {
+
+        when(compositeIntegration.getReviewPage(eq(PRODUCT_ID_OK), isNull(), anyInt()))
+                .thenReturn(Mono.error(new IllegalStateException("review-service down")));
+
+        getAndVerifyProduct(PRODUCT_ID_OK, OK)
+                .jsonPath("$.reviews.length()").isEqualTo(0);
+        getAndVerifyProduct(PRODUCT_ID_OK, OK);
+
+        verify(compositeIntegration, times(2)).getProduct(eq(PRODUCT_ID_OK), anyInt(), anyInt());
+    }
+
+    @Test
+    void productFetchedBeforeAnInvalidationIsNotCached() {
+
+        ProductAggregate fetched = compositeService.getProduct(PRODUCT_ID_OK, 0, 0).block();
+        productAggregateCache.evictAll();
+
+        // an event for the product arrived while it was fetched
+        long generation = productAggregateCache.generation();
+        productAggregateCache.evictOnEvent(PRODUCT_ID_OK);
+        productAggregateCache.put(fetched, FIRST_PAGE, generation);
+
+        assertTrue(productAggregateCache.get(PRODUCT_ID_OK, FIRST_PAGE).isEmpty());
+
+        productAggregateCache.put(fetched, FIRST_PAGE, productAggregateCache.generation());
+
+        assertTrue(productAggregateCache.get(PRODUCT_ID_OK, FIRST_PAGE).isPresent());
+    }
+
+    @Test
+    void getStaleProductIsMarkedAndNotCached() {
+
+        when(compositeIntegration.getProduct(eq(PRODUCT_ID_OK), anyInt(), anyInt()))
+                .thenReturn(Mono.just(new Product(PRODUCT_ID_OK, "name", 1, "mock-address", true)));
+
+        getAndVerifyProduct(PRODUCT_ID_OK, OK)
+                .jsonPath("$.name").isEqualTo("name")
+                .jsonPath("$.stale").isEqualTo(true);
+        getAndVerifyProduct(PRODUCT_ID_OK, OK)
+                .jsonPath("$.stale").isEqualTo(true);
+
+        verify(compositeIntegration, times(2)).getProduct(eq(PRODUCT_ID_OK), anyInt(), anyInt());
+    }
+
+    @Test
+    void concurrentGetProductSharesOneCall() {
+
+        when(compositeIntegration.getProduct(eq(PRODUCT_ID_OK), anyInt(), anyInt()))
+                .thenReturn(Mono.just(new Product(PRODUCT_ID_OK, "name", 1, "mock-address"))
+                        .delayElement(ofMillis(200)));
+
+        List<ProductAggregate> aggregates = Flux.range(0, 10)
+                .flatMap(i -> compositeService.getProduct(PRODUCT_ID_OK, 0, 0))
+                .collectList()
+                .block();
+
+        assertEquals(10, aggregates.size());
+        aggregates.forEach(aggregate -> assertEquals(PRODUCT_ID_OK, aggregate.getProductId()));
+        verify(compositeIntegration, times(1)).getProduct(eq(PRODUCT_ID_OK), anyInt(), anyInt());
+    }
+
+    @Test
+    void getProductsByIds() {
+
+        mockBatchLookups();
+
+        getAndVerifyProducts(PRODUCT_ID_NOT_FOUND + "," + PRODUCT_ID_OK, OK)
+                .jsonPath("$.length()").isEqualTo(1)
+                .jsonPath("$[0].productId").isEqualTo(PRODUCT_ID_OK)
+                .jsonPath("$[0].recommendations.length()").isEqualTo(1)
+                .jsonPath("$[0].reviews.length()").isEqualTo(1);
+    }
+
+    @Test
+    void getProductsByIdsFromCache() {
+
+        mockBatchLookups();
+
+        getAndVerifyProducts(String.valueOf(PRODUCT_ID_OK), OK);
+        getAndVerifyProducts(String.valueOf(PRODUCT_ID_OK), OK)
+                .jsonPath("$.length()").isEqualTo(1);
+
+        verify(compositeIntegration, times(1)).getProducts(anyList());
+    }
+
+    @Test
+    void getProductsAndGetProductDontShareAggregates() {
+
+        mockBatchLookups();
+        when(compositeIntegration.getReviewPage(eq(PRODUCT_ID_OK), isNull(), anyInt()))
+                .thenReturn(Mono.just(new Page<>(singletonList(
+                        new Review(PRODUCT_ID_OK, 1, "author", "subject", "content", "mock address")), "token")));
+
+        // the complete aggregate of getProducts isn't served as the first page of getProduct
+        getAndVerifyProducts(String.valueOf(PRODUCT_ID_OK), OK);
+        getAndVerifyProduct(PRODUCT_ID_OK, OK)
+                .jsonPath("$.reviewsPageToken").isEqualTo("token");
+
+        // and the first page of getProduct isn't served as the complete aggregate of getProducts
+        productAggregateCache.evictAll();
+        getAndVerifyProduct(PRODUCT_ID_OK, OK);
+        getAndVerifyProducts(String.valueOf(PRODUCT_ID_OK), OK)
+                .jsonPath("$[0].reviewsPageToken").doesNotExist();
+
+        verify(compositeIntegration, times(2)).getProducts(anyList());
+    }
+
+    @Test
+    void getProductsTooManyIds() {
+
+        String ids = String.join(",", Flux.range(1, 101).map(String::valueOf).toIterable());
+
+        getAndVerifyProducts(ids, UNPROCESSABLE_ENTITY)
+                .jsonPath("$.message").isEqualTo("Invalid number of productIds: 101, expected 1 to 100");
+    }
+
+    @Test
+    void exportProducts() {
+
+        when(compositeIntegration.exportProducts()).thenReturn(Flux.just(
+                new Product(PRODUCT_ID_OK, "name", 1, "mock-address"),
+                new Product(PRODUCT_ID_NOT_FOUND, "name", 1, "mock-address")));
+
+        when(compositeIntegration.exportRecommendations()).thenReturn(Flux.just(
+                new Recommendation(PRODUCT_ID_OK, 1, "author", 1, "content", "mock address"),
+                new Recommendation(PRODUCT_ID_OK, 2, "author", 1, "content", "mock address")));
+
+        // the review for PRODUCT_ID_INVALID has no product, so it must be dropped
+        when(compositeIntegration.exportReviews()).thenReturn(Flux.just(
+                new Review(PRODUCT_ID_OK, 1, "author", "subject", "content", "mock address"),
+                new Review(PRODUCT_ID_INVALID, 1, "author", "subject", "content", "mock address")));
+
+        Flux<ProductAggregate> aggregates = client.get()
+                .uri("/product-composite/export")
+                .accept(APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isEqualTo(OK)
+                .expectHeader().contentType(APPLICATION_NDJSON)
+                .returnResult(ProductAggregate.class)
+                .getResponseBody();
+
+        StepVerifier.create(aggregates)
+                .assertNext(aggregate -> {
+                    assertEquals(PRODUCT_ID_OK, aggregate.getProductId());
+                    assertEquals(2, aggregate.getRecommendations().size());
+                    assertEquals(1, aggregate.getReviews().size());
+                })
+                .assertNext(aggregate -> {
+                    assertEquals(PRODUCT_ID_NOT_FOUND, aggregate.getProductId());
+                    assertEquals(0, aggregate.getRecommendations().size());
+                    assertEquals(0, aggregate.getReviews().size());
+                })
+                .verifyComplete();
+    }
+
     // Helpers
+    private void mockBatchLookups() {
+
+        when(compositeIntegration.getProducts(anyList()))
+                .thenReturn(Flux.just(new Product(PRODUCT_ID_OK, "name", 1, "mock-address")));
+
+        when(compositeIntegration.getRecommendationsForProducts(anyList()))
+                .thenReturn(Flux.just(new Recommendation(
+                        PRODUCT_ID_OK, 1, "author", 1, "content", "mock address")));
+
+        when(compositeIntegration.getReviewsForProducts(anyList()))
+                .thenReturn(Flux.just(new Review(
+                        PRODUCT_ID_OK, 1, "author", "subject", "content", "mock address")));
+    }
+
+    private WebTestClient.BodyContentSpec getAndVerifyProducts(String ids, HttpStatus expectedStatus) {
+        return client.get()
+                .uri("/product-composite?ids=" + ids)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(expectedStatus)
+                .expectHeader().contentType(APPLICATION_JSON)
+                .expectBody();
+    }
+
     private WebTestClient.BodyContentSpec getAndVerifyProduct(int productId, HttpStatus expectedStatus) {
+        return getAndVerifyProduct(String.valueOf(productId), expectedStatus);
+    }
+
+    private WebTestClient.BodyContentSpec getAndVerifyProduct(String productIdPath, HttpStatus expectedStatus) {
         return client.get()
-                .uri("/product-composite/" + productId)
+                .uri("/product-composite/" + productIdPath)
                 .accept(APPLICATION_JSON)
                 .exchange()
                 .expectStatus().isEqualTo(expectedStatus)
@@ -0,0 +1,165 @@
+package org.tbl.microdaddy.composite.product;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.tbl.microdaddy.api.core.product.Product;
+import org.tbl.microdaddy.api.core.recommendation.Recommendation;
+import org.tbl.microdaddy.api.core.review.Review;
+import org.tbl.microdaddy.composite.product.services.ProductCompositeIntegration;
+import org.tbl.microdaddy.composite.product.services.ProductView;
+import org.tbl.microdaddy.composite.product.services.ProductViewEndpoint;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.ZonedDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ProductViewTests {
+
+    private ProductCompositeIntegration integration;
+    private ProductView productView;
+
+    @BeforeEach
+    void setUp() {
+        integration = mock(ProductCompositeIntegration.class);
+        productView = new ProductView(true, integration, new SimpleMeterRegistry());
+
+        when(integration.exportProducts()).thenReturn(Flux.just(product(1), product(2)));
+        when(integration.exportRecommendations()).thenReturn(Flux.just(recommendation(1, 1), recommendation(1, 2)));
+        when(integration.exportReviews()).thenReturn(Flux.just(review(2, 1)));
+    }
+
+    @Test
+    void rebuild() {
+
+        assertFalse(productView.isReady());
+
+        productView.rebuild().block();
+
+        assertTrue(productView.isReady());
+        assertEquals(2, productView.size());
+        assertEquals(2, productView.get(1).orElseThrow().recommendationList().size());
+        assertEquals(0, productView.get(1).orElseThrow().reviewList().size());
+        assertEquals(1, productView.get(2).orElseThrow().reviewList().size());
+    }
+
+    @Test
+    void applyEvents() {
+
+        productView.rebuild().block();
+
+        // recommendations can show up before their product does
+        productView.onRecommendationCreated(recommendation(3, 1), ZonedDateTime.now());
+        assertTrue(productView.get(3).isEmpty());
+
+        productView.onProductCreated(product(3), ZonedDateTime.now());
+        assertEquals(1, productView.get(3).orElseThrow().recommendationList().size());
+
+        productView.onRecommendationsDeleted(1, ZonedDateTime.now());
+        assertEquals(0, productView.get(1).orElseThrow().recommendationList().size());
+
+        productView.onProductDeleted(2, ZonedDateTime.now());
+        assertTrue(productView.get(2).isEmpty());
+    }
+
+    @Test
+    void eventsDuringRebuildAreReplayed() {
+
+        Sinks.Many<Product> products = Sinks.many().unicast().onBackpressureBuffer();
+        when(integration.exportProducts()).thenReturn(products.asFlux());
+
+        productView.rebuild().subscribe();
+        assertTrue(productView.isRebuilding());
+
+        // the export has already read product 1 when it is deleted
+        products.tryEmitNext(product(1));
+        productView.onProductDeleted(1, ZonedDateTime.now());
+        products.tryEmitNext(product(2));
+        products.tryEmitComplete();
+
+        assertFalse(productView.isRebuilding());
+        assertTrue(productView.get(1).isEmpty());
+        assertTrue(productView.get(2).isPresent());
+    }
+
+    @Test
+    void duplicateCreateIsIgnored() {
+
+        productView.rebuild().block();
+
+        // rejected by the core services, product 1 keeps its name
+        productView.onProductCreated(new Product(1, "duplicate", 1, "mock-address"), ZonedDateTime.now());
+        productView.onRecommendationCreated(
+                new Recommendation(1, 1, "duplicate", 1, "content", "mock address"), ZonedDateTime.now());
+
+        assertEquals("name 1", productView.get(1).orElseThrow().product().getName());
+        assertEquals("author", productView.get(1).orElseThrow().recommendations().get(1).getAuthor());
+    }
+
+    @Test
+    void createDuringRebuildIsReplayedOnlyIfNotExported() {
+
+        Sinks.Many<Product> products = Sinks.many().unicast().onBackpressureBuffer();
+        when(integration.exportProducts()).thenReturn(products.asFlux());
+
+        productView.rebuild().subscribe();
+
+        // product 1 is exported, the create of product 3 is processed after the export has read the products
+        products.tryEmitNext(product(1));
+        productView.onProductCreated(new Product(1, "duplicate", 1, "mock-address"), ZonedDateTime.now());
+        productView.onProductCreated(product(3), ZonedDateTime.now());
+        products.tryEmitComplete();
+
+        assertEquals("name 1", productView.get(1).orElseThrow().product().getName());
+        assertTrue(productView.get(3).isPresent());
+    }
+
+    @Test
+    void cancelledRebuildDoesNotBlockTheNextOne() {
+
+        Sinks.Many<Product> products = Sinks.many().unicast().onBackpressureBuffer();
+        when(integration.exportProducts()).thenReturn(products.asFlux());
+
+        productView.rebuild().subscribe().dispose();
+        assertFalse(productView.isRebuilding());
+
+        when(integration.exportProducts()).thenReturn(Flux.just(product(1)));
+        productView.rebuild().block();
+
+        assertTrue(productView.isReady());
+    }
+
+    @Test
+    void rebuildOutlivesTheRequest() {
+
+        Sinks.Many<Product> products = Sinks.many().unicast().onBackpressureBuffer();
+        when(integration.exportProducts()).thenReturn(products.asFlux());
+
+        new ProductViewEndpoint(productView).rebuild().subscribe().dispose();
+        assertTrue(productView.isRebuilding());
+
+        products.tryEmitNext(product(1));
+        products.tryEmitComplete();
+
+        assertTrue(productView.isReady());
+        assertTrue(productView.get(1).isPresent());
+    }
+
+    private Product product(int productId) {
+        return new Product(productId, "name " + productId, productId, "mock-address");
+    }
+
+    private Recommendation recommendation(int productId, int recommendationId) {
+        return new Recommendation(productId, recommendationId, "author", 1, "content", "mock address");
+    }
+
+    private Review review(int productId, int reviewId) {
+        return new Review(productId, reviewId, "author", "subject", "content", "mock address");
+    }
+}
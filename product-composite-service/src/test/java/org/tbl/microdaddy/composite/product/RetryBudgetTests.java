@@ -0,0 +1,141 @@
+package org.tbl.microdaddy.composite.product;
+
+import io.github.resilience4j.common.CompositeCustomizer;
+import io.github.resilience4j.common.retry.configuration.CommonRetryConfigurationProperties.InstanceProperties;
+import io.github.resilience4j.reactor.retry.RetryOperator;
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryConfig;
+import io.github.resilience4j.retry.RetryRegistry;
+import io.github.resilience4j.spring6.retry.configure.RetryConfigurationProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.tbl.microdaddy.api.exceptions.NotFoundException;
+import org.tbl.microdaddy.composite.product.services.RetryBudget;
+import org.tbl.microdaddy.composite.product.services.RetryBudgetConfig;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
+
+class RetryBudgetTests {
+
+    private SimpleMeterRegistry meterRegistry;
+    private RetryBudget budget;
+    private Retry retry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+
+        // no minimum, only what the successful calls pay for
+        budget = new RetryBudget("product", 10, 0, 10, meterRegistry);
+
+        // the same wiring as the product retry in product-composite.yml
+        // no generic array creation in Java
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Class<? extends Throwable>[] retryExceptions = new Class[]{WebClientResponseException.InternalServerError.class};
+
+        RetryConfigurationProperties properties = new RetryConfigurationProperties();
+        properties.getInstances().put("product", new InstanceProperties()
+                .setMaxAttempts(3)
+                .setWaitDuration(Duration.ofMillis(10))
+                .setRetryExceptions(retryExceptions));
+
+        RetryBudgetConfig config = new RetryBudgetConfig();
+        RetryConfig retryConfig = properties.createRetryConfig("product",
+                new CompositeCustomizer<>(List.of(config.productRetryBudgetCustomizer(budget))));
+
+        retry = RetryRegistry.of(retryConfig, config.productRetryBudgetConsumer(budget)).retry("product");
+    }
+
+    @Test
+    void tenPercentOfTheSuccessfulCallsAreRetried() {
+
+        for (int i = 0; i < 10; i++) {
+            budget.deposit();
+        }
+        assertEquals(1.0, budget.getBalance(), 0.001);
+
+        // retried once, then the budget is exhausted
+        assertEquals(2, failingCalls(WebClientResponseException.create(
+                INTERNAL_SERVER_ERROR.value(), "Internal Server Error", null, null, null)));
+
+        assertEquals(0.0, budget.getBalance(), 0.001);
+        assertEquals(1.0, meterRegistry.get("retry.budget.calls").tag("result", "retried").counter().count());
+        assertEquals(1.0, meterRegistry.get("retry.budget.calls").tag("result", "budget_exhausted").counter().count());
+
+        // nothing left for the next one
+        assertEquals(1, failingCalls(WebClientResponseException.create(
+                INTERNAL_SERVER_ERROR.value(), "Internal Server Error", null, null, null)));
+    }
+
+    @Test
+    void retriesAreCappedByMaxAttempts() {
+
+        for (int i = 0; i < 100; i++) {
+            budget.deposit();
+        }
+
+        assertEquals(3, failingCalls(WebClientResponseException.create(
+                INTERNAL_SERVER_ERROR.value(), "Internal Server Error", null, null, null)));
+
+        // the last attempt isn't retried, so it doesn't cost anything
+        assertEquals(8.0, budget.getBalance(), 0.001);
+    }
+
+    @Test
+    void anExhaustedBudgetIsOnlyCountedWhenAttemptsRemain() {
+
+        for (int i = 0; i < 20; i++) {
+            budget.deposit();
+        }
+
+        // retried twice, the budget runs out w/ the last attempt, which isn't retried anyway
+        assertEquals(3, failingCalls(WebClientResponseException.create(
+                INTERNAL_SERVER_ERROR.value(), "Internal Server Error", null, null, null)));
+
+        assertEquals(0.0, budget.getBalance(), 0.001);
+        assertEquals(2.0, meterRegistry.get("retry.budget.calls").tag("result", "retried").counter().count());
+        assertEquals(0.0, meterRegistry.get("retry.budget.calls").tag("result", "budget_exhausted").counter().count());
+    }
+
+    @Test
+    void otherExceptionsAreNotRetried() {
+
+        for (int i = 0; i < 100; i++) {
+            budget.deposit();
+        }
+
+        assertEquals(1, failingCalls(new NotFoundException()));
+        assertEquals(10.0, budget.getBalance(), 0.001);
+    }
+
+    @Test
+    void minRetriesPerSecondAreAlwaysAllowed() {
+
+        RetryBudget reserve = new RetryBudget("reserve", 10, 2, 5, new SimpleMeterRegistry());
+
+        assertEquals(10.0, reserve.getBalance(), 0.001);
+    }
+
+    private int failingCalls(RuntimeException error) {
+        AtomicInteger calls = new AtomicInteger();
+
+        StepVerifier.create(Mono.defer(() -> {
+                            calls.incrementAndGet();
+                            return Mono.error(error);
+                        })
+                        .transformDeferred(RetryOperator.of(retry)))
+                .expectError(error.getClass())
+                .verify(Duration.ofSeconds(5));
+
+        return calls.get();
+    }
+}
@@ -0,0 +1,106 @@
+package org.tbl.microdaddy.composite.product;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.tbl.microdaddy.api.core.product.Product;
+import org.tbl.microdaddy.api.core.recommendation.Recommendation;
+import org.tbl.microdaddy.api.core.review.Review;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+    Compares JSON and Smile for the payloads product-composite exchanges with the core services on every
+    getProduct: bytes on the wire, and CPU time to encode (core service) + decode (composite) a response.
+
+    Not part of the regular test run:
+        BENCHMARK=true ./gradlew :product-composite-service:test --tests '*WireFormatBenchmark' -i
+ */
+@Slf4j
+@EnabledIfEnvironmentVariable(named = "BENCHMARK", matches = "true")
+class WireFormatBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 20_000;
+    private static final int ITERATIONS = 50_000;
+    private static final int RECOMMENDATIONS_AND_REVIEWS_PER_PRODUCT = 10;
+
+    private final ObjectMapper jsonMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final ObjectMapper smileMapper = Jackson2ObjectMapperBuilder.smile().build();
+
+    private final Product product = new Product(1, "product name", 100, "product-7c9f6d8b4-x2kqz/10.1.0.12:80");
+
+    private final List<Recommendation> recommendations = IntStream
+            .rangeClosed(1, RECOMMENDATIONS_AND_REVIEWS_PER_PRODUCT)
+            .mapToObj(id -> new Recommendation(1, id, "author " + id, id % 5, "content " + id,
+                    "recommendation-5d8f7b9c6-q8wzn/10.1.0.13:80"))
+            .toList();
+
+    private final List<Review> reviews = IntStream
+            .rangeClosed(1, RECOMMENDATIONS_AND_REVIEWS_PER_PRODUCT)
+            .mapToObj(id -> new Review(1, id, "author " + id, "subject " + id, "content " + id,
+                    "review-6b7c8d9f5-m3tpl/10.1.0.14:80"))
+            .toList();
+
+    @Test
+    void compareJsonAndSmile() throws Exception {
+
+        Result json = measure("json", jsonMapper);
+        Result smile = measure("smile", smileMapper);
+
+        log.info("{}", json);
+        log.info("{}", smile);
+        log.info("smile/json: bytes = {}%, cpu = {}%",
+                100 * smile.bytesPerRequest / json.bytesPerRequest,
+                100 * smile.cpuNanosPerRequest / json.cpuNanosPerRequest);
+
+        assertTrue(smile.bytesPerRequest < json.bytesPerRequest);
+    }
+
+    private record Result(String format, long bytesPerRequest, long cpuNanosPerRequest) {
+        @Override
+        public String toString() {
+            return String.format("%-6s bytes/request = %6d, cpu/request = %7d ns",
+                    format, bytesPerRequest, cpuNanosPerRequest);
+        }
+    }
+
+    private Result measure(String format, ObjectMapper mapper) throws Exception {
+
+        // one request = the three responses getProduct needs, encoded by the core services and decoded here
+        long bytes = roundTrip(mapper);
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            roundTrip(mapper);
+        }
+
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        long start = threadMXBean.getCurrentThreadCpuTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertEquals(bytes, roundTrip(mapper));
+        }
+        long cpuNanos = threadMXBean.getCurrentThreadCpuTime() - start;
+
+        return new Result(format, bytes, cpuNanos / ITERATIONS);
+    }
+
+    private long roundTrip(ObjectMapper mapper) throws Exception {
+        byte[] productBytes = mapper.writeValueAsBytes(product);
+        byte[] recommendationBytes = mapper.writeValueAsBytes(recommendations);
+        byte[] reviewBytes = mapper.writeValueAsBytes(reviews);
+
+        mapper.readValue(productBytes, Product.class);
+        mapper.readValue(recommendationBytes, new TypeReference<List<Recommendation>>() {});
+        mapper.readValue(reviewBytes, new TypeReference<List<Review>>() {});
+
+        return productBytes.length + recommendationBytes.length + reviewBytes.length;
+    }
+}
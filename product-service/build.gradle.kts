@@ -15,6 +15,7 @@ dependencies {
 	implementation(platform("org.testcontainers:testcontainers-bom:1.18.3"))
 	implementation("org.springframework.boot:spring-boot-starter-actuator")
 	implementation("org.springframework.boot:spring-boot-starter-webflux")
+	implementation("com.fasterxml.jackson.dataformat:jackson-dataformat-smile")
 	implementation("org.springframework.cloud:spring-cloud-starter-stream-rabbit:4.0.3")
 	implementation("org.springframework.cloud:spring-cloud-starter-stream-kafka:4.0.3")
 	implementation("org.springframework.retry:spring-retry:2.0.2")
@@ -23,6 +24,7 @@ dependencies {
 	implementation("io.micrometer:micrometer-tracing-bridge-otel:1.1.2")
 	developmentOnly("org.springframework.boot:spring-boot-devtools")
 	testImplementation("org.springframework.boot:spring-boot-starter-test")
+	testImplementation("org.springframework.cloud:spring-cloud-stream-test-binder:4.0.3")
 	testImplementation("io.projectreactor:reactor-test")
 	testImplementation("org.testcontainers:testcontainers")
 	testImplementation("org.testcontainers:junit-jupiter")
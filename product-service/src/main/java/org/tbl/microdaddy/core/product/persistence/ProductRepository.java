@@ -1,9 +1,23 @@
 package org.tbl.microdaddy.core.product.persistence;
 
+import org.springframework.data.mongodb.repository.Meta;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Collection;
+
 public interface ProductRepository extends ReactiveCrudRepository<ProductEntity, String> {
 
     Mono<ProductEntity> findByProductId(int productId);
+
+    // { productId: { $in: [...] } }
+    Flux<ProductEntity> findByProductIdIn(Collection<Integer> productIds);
+
+    // { productId: { $in: [...] } }, a single deleteMany
+    Mono<Long> deleteByProductIdIn(Collection<Integer> productIds);
+
+    // full scan in productId order (served by the unique productId index), read in cursor batches
+    @Meta(cursorBatchSize = 100)
+    Flux<ProductEntity> streamAllByOrderByProductIdAsc();
 }
@@ -2,55 +2,159 @@ package org.tbl.microdaddy.core.product.services;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.function.StreamBridge;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.support.MessageBuilder;
 import org.tbl.microdaddy.api.core.product.Product;
-import org.tbl.microdaddy.api.core.product.ProductService;
 import org.tbl.microdaddy.api.event.Event;
+import org.tbl.microdaddy.api.exceptions.BatchWriteException;
 import org.tbl.microdaddy.api.exceptions.EventProcessingException;
+import org.tbl.microdaddy.api.exceptions.InvalidInputException;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+import reactor.util.retry.RetryBackoffSpec;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
 
+/*
+    The consumer runs in batch mode, every poll delivers a list of events.
+
+    The list is processed as runs of consecutive events of the same type, so a DELETE following a CREATE of
+    the same product still happens after it. A run of CREATEs is a single bulk insert, a run of DELETEs is a
+    single multi-key delete.
+
+    Events that fail on their own (invalid, duplicate, unknown type) are sent to the dead letter queue of the
+    binding, the rest of the batch is still processed.
+
+    Any other failure of a run (e.g. the database is unavailable) is retried here, up to maxAttempts times
+    w/ an exponential back-off, as the binder doesn't retry in batch mode. A CREATE that comes back as a
+    duplicate on a retry isn't dead lettered if a failed attempt reported storing it (see BatchWriteException),
+    any other duplicate is. Once the attempts are exhausted the failure is thrown and the binder dead letters
+    the whole batch, including the runs before it that were already applied: CREATEs of those are rejected as
+    duplicates if it is replayed.
+ */
 @Configuration
 @Slf4j
 public class MessageProcessorConfig {
 
-    private final ProductService productService;
+    static final String DEAD_LETTERS_BINDING = "deadLetters-out-0";
+    static final String EXCEPTION_MESSAGE_HEADER = "x-exception-message";
+    private static final String DUPLICATE_KEY = "Duplicate key";
+
+    private final ProductServiceImpl productService;
+    private final StreamBridge streamBridge;
+    private final RetryBackoffSpec runRetry;
 
     @Autowired
-    public MessageProcessorConfig(ProductService productService) {
+    public MessageProcessorConfig(
+            ProductServiceImpl productService,
+            StreamBridge streamBridge,
+            @Value("${app.messageProcessor.maxAttempts:3}") Integer maxAttempts,
+            @Value("${app.messageProcessor.backOffInitialIntervalMs:500}") Integer backOffInitialIntervalMs,
+            @Value("${app.messageProcessor.backOffMaxIntervalMs:1000}") Integer backOffMaxIntervalMs) {
         this.productService = productService;
+        this.streamBridge = streamBridge;
+        this.runRetry = Retry.backoff(maxAttempts - 1, Duration.ofMillis(backOffInitialIntervalMs))
+                .maxBackoff(Duration.ofMillis(backOffMaxIntervalMs))
+                .doBeforeRetry(signal -> log.warn("Retrying a failed run ({} of {}): {}",
+                        signal.totalRetries() + 1, maxAttempts - 1, signal.failure().toString()))
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure());
     }
 
     @Bean
-    public Consumer<Event<Integer, Product>> messageProcessor() {
-        return integerProductEvent -> {
-            log.info("Process message created at {}...", integerProductEvent.getEventCreatedAt());
-
-            switch (integerProductEvent.getEventType()) {
-                case CREATE -> {
-                    Product product = integerProductEvent.getData();
-                    log.info("Create product with id: {}", product.getProductId());
-                    productService.createProduct(product).block();
-                }
+    public Consumer<List<Event<Integer, Product>>> messageProcessor() {
+        return events -> {
+            log.info("Process batch of {} messages...", events.size());
 
-                case DELETE -> {
-                    int productId = integerProductEvent.getKey();
-                    log.info("Delete product with id: {}", productId);
-                    productService.deleteProduct(productId).block();
+            int start = 0;
+            while (start < events.size()) {
+                Event.Type eventType = events.get(start).getEventType();
+
+                int end = start + 1;
+                while (end < events.size() && events.get(end).getEventType() == eventType) {
+                    end++;
                 }
 
-                default -> {
-                    String errorMessage = "Incorrect event type: " + integerProductEvent.getEventType() +
-                            ", expected a CREATE or DELETE event";
-                    log.warn(errorMessage);
-                    throw new EventProcessingException(errorMessage);
+                List<Event<Integer, Product>> run = events.subList(start, end);
+                if (eventType == null) {
+                    run.forEach(event -> deadLetter(event, incorrectEventType(event)));
+                } else {
+                    switch (eventType) {
+                        case CREATE -> createProducts(run);
+                        case DELETE -> deleteProducts(run);
+                        default -> run.forEach(event -> deadLetter(event, incorrectEventType(event)));
+                    }
                 }
+
+                start = end;
             }
 
             log.info("Message processing complete");
         };
     }
 
+    private void createProducts(List<Event<Integer, Product>> events) {
+        List<Product> products = events.stream().map(Event::getData).toList();
+        log.info("Create {} products", products.size());
+
+        // indexes stored by failed attempts, their duplicates on a retry are not dead lettered
+        Set<Integer> applied = new HashSet<>();
+        Map<Integer, RuntimeException> failures = Mono.defer(() -> productService.createProducts(products))
+                .retryWhen(runRetry.doBeforeRetry(signal -> {
+                    if (signal.failure() instanceof BatchWriteException batchWriteException) {
+                        applied.addAll(batchWriteException.getApplied());
+                    }
+                }))
+                .block();
+        failures.forEach((index, ex) -> {
+            if (applied.contains(index) && isDuplicate(ex)) {
+                log.debug("Event with key {} was applied by a failed attempt: {}", events.get(index).getKey(),
+                        ex.getMessage());
+            } else {
+                deadLetter(events.get(index), ex);
+            }
+        });
+    }
 
+    private void deleteProducts(List<Event<Integer, Product>> events) {
+        List<Integer> productIds = new ArrayList<>();
+        for (Event<Integer, Product> event : events) {
+            if (event.getKey() == null || event.getKey() < 1) {
+                deadLetter(event, new EventProcessingException("Invalid productId: " + event.getKey()));
+            } else {
+                productIds.add(event.getKey());
+            }
+        }
+
+        if (!productIds.isEmpty()) {
+            log.info("Delete products with ids: {}", productIds);
+            Mono.defer(() -> productService.deleteProducts(productIds))
+                    .retryWhen(runRetry)
+                    .block();
+        }
+    }
+
+    private static boolean isDuplicate(RuntimeException ex) {
+        return ex instanceof InvalidInputException && ex.getMessage().startsWith(DUPLICATE_KEY);
+    }
+
+    private EventProcessingException incorrectEventType(Event<Integer, Product> event) {
+        return new EventProcessingException("Incorrect event type: " + event.getEventType() +
+                ", expected a CREATE or DELETE event");
+    }
+
+    private void deadLetter(Event<Integer, Product> event, RuntimeException ex) {
+        log.warn("Sending event with key {} to the dead letter queue: {}", event.getKey(), ex.getMessage());
+        streamBridge.send(DEAD_LETTERS_BINDING, MessageBuilder.withPayload(event)
+                .setHeader(EXCEPTION_MESSAGE_HEADER, ex.getMessage())
+                .build());
+    }
 }
@@ -9,6 +9,7 @@ import org.tbl.microdaddy.core.product.persistence.ProductEntity;
 public interface ProductMapper {
 
     @Mapping(target = "serviceAddress", ignore = true)
+    @Mapping(target = "stale", ignore = true)
     Product entityToApi(ProductEntity entity);
 
     @Mapping(target = "id", ignore = true)
@@ -1,40 +1,64 @@
 package org.tbl.microdaddy.core.product.services;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
 import io.micrometer.observation.annotation.Observed;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
 import org.springframework.web.bind.annotation.RestController;
 import org.tbl.microdaddy.api.core.product.Product;
 import org.tbl.microdaddy.api.core.product.ProductService;
+import org.tbl.microdaddy.api.exceptions.BatchWriteException;
+import org.tbl.microdaddy.api.exceptions.EventProcessingException;
 import org.tbl.microdaddy.api.exceptions.InvalidInputException;
 import org.tbl.microdaddy.api.exceptions.NotFoundException;
 import org.tbl.microdaddy.core.product.persistence.ProductEntity;
 import org.tbl.microdaddy.core.product.persistence.ProductRepository;
 import org.tbl.microdaddy.util.http.ServiceUtil;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
 
 import static java.time.Duration.ofSeconds;
 import static java.util.logging.Level.FINE;
+import static java.util.stream.Collectors.toSet;
+import static org.springframework.data.mongodb.core.BulkOperations.BulkMode.UNORDERED;
 
 @RestController
 @Slf4j
 public class ProductServiceImpl implements ProductService {
 
     private static final String INVALID_PRODUCT_ID = "Invalid productId: ";
+    private static final int DUPLICATE_KEY_ERROR_CODE = 11000;
 
 
     private final ServiceUtil serviceUtil;
     private final ProductRepository repository;
+    private final ReactiveMongoTemplate mongoTemplate;
     private final ProductMapper mapper;
 
     @Autowired
-    public ProductServiceImpl(ProductRepository repository, ProductMapper mapper, ServiceUtil serviceUtil) {
+    public ProductServiceImpl(
+            ProductRepository repository,
+            ReactiveMongoTemplate mongoTemplate,
+            ProductMapper mapper,
+            ServiceUtil serviceUtil) {
         this.repository = repository;
+        this.mongoTemplate = mongoTemplate;
         this.mapper = mapper;
         this.serviceUtil = serviceUtil;
     }
@@ -63,6 +87,66 @@ public class ProductServiceImpl implements ProductService {
 
     }
 
+    /*
+        Bulk version of createProduct for the batch message processor: all valid products are stored with a
+        single unordered insertMany, so one duplicate doesn't stop the rest of the batch.
+
+        Emits the products that were not stored, by their index in the list, w/ the reason. If the insert was
+        applied but not acknowledged by the write concern, fails w/ a BatchWriteException of the products
+        stored, the others are failed by their write errors as usual.
+     */
+    @Observed(
+            name = "createProducts",
+            contextualName = "product-service.create-products"
+    )
+    public Mono<Map<Integer, RuntimeException>> createProducts(List<Product> products) {
+
+        Map<Integer, RuntimeException> failures = new HashMap<>();
+        List<ProductEntity> entities = new ArrayList<>();
+        // index in products of every entity in the insert
+        List<Integer> indexes = new ArrayList<>();
+
+        for (int i = 0; i < products.size(); i++) {
+            Product product = products.get(i);
+            if (product == null) {
+                failures.put(i, new InvalidInputException("Missing product"));
+                continue;
+            }
+            if (product.getProductId() < 1) {
+                failures.put(i, new InvalidInputException(INVALID_PRODUCT_ID + product.getProductId()));
+                continue;
+            }
+
+            ProductEntity entity = mapper.apiToEntity(product);
+            // bulk inserts don't initialize @Version the way save does
+            entity.setVersion(0);
+            entities.add(entity);
+            indexes.add(i);
+        }
+
+        if (entities.isEmpty()) {
+            return Mono.just(failures);
+        }
+
+        return mongoTemplate.bulkOps(UNORDERED, ProductEntity.class)
+                .insert(entities)
+                .execute()
+                .log(log.getName(), FINE)
+                .thenReturn(failures)
+                .onErrorResume(ex -> bulkWriteErrors(ex).isPresent(), ex -> {
+                    List<BulkWriteError> errors = bulkWriteErrors(ex).get();
+                    errors.forEach(error -> {
+                        Product product = products.get(indexes.get(error.getIndex()));
+                        failures.put(indexes.get(error.getIndex()), error.getCode() == DUPLICATE_KEY_ERROR_CODE
+                                ? new InvalidInputException("Duplicate key, Product Id: " + product.getProductId())
+                                : new EventProcessingException(error.getMessage()));
+                    });
+                    return hasWriteConcernError(ex)
+                            ? Mono.error(new BatchWriteException(inserted(indexes, errors), ex))
+                            : Mono.just(failures);
+                });
+    }
+
     @Observed(
             name = "getProduct",
             contextualName = "product-service.get-product"
@@ -87,6 +171,43 @@ public class ProductServiceImpl implements ProductService {
                 .map(this::setServiceAddress);
     }
 
+    @Observed(
+            name = "getProducts",
+            contextualName = "product-service.get-products"
+    )
+    @Override
+    public Flux<Product> getProducts(List<Integer> productIds) {
+
+        productIds.forEach(productId -> {
+            if (productId < 1) {
+                throw new InvalidInputException(INVALID_PRODUCT_ID + productId);
+            }
+        });
+
+        log.info("calling getProducts for productIds={}", productIds);
+
+        return repository.findByProductIdIn(productIds)
+                .log(log.getName(), FINE)
+                .map(mapper::entityToApi)
+                .map(this::setServiceAddress);
+    }
+
+    @Observed(
+            name = "exportProducts",
+            contextualName = "product-service.export-products"
+    )
+    @Override
+    public Flux<Product> exportProducts() {
+
+        log.info("calling exportProducts");
+
+        // demand from the client is passed through to the cursor, so only a batch or two is ever in memory
+        return repository.streamAllByOrderByProductIdAsc()
+                .log(log.getName(), FINE)
+                .map(mapper::entityToApi)
+                .map(this::setServiceAddress);
+    }
+
     @Observed(
             name = "deleteProduct",
             contextualName = "product-service.delete-product"
@@ -105,6 +226,59 @@ public class ProductServiceImpl implements ProductService {
                 .flatMap(voidMono -> voidMono);
     }
 
+    /*
+        Bulk version of deleteProduct for the batch message processor, a single deleteMany. Emits the number
+        of products deleted.
+     */
+    @Observed(
+            name = "deleteProducts",
+            contextualName = "product-service.delete-products"
+    )
+    public Mono<Long> deleteProducts(Collection<Integer> productIds) {
+
+        productIds.forEach(productId -> {
+            if (productId < 1) {
+                throw new InvalidInputException(INVALID_PRODUCT_ID + productId);
+            }
+        });
+        log.debug("deleteProducts: attempts to delete the entities with productIds: {}", productIds);
+
+        return repository.deleteByProductIdIn(productIds)
+                .log(log.getName(), FINE);
+    }
+
+    // the bulk write was applied, but not acknowledged by enough members of the replica set
+    private static boolean hasWriteConcernError(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoBulkWriteException bulkWriteException) {
+                return bulkWriteException.getWriteConcernError() != null;
+            }
+        }
+        return false;
+    }
+
+    // the index in the list of every entity the bulk insert stored, all but the ones w/ a write error
+    private static Set<Integer> inserted(List<Integer> indexes, List<BulkWriteError> errors) {
+        Set<Integer> failed = errors.stream().map(BulkWriteError::getIndex).collect(toSet());
+        return IntStream.range(0, indexes.size())
+                .filter(i -> !failed.contains(i))
+                .mapToObj(indexes::get)
+                .collect(toSet());
+    }
+
+    // the per document errors of a failed bulk write, if that is what failed
+    private static Optional<List<BulkWriteError>> bulkWriteErrors(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof BulkOperationException bulkOperationException) {
+                return Optional.of(bulkOperationException.getErrors());
+            }
+            if (cause instanceof MongoBulkWriteException bulkWriteException) {
+                return Optional.of(bulkWriteException.getWriteErrors());
+            }
+        }
+        return Optional.empty();
+    }
+
     private Product setServiceAddress(Product product) {
         product.setServiceAddress(serviceUtil.getServiceAddress());
         return product;
@@ -0,0 +1,149 @@
+package org.tbl.microdaddy.core.product;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.tbl.microdaddy.api.core.product.Product;
+import org.tbl.microdaddy.api.event.Event;
+import org.tbl.microdaddy.api.exceptions.BatchWriteException;
+import org.tbl.microdaddy.api.exceptions.InvalidInputException;
+import org.tbl.microdaddy.core.product.services.MessageProcessorConfig;
+import org.tbl.microdaddy.core.product.services.ProductServiceImpl;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.tbl.microdaddy.api.event.Event.Type.CREATE;
+import static org.tbl.microdaddy.api.event.Event.Type.DELETE;
+
+class MessageProcessorTests {
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final String DEAD_LETTERS_BINDING = "deadLetters-out-0";
+
+    private final ProductServiceImpl productService = mock(ProductServiceImpl.class);
+    private final StreamBridge streamBridge = mock(StreamBridge.class);
+
+    private Consumer<List<Event<Integer, Product>>> messageProcessor;
+
+    @BeforeEach
+    void setUp() {
+        messageProcessor = new MessageProcessorConfig(productService, streamBridge, MAX_ATTEMPTS, 1, 1)
+                .messageProcessor();
+        when(productService.deleteProducts(any())).thenReturn(Mono.just(1L));
+    }
+
+    @Test
+    void failedRunIsRetriedAndTheBatchCompleted() {
+
+        AtomicInteger attempts = new AtomicInteger();
+        when(productService.createProducts(anyList())).thenReturn(Mono.defer(() ->
+                attempts.incrementAndGet() == 1
+                        ? Mono.error(new DataAccessResourceFailureException("connection reset"))
+                        : Mono.just(Map.of())));
+
+        messageProcessor.accept(List.of(createEvent(1), deleteEvent(2)));
+
+        assertEquals(2, attempts.get());
+        verify(productService).deleteProducts(List.of(2));
+        verify(streamBridge, never()).send(eq(DEAD_LETTERS_BINDING), any());
+    }
+
+    @Test
+    void duplicatesStoredByAFailedAttemptAreNotDeadLettered() {
+
+        AtomicInteger attempts = new AtomicInteger();
+        when(productService.createProducts(anyList())).thenReturn(Mono.defer(() ->
+                attempts.incrementAndGet() == 1
+                        ? Mono.error(new BatchWriteException(Set.of(0),
+                                new DataAccessResourceFailureException("write concern")))
+                        : Mono.just(Map.of(0, duplicate(1)))));
+
+        messageProcessor.accept(List.of(createEvent(1), createEvent(2)));
+
+        verify(streamBridge, never()).send(eq(DEAD_LETTERS_BINDING), any());
+    }
+
+    @Test
+    void duplicatesNotStoredByAFailedAttemptAreDeadLettered() {
+
+        // the first attempt stored product 2, product 1 was already there
+        AtomicInteger attempts = new AtomicInteger();
+        when(productService.createProducts(anyList())).thenReturn(Mono.defer(() ->
+                attempts.incrementAndGet() == 1
+                        ? Mono.error(new BatchWriteException(Set.of(1),
+                                new DataAccessResourceFailureException("write concern")))
+                        : Mono.just(Map.of(0, duplicate(1), 1, duplicate(2)))));
+
+        messageProcessor.accept(List.of(createEvent(1), createEvent(2)));
+
+        verify(streamBridge, times(1)).send(eq(DEAD_LETTERS_BINDING), any());
+    }
+
+    @Test
+    void duplicatesAfterAFailedAttemptThatStoredNothingAreDeadLettered() {
+
+        AtomicInteger attempts = new AtomicInteger();
+        when(productService.createProducts(anyList())).thenReturn(Mono.defer(() ->
+                attempts.incrementAndGet() == 1
+                        ? Mono.error(new DataAccessResourceFailureException("connection reset"))
+                        : Mono.just(Map.of(0, duplicate(1)))));
+
+        messageProcessor.accept(List.of(createEvent(1), createEvent(2)));
+
+        verify(streamBridge).send(eq(DEAD_LETTERS_BINDING), any());
+    }
+
+    @Test
+    void duplicatesOfTheFirstAttemptAreDeadLettered() {
+
+        when(productService.createProducts(anyList())).thenReturn(Mono.just(Map.of(0, duplicate(1))));
+
+        messageProcessor.accept(List.of(createEvent(1), createEvent(2)));
+
+        verify(streamBridge).send(eq(DEAD_LETTERS_BINDING), any());
+    }
+
+    @Test
+    void runFailingOnEveryAttemptFailsTheBatch() {
+
+        AtomicInteger attempts = new AtomicInteger();
+        when(productService.createProducts(anyList())).thenReturn(Mono.defer(() -> {
+            attempts.incrementAndGet();
+            return Mono.error(new DataAccessResourceFailureException("connection reset"));
+        }));
+
+        List<Event<Integer, Product>> batch = List.of(createEvent(1), deleteEvent(2));
+        assertThrows(DataAccessResourceFailureException.class, () -> messageProcessor.accept(batch));
+
+        assertEquals(MAX_ATTEMPTS, attempts.get());
+        verify(productService, times(0)).deleteProducts(any());
+    }
+
+    private static InvalidInputException duplicate(int productId) {
+        return new InvalidInputException("Duplicate key, Product Id: " + productId);
+    }
+
+    private static Event<Integer, Product> createEvent(int productId) {
+        return new Event<>(CREATE, productId, new Product(productId, "name " + productId, productId, null));
+    }
+
+    private static Event<Integer, Product> deleteEvent(int productId) {
+        return new Event<>(DELETE, productId, null);
+    }
+}
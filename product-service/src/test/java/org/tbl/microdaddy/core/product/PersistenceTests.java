@@ -11,6 +11,7 @@ import org.springframework.boot.test.autoconfigure.actuate.observability.AutoCon
 import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.cloud.function.observability.ObservationAutoConfiguration;
+import org.springframework.cloud.stream.function.StreamBridge;
 import org.springframework.context.annotation.Import;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.OptimisticLockingFailureException;
@@ -34,6 +35,10 @@ class PersistenceTests extends MongoDbTestBase {
     @MockBean
     ObservationRegistry registry;
 
+    // the message processor's dead letters binding isn't part of the slice
+    @MockBean
+    StreamBridge streamBridge;
+
     private ProductEntity savedEntity;
 
     @BeforeEach
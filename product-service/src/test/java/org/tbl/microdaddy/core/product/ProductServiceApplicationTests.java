@@ -6,31 +6,44 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.binder.test.OutputDestination;
+import org.springframework.cloud.stream.binder.test.TestChannelBinderConfiguration;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.messaging.Message;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.tbl.microdaddy.api.core.product.Product;
 import org.tbl.microdaddy.api.event.Event;
-import org.tbl.microdaddy.api.exceptions.InvalidInputException;
+import org.tbl.microdaddy.core.product.persistence.ProductEntity;
 import org.tbl.microdaddy.core.product.persistence.ProductRepository;
+import org.tbl.microdaddy.util.http.Deadline;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
-import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.GATEWAY_TIMEOUT;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
 import static org.springframework.http.HttpStatus.OK;
 import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
 import static org.tbl.microdaddy.api.event.Event.Type.CREATE;
 import static org.tbl.microdaddy.api.event.Event.Type.DELETE;
 
 @SpringBootTest(webEnvironment = RANDOM_PORT)
+@Import(TestChannelBinderConfiguration.class)
 class ProductServiceApplicationTests extends MongoDbTestBase {
 
+	private static final MediaType APPLICATION_SMILE = new MediaType("application", "x-jackson-smile");
+
 	@Autowired
 	private WebTestClient client;
 
@@ -40,11 +53,15 @@ class ProductServiceApplicationTests extends MongoDbTestBase {
 
 	@Autowired
 	@Qualifier("messageProcessor")
-	private Consumer<Event<Integer, Product>> messageProcessor;
+	private Consumer<List<Event<Integer, Product>>> messageProcessor;
+
+	@Autowired
+	private OutputDestination target;
 
 	@BeforeEach
 	void setupDb() {
 		repository.deleteAll().block();
+		target.clear();
 	}
 
 
@@ -65,6 +82,56 @@ class ProductServiceApplicationTests extends MongoDbTestBase {
 				.jsonPath("$.productId").isEqualTo(productId);
 	}
 
+	@Test
+	void getProductByIdAsSmile() {
+
+		int productId = 1;
+
+		sendCreateProductEvent(productId);
+
+		client.get()
+				.uri("/product/" + productId)
+				.accept(APPLICATION_SMILE)
+				.exchange()
+				.expectStatus().isEqualTo(OK)
+				.expectHeader().contentType(APPLICATION_SMILE)
+				.expectBody(Product.class)
+				.value(product -> assertEquals(productId, product.getProductId()));
+	}
+
+	@Test
+	void getProductsByProductIds() {
+
+		sendCreateProductEvent(1);
+		sendCreateProductEvent(2);
+		sendCreateProductEvent(3);
+
+		// missing ids are skipped
+		getAndVerifyProduct("?productIds=1,3,13", OK)
+				.jsonPath("$.length()").isEqualTo(2);
+	}
+
+	@Test
+	void exportProducts() {
+
+		sendCreateProductEvent(3);
+		sendCreateProductEvent(1);
+		sendCreateProductEvent(2);
+
+		List<Product> products = client.get()
+				.uri("/product/export")
+				.accept(APPLICATION_NDJSON)
+				.exchange()
+				.expectStatus().isEqualTo(OK)
+				.expectHeader().contentType(APPLICATION_NDJSON)
+				.returnResult(Product.class)
+				.getResponseBody()
+				.collectList()
+				.block();
+
+		assertEquals(List.of(1, 2, 3), products.stream().map(Product::getProductId).toList());
+	}
+
 	@Test
 	void validateDuplicateError() {
 		int productId = 1;
@@ -75,12 +142,35 @@ class ProductServiceApplicationTests extends MongoDbTestBase {
 
 		assertNotNull(repository.findByProductId(productId).block());
 
-		InvalidInputException thrown = assertThrows(
-				InvalidInputException.class,
-				() -> sendCreateProductEvent(productId),
-				"Expected InvalidInputException");
-		assertEquals("Duplicate key, Product Id: " + productId, thrown.getMessage());
+		// the duplicate is dead lettered instead of failing the batch
+		sendCreateProductEvent(productId);
 
+		Message<byte[]> deadLetter = target.receive(0, "DLX");
+		assertNotNull(deadLetter);
+		assertEquals("Duplicate key, Product Id: " + productId, deadLetter.getHeaders().get("x-exception-message"));
+		assertEquals(1, (long)repository.count().block());
+	}
+
+	@Test
+	void processMixedBatch() {
+
+		sendCreateProductEvent(1);
+
+		// a duplicate and an invalid product in a batch don't stop the rest of it, and the runs are kept in order
+		messageProcessor.accept(List.of(
+				createProductEvent(1),
+				createProductEvent(2),
+				createProductEvent(3),
+				createProductEvent(-1),
+				new Event<>(DELETE, 2, null),
+				createProductEvent(4)));
+
+		assertEquals(List.of(1, 3, 4),
+				repository.findAll().map(ProductEntity::getProductId).sort().collectList().block());
+
+		assertNotNull(target.receive(0, "DLX"));
+		assertNotNull(target.receive(0, "DLX"));
+		assertNull(target.receive(0, "DLX"));
 	}
 
 	@Test
@@ -99,6 +189,25 @@ class ProductServiceApplicationTests extends MongoDbTestBase {
 
 	}
 
+	@Test
+	void getProductDeadlineExceeded() {
+
+		int productId = 1;
+
+		sendCreateProductEvent(productId);
+
+		// the delay is cancelled when the deadline passes, instead of running to completion
+		long start = System.nanoTime();
+		client.get()
+				.uri("/product/" + productId + "?delay=3")
+				.header(Deadline.HEADER, "500")
+				.accept(APPLICATION_JSON)
+				.exchange()
+				.expectStatus().isEqualTo(GATEWAY_TIMEOUT);
+
+		assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofSeconds(3)) < 0);
+	}
+
 	@Test
 	void getProductInvalidParameterString() {
 
@@ -144,14 +253,17 @@ class ProductServiceApplicationTests extends MongoDbTestBase {
 				.expectBody();
 	}
 
-	private void sendCreateProductEvent(int productId) {
+	private Event<Integer, Product> createProductEvent(int productId) {
 		Product product = new Product(productId, "Name " + productId, productId, "serviceAddress");
-		Event<Integer, Product> event = new Event<>(CREATE, productId, product);
-		messageProcessor.accept(event);
+		return new Event<>(CREATE, productId, product);
+	}
+
+	private void sendCreateProductEvent(int productId) {
+		messageProcessor.accept(List.of(createProductEvent(productId)));
 	}
 
 	private void sendDeleteProductEvent(int productId) {
 		Event<Integer, Product> event = new Event<>(DELETE, productId, null);
-		messageProcessor.accept(event);
+		messageProcessor.accept(List.of(event));
 	}
 }
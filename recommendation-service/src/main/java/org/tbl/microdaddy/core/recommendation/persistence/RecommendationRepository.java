@@ -1,9 +1,35 @@
 package org.tbl.microdaddy.core.recommendation.persistence;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.Meta;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
 
 public interface RecommendationRepository extends ReactiveCrudRepository<RecommendationEntity, String> {
 
     Flux<RecommendationEntity> findByProductId(int productId);
+
+    // keyset page: { productId: ..., recommendationId: { $gt: ... } } sorted by recommendationId w/ a limit,
+    // served by the compound index
+    Flux<RecommendationEntity> findByProductIdAndRecommendationIdGreaterThanOrderByRecommendationIdAsc(
+            int productId, int recommendationId, Pageable pageable);
+
+    // the last recommendationIds of a product, a backwards read of the compound index
+    Flux<RecommendationEntity> findByProductIdOrderByRecommendationIdDesc(int productId, Pageable pageable);
+
+    // { productId: { $in: [...] } }
+    Flux<RecommendationEntity> findByProductIdIn(Collection<Integer> productIds);
+
+    // { productId: ... }, a single deleteMany instead of loading the documents and deleting them one by one
+    Mono<Long> deleteByProductId(int productId);
+
+    // { productId: { $in: [...] } }, a single deleteMany
+    Mono<Long> deleteByProductIdIn(Collection<Integer> productIds);
+
+    // full scan in (productId, recommendationId) order (served by the compound index), read in cursor batches
+    @Meta(cursorBatchSize = 100)
+    Flux<RecommendationEntity> streamAllByOrderByProductIdAscRecommendationIdAsc();
 }
@@ -0,0 +1,29 @@
+package org.tbl.microdaddy.core.recommendation.persistence;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+    The precomputed recommendation statistics of a product, one document per product that has
+    recommendations. Updated w/ $inc after every insert, so concurrent writers don't lose updates, and
+    computed from the recommendations of the product if it has no document yet (see RecommendationServiceImpl).
+
+    rates is the histogram, the number of recommendations by rating. Document keys have to be strings.
+ */
+@Data
+@NoArgsConstructor
+@Document(collection = "recommendation_statistics")
+public class RecommendationStatisticsEntity {
+
+    @Id
+    private int productId;
+
+    private long count;
+    private long rateSum;
+    private Map<String, Long> rates = new HashMap<>();
+}
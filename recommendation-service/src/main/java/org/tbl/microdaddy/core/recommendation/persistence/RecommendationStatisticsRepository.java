@@ -0,0 +1,7 @@
+package org.tbl.microdaddy.core.recommendation.persistence;
+
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+
+public interface RecommendationStatisticsRepository
+        extends ReactiveCrudRepository<RecommendationStatisticsEntity, Integer> {
+}
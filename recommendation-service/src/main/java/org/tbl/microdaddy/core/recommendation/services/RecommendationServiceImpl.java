@@ -1,40 +1,89 @@
 package org.tbl.microdaddy.core.recommendation.services;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
 import io.micrometer.observation.annotation.Observed;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.ReactiveBulkOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.web.bind.annotation.RestController;
 import org.tbl.microdaddy.api.core.recommendation.Recommendation;
 import org.tbl.microdaddy.api.core.recommendation.RecommendationService;
+import org.tbl.microdaddy.api.core.recommendation.RecommendationStatistics;
+import org.tbl.microdaddy.api.exceptions.BatchWriteException;
+import org.tbl.microdaddy.api.exceptions.EventProcessingException;
 import org.tbl.microdaddy.api.exceptions.InvalidInputException;
+import org.tbl.microdaddy.api.paging.Page;
 import org.tbl.microdaddy.core.recommendation.persistence.RecommendationEntity;
 import org.tbl.microdaddy.core.recommendation.persistence.RecommendationRepository;
+import org.tbl.microdaddy.core.recommendation.persistence.RecommendationStatisticsEntity;
+import org.tbl.microdaddy.core.recommendation.persistence.RecommendationStatisticsRepository;
 import org.tbl.microdaddy.util.http.ServiceUtil;
+import org.tbl.microdaddy.util.paging.KeysetPaging;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
 import static java.util.logging.Level.FINE;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
+import static org.springframework.data.mongodb.core.BulkOperations.BulkMode.UNORDERED;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
 
 @RestController
 @Slf4j
 public class RecommendationServiceImpl implements RecommendationService {
 
     private static final String INVALID_PRODUCT_ID = "Invalid productId: ";
+    private static final int DUPLICATE_KEY_ERROR_CODE = 11000;
 
     private final RecommendationRepository repository;
+    private final RecommendationStatisticsRepository statisticsRepository;
+    private final ReactiveMongoTemplate mongoTemplate;
     private final RecommendationMapper mapper;
     private final ServiceUtil serviceUtil;
+    private final int defaultPageSize;
+    private final int maxPageSize;
+    private final int latestSize;
 
     @Autowired
     public RecommendationServiceImpl(
             RecommendationRepository repository,
+            RecommendationStatisticsRepository statisticsRepository,
+            ReactiveMongoTemplate mongoTemplate,
             RecommendationMapper mapper,
-            ServiceUtil serviceUtil) {
+            ServiceUtil serviceUtil,
+            @Value("${app.paging.defaultPageSize:20}") int defaultPageSize,
+            @Value("${app.paging.maxPageSize:100}") int maxPageSize,
+            @Value("${app.statistics.latestSize:3}") int latestSize) {
         this.repository = repository;
+        this.statisticsRepository = statisticsRepository;
+        this.mongoTemplate = mongoTemplate;
         this.mapper = mapper;
         this.serviceUtil = serviceUtil;
+        this.defaultPageSize = defaultPageSize;
+        this.maxPageSize = maxPageSize;
+        this.latestSize = latestSize;
     }
 
     @Observed(
@@ -54,10 +103,92 @@ public class RecommendationServiceImpl implements RecommendationService {
                 .onErrorMap(DuplicateKeyException.class,
                         ex -> new InvalidInputException("Duplicate key, Product Id: " + body.getProductId()
                                 + ", Recommendation Id:" + body.getRecommendationId()))
+                .flatMap(savedEntity -> addToStatistics(List.of(savedEntity)).thenReturn(savedEntity))
                 .map(mapper::entityToApi);
 
     }
 
+    /*
+        Bulk version of createRecommendation for the batch message processor: all valid recommendations are
+        stored with a single unordered insertMany, so one duplicate doesn't stop the rest of the batch.
+
+        Emits the recommendations that were not stored, by their index in the list, w/ the reason. If the insert
+        was applied but not acknowledged by the write concern, or the statistics can't be updated afterwards,
+        fails w/ a BatchWriteException of the recommendations stored.
+     */
+    @Observed(
+            name = "createRecommendations",
+            contextualName = "recommendation-service.create-recommendations"
+    )
+    public Mono<Map<Integer, RuntimeException>> createRecommendations(List<Recommendation> recommendations) {
+
+        Map<Integer, RuntimeException> failures = new HashMap<>();
+        List<RecommendationEntity> entities = new ArrayList<>();
+        // index in recommendations of every entity in the insert
+        List<Integer> indexes = new ArrayList<>();
+
+        for (int i = 0; i < recommendations.size(); i++) {
+            Recommendation recommendation = recommendations.get(i);
+            if (recommendation == null) {
+                failures.put(i, new InvalidInputException("Missing recommendation"));
+                continue;
+            }
+            if (recommendation.getProductId() < 1) {
+                failures.put(i, new InvalidInputException(INVALID_PRODUCT_ID + recommendation.getProductId()));
+                continue;
+            }
+
+            RecommendationEntity entity = mapper.apiToEntity(recommendation);
+            // bulk inserts don't initialize @Version the way save does
+            entity.setVersion(0);
+            entities.add(entity);
+            indexes.add(i);
+        }
+
+        if (entities.isEmpty()) {
+            return Mono.just(failures);
+        }
+
+        return mongoTemplate.bulkOps(UNORDERED, RecommendationEntity.class)
+                .insert(entities)
+                .execute()
+                .log(log.getName(), FINE)
+                .thenReturn(Optional.<Throwable>empty())
+                .onErrorResume(ex -> bulkWriteErrors(ex).isPresent(), ex -> Mono.just(Optional.of(ex)))
+                .flatMap(insertFailure -> {
+                    List<BulkWriteError> errors = insertFailure
+                            .flatMap(RecommendationServiceImpl::bulkWriteErrors)
+                            .orElse(List.of());
+                    errors.forEach(error -> {
+                        Recommendation recommendation = recommendations.get(indexes.get(error.getIndex()));
+                        failures.put(indexes.get(error.getIndex()), error.getCode() == DUPLICATE_KEY_ERROR_CODE
+                                ? new InvalidInputException("Duplicate key, Product Id: "
+                                        + recommendation.getProductId()
+                                        + ", Recommendation Id:" + recommendation.getRecommendationId())
+                                : new EventProcessingException(error.getMessage()));
+                    });
+
+                    // the rest of the batch was inserted
+                    Set<Integer> failed = errors.stream().map(BulkWriteError::getIndex).collect(toSet());
+                    List<RecommendationEntity> inserted = new ArrayList<>();
+                    Set<Integer> applied = new HashSet<>();
+                    for (int i = 0; i < entities.size(); i++) {
+                        if (!failed.contains(i)) {
+                            inserted.add(entities.get(i));
+                            applied.add(indexes.get(i));
+                        }
+                    }
+
+                    Mono<Map<Integer, RuntimeException>> result =
+                            insertFailure.isPresent() && hasWriteConcernError(insertFailure.get())
+                                    ? Mono.error(insertFailure.get())
+                                    : Mono.just(failures);
+                    return addToStatistics(inserted)
+                            .then(result)
+                            .onErrorMap(ex -> new BatchWriteException(applied, ex));
+                });
+    }
+
     @Observed(
             name = "getRecommendations",
             contextualName = "recommendation-service.get-recommendations"
@@ -78,6 +209,103 @@ public class RecommendationServiceImpl implements RecommendationService {
 
     }
 
+    @Observed(
+            name = "getRecommendationPage",
+            contextualName = "recommendation-service.get-recommendation-page"
+    )
+    @Override
+    public Mono<Page<Recommendation>> getRecommendationPage(int productId, String pageToken, int pageSize) {
+
+        if (productId < 1) {
+            throw new InvalidInputException(INVALID_PRODUCT_ID + productId);
+        }
+
+        int size = KeysetPaging.pageSize(pageSize, defaultPageSize, maxPageSize);
+        int afterRecommendationId = KeysetPaging.afterId(pageToken, productId);
+
+        log.info("calling getRecommendationPage for product with id={}, pageToken={}, pageSize={}",
+                productId, pageToken, size);
+
+        // one extra recommendation, to find out if there is a next page
+        return repository.findByProductIdAndRecommendationIdGreaterThanOrderByRecommendationIdAsc(
+                        productId, afterRecommendationId, PageRequest.ofSize(size + 1))
+                .log(log.getName(), FINE)
+                .map(mapper::entityToApi)
+                .map(this::setServiceAddress)
+                .collectList()
+                .map(recommendations -> KeysetPaging.toPage(
+                        recommendations, size, productId, Recommendation::getRecommendationId));
+    }
+
+    /*
+        count, rateSum and the histogram are precomputed on every insert/delete, the latest recommendations
+        are a read of the last entries of the (productId, recommendationId) index. Neither depends on the
+        number of recommendations of the product.
+
+        A product w/o a statistics document (its recommendations were all written before the statistics
+        existed) gets them computed from its recommendations first, see recomputeStatistics.
+     */
+    @Observed(
+            name = "getRecommendationStatistics",
+            contextualName = "recommendation-service.get-recommendation-statistics"
+    )
+    @Override
+    public Mono<RecommendationStatistics> getRecommendationStatistics(int productId) {
+
+        if (productId < 1) {
+            throw new InvalidInputException(INVALID_PRODUCT_ID + productId);
+        }
+
+        log.info("calling getRecommendationStatistics for product with id={}", productId);
+
+        return Mono.zip(
+                        statisticsRepository.findById(productId)
+                                .switchIfEmpty(Mono.defer(() -> recomputeStatistics(productId))),
+                        repository.findByProductIdOrderByRecommendationIdDesc(productId, PageRequest.ofSize(latestSize))
+                                .map(mapper::entityToApi)
+                                .map(this::setServiceAddress)
+                                .collectList())
+                .log(log.getName(), FINE)
+                .map(tuple -> toStatistics(productId, tuple.getT1(), tuple.getT2()));
+    }
+
+    @Observed(
+            name = "getRecommendationsForProducts",
+            contextualName = "recommendation-service.get-recommendations-for-products"
+    )
+    @Override
+    public Flux<Recommendation> getRecommendationsForProducts(List<Integer> productIds) {
+
+        productIds.forEach(productId -> {
+            if (productId < 1) {
+                throw new InvalidInputException(INVALID_PRODUCT_ID + productId);
+            }
+        });
+
+        log.info("calling getRecommendationsForProducts for productIds={}", productIds);
+
+        return repository.findByProductIdIn(productIds)
+                .log(log.getName(), FINE)
+                .map(mapper::entityToApi)
+                .map(this::setServiceAddress);
+    }
+
+    @Observed(
+            name = "exportRecommendations",
+            contextualName = "recommendation-service.export-recommendations"
+    )
+    @Override
+    public Flux<Recommendation> exportRecommendations() {
+
+        log.info("calling exportRecommendations");
+
+        // demand from the client is passed through to the cursor, so only a batch or two is ever in memory
+        return repository.streamAllByOrderByProductIdAscRecommendationIdAsc()
+                .log(log.getName(), FINE)
+                .map(mapper::entityToApi)
+                .map(this::setServiceAddress);
+    }
+
     @Observed(
             name = "deleteRecommendations",
             contextualName = "recommendation-service.delete-recommendations"
@@ -92,7 +320,161 @@ public class RecommendationServiceImpl implements RecommendationService {
         log.debug("deleteRecommendations: attempting to delete recommendations for product with productId: {}",
                 productId);
 
-        return repository.deleteAll(repository.findByProductId(productId));
+        return repository.deleteByProductId(productId)
+                .doOnNext(count -> log.debug("deleteRecommendations: deleted {} recommendations for product with " +
+                        "productId: {}", count, productId))
+                .then(statisticsRepository.deleteById(productId));
+    }
+
+    /*
+        Bulk version of deleteRecommendations for the batch message processor, a single deleteMany. Emits the
+        number of recommendations deleted.
+     */
+    @Observed(
+            name = "deleteRecommendationsForProducts",
+            contextualName = "recommendation-service.delete-recommendations-for-products"
+    )
+    public Mono<Long> deleteRecommendationsForProducts(Collection<Integer> productIds) {
+
+        productIds.forEach(productId -> {
+            if (productId < 1) {
+                throw new InvalidInputException(INVALID_PRODUCT_ID + productId);
+            }
+        });
+
+        log.debug("deleteRecommendationsForProducts: attempting to delete recommendations for products with " +
+                "productIds: {}", productIds);
+
+        return repository.deleteByProductIdIn(productIds)
+                .flatMap(count -> statisticsRepository.deleteAllById(productIds).thenReturn(count))
+                .log(log.getName(), FINE);
+    }
+
+    /*
+        One $inc per product that already has a statistics document, in a single unordered bulk write. Products
+        w/o one get theirs computed from all of their recommendations (the inserted ones included), a $inc
+        upsert would only count the recommendations written from now on.
+
+        Runs after the insert, not in a transaction w/ it. If it fails, the statistics of the products are
+        recomputed, or deleted if that fails too, so the next read or write recomputes them.
+     */
+    private Mono<Void> addToStatistics(Collection<RecommendationEntity> inserted) {
+
+        if (inserted.isEmpty()) {
+            return Mono.empty();
+        }
+
+        Map<Integer, List<RecommendationEntity>> byProduct = inserted.stream()
+                .collect(groupingBy(RecommendationEntity::getProductId));
+
+        return statisticsRepository.findAllById(byProduct.keySet())
+                .map(RecommendationStatisticsEntity::getProductId)
+                .collect(toSet())
+                .flatMap(counted -> {
+                    ReactiveBulkOperations bulkOps =
+                            mongoTemplate.bulkOps(UNORDERED, RecommendationStatisticsEntity.class);
+                    List<Integer> uncounted = new ArrayList<>();
+                    byProduct.forEach((productId, entities) -> {
+                        if (!counted.contains(productId)) {
+                            uncounted.add(productId);
+                            return;
+                        }
+                        Update update = new Update()
+                                .inc("count", (long) entities.size())
+                                .inc("rateSum", entities.stream().mapToLong(RecommendationEntity::getRating).sum());
+                        entities.stream()
+                                .collect(groupingBy(RecommendationEntity::getRating))
+                                .forEach((rating, rated) -> update.inc("rates." + rating, (long) rated.size()));
+                        bulkOps.updateOne(query(where("_id").is(productId)), update);
+                    });
+
+                    Mono<Void> increments = counted.isEmpty() ? Mono.empty() : bulkOps.execute().then();
+                    return increments.then(Flux.fromIterable(uncounted)
+                            .concatMap(this::recomputeStatistics)
+                            .then());
+                })
+                .onErrorResume(ex -> reconcileStatistics(byProduct.keySet(), ex));
+    }
+
+    private Mono<Void> reconcileStatistics(Collection<Integer> productIds, Throwable ex) {
+
+        log.warn("Failed to update the statistics of products {}, recomputing them: {}", productIds, ex.toString());
+
+        return Flux.fromIterable(productIds)
+                .concatMap(this::recomputeStatistics)
+                .then()
+                .onErrorResume(recomputeEx -> {
+                    log.warn("Failed to recompute the statistics of products {}, deleting them: {}",
+                            productIds, recomputeEx.toString());
+                    return statisticsRepository.deleteAllById(productIds);
+                });
+    }
+
+    /*
+        Replaces the statistics of the product w/ the ones computed by an aggregation over its recommendations
+        (served by the (productId, recommendationId) index), one group per rating. A product w/o
+        recommendations has no statistics document.
+
+        A recommendation inserted while this runs may be both in the aggregation and $inc'ed afterwards, the
+        next recompute corrects that.
+     */
+    private Mono<RecommendationStatisticsEntity> recomputeStatistics(int productId) {
+
+        log.debug("Recomputing the recommendation statistics of product {}", productId);
+
+        return mongoTemplate.aggregate(newAggregation(
+                                match(where("productId").is(productId)),
+                                group("rating").count().as("count")),
+                        RecommendationEntity.class, Document.class)
+                .collectList()
+                .flatMap(ratings -> {
+                    RecommendationStatisticsEntity entity = new RecommendationStatisticsEntity();
+                    entity.setProductId(productId);
+                    ratings.forEach(rating -> {
+                        int rate = rating.getInteger("_id");
+                        long count = rating.get("count", Number.class).longValue();
+                        entity.setCount(entity.getCount() + count);
+                        entity.setRateSum(entity.getRateSum() + rate * count);
+                        entity.getRates().put(String.valueOf(rate), count);
+                    });
+
+                    return entity.getCount() == 0
+                            ? statisticsRepository.deleteById(productId).thenReturn(entity)
+                            : statisticsRepository.save(entity);
+                });
+    }
+
+    private static RecommendationStatistics toStatistics(
+            int productId, RecommendationStatisticsEntity entity, List<Recommendation> latest) {
+
+        double averageRate = entity.getCount() == 0 ? 0 : (double) entity.getRateSum() / entity.getCount();
+        Map<Integer, Long> rateHistogram = entity.getRates().entrySet().stream()
+                .collect(toMap(rate -> Integer.valueOf(rate.getKey()), Map.Entry::getValue));
+
+        return new RecommendationStatistics(productId, entity.getCount(), averageRate, rateHistogram, latest);
+    }
+
+    // the bulk write was applied, but not acknowledged by enough members of the replica set
+    private static boolean hasWriteConcernError(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoBulkWriteException bulkWriteException) {
+                return bulkWriteException.getWriteConcernError() != null;
+            }
+        }
+        return false;
+    }
+
+    // the per document errors of a failed bulk write, if that is what failed
+    private static Optional<List<BulkWriteError>> bulkWriteErrors(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof BulkOperationException bulkOperationException) {
+                return Optional.of(bulkOperationException.getErrors());
+            }
+            if (cause instanceof MongoBulkWriteException bulkWriteException) {
+                return Optional.of(bulkWriteException.getWriteErrors());
+            }
+        }
+        return Optional.empty();
     }
 
     private Recommendation setServiceAddress(Recommendation recommendation) {
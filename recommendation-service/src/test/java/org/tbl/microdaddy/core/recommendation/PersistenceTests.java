@@ -8,6 +8,7 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cloud.stream.function.StreamBridge;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.OptimisticLockingFailureException;
 import org.tbl.microdaddy.core.recommendation.persistence.RecommendationEntity;
@@ -33,6 +34,10 @@ class PersistenceTests extends MongoDbTestBase {
     @MockBean
     private ObservationRegistry registry;
 
+    // the message processor's dead letters binding isn't part of the slice
+    @MockBean
+    private StreamBridge streamBridge;
+
     @Autowired
     private RecommendationRepository repository;
 
@@ -88,6 +93,18 @@ class PersistenceTests extends MongoDbTestBase {
         assertNotEquals(TRUE, repository.existsById(savedEntity.getId()).block());
     }
 
+    @Test
+    void deleteByProductId() {
+        repository.save(new RecommendationEntity(1, 3, "author", 3, "content")).block();
+        repository.save(new RecommendationEntity(2, 1, "author", 3, "content")).block();
+
+        assertEquals(2, repository.deleteByProductId(1).block());
+        assertEquals(1, repository.count().block());
+
+        // nothing left to delete
+        assertEquals(0, repository.deleteByProductId(1).block());
+    }
+
 
     @Test
     void getByProductId() {
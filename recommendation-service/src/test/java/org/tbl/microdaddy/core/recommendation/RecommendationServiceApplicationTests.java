@@ -6,28 +6,38 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.binder.test.OutputDestination;
+import org.springframework.cloud.stream.binder.test.TestChannelBinderConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpStatus;
+import org.springframework.messaging.Message;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.tbl.microdaddy.api.core.recommendation.Recommendation;
 import org.tbl.microdaddy.api.event.Event;
-import org.tbl.microdaddy.api.exceptions.InvalidInputException;
+import org.tbl.microdaddy.api.paging.Page;
 import org.tbl.microdaddy.core.recommendation.persistence.RecommendationRepository;
+import org.tbl.microdaddy.core.recommendation.persistence.RecommendationStatisticsRepository;
 
+import java.util.List;
 import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
 import static org.springframework.http.HttpStatus.OK;
 import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
 import static org.tbl.microdaddy.api.event.Event.Type.CREATE;
 import static org.tbl.microdaddy.api.event.Event.Type.DELETE;
 import static reactor.core.publisher.Mono.just;
 
 @SpringBootTest(webEnvironment = RANDOM_PORT)
+@Import(TestChannelBinderConfiguration.class)
 class RecommendationServiceApplicationTests extends MongoDbTestBase {
 
     @Autowired
@@ -36,13 +46,21 @@ class RecommendationServiceApplicationTests extends MongoDbTestBase {
     @Autowired
     private RecommendationRepository repository;
 
+    @Autowired
+    private RecommendationStatisticsRepository statisticsRepository;
+
     @Autowired
     @Qualifier("messageProcessor")
-    private Consumer<Event<Integer, Recommendation>> messageProcessor;
+    private Consumer<List<Event<Integer, Recommendation>>> messageProcessor;
+
+    @Autowired
+    private OutputDestination target;
 
     @BeforeEach
     void setupDb() {
         repository.deleteAll().block();
+        statisticsRepository.deleteAll().block();
+        target.clear();
     }
 
     @Test
@@ -62,6 +80,119 @@ class RecommendationServiceApplicationTests extends MongoDbTestBase {
                 .jsonPath("$[2].recommendationId").isEqualTo(3);
     }
 
+    @Test
+    void getRecommendationPages() {
+
+        sendCreateRecommendationEvent(1, 3);
+        sendCreateRecommendationEvent(1, 1);
+        sendCreateRecommendationEvent(1, 2);
+        sendCreateRecommendationEvent(2, 1);
+
+        Page<Recommendation> firstPage = getRecommendationPage("?productId=1&pageSize=2");
+        assertEquals(List.of(1, 2),
+                firstPage.getItems().stream().map(Recommendation::getRecommendationId).toList());
+        assertNotNull(firstPage.getNextPageToken());
+
+        Page<Recommendation> lastPage =
+                getRecommendationPage("?productId=1&pageSize=2&pageToken=" + firstPage.getNextPageToken());
+        assertEquals(List.of(3), lastPage.getItems().stream().map(Recommendation::getRecommendationId).toList());
+        assertNull(lastPage.getNextPageToken());
+
+        // default page size
+        assertEquals(3, getRecommendationPage("?productId=1").getItems().size());
+
+        // a token is only valid for its own product
+        getAndVerifyRecommendationsByProductId("/page?productId=2&pageToken=" + firstPage.getNextPageToken(),
+                UNPROCESSABLE_ENTITY)
+                .jsonPath("$.message").isEqualTo("Invalid pageToken: " + firstPage.getNextPageToken());
+    }
+
+    @Test
+    void getRecommendationStatistics() {
+
+        sendCreateRecommendationEvent(1, 1);
+        sendCreateRecommendationEvent(1, 2);
+        sendCreateRecommendationEvent(1, 3);
+        sendCreateRecommendationEvent(1, 6);
+        sendCreateRecommendationEvent(2, 1);
+
+        // a duplicate is not counted
+        sendCreateRecommendationEvent(1, 3);
+
+        // the rate of each recommendation is its recommendationId
+        getAndVerifyRecommendationsByProductId("/statistics?productId=1", OK)
+                .jsonPath("$.count").isEqualTo(4)
+                .jsonPath("$.averageRate").isEqualTo(3.0)
+                .jsonPath("$.rateHistogram.3").isEqualTo(1)
+                .jsonPath("$.rateHistogram.6").isEqualTo(1)
+                .jsonPath("$.latest.length()").isEqualTo(3)
+                .jsonPath("$.latest[0].recommendationId").isEqualTo(6);
+
+        sendDeleteRecommendation(1);
+
+        getAndVerifyRecommendationsByProductId("/statistics?productId=1", OK)
+                .jsonPath("$.count").isEqualTo(0)
+                .jsonPath("$.latest.length()").isEqualTo(0);
+    }
+
+    @Test
+    void getRecommendationStatisticsOfRecommendationsWrittenBeforeThem() {
+
+        sendCreateRecommendationEvent(1, 1);
+        sendCreateRecommendationEvent(1, 2);
+        statisticsRepository.deleteAll().block();
+
+        // computed from the recommendations on the first read...
+        getAndVerifyRecommendationsByProductId("/statistics?productId=1", OK)
+                .jsonPath("$.count").isEqualTo(2)
+                .jsonPath("$.averageRate").isEqualTo(1.5)
+                .jsonPath("$.rateHistogram.2").isEqualTo(1);
+        assertEquals(2, statisticsRepository.findById(1).block().getCount());
+
+        // ...or the first write
+        statisticsRepository.deleteAll().block();
+        sendCreateRecommendationEvent(1, 3);
+        assertEquals(3, statisticsRepository.findById(1).block().getCount());
+
+        getAndVerifyRecommendationsByProductId("/statistics?productId=1", OK)
+                .jsonPath("$.count").isEqualTo(3)
+                .jsonPath("$.averageRate").isEqualTo(2.0);
+    }
+
+    @Test
+    void getRecommendationsForProducts() {
+
+        sendCreateRecommendationEvent(1, 1);
+        sendCreateRecommendationEvent(1, 2);
+        sendCreateRecommendationEvent(2, 1);
+        sendCreateRecommendationEvent(3, 1);
+
+        getAndVerifyRecommendationsByProductId("?productIds=1,2", OK)
+                .jsonPath("$.length()").isEqualTo(3);
+    }
+
+    @Test
+    void exportRecommendations() {
+
+        sendCreateRecommendationEvent(2, 1);
+        sendCreateRecommendationEvent(1, 2);
+        sendCreateRecommendationEvent(1, 1);
+
+        List<Recommendation> recommendations = client.get()
+                .uri("/recommendation/export")
+                .accept(APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isEqualTo(OK)
+                .expectHeader().contentType(APPLICATION_NDJSON)
+                .returnResult(Recommendation.class)
+                .getResponseBody()
+                .collectList()
+                .block();
+
+        assertEquals(List.of(1, 1, 2), recommendations.stream().map(Recommendation::getProductId).toList());
+        assertEquals(List.of(1, 2, 1), recommendations.stream().map(Recommendation::getRecommendationId).toList());
+    }
+
     @Disabled
     @Test
     void validateDuplicateKeyError() {
@@ -73,11 +204,13 @@ class RecommendationServiceApplicationTests extends MongoDbTestBase {
 
         assertEquals(1, (long) repository.count().block());
 
-        InvalidInputException thrown = assertThrows(
-                InvalidInputException.class,
-                () -> sendCreateRecommendationEvent(productId, recommendationId),
-                "Expected InvalidInputException");
-        assertEquals("Duplicate key, Product Id: 1, Recommendation Id:1", thrown.getMessage());
+        // the duplicate is dead lettered instead of failing the batch
+        sendCreateRecommendationEvent(productId, recommendationId);
+
+        Message<byte[]> deadLetter = target.receive(0, "DLX");
+        assertNotNull(deadLetter);
+        assertEquals("Duplicate key, Product Id: 1, Recommendation Id:1",
+                deadLetter.getHeaders().get("x-exception-message"));
 
         assertEquals(1, (long) repository.count().block());
     }
@@ -99,6 +232,20 @@ class RecommendationServiceApplicationTests extends MongoDbTestBase {
 
     }
 
+    @Test
+    void deleteRecommendationsOfSeveralProducts() {
+
+        sendCreateRecommendationEvent(1, 1);
+        sendCreateRecommendationEvent(2, 1);
+        sendCreateRecommendationEvent(3, 1);
+
+        // consecutive deletes in a batch are a single multi-key delete
+        messageProcessor.accept(List.of(new Event<>(DELETE, 1, null), new Event<>(DELETE, 3, null)));
+
+        assertEquals(1, (long) repository.count().block());
+        assertEquals(1, (long) repository.findByProductId(2).count().block());
+    }
+
     @Test
     void getRecommendationsMissingParameter() {
 
@@ -154,6 +301,17 @@ class RecommendationServiceApplicationTests extends MongoDbTestBase {
                 .expectBody();
     }
 
+    private Page<Recommendation> getRecommendationPage(String query) {
+        return client.get()
+                .uri("/recommendation/page" + query)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(OK)
+                .expectBody(new ParameterizedTypeReference<Page<Recommendation>>() {})
+                .returnResult()
+                .getResponseBody();
+    }
+
     private void sendCreateRecommendationEvent(int productId, int recommendationId) {
         Recommendation recommendation = new Recommendation(
                 productId,
@@ -164,12 +322,12 @@ class RecommendationServiceApplicationTests extends MongoDbTestBase {
                 "serviceAddress"
         );
         Event<Integer, Recommendation> event = new Event<>(CREATE, productId, recommendation);
-        messageProcessor.accept(event);
+        messageProcessor.accept(List.of(event));
     }
 
     private void sendDeleteRecommendation(int productId) {
         Event<Integer, Recommendation> event = new Event<>(DELETE, productId, null);
-        messageProcessor.accept(event);
+        messageProcessor.accept(List.of(event));
     }
 
 }
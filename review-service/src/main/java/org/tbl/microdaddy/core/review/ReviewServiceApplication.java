@@ -9,29 +9,35 @@ import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
+import org.tbl.microdaddy.util.scheduling.BlockingSchedulers;
 import reactor.core.scheduler.Scheduler;
-import reactor.core.scheduler.Schedulers;
 
 @SpringBootApplication
 @Slf4j
 @ComponentScan("org.tbl.microdaddy")
 public class ReviewServiceApplication {
 
+    private final String schedulerType;
     private final Integer threadPoolSize;
     private final Integer taskQueueSize;
+    private final Integer virtualThreadConcurrency;
 
     @Autowired
     public ReviewServiceApplication(
+            @Value("${app.schedulerType:boundedElastic}") String schedulerType,
             @Value("${app.threadPoolSize:10}") Integer threadPoolSize,
-            @Value("${app.taskQueueSize:100}") Integer taskQueueSize) {
+            @Value("${app.taskQueueSize:100}") Integer taskQueueSize,
+            @Value("${app.virtualThreadConcurrency:10}") Integer virtualThreadConcurrency) {
+        this.schedulerType = schedulerType;
         this.threadPoolSize = threadPoolSize;
         this.taskQueueSize = taskQueueSize;
+        this.virtualThreadConcurrency = virtualThreadConcurrency;
     }
 
     @Bean
     public Scheduler jdbcScheduler() {
-        log.info("Creates a jdbcScheduler with thread pool size = {}", threadPoolSize);
-        return Schedulers.newBoundedElastic(threadPoolSize, taskQueueSize, "jdbc-pool");
+        return BlockingSchedulers.create(
+                schedulerType, "jdbc-pool", threadPoolSize, taskQueueSize, virtualThreadConcurrency);
     }
 
     public static void main(String[] args) {
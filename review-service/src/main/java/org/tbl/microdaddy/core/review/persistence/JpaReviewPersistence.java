@@ -0,0 +1,163 @@
+package org.tbl.microdaddy.core.review.persistence;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/*
+    ReviewPersistence on the blocking JPA ReviewRepository. Every call is moved to the jdbcScheduler, so
+    no blocking JDBC call ever runs on a Netty event loop thread.
+
+    Writes that change the number of reviews of a product update ReviewStatisticsRepository in the same
+    transaction (insertAll does so itself).
+ */
+@Slf4j
+@Component
+@Profile("!r2dbc")
+public class JpaReviewPersistence implements ReviewPersistence {
+
+    private final ReviewRepository repository;
+    private final ReviewStatisticsRepository statisticsRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Scheduler jdbcScheduler;
+
+    @Autowired
+    public JpaReviewPersistence(
+            @Qualifier("jdbcScheduler") Scheduler jdbcScheduler,
+            ReviewRepository repository,
+            ReviewStatisticsRepository statisticsRepository,
+            PlatformTransactionManager transactionManager) {
+
+        log.info("Using JPA persistence for reviews");
+
+        this.jdbcScheduler = jdbcScheduler;
+        this.repository = repository;
+        this.statisticsRepository = statisticsRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Override
+    public Mono<ReviewEntity> save(ReviewEntity entity) {
+
+        if (entity.getId() != 0) {
+            return blocking(() -> repository.save(entity));
+        }
+
+        return blocking(() -> transactionTemplate.execute(status -> {
+            ReviewEntity savedEntity = repository.save(entity);
+            statisticsRepository.addToReviewCount(entity.getProductId(), 1);
+            return savedEntity;
+        }));
+    }
+
+    @Override
+    public Mono<Void> insertAll(List<ReviewEntity> entities) {
+        return blocking(() -> repository.insertAll(entities));
+    }
+
+    @Override
+    public Mono<ReviewEntity> findById(int id) {
+        return blocking(() -> repository.findById(id).orElse(null));
+    }
+
+    @Override
+    public Flux<ReviewEntity> findByProductId(int productId) {
+        return blocking(() -> repository.findByProductId(productId))
+                .flatMapMany(Flux::fromIterable);
+    }
+
+    @Override
+    public Flux<ReviewEntity> findPageByProductId(int productId, int afterReviewId, int limit) {
+        return blocking(() -> repository.findByProductIdAndReviewIdGreaterThanOrderByReviewIdAsc(
+                        productId, afterReviewId, PageRequest.ofSize(limit)))
+                .flatMapMany(Flux::fromIterable);
+    }
+
+    @Override
+    public Flux<ReviewEntity> findLatestByProductId(int productId, int limit) {
+        return blocking(() -> repository.findByProductIdOrderByReviewIdDesc(productId, PageRequest.ofSize(limit)))
+                .flatMapMany(Flux::fromIterable);
+    }
+
+    @Override
+    public Mono<Long> countByProductId(int productId) {
+        return blocking(() -> statisticsRepository.findById(productId)
+                .map(ReviewStatisticsEntity::getReviewCount)
+                .orElseGet(() -> repository.countByProductId(productId)));
+    }
+
+    @Override
+    public Flux<ReviewEntity> findByProductIdIn(Collection<Integer> productIds) {
+        return blocking(() -> repository.findByProductIdIn(productIds))
+                .flatMapMany(Flux::fromIterable);
+    }
+
+    @Override
+    public Flux<ReviewEntity> streamAllOrderByProductIdAndReviewId() {
+        // fromStream only pulls rows as the client requests them and closes the stream (and its connection)
+        // on completion, error or cancel. Both the reads and the close block, so both stay on jdbcScheduler.
+        return Flux.fromStream(repository::streamAllOrderByProductIdAndReviewId)
+                .subscribeOn(jdbcScheduler)
+                .cancelOn(jdbcScheduler);
+    }
+
+    @Override
+    public Mono<Long> count() {
+        return blocking(repository::count);
+    }
+
+    @Override
+    public Mono<Void> delete(ReviewEntity entity) {
+        return blocking(() -> transactionTemplate.executeWithoutResult(status -> {
+            repository.delete(entity);
+            statisticsRepository.addToReviewCount(entity.getProductId(), -1);
+        }));
+    }
+
+    @Override
+    public Mono<Void> deleteAll() {
+        return blocking(() -> transactionTemplate.executeWithoutResult(status -> {
+            repository.deleteAll();
+            statisticsRepository.deleteAll();
+        }));
+    }
+
+    @Override
+    public Mono<Integer> deleteByProductId(int productId) {
+        return blocking(() -> transactionTemplate.execute(status -> {
+            statisticsRepository.deleteByProductIdIn(List.of(productId));
+            return repository.deleteByProductId(productId);
+        }));
+    }
+
+    @Override
+    public Mono<Integer> deleteByProductIdIn(Collection<Integer> productIds) {
+        return blocking(() -> transactionTemplate.execute(status -> {
+            statisticsRepository.deleteByProductIdIn(productIds);
+            return repository.deleteByProductIdIn(productIds);
+        }));
+    }
+
+    private <T> Mono<T> blocking(Callable<T> call) {
+        return Mono.fromCallable(call)
+                .subscribeOn(jdbcScheduler);
+    }
+
+    private Mono<Void> blocking(Runnable call) {
+        return Mono.fromRunnable(call)
+                .subscribeOn(jdbcScheduler)
+                .then();
+    }
+}
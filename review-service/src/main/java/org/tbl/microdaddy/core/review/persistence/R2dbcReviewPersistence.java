@@ -0,0 +1,202 @@
+package org.tbl.microdaddy.core.review.persistence;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.r2dbc.core.DatabaseClient.GenericExecuteSpec;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+import static java.util.stream.Collectors.counting;
+import static java.util.stream.Collectors.groupingBy;
+import static org.springframework.data.domain.Sort.Order.desc;
+import static org.springframework.data.domain.Sort.by;
+import static org.springframework.data.relational.core.query.Criteria.where;
+import static org.springframework.data.relational.core.query.Query.empty;
+import static org.springframework.data.relational.core.query.Query.query;
+import static org.tbl.microdaddy.core.review.persistence.ReviewStatisticsSql.ADD_TO_REVIEW_COUNT;
+import static org.tbl.microdaddy.core.review.persistence.ReviewStatisticsSql.SELECT_REVIEW_COUNT;
+
+/*
+    ReviewPersistence on R2DBC, for the r2dbc profile. Nothing blocks, so the service scales with the size
+    of the connection pool (spring.r2dbc.pool.*) instead of the jdbcScheduler thread pool.
+
+    The JPA ReviewRepository is not available in this profile, the schema is created from
+    schema-r2dbc.sql instead of by Hibernate. review_statistics is updated w/ plain SQL, in the same
+    transaction as the reviews.
+ */
+@Slf4j
+@Component
+@Profile("r2dbc")
+public class R2dbcReviewPersistence implements ReviewPersistence {
+
+    private static final String INSERT_ALL =
+            "INSERT INTO reviews (version, product_id, review_id, author, subject, content) VALUES ";
+
+    private static final String DELETE_ALL_STATISTICS = "DELETE FROM review_statistics";
+    private static final String DELETE_STATISTICS =
+            "DELETE FROM review_statistics WHERE product_id IN (:productIds)";
+
+    private final R2dbcEntityTemplate template;
+    private final TransactionalOperator transactionalOperator;
+
+    @Autowired
+    public R2dbcReviewPersistence(R2dbcEntityTemplate template, ReactiveTransactionManager transactionManager) {
+
+        log.info("Using R2DBC persistence for reviews");
+
+        this.template = template;
+        this.transactionalOperator = TransactionalOperator.create(transactionManager);
+    }
+
+    @Override
+    public Mono<ReviewEntity> save(ReviewEntity entity) {
+
+        // update checks and increments the version, like JPA does
+        if (entity.getId() != 0) {
+            return template.update(entity);
+        }
+
+        return template.insert(entity)
+                .flatMap(savedEntity -> addToReviewCount(savedEntity.getProductId(), 1).thenReturn(savedEntity))
+                .as(transactionalOperator::transactional);
+    }
+
+    // a single multi-row INSERT, plus one statistics upsert per product
+    @Override
+    public Mono<Void> insertAll(List<ReviewEntity> entities) {
+
+        if (entities.isEmpty()) {
+            return Mono.empty();
+        }
+
+        StringJoiner values = new StringJoiner(", ");
+        for (int i = 0; i < entities.size(); i++) {
+            values.add(String.format(
+                    "(0, :productId%1$d, :reviewId%1$d, :author%1$d, :subject%1$d, :content%1$d)", i));
+        }
+
+        GenericExecuteSpec spec = template.getDatabaseClient().sql(INSERT_ALL + values);
+        for (int i = 0; i < entities.size(); i++) {
+            ReviewEntity entity = entities.get(i);
+            spec = spec.bind("productId" + i, entity.getProductId())
+                    .bind("reviewId" + i, entity.getReviewId());
+            spec = bindNullable(spec, "author" + i, entity.getAuthor());
+            spec = bindNullable(spec, "subject" + i, entity.getSubject());
+            spec = bindNullable(spec, "content" + i, entity.getContent());
+        }
+
+        Map<Integer, Long> counts = entities.stream().collect(groupingBy(ReviewEntity::getProductId, counting()));
+
+        return spec.fetch().rowsUpdated()
+                .thenMany(Flux.fromIterable(counts.entrySet()))
+                .concatMap(count -> addToReviewCount(count.getKey(), count.getValue()))
+                .then()
+                .as(transactionalOperator::transactional);
+    }
+
+    @Override
+    public Mono<ReviewEntity> findById(int id) {
+        return template.selectOne(query(where("id").is(id)), ReviewEntity.class);
+    }
+
+    @Override
+    public Flux<ReviewEntity> findByProductId(int productId) {
+        return template.select(query(where("productId").is(productId)), ReviewEntity.class);
+    }
+
+    @Override
+    public Flux<ReviewEntity> findPageByProductId(int productId, int afterReviewId, int limit) {
+        return template.select(query(where("productId").is(productId).and("reviewId").greaterThan(afterReviewId))
+                        .sort(by("reviewId"))
+                        .limit(limit),
+                ReviewEntity.class);
+    }
+
+    @Override
+    public Flux<ReviewEntity> findLatestByProductId(int productId, int limit) {
+        return template.select(query(where("productId").is(productId)).sort(by(desc("reviewId"))).limit(limit),
+                ReviewEntity.class);
+    }
+
+    @Override
+    public Mono<Long> countByProductId(int productId) {
+        return template.getDatabaseClient().sql(SELECT_REVIEW_COUNT)
+                .bind("productId", productId)
+                .map(row -> row.get("review_count", Long.class))
+                .one()
+                .switchIfEmpty(Mono.defer(() -> template.count(
+                        query(where("productId").is(productId)), ReviewEntity.class)));
+    }
+
+    @Override
+    public Flux<ReviewEntity> findByProductIdIn(Collection<Integer> productIds) {
+        if (productIds.isEmpty()) {
+            return Flux.empty();
+        }
+        return template.select(query(where("productId").in(productIds)), ReviewEntity.class);
+    }
+
+    @Override
+    public Flux<ReviewEntity> streamAllOrderByProductIdAndReviewId() {
+        // rows are emitted as they are decoded, the driver only reads ahead as far as the demand goes
+        return template.select(empty().sort(by("productId", "reviewId")), ReviewEntity.class);
+    }
+
+    @Override
+    public Mono<Long> count() {
+        return template.count(empty(), ReviewEntity.class);
+    }
+
+    @Override
+    public Mono<Void> delete(ReviewEntity entity) {
+        return template.delete(entity)
+                .then(addToReviewCount(entity.getProductId(), -1))
+                .as(transactionalOperator::transactional);
+    }
+
+    @Override
+    public Mono<Void> deleteAll() {
+        return template.delete(empty(), ReviewEntity.class)
+                .then(template.getDatabaseClient().sql(DELETE_ALL_STATISTICS).then())
+                .as(transactionalOperator::transactional);
+    }
+
+    @Override
+    public Mono<Integer> deleteByProductId(int productId) {
+        return deleteByProductIdIn(List.of(productId));
+    }
+
+    @Override
+    public Mono<Integer> deleteByProductIdIn(Collection<Integer> productIds) {
+        if (productIds.isEmpty()) {
+            return Mono.just(0);
+        }
+        return template.getDatabaseClient().sql(DELETE_STATISTICS)
+                .bind("productIds", productIds)
+                .then()
+                .then(template.delete(query(where("productId").in(productIds)), ReviewEntity.class))
+                .map(Long::intValue)
+                .as(transactionalOperator::transactional);
+    }
+
+    private Mono<Void> addToReviewCount(int productId, long delta) {
+        return template.getDatabaseClient().sql(ADD_TO_REVIEW_COUNT)
+                .bind("productId", productId)
+                .bind("delta", delta)
+                .then();
+    }
+
+    private static GenericExecuteSpec bindNullable(GenericExecuteSpec spec, String name, String value) {
+        return value == null ? spec.bindNull(name, String.class) : spec.bind(name, value);
+    }
+}
@@ -0,0 +1,19 @@
+package org.tbl.microdaddy.core.review.persistence;
+
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/*
+    Repository fragment for inserting many reviews at once. Implemented on plain JDBC in
+    ReviewBatchRepositoryImpl and mixed into ReviewRepository.
+ */
+public interface ReviewBatchRepository {
+
+    /*
+        Inserts all the reviews as one JDBC batch and adds them to the review statistics, in a single
+        transaction. The ids are generated by MySQL and not set on the entities.
+     */
+    @Transactional
+    void insertAll(List<ReviewEntity> entities);
+}
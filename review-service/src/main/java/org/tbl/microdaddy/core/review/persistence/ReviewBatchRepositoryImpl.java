@@ -0,0 +1,56 @@
+package org.tbl.microdaddy.core.review.persistence;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+import static java.util.stream.Collectors.counting;
+import static java.util.stream.Collectors.groupingBy;
+import static org.tbl.microdaddy.core.review.persistence.ReviewStatisticsSql.ADD_TO_REVIEW_COUNT;
+
+/*
+    Hibernate can't batch inserts of entities with IDENTITY ids, so the batch goes straight to JDBC.
+    With rewriteBatchedStatements=true on the datasource url, MySQL Connector/J sends it as a single
+    multi-row INSERT.
+ */
+public class ReviewBatchRepositoryImpl implements ReviewBatchRepository {
+
+    private static final String INSERT =
+            "INSERT INTO reviews (version, product_id, review_id, author, subject, content) " +
+            "VALUES (0, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    public ReviewBatchRepositoryImpl(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+    }
+
+    @Override
+    public void insertAll(List<ReviewEntity> entities) {
+        jdbcTemplate.batchUpdate(INSERT, entities, entities.size(), (ps, entity) -> {
+            ps.setInt(1, entity.getProductId());
+            ps.setInt(2, entity.getReviewId());
+            ps.setString(3, entity.getAuthor());
+            ps.setString(4, entity.getSubject());
+            ps.setString(5, entity.getContent());
+        });
+
+        // ...and one review statistics upsert per product, in the same transaction
+        SqlParameterSource[] counts = entities.stream()
+                .collect(groupingBy(ReviewEntity::getProductId, counting()))
+                .entrySet().stream()
+                .map(count -> new MapSqlParameterSource()
+                        .addValue("productId", count.getKey())
+                        .addValue("delta", count.getValue()))
+                .toArray(SqlParameterSource[]::new);
+        namedParameterJdbcTemplate.batchUpdate(ADD_TO_REVIEW_COUNT, counts);
+    }
+}
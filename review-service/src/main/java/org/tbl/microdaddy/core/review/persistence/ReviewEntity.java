@@ -10,10 +10,19 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
+import static jakarta.persistence.GenerationType.IDENTITY;
+
+/*
+    Mapped both by JPA and by Spring Data R2DBC (the org.springframework.data annotations), so the
+    two ReviewPersistence implementations share the reviews table. The id is an AUTO_INCREMENT
+    column, as R2DBC and the JDBC batch insert leave it to MySQL. Tables created w/ the former
+    table sequence ids are migrated at startup by migrate-reviews-id.sql (spring.sql.init).
+ */
 @NoArgsConstructor
 @Getter
 @Setter
 @Entity
+@org.springframework.data.relational.core.mapping.Table("reviews")
 @Table(
         name = "reviews",
         indexes = {
@@ -25,10 +34,12 @@ import lombok.Setter;
 public class ReviewEntity {
 
     @Id
-    @GeneratedValue
+    @org.springframework.data.annotation.Id
+    @GeneratedValue(strategy = IDENTITY)
     private int id;
 
     @Version
+    @org.springframework.data.annotation.Version
     private int version;
 
     private int productId;
@@ -0,0 +1,16 @@
+package org.tbl.microdaddy.core.review.persistence;
+
+import java.util.stream.Stream;
+
+/*
+    Repository fragment for reading the whole reviews table without loading it into memory.
+    Implemented on plain JDBC in ReviewExportRepositoryImpl and mixed into ReviewRepository.
+ */
+public interface ReviewExportRepository {
+
+    /*
+        Every review, ordered by (productId, reviewId). The returned stream holds a connection open
+        until it is closed, so it must always be closed by the caller.
+     */
+    Stream<ReviewEntity> streamAllOrderByProductIdAndReviewId();
+}
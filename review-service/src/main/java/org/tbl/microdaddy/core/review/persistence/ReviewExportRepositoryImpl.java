@@ -0,0 +1,47 @@
+package org.tbl.microdaddy.core.review.persistence;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import javax.sql.DataSource;
+import java.util.stream.Stream;
+
+/*
+    A JPA stream keeps every row it has read in the persistence context (and needs a surrounding
+    transaction bound to a single thread), so the export goes straight to JDBC instead.
+
+    A fetch size of Integer.MIN_VALUE makes MySQL Connector/J stream the result set row by row
+    from the server cursor instead of buffering all of it on the client.
+ */
+public class ReviewExportRepositoryImpl implements ReviewExportRepository {
+
+    private static final String SELECT_ALL_ORDERED =
+            "SELECT id, version, product_id, review_id, author, subject, content " +
+            "FROM reviews ORDER BY product_id, review_id";
+
+    private static final RowMapper<ReviewEntity> ROW_MAPPER = (rs, rowNum) -> {
+        ReviewEntity entity = new ReviewEntity(
+                rs.getInt("product_id"),
+                rs.getInt("review_id"),
+                rs.getString("author"),
+                rs.getString("subject"),
+                rs.getString("content"));
+        entity.setId(rs.getInt("id"));
+        entity.setVersion(rs.getInt("version"));
+        return entity;
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public ReviewExportRepositoryImpl(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(Integer.MIN_VALUE);
+    }
+
+    @Override
+    public Stream<ReviewEntity> streamAllOrderByProductIdAndReviewId() {
+        return jdbcTemplate.queryForStream(SELECT_ALL_ORDERED, ROW_MAPPER);
+    }
+}
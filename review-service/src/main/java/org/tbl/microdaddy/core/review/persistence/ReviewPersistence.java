@@ -0,0 +1,59 @@
+package org.tbl.microdaddy.core.review.persistence;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+
+/*
+    Non-blocking access to the reviews table, used by ReviewServiceImpl.
+
+    Two implementations, selected by profile:
+    - JpaReviewPersistence (default): the JPA ReviewRepository, run on the jdbcScheduler, so concurrency
+      is capped by its thread pool.
+    - R2dbcReviewPersistence (profile r2dbc): R2DBC all the way down, capped only by the connection pool.
+
+    Constraint violations are signalled as DataIntegrityViolationException and stale versions as
+    OptimisticLockingFailureException by both.
+
+    Both keep the review_statistics of a product up to date in the same transaction as every insert and
+    delete of its reviews, so reading them never has to touch the reviews themselves.
+ */
+public interface ReviewPersistence {
+
+    // inserts a new entity (id 0) or updates an existing one, emits the stored entity
+    Mono<ReviewEntity> save(ReviewEntity entity);
+
+    // inserts all the entities in one statement or transaction, so either all or none are stored
+    Mono<Void> insertAll(List<ReviewEntity> entities);
+
+    Mono<ReviewEntity> findById(int id);
+
+    Flux<ReviewEntity> findByProductId(int productId);
+
+    // up to limit reviews of the product w/ a reviewId after afterReviewId, ordered by reviewId
+    Flux<ReviewEntity> findPageByProductId(int productId, int afterReviewId, int limit);
+
+    // up to limit reviews of the product, highest reviewId first
+    Flux<ReviewEntity> findLatestByProductId(int productId, int limit);
+
+    // from review_statistics, counted from the reviews if the product has no row there yet
+    Mono<Long> countByProductId(int productId);
+
+    Flux<ReviewEntity> findByProductIdIn(Collection<Integer> productIds);
+
+    // every review ordered by (productId, reviewId), read as the subscriber requests them
+    Flux<ReviewEntity> streamAllOrderByProductIdAndReviewId();
+
+    Mono<Long> count();
+
+    Mono<Void> delete(ReviewEntity entity);
+
+    Mono<Void> deleteAll();
+
+    // deleteByProductId(In) are single DELETE statements, w/o a version check. Emit the number of reviews deleted.
+    Mono<Integer> deleteByProductId(int productId);
+
+    Mono<Integer> deleteByProductIdIn(Collection<Integer> productIds);
+}
@@ -1,12 +1,47 @@
 package org.tbl.microdaddy.core.review.persistence;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 
-public interface ReviewRepository  extends CrudRepository<ReviewEntity, Integer> {
+public interface ReviewRepository
+        extends CrudRepository<ReviewEntity, Integer>, ReviewExportRepository, ReviewBatchRepository {
 
     @Transactional(readOnly = true)
     List<ReviewEntity> findByProductId(int productId);
+
+    // keyset page: ... WHERE product_id = ? AND review_id > ? ORDER BY review_id LIMIT ?, on reviews_unique_idx
+    @Transactional(readOnly = true)
+    List<ReviewEntity> findByProductIdAndReviewIdGreaterThanOrderByReviewIdAsc(
+            int productId, int reviewId, Pageable pageable);
+
+    // ... WHERE product_id = ? ORDER BY review_id DESC LIMIT ?, reviews_unique_idx read backwards
+    @Transactional(readOnly = true)
+    List<ReviewEntity> findByProductIdOrderByReviewIdDesc(int productId, Pageable pageable);
+
+    // SELECT COUNT(*) ... WHERE product_id = ?, on reviews_unique_idx
+    @Transactional(readOnly = true)
+    long countByProductId(int productId);
+
+    // ... WHERE product_id IN (...)
+    @Transactional(readOnly = true)
+    List<ReviewEntity> findByProductIdIn(Collection<Integer> productIds);
+
+    // a single DELETE ... WHERE product_id = ?, instead of loading the entities and deleting them one by one
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ReviewEntity r WHERE r.productId = :productId")
+    int deleteByProductId(@Param("productId") int productId);
+
+    // a single DELETE ... WHERE product_id IN (...)
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ReviewEntity r WHERE r.productId IN :productIds")
+    int deleteByProductIdIn(@Param("productIds") Collection<Integer> productIds);
 }
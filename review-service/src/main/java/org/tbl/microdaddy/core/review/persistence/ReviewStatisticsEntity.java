@@ -0,0 +1,29 @@
+package org.tbl.microdaddy.core.review.persistence;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/*
+    The precomputed review statistics of a product, one row per product that has reviews. Kept up to date
+    in the same transaction as every insert/delete of its reviews, see ReviewPersistence. Products whose
+    reviews were written before review_statistics existed get their row on the next write, and are counted
+    from the reviews until then.
+
+    Only mapped by JPA, R2dbcReviewPersistence uses plain SQL on the same table.
+ */
+@NoArgsConstructor
+@Getter
+@Setter
+@Entity
+@Table(name = "review_statistics")
+public class ReviewStatisticsEntity {
+
+    @Id
+    private int productId;
+
+    private long reviewCount;
+}
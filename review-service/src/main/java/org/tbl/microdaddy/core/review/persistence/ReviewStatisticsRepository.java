@@ -0,0 +1,23 @@
+package org.tbl.microdaddy.core.review.persistence;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+
+public interface ReviewStatisticsRepository extends CrudRepository<ReviewStatisticsEntity, Integer> {
+
+    // a single upsert, so concurrent writers for the same product don't lose updates. delta may be negative.
+    @Modifying
+    @Transactional
+    @Query(nativeQuery = true, value = ReviewStatisticsSql.ADD_TO_REVIEW_COUNT)
+    int addToReviewCount(@Param("productId") int productId, @Param("delta") long delta);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ReviewStatisticsEntity s WHERE s.productId IN :productIds")
+    int deleteByProductIdIn(@Param("productIds") Collection<Integer> productIds);
+}
@@ -0,0 +1,22 @@
+package org.tbl.microdaddy.core.review.persistence;
+
+/*
+    The statements on review_statistics shared by JPA, the JDBC batch insert and R2DBC.
+ */
+final class ReviewStatisticsSql {
+
+    /*
+        Runs after the insert/delete of the reviews, in the same transaction. A product w/o a row yet (its
+        reviews were all written before review_statistics existed) gets one w/ the count of all of its reviews,
+        instead of just the delta.
+     */
+    static final String ADD_TO_REVIEW_COUNT =
+            "INSERT INTO review_statistics (product_id, review_count) " +
+            "SELECT :productId, COUNT(*) FROM reviews WHERE product_id = :productId " +
+            "ON DUPLICATE KEY UPDATE review_count = review_count + :delta";
+
+    static final String SELECT_REVIEW_COUNT =
+            "SELECT review_count FROM review_statistics WHERE product_id = :productId";
+
+    private ReviewStatisticsSql() {}
+}
@@ -3,20 +3,28 @@ package org.tbl.microdaddy.core.review.services;
 import io.micrometer.observation.annotation.Observed;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.web.bind.annotation.RestController;
 import org.tbl.microdaddy.api.core.review.Review;
 import org.tbl.microdaddy.api.core.review.ReviewService;
+import org.tbl.microdaddy.api.core.review.ReviewStatistics;
+import org.tbl.microdaddy.api.exceptions.BatchWriteException;
 import org.tbl.microdaddy.api.exceptions.InvalidInputException;
-import org.tbl.microdaddy.core.review.persistence.ReviewEntity;
-import org.tbl.microdaddy.core.review.persistence.ReviewRepository;
+import org.tbl.microdaddy.api.paging.Page;
+import org.tbl.microdaddy.core.review.persistence.ReviewPersistence;
 import org.tbl.microdaddy.util.http.ServiceUtil;
+import org.tbl.microdaddy.util.paging.KeysetPaging;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Scheduler;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static java.util.logging.Level.FINE;
 
@@ -26,21 +34,27 @@ public class ReviewServiceImpl implements ReviewService {
 
     private static final String INVALID_PRODUCT_ID = "Invalid productId: ";
 
-    private final ReviewRepository repository;
+    private final ReviewPersistence persistence;
     private final ReviewMapper mapper;
     private final ServiceUtil serviceUtil;
-    private final Scheduler jdbcScheduler;
+    private final int defaultPageSize;
+    private final int maxPageSize;
+    private final int latestSize;
 
     @Autowired
     public ReviewServiceImpl(
-            @Qualifier("jdbcScheduler") Scheduler jdbcScheduler,
-            ReviewRepository repository,
+            ReviewPersistence persistence,
             ReviewMapper mapper,
-            ServiceUtil serviceUtil) {
-        this.jdbcScheduler = jdbcScheduler;
-        this.repository = repository;
+            ServiceUtil serviceUtil,
+            @Value("${app.paging.defaultPageSize:20}") int defaultPageSize,
+            @Value("${app.paging.maxPageSize:100}") int maxPageSize,
+            @Value("${app.statistics.latestSize:3}") int latestSize) {
+        this.persistence = persistence;
         this.mapper = mapper;
         this.serviceUtil = serviceUtil;
+        this.defaultPageSize = defaultPageSize;
+        this.maxPageSize = maxPageSize;
+        this.latestSize = latestSize;
     }
 
 
@@ -54,32 +68,69 @@ public class ReviewServiceImpl implements ReviewService {
         if (body.getProductId() < 1) {
             throw new InvalidInputException(INVALID_PRODUCT_ID+ body.getProductId());
         }
-        return Mono.fromCallable(() -> blockingCreateReview(body))
-                .subscribeOn(jdbcScheduler);
 
+        return persistence.save(mapper.apiToEntity(body))
+                .doOnNext(savedEntity -> log.debug("createReview: created a review entity {}/{}",
+                        body.getProductId(), body.getReviewId()))
+                .onErrorMap(DataIntegrityViolationException.class,
+                        ex -> new InvalidInputException(
+                                "Duplicate key, Product Id: "
+                                + body.getProductId()
+                                + ", Review Id:"
+                                + body.getReviewId()))
+                .map(mapper::entityToApi);
     }
 
+    /*
+        Bulk version of createReview for the batch message processor: all valid reviews are stored with a
+        single ReviewPersistence.insertAll, which either stores all of them or none.
+
+        A constraint violation rejects the whole batch, so it is then saved one review at a time to find the
+        duplicates. Emits the reviews that were not stored, by their index in the list, w/ the reason. If that
+        fails part way, fails w/ a BatchWriteException of the reviews already saved.
+     */
     @Observed(
-            name = "blockingCreateReview",
-            contextualName = "review-service.blocking-create-review"
+            name = "createReviews",
+            contextualName = "review-service.create-reviews"
     )
-    private Review blockingCreateReview(Review body) {
-
-        try {
-            ReviewEntity entity = mapper.apiToEntity(body);
-            ReviewEntity savedEntity = repository.save(entity);
-
-            log.debug("createReview: created a review entity {}/{}",
-                    body.getProductId(), body.getReviewId());
-            return mapper.entityToApi(savedEntity);
-        } catch (DataIntegrityViolationException ex) {
-            throw new InvalidInputException(
-                    "Duplicate key, Product Id: "
-                    + body.getProductId()
-                    + ", Review Id:"
-                    + body.getReviewId()
-            );
+    public Mono<Map<Integer, RuntimeException>> createReviews(List<Review> reviews) {
+
+        Map<Integer, RuntimeException> failures = new HashMap<>();
+        List<Integer> indexes = new ArrayList<>();
+
+        for (int i = 0; i < reviews.size(); i++) {
+            Review review = reviews.get(i);
+            if (review == null) {
+                failures.put(i, new InvalidInputException("Missing review"));
+            } else if (review.getProductId() < 1) {
+                failures.put(i, new InvalidInputException(INVALID_PRODUCT_ID + review.getProductId()));
+            } else {
+                indexes.add(i);
+            }
         }
+
+        if (indexes.isEmpty()) {
+            return Mono.just(failures);
+        }
+
+        return persistence.insertAll(indexes.stream().map(i -> mapper.apiToEntity(reviews.get(i))).toList())
+                .doOnSuccess(unused -> log.debug("createReviews: created {} review entities", indexes.size()))
+                .thenReturn(failures)
+                .onErrorResume(DataIntegrityViolationException.class, ex -> {
+                    log.debug("createReviews: batch rejected, saving the reviews one at a time: {}",
+                            ex.getMessage());
+                    Set<Integer> applied = new HashSet<>();
+                    return Flux.fromIterable(indexes)
+                            .concatMap(i -> createReview(reviews.get(i))
+                                    .doOnSuccess(review -> applied.add(i))
+                                    .then()
+                                    .onErrorResume(InvalidInputException.class, invalid -> {
+                                        failures.put(i, invalid);
+                                        return Mono.empty();
+                                    }))
+                            .then(Mono.just(failures))
+                            .onErrorMap(saveFailure -> new BatchWriteException(applied, saveFailure));
+                });
     }
 
     @Observed(
@@ -95,26 +146,98 @@ public class ReviewServiceImpl implements ReviewService {
 
         log.info("Calling getReviews for product with id={}", productId);
 
-        return Mono.fromCallable(() -> blockingGetReviews(productId))
-                .flatMapMany(Flux::fromIterable)
-                .log(log.getName(), FINE)
-                .subscribeOn(jdbcScheduler);
+        return persistence.findByProductId(productId)
+                .map(mapper::entityToApi)
+                .map(this::setServiceAddress)
+                .log(log.getName(), FINE);
+    }
+
+    @Observed(
+            name = "getReviewPage",
+            contextualName = "review-service.get-review-page"
+    )
+    @Override
+    public Mono<Page<Review>> getReviewPage(int productId, String pageToken, int pageSize) {
+
+        if (productId < 1) {
+            throw new InvalidInputException(INVALID_PRODUCT_ID + productId);
+        }
+
+        int size = KeysetPaging.pageSize(pageSize, defaultPageSize, maxPageSize);
+        int afterReviewId = KeysetPaging.afterId(pageToken, productId);
+
+        log.info("Calling getReviewPage for product with id={}, pageToken={}, pageSize={}", productId, pageToken, size);
+
+        // one extra review, to find out if there is a next page
+        return persistence.findPageByProductId(productId, afterReviewId, size + 1)
+                .map(mapper::entityToApi)
+                .map(this::setServiceAddress)
+                .collectList()
+                .map(reviews -> KeysetPaging.toPage(reviews, size, productId, Review::getReviewId))
+                .log(log.getName(), FINE);
+    }
+
+    /*
+        The review count is precomputed on every insert/delete, the latest reviews are a read of the last
+        entries of the (productId, reviewId) index. Neither depends on the number of reviews of the product.
+     */
+    @Observed(
+            name = "getReviewStatistics",
+            contextualName = "review-service.get-review-statistics"
+    )
+    @Override
+    public Mono<ReviewStatistics> getReviewStatistics(int productId) {
+
+        if (productId < 1) {
+            throw new InvalidInputException(INVALID_PRODUCT_ID + productId);
+        }
+
+        log.info("Calling getReviewStatistics for product with id={}", productId);
+
+        return Mono.zip(
+                        persistence.countByProductId(productId),
+                        persistence.findLatestByProductId(productId, latestSize)
+                                .map(mapper::entityToApi)
+                                .map(this::setServiceAddress)
+                                .collectList())
+                .map(tuple -> new ReviewStatistics(productId, tuple.getT1(), tuple.getT2()))
+                .log(log.getName(), FINE);
     }
 
     @Observed(
-            name = "blockingGetReviews",
-            contextualName = "review-service.blocking-get-reviews"
+            name = "getReviewsForProducts",
+            contextualName = "review-service.get-reviews-for-products"
     )
-    private List<Review> blockingGetReviews(int productId) {
+    @Override
+    public Flux<Review> getReviewsForProducts(List<Integer> productIds) {
+
+        productIds.forEach(productId -> {
+            if (productId < 1) {
+                throw new InvalidInputException(INVALID_PRODUCT_ID + productId);
+            }
+        });
 
-        List<ReviewEntity> entities = repository.findByProductId(productId);
-        List<Review> reviews = mapper.entityListToApiList(entities);
-        reviews.forEach(review -> review.setServiceAddress(serviceUtil.getServiceAddress()));
+        log.info("Calling getReviewsForProducts for productIds={}", productIds);
+
+        return persistence.findByProductIdIn(productIds)
+                .map(mapper::entityToApi)
+                .map(this::setServiceAddress)
+                .log(log.getName(), FINE);
+    }
 
-        log.debug("Response size: {}", reviews.size());
+    @Observed(
+            name = "exportReviews",
+            contextualName = "review-service.export-reviews"
+    )
+    @Override
+    public Flux<Review> exportReviews() {
 
-        return reviews;
+        log.info("Calling exportReviews");
 
+        return persistence.streamAllOrderByProductIdAndReviewId()
+                .map(mapper::entityToApi)
+                .map(this::setServiceAddress)
+                .log(log.getName(), FINE);
     }
 
     @Observed(
@@ -128,17 +251,38 @@ public class ReviewServiceImpl implements ReviewService {
             throw new InvalidInputException(INVALID_PRODUCT_ID + productId);
         }
 
-        return Mono.fromRunnable(() -> blockingDeleteReviews(productId))
-                .subscribeOn(jdbcScheduler)
+        log.debug("deleteReviews: attempts to delete reviews for product w/ productId: {}", productId);
+
+        return persistence.deleteByProductId(productId)
+                .doOnNext(count -> log.debug("deleteReviews: deleted {} reviews for product w/ productId: {}",
+                        count, productId))
                 .then();
     }
 
+    /*
+        Bulk version of deleteReviews for the batch message processor, a single DELETE statement. Emits the
+        number of reviews deleted.
+     */
     @Observed(
-            name = "blockingDeleteReviews",
-            contextualName = "review-service.blocking-delete-reviews"
+            name = "deleteReviewsForProducts",
+            contextualName = "review-service.delete-reviews-for-products"
     )
-    private void blockingDeleteReviews(int productId) {
-        log.debug("deleteReviews: attempts to delete reviews for product w/ productId: {}", productId);
-        repository.deleteAll(repository.findByProductId(productId));
+    public Mono<Integer> deleteReviewsForProducts(Collection<Integer> productIds) {
+
+        productIds.forEach(productId -> {
+            if (productId < 1) {
+                throw new InvalidInputException(INVALID_PRODUCT_ID + productId);
+            }
+        });
+
+        log.debug("deleteReviewsForProducts: attempts to delete reviews for products w/ productIds: {}",
+                productIds);
+
+        return persistence.deleteByProductIdIn(productIds);
+    }
+
+    private Review setServiceAddress(Review review) {
+        review.setServiceAddress(serviceUtil.getServiceAddress());
+        return review;
     }
 }
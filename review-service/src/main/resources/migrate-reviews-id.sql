@@ -0,0 +1,14 @@
+-- Tables created by Hibernate before ReviewEntity moved to IDENTITY ids get their ids from the
+-- hibernate_sequence table, and spring.jpa.hibernate.ddl-auto=update doesn't change an existing column.
+-- Turns the id column into an AUTO_INCREMENT one if it isn't yet, MySQL continues after the highest id.
+SET @migrate_reviews_id = (
+    SELECT IF(COUNT(*) > 0, 'ALTER TABLE reviews MODIFY id INT NOT NULL AUTO_INCREMENT', 'DO 0')
+    FROM information_schema.columns
+    WHERE table_schema = DATABASE()
+      AND table_name = 'reviews'
+      AND column_name = 'id'
+      AND extra NOT LIKE '%auto_increment%'
+);
+PREPARE migrate_reviews_id FROM @migrate_reviews_id;
+EXECUTE migrate_reviews_id;
+DEALLOCATE PREPARE migrate_reviews_id;
@@ -0,0 +1,19 @@
+-- The reviews table as Hibernate creates it (spring.jpa.hibernate.ddl-auto), for the r2dbc profile
+CREATE TABLE IF NOT EXISTS reviews (
+    id         INT NOT NULL AUTO_INCREMENT,
+    version    INT NOT NULL,
+    product_id INT NOT NULL,
+    review_id  INT NOT NULL,
+    author     VARCHAR(255),
+    subject    VARCHAR(255),
+    content    VARCHAR(255),
+    PRIMARY KEY (id),
+    UNIQUE INDEX reviews_unique_idx (product_id, review_id)
+);
+
+-- The review count per product, as Hibernate creates it from ReviewStatisticsEntity
+CREATE TABLE IF NOT EXISTS review_statistics (
+    product_id   INT NOT NULL,
+    review_count BIGINT NOT NULL,
+    PRIMARY KEY (product_id)
+);
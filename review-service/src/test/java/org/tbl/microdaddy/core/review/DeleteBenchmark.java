@@ -0,0 +1,98 @@
+package org.tbl.microdaddy.core.review;
+
+import io.micrometer.observation.ObservationRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.transaction.annotation.Transactional;
+import org.tbl.microdaddy.core.review.persistence.ReviewEntity;
+import org.tbl.microdaddy.core.review.persistence.ReviewRepository;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase.Replace.NONE;
+import static org.springframework.transaction.annotation.Propagation.NOT_SUPPORTED;
+
+/*
+    Deleting all the reviews of a product: the old way (load the entities, then one DELETE w/ a version check
+    per entity) against the single DELETE ... WHERE product_id = ? of ReviewRepository.deleteByProductId.
+
+    Needs Docker for the MySQL container, and is not part of the regular test run:
+        BENCHMARK=true ./gradlew :review-service:test --tests '*DeleteBenchmark' -i
+ */
+@Slf4j
+@EnabledIfEnvironmentVariable(named = "BENCHMARK", matches = "true")
+@DataJpaTest(properties = {"spring.jpa.hibernate.ddl-auto=update"})
+@Transactional(propagation = NOT_SUPPORTED)
+@AutoConfigureTestDatabase(replace = NONE)
+class DeleteBenchmark extends MySqlTestBase {
+
+    private static final int PRODUCT_ID = 1;
+    private static final int[] REVIEWS_PER_PRODUCT = {100, 1_000, 10_000};
+
+    // stupid disable autoconfig hack for AOP/OTEL
+    @MockBean
+    private ObservationRegistry registry;
+
+    @MockBean
+    private StreamBridge streamBridge;
+
+    @Autowired
+    private ReviewRepository repository;
+
+    @Test
+    void compareDeletes() {
+
+        // warm up
+        measure(100);
+
+        List<Result> results = new ArrayList<>();
+        for (int reviews : REVIEWS_PER_PRODUCT) {
+            results.add(measure(reviews));
+        }
+
+        results.forEach(result -> log.info("{}", result));
+    }
+
+    private record Result(int reviews, Duration loadAndDelete, Duration singleStatement) {
+        @Override
+        public String toString() {
+            return String.format("%6d reviews: load and delete each = %6d ms, single DELETE = %5d ms (%.0fx)",
+                    reviews, loadAndDelete.toMillis(), singleStatement.toMillis(),
+                    (double) loadAndDelete.toNanos() / Math.max(1, singleStatement.toNanos()));
+        }
+    }
+
+    private Result measure(int reviews) {
+
+        repository.deleteAll();
+        insertReviews(reviews);
+        long start = System.nanoTime();
+        repository.deleteAll(repository.findByProductId(PRODUCT_ID));
+        Duration loadAndDelete = Duration.ofNanos(System.nanoTime() - start);
+        assertEquals(0, repository.count());
+
+        insertReviews(reviews);
+        start = System.nanoTime();
+        int deleted = repository.deleteByProductId(PRODUCT_ID);
+        Duration singleStatement = Duration.ofNanos(System.nanoTime() - start);
+        assertEquals(reviews, deleted);
+
+        return new Result(reviews, loadAndDelete, singleStatement);
+    }
+
+    private void insertReviews(int reviews) {
+        repository.insertAll(IntStream.rangeClosed(1, reviews)
+                .mapToObj(reviewId -> new ReviewEntity(PRODUCT_ID, reviewId, "author", "subject", "content"))
+                .toList());
+    }
+}
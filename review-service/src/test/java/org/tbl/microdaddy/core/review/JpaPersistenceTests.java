@@ -0,0 +1,17 @@
+package org.tbl.microdaddy.core.review;
+
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Transactional;
+import org.tbl.microdaddy.core.review.persistence.JpaReviewPersistence;
+
+import static org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase.Replace.NONE;
+import static org.springframework.transaction.annotation.Propagation.NOT_SUPPORTED;
+
+@DataJpaTest(properties = {"spring.jpa.hibernate.ddl-auto=update"})
+@Transactional(propagation = NOT_SUPPORTED)
+@AutoConfigureTestDatabase(replace = NONE)
+@Import(JpaReviewPersistence.class)
+class JpaPersistenceTests extends PersistenceTests {
+}
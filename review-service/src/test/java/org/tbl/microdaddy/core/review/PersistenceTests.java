@@ -4,47 +4,48 @@ import io.micrometer.observation.ObservationRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
-import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cloud.stream.function.StreamBridge;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.OptimisticLockingFailureException;
-import org.springframework.transaction.annotation.Transactional;
 import org.tbl.microdaddy.core.review.persistence.ReviewEntity;
-import org.tbl.microdaddy.core.review.persistence.ReviewRepository;
+import org.tbl.microdaddy.core.review.persistence.ReviewPersistence;
+import reactor.core.publisher.Flux;
 
 import java.util.List;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
-import static org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase.Replace.NONE;
-import static org.springframework.transaction.annotation.Propagation.NOT_SUPPORTED;
 
-@DataJpaTest(properties = {"spring.jpa.hibernate.ddl-auto=update"})
-@Transactional(propagation = NOT_SUPPORTED)
-@AutoConfigureTestDatabase(replace = NONE)
-class PersistenceTests extends MySqlTestBase {
+/*
+    Runs against both ReviewPersistence implementations, see JpaPersistenceTests and R2dbcPersistenceTests.
+ */
+abstract class PersistenceTests extends MySqlTestBase {
 
     // stupid disable autoconfig hack for AOP/OTEL
     @MockBean
     private ObservationRegistry registry;
 
+    // the message processor's dead letters binding isn't part of the slice
+    @MockBean
+    private StreamBridge streamBridge;
+
     @Autowired
-    private ReviewRepository repository;
+    private ReviewPersistence persistence;
 
     private ReviewEntity savedEntity;
 
     @BeforeEach
     void setupDb() {
-        repository.deleteAll();
+        persistence.deleteAll().block();
 
         ReviewEntity entity = new ReviewEntity(
                 1, 2, "author", "subject", "content");
 
-        savedEntity = repository.save(entity);
+        savedEntity = persistence.save(entity).block();
 
         assertEqualsReview(entity, savedEntity);
     }
@@ -55,48 +56,142 @@ class PersistenceTests extends MySqlTestBase {
         ReviewEntity createdEntity = new ReviewEntity(
                 1, 3, "author", "subject", "content");
 
-        repository.save(createdEntity);
+        createdEntity = persistence.save(createdEntity).block();
 
-        // TODO: This is a test, so not sure I care about the Optional.
-        ReviewEntity fetchedEntity = repository.findById(createdEntity.getId()).get();
+        ReviewEntity fetchedEntity = persistence.findById(createdEntity.getId()).block();
         assertEqualsReview(createdEntity, fetchedEntity);
 
-        assertEquals(2, repository.count());
+        assertEquals(2, persistence.count().block());
     }
 
     @Test
     void update() {
 
         savedEntity.setAuthor("authorTwo");
-        repository.save(savedEntity);
+        persistence.save(savedEntity).block();
 
-        // TODO: see above re: get()
-        ReviewEntity fetchedEntity = repository.findById(savedEntity.getId()).get();
+        ReviewEntity fetchedEntity = persistence.findById(savedEntity.getId()).block();
         assertEquals(1, (long) fetchedEntity.getVersion());
         assertEquals("authorTwo", fetchedEntity.getAuthor());
     }
 
     @Test
     void delete() {
-        repository.delete(savedEntity);
-        assertFalse(repository.existsById(savedEntity.getId()));
+        persistence.delete(savedEntity).block();
+        assertNull(persistence.findById(savedEntity.getId()).block());
     }
 
     @Test
     void getByProductId() {
-        List<ReviewEntity> entities = repository.findByProductId(savedEntity.getProductId());
+        List<ReviewEntity> entities = persistence.findByProductId(savedEntity.getProductId())
+                .collectList()
+                .block();
 
         assertThat(entities, hasSize(1));
         assertEqualsReview(savedEntity, entities.get(0));
     }
 
+    @Test
+    void getByProductIds() {
+        persistence.save(new ReviewEntity(2, 1, "author", "subject", "content")).block();
+        persistence.save(new ReviewEntity(3, 1, "author", "subject", "content")).block();
+
+        List<ReviewEntity> entities = persistence.findByProductIdIn(List.of(1, 2)).collectList().block();
+
+        assertThat(entities, hasSize(2));
+    }
+
+    @Test
+    void insertAll() {
+        persistence.insertAll(List.of(
+                new ReviewEntity(1, 3, "author", "subject", "content"),
+                new ReviewEntity(2, 1, "author", "subject", null))).block();
+
+        assertEquals(3, persistence.count().block());
+        assertNull(persistence.findByProductId(2).blockFirst().getContent());
+    }
+
+    @Test
+    void insertAllIsAtomic() {
+        // the last review is a duplicate of savedEntity
+        assertThrows(DataIntegrityViolationException.class, () -> persistence.insertAll(List.of(
+                new ReviewEntity(1, 3, "author", "subject", "content"),
+                new ReviewEntity(1, 2, "author", "subject", "content"))).block());
+
+        assertEquals(1, persistence.count().block());
+    }
+
+    @Test
+    void streamAllOrderByProductIdAndReviewId() {
+        persistence.save(new ReviewEntity(2, 1, "author", "subject", "content")).block();
+        persistence.save(new ReviewEntity(1, 1, "author", "subject", "content")).block();
+
+        List<Integer> reviewIds = persistence.streamAllOrderByProductIdAndReviewId()
+                .map(entity -> entity.getProductId() * 10 + entity.getReviewId())
+                .collectList()
+                .block();
+
+        assertEquals(List.of(11, 12, 21), reviewIds);
+    }
+
+    @Test
+    void findPageByProductId() {
+        persistence.save(new ReviewEntity(1, 1, "author", "subject", "content")).block();
+        persistence.save(new ReviewEntity(1, 3, "author", "subject", "content")).block();
+        persistence.save(new ReviewEntity(2, 1, "author", "subject", "content")).block();
+
+        // reviewIds 1, 2 and 3 for product 1
+        assertEquals(List.of(1, 2), reviewIds(persistence.findPageByProductId(1, Integer.MIN_VALUE, 2)));
+        assertEquals(List.of(3), reviewIds(persistence.findPageByProductId(1, 2, 2)));
+        assertEquals(List.of(), reviewIds(persistence.findPageByProductId(1, 3, 2)));
+    }
+
+    @Test
+    void statistics() {
+        persistence.save(new ReviewEntity(1, 1, "author", "subject", "content")).block();
+        persistence.insertAll(List.of(
+                new ReviewEntity(1, 3, "author", "subject", "content"),
+                new ReviewEntity(2, 1, "author", "subject", "content"))).block();
+
+        // reviewIds 1, 2 and 3 for product 1
+        assertEquals(3, persistence.countByProductId(1).block());
+        assertEquals(List.of(3, 2), reviewIds(persistence.findLatestByProductId(1, 2)));
+
+        persistence.delete(savedEntity).block();
+        assertEquals(2, persistence.countByProductId(1).block());
+
+        persistence.deleteByProductId(1).block();
+        assertEquals(0, persistence.countByProductId(1).block());
+        assertEquals(1, persistence.countByProductId(2).block());
+    }
+
+    @Test
+    void deleteByProductId() {
+        persistence.save(new ReviewEntity(1, 3, "author", "subject", "content")).block();
+        persistence.save(new ReviewEntity(2, 1, "author", "subject", "content")).block();
+
+        assertEquals(2, persistence.deleteByProductId(1).block());
+        assertEquals(1, persistence.count().block());
+
+        // nothing left to delete
+        assertEquals(0, persistence.deleteByProductId(1).block());
+    }
+
+    @Test
+    void deleteByProductIdIn() {
+        persistence.save(new ReviewEntity(2, 1, "author", "subject", "content")).block();
+        persistence.save(new ReviewEntity(3, 1, "author", "subject", "content")).block();
+
+        assertEquals(2, persistence.deleteByProductIdIn(List.of(1, 3)).block());
+        assertEquals(1, persistence.count().block());
+    }
 
     @Test
     void validateDuplicationFailure() {
         assertThrows(DataIntegrityViolationException.class, () -> {
             ReviewEntity duplicateEntity  = new ReviewEntity(
                     1, 2, "author", "subject", "content");
-            repository.save(duplicateEntity);
+            persistence.save(duplicateEntity).block();
         });
     }
 
@@ -104,12 +199,12 @@ class PersistenceTests extends MySqlTestBase {
     void validateOptimisticLockingFailure() {
 
         // store same entity in 2 separate objects
-        ReviewEntity entityOne = repository.findById(savedEntity.getId()).get();
-        ReviewEntity entityTwo = repository.findById(savedEntity.getId()).get();
+        ReviewEntity entityOne = persistence.findById(savedEntity.getId()).block();
+        ReviewEntity entityTwo = persistence.findById(savedEntity.getId()).block();
 
         // Update entity via first object
         entityOne.setAuthor("authorThree");
-        repository.save(entityOne);
+        persistence.save(entityOne).block();
 
         /*
             Ensure that we aren't allowed to update the entity w/ the second object,
@@ -120,10 +215,14 @@ class PersistenceTests extends MySqlTestBase {
          */
         entityTwo.setAuthor("authorFour");
         assertThrows(OptimisticLockingFailureException.class, () -> {
-            repository.save(entityTwo);
+            persistence.save(entityTwo).block();
         });
     }
 
+    private List<Integer> reviewIds(Flux<ReviewEntity> entities) {
+        return entities.map(ReviewEntity::getReviewId).collectList().block();
+    }
+
     private void assertEqualsReview(ReviewEntity expected, ReviewEntity actual) {
         assertEquals(expected.getId(), actual.getId());
         assertEquals(expected.getVersion(), actual.getVersion());
@@ -0,0 +1,12 @@
+package org.tbl.microdaddy.core.review;
+
+import org.springframework.boot.test.autoconfigure.data.r2dbc.DataR2dbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.tbl.microdaddy.core.review.persistence.R2dbcReviewPersistence;
+
+@DataR2dbcTest
+@ActiveProfiles("r2dbc")
+@Import(R2dbcReviewPersistence.class)
+class R2dbcPersistenceTests extends PersistenceTests {
+}
@@ -0,0 +1,67 @@
+package org.tbl.microdaddy.core.review;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase.Replace.NONE;
+import static org.springframework.transaction.annotation.Propagation.NOT_SUPPORTED;
+
+@JdbcTest
+@Transactional(propagation = NOT_SUPPORTED)
+@AutoConfigureTestDatabase(replace = NONE)
+class ReviewIdMigrationTests extends MySqlTestBase {
+
+    private static final String INSERT =
+            "INSERT INTO reviews (version, product_id, review_id, author, subject, content) " +
+            "VALUES (0, ?, ?, 'author', 'subject', 'content')";
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void tableSequenceIdsAreMigratedToAutoIncrement() {
+
+        // the reviews table as Hibernate created it w/ table sequence ids, w/ a review in it
+        jdbcTemplate.execute("DROP TABLE IF EXISTS reviews");
+        jdbcTemplate.execute("""
+                CREATE TABLE reviews (
+                    id         INT NOT NULL,
+                    version    INT NOT NULL,
+                    product_id INT NOT NULL,
+                    review_id  INT NOT NULL,
+                    author     VARCHAR(255),
+                    subject    VARCHAR(255),
+                    content    VARCHAR(255),
+                    PRIMARY KEY (id),
+                    UNIQUE INDEX reviews_unique_idx (product_id, review_id)
+                )""");
+        jdbcTemplate.update("INSERT INTO reviews (id, version, product_id, review_id) VALUES (51, 0, 1, 1)");
+
+        migrate();
+        jdbcTemplate.update(INSERT, 1, 2);
+
+        assertEquals(52, jdbcTemplate.queryForObject("SELECT id FROM reviews WHERE review_id = 2", Integer.class));
+
+        // a no-op once migrated
+        migrate();
+        jdbcTemplate.update(INSERT, 1, 3);
+
+        assertEquals(3, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM reviews", Integer.class));
+    }
+
+    private void migrate() {
+        new ResourceDatabasePopulator(new ClassPathResource("migrate-reviews-id.sql")).execute(dataSource);
+    }
+}
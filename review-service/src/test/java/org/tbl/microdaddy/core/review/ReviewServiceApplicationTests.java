@@ -5,22 +5,31 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.binder.test.OutputDestination;
+import org.springframework.cloud.stream.binder.test.TestChannelBinderConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpStatus;
+import org.springframework.messaging.Message;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.tbl.microdaddy.api.core.review.Review;
 import org.tbl.microdaddy.api.event.Event;
-import org.tbl.microdaddy.api.exceptions.InvalidInputException;
+import org.tbl.microdaddy.api.paging.Page;
 import org.tbl.microdaddy.core.review.persistence.ReviewRepository;
+import org.tbl.microdaddy.core.review.persistence.ReviewStatisticsRepository;
 
+import java.util.List;
 import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
 import static org.springframework.http.HttpStatus.OK;
 import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
 import static org.tbl.microdaddy.api.event.Event.Type.CREATE;
 import static org.tbl.microdaddy.api.event.Event.Type.DELETE;
 
@@ -31,6 +40,7 @@ import static org.tbl.microdaddy.api.event.Event.Type.DELETE;
                 "logging.level.org.tbl.microdaddy=debug",
                 "spring.jpa.hibernate.ddl-auto=update"
         })
+@Import(TestChannelBinderConfiguration.class)
 class ReviewServiceApplicationTests extends MySqlTestBase{
 
     @Autowired
@@ -39,13 +49,21 @@ class ReviewServiceApplicationTests extends MySqlTestBase{
     @Autowired
     private ReviewRepository repository;
 
+    @Autowired
+    private ReviewStatisticsRepository statisticsRepository;
+
     @Autowired
     @Qualifier("messageProcessor")
-    private Consumer<Event<Integer, Review>> messageProcessor;
+    private Consumer<List<Event<Integer, Review>>> messageProcessor;
+
+    @Autowired
+    private OutputDestination target;
     
     @BeforeEach
     void setupDb() {
         repository.deleteAll();
+        statisticsRepository.deleteAll();
+        target.clear();
     }
     
     @Test
@@ -68,6 +86,109 @@ class ReviewServiceApplicationTests extends MySqlTestBase{
     }
 
 
+    @Test
+    void getReviewPages() {
+
+        sendCreateReviewEvent(1, 3);
+        sendCreateReviewEvent(1, 1);
+        sendCreateReviewEvent(1, 2);
+        sendCreateReviewEvent(2, 1);
+
+        Page<Review> firstPage = getReviewPage("?productId=1&pageSize=2");
+        assertEquals(List.of(1, 2), firstPage.getItems().stream().map(Review::getReviewId).toList());
+        assertNotNull(firstPage.getNextPageToken());
+
+        Page<Review> lastPage = getReviewPage("?productId=1&pageSize=2&pageToken=" + firstPage.getNextPageToken());
+        assertEquals(List.of(3), lastPage.getItems().stream().map(Review::getReviewId).toList());
+        assertNull(lastPage.getNextPageToken());
+
+        // default page size
+        assertEquals(3, getReviewPage("?productId=1").getItems().size());
+
+        // a token is only valid for its own product
+        getAndVerifyReviewsByProductId("/page?productId=2&pageToken=" + firstPage.getNextPageToken(),
+                UNPROCESSABLE_ENTITY)
+                .jsonPath("$.message").isEqualTo("Invalid pageToken: " + firstPage.getNextPageToken());
+
+        getAndVerifyReviewsByProductId("/page?productId=1&pageSize=101", UNPROCESSABLE_ENTITY)
+                .jsonPath("$.message").isEqualTo("Invalid pageSize: 101, expected 1 to 100");
+    }
+
+    @Test
+    void getReviewStatistics() {
+
+        sendCreateReviewEvent(1, 1);
+        sendCreateReviewEvent(1, 2);
+        sendCreateReviewEvent(1, 3);
+        sendCreateReviewEvent(1, 4);
+        sendCreateReviewEvent(2, 1);
+
+        getAndVerifyReviewsByProductId("/statistics?productId=1", OK)
+                .jsonPath("$.count").isEqualTo(4)
+                .jsonPath("$.latest.length()").isEqualTo(3)
+                .jsonPath("$.latest[0].reviewId").isEqualTo(4);
+
+        sendDeleteReviewEvent(1);
+
+        getAndVerifyReviewsByProductId("/statistics?productId=1", OK)
+                .jsonPath("$.count").isEqualTo(0)
+                .jsonPath("$.latest.length()").isEqualTo(0);
+    }
+
+    @Test
+    void getReviewStatisticsOfReviewsWrittenBeforeThem() {
+
+        sendCreateReviewEvent(1, 1);
+        sendCreateReviewEvent(1, 2);
+        statisticsRepository.deleteAll();
+
+        // counted from the reviews...
+        getAndVerifyReviewsByProductId("/statistics?productId=1", OK)
+                .jsonPath("$.count").isEqualTo(2);
+
+        // ...until the next write stores the count of all of them
+        sendCreateReviewEvent(1, 3);
+        assertEquals(3, statisticsRepository.findById(1).orElseThrow().getReviewCount());
+
+        getAndVerifyReviewsByProductId("/statistics?productId=1", OK)
+                .jsonPath("$.count").isEqualTo(3);
+    }
+
+    @Test
+    void getReviewsForProducts() {
+
+        sendCreateReviewEvent(1, 1);
+        sendCreateReviewEvent(1, 2);
+        sendCreateReviewEvent(2, 1);
+        sendCreateReviewEvent(3, 1);
+
+        getAndVerifyReviewsByProductId("?productIds=1,2", OK)
+                .jsonPath("$.length()").isEqualTo(3);
+    }
+
+    @Test
+    void exportReviews() {
+
+        sendCreateReviewEvent(2, 1);
+        sendCreateReviewEvent(1, 2);
+        sendCreateReviewEvent(1, 1);
+
+        List<Review> reviews = client.get()
+                .uri("/review/export")
+                .accept(APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isEqualTo(OK)
+                .expectHeader().contentType(APPLICATION_NDJSON)
+                .returnResult(Review.class)
+                .getResponseBody()
+                .collectList()
+                .block();
+
+        assertEquals(3, reviews.size());
+        assertEquals(List.of(1, 1, 2), reviews.stream().map(Review::getProductId).toList());
+        assertEquals(List.of(1, 2, 1), reviews.stream().map(Review::getReviewId).toList());
+    }
+
     @Test
     void validateDuplicationFailure() {
         int productId = 1;
@@ -79,11 +200,12 @@ class ReviewServiceApplicationTests extends MySqlTestBase{
 
         assertEquals(1, repository.count());
 
-        InvalidInputException thrown = assertThrows(
-                InvalidInputException.class,
-                () -> sendCreateReviewEvent(productId, reviewId),
-                "Expected InvalidInputException");
-        assertEquals("Duplicate key, Product Id: 1, Review Id:1", thrown.getMessage());
+        // the duplicate is dead lettered instead of failing the batch
+        sendCreateReviewEvent(productId, reviewId);
+
+        Message<byte[]> deadLetter = target.receive(0, "DLX");
+        assertNotNull(deadLetter);
+        assertEquals("Duplicate key, Product Id: 1, Review Id:1", deadLetter.getHeaders().get("x-exception-message"));
 
         assertEquals(1, repository.count());
 
@@ -105,6 +227,27 @@ class ReviewServiceApplicationTests extends MySqlTestBase{
         sendDeleteReviewEvent(productId);
     }
 
+    @Test
+    void processMixedBatch() {
+
+        sendCreateReviewEvent(1, 1);
+
+        // the duplicate rolls back the batched insert, the reviews are then saved one at a time
+        messageProcessor.accept(List.of(
+                createReviewEvent(1, 1),
+                createReviewEvent(1, 2),
+                createReviewEvent(2, 1),
+                new Event<>(DELETE, 2, null),
+                createReviewEvent(3, 1)));
+
+        assertEquals(2, repository.findByProductId(1).size());
+        assertEquals(0, repository.findByProductId(2).size());
+        assertEquals(1, repository.findByProductId(3).size());
+
+        assertNotNull(target.receive(0, "DLX"));
+        assertNull(target.receive(0, "DLX"));
+    }
+
     @Test
     void getReviewsMissingParameter() {
 
@@ -162,7 +305,18 @@ class ReviewServiceApplicationTests extends MySqlTestBase{
     }
 
 
-    private void sendCreateReviewEvent(int productId, int reviewId) {
+    private Page<Review> getReviewPage(String query) {
+        return client.get()
+                .uri("/review/page" + query)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(OK)
+                .expectBody(new ParameterizedTypeReference<Page<Review>>() {})
+                .returnResult()
+                .getResponseBody();
+    }
+
+    private Event<Integer, Review> createReviewEvent(int productId, int reviewId) {
         Review review = new Review(
                 productId,
                 reviewId,
@@ -171,12 +325,15 @@ class ReviewServiceApplicationTests extends MySqlTestBase{
                 "Content " + reviewId,
                 "serviceAddress"
         );
-        Event<Integer, Review> event = new Event<>(CREATE, productId, review);
-        messageProcessor.accept(event);
+        return new Event<>(CREATE, productId, review);
+    }
+
+    private void sendCreateReviewEvent(int productId, int reviewId) {
+        messageProcessor.accept(List.of(createReviewEvent(productId, reviewId)));
     }
 
     private void sendDeleteReviewEvent(int productId) {
         Event<Integer, Review> event = new Event<>(DELETE, productId, null);
-        messageProcessor.accept(event);
+        messageProcessor.accept(List.of(event));
     }
 }
@@ -0,0 +1,145 @@
+package org.tbl.microdaddy.core.review;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.tbl.microdaddy.util.scheduling.BlockingSchedulers;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.tbl.microdaddy.util.scheduling.BlockingSchedulers.BOUNDED_ELASTIC;
+import static org.tbl.microdaddy.util.scheduling.BlockingSchedulers.VIRTUAL;
+
+/*
+    Compares the jdbcScheduler types under load: 10, 50 and 200 concurrent clients, each calling a blocking
+    call (a 5 ms sleep) on the scheduler back to back. Reports throughput, p99 latency (including the wait
+    for a thread or permit) and the calls rejected because the task queue was full.
+
+    boundedElastic uses the config-repo defaults, 10 threads w/ up to 100 queued tasks. virtual runs up to 100
+    calls at a time (w/ up to 100 waiting), ten times the thread pool: what virtual threads buy is concurrency
+    beyond a platform thread pool, so capping them at its size would measure the same thing twice. In the
+    service the cap is set by what the calls hold, a Hikari connection each (see app.virtualThreadConcurrency).
+
+    The virtual run needs a Java 21 runtime, on an older one it is skipped rather than measuring the
+    boundedElastic fallback of BlockingSchedulers under the wrong name.
+
+    This only measures the schedulers. A sleep doesn't hold a connection of Hikari's pool, or pin its
+    carrier thread the way Connector/J's synchronized blocks do, so it says nothing about JDBC throughput.
+
+    Not part of the regular test run:
+        BENCHMARK=true ./gradlew :review-service:test --tests '*SchedulerBenchmark' -i
+ */
+@Slf4j
+@EnabledIfEnvironmentVariable(named = "BENCHMARK", matches = "true")
+class SchedulerBenchmark {
+
+    private static final int THREAD_POOL_SIZE = 10;
+    private static final int TASK_QUEUE_SIZE = 100;
+    private static final int VIRTUAL_THREAD_CONCURRENCY = 100;
+
+    private static final Duration CALL_DURATION = Duration.ofMillis(5);
+    private static final int CALLS_PER_CLIENT = 100;
+    private static final int[] CLIENTS = {10, 50, 200};
+
+    @Test
+    void boundedElastic() {
+        measureAll(BOUNDED_ELASTIC);
+    }
+
+    @Test
+    void virtual() {
+        assumeTrue(Runtime.version().feature() >= 21,
+                "Virtual threads need Java 21, running on " + Runtime.version().feature());
+
+        measureAll(VIRTUAL);
+    }
+
+    private void measureAll(String type) {
+
+        List<Result> results = new ArrayList<>();
+        for (int clients : CLIENTS) {
+            results.add(measure(type, clients));
+        }
+
+        results.forEach(result -> log.info("{}", result));
+
+        assertTrue(results.stream().allMatch(result -> result.completed > 0));
+    }
+
+    private record Result(String type, int clients, double callsPerSecond, long p99Millis, int completed, int rejected) {
+        @Override
+        public String toString() {
+            return String.format("%-14s clients = %3d, throughput = %7.0f calls/s, p99 = %4d ms, rejected = %5d",
+                    type, clients, callsPerSecond, p99Millis, rejected);
+        }
+    }
+
+    private Result measure(String type, int clients) {
+
+        Scheduler scheduler = BlockingSchedulers.create(
+                type, "benchmark-" + type, THREAD_POOL_SIZE, TASK_QUEUE_SIZE, VIRTUAL_THREAD_CONCURRENCY);
+
+        try {
+            // warm up the threads
+            run(scheduler, clients, 10, new ArrayList<>(), new AtomicInteger());
+
+            List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+            AtomicInteger rejected = new AtomicInteger();
+
+            long start = System.nanoTime();
+            run(scheduler, clients, CALLS_PER_CLIENT, latencies, rejected);
+            long elapsed = System.nanoTime() - start;
+
+            List<Long> sorted = latencies.stream().sorted().toList();
+            long p99 = sorted.isEmpty() ? 0 : sorted.get((int) Math.ceil(sorted.size() * 0.99) - 1);
+
+            return new Result(
+                    type,
+                    clients,
+                    sorted.size() / (elapsed / 1_000_000_000.0),
+                    Duration.ofNanos(p99).toMillis(),
+                    sorted.size(),
+                    rejected.get());
+        } finally {
+            scheduler.dispose();
+        }
+    }
+
+    // every client makes callsPerClient calls, one after the other
+    private void run(Scheduler scheduler, int clients, int callsPerClient, List<Long> latencies,
+                     AtomicInteger rejected) {
+
+        Flux.range(0, clients)
+                .flatMap(client -> Flux.range(0, callsPerClient)
+                        .concatMap(call -> timedCall(scheduler, latencies, rejected)), clients)
+                .blockLast();
+    }
+
+    private Mono<Void> timedCall(Scheduler scheduler, List<Long> latencies, AtomicInteger rejected) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return Mono.fromCallable(this::blockingCall)
+                    .subscribeOn(scheduler)
+                    .doOnNext(unused -> latencies.add(System.nanoTime() - start))
+                    .onErrorResume(ex -> {
+                        rejected.incrementAndGet();
+                        return Mono.empty();
+                    })
+                    .then();
+        });
+    }
+
+    private Boolean blockingCall() throws InterruptedException {
+        Thread.sleep(CALL_DURATION.toMillis());
+        return true;
+    }
+}
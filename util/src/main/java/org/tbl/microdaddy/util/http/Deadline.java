@@ -0,0 +1,87 @@
+package org.tbl.microdaddy.util.http;
+
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.tbl.microdaddy.api.exceptions.DeadlineExceededException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/*
+    End-to-end request deadline.
+
+    The gateway sets the X-Deadline-Ms header on every request it routes: the number of milliseconds left
+    until it gives up on the request. It's relative rather than a point in time, so the hosts don't need
+    synchronized clocks. Every service turns it back into a local deadline when the request arrives
+    (DeadlineWebFilter), keeps it in the Reactor context of the request (key: Deadline.class), and passes
+    what is left of it on w/ every call it makes (propagate()).
+ */
+public final class Deadline {
+
+    public static final String HEADER = "X-Deadline-Ms";
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public static Deadline after(Duration timeout) {
+        return new Deadline(System.nanoTime() + timeout.toNanos());
+    }
+
+    // empty if the header is missing or not a number
+    public static Optional<Deadline> fromHeader(String value) {
+        if (value == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(after(Duration.ofMillis(Long.parseLong(value.trim()))));
+        } catch (NumberFormatException ex) {
+            return Optional.empty();
+        }
+    }
+
+    /*
+        Sends the remaining time of the deadline of the current request (if it has one) along w/ each call,
+        and gives up on the call if the response hasn't arrived by then. Reading the body is covered by the
+        DeadlineWebFilter of the request. A call is not sent at all once the deadline has passed.
+     */
+    public static ExchangeFilterFunction propagate() {
+        return (request, next) -> Mono.deferContextual(context -> context.<Deadline>getOrEmpty(Deadline.class)
+                .map(deadline -> deadline.exchange(request, next))
+                .orElseGet(() -> next.exchange(request)));
+    }
+
+    private Mono<ClientResponse> exchange(ClientRequest request, ExchangeFunction next) {
+        String path = request.url().getPath();
+
+        if (isExpired()) {
+            return Mono.error(exceeded(path));
+        }
+
+        return next.exchange(ClientRequest.from(request)
+                        .headers(headers -> headers.set(HEADER, toHeaderValue()))
+                        .build())
+                .timeout(remaining(), Mono.error(() -> exceeded(path)));
+    }
+
+    public Duration remaining() {
+        return Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    public String toHeaderValue() {
+        return String.valueOf(remaining().toMillis());
+    }
+
+    DeadlineExceededException exceeded(String path) {
+        return new DeadlineExceededException("Deadline exceeded for " + path);
+    }
+}
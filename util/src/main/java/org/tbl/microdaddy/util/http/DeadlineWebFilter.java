@@ -0,0 +1,58 @@
+package org.tbl.microdaddy.util.http;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.tbl.microdaddy.api.exceptions.DeadlineExceededException;
+import reactor.core.publisher.Mono;
+
+import java.util.Optional;
+
+import static org.springframework.http.HttpStatus.GATEWAY_TIMEOUT;
+
+/*
+    Stops working on a request once its deadline (see Deadline) has passed: the processing of the request
+    is cancelled, which cancels whatever it is waiting for, e.g. a Mongo or R2DBC query (the cursor is
+    closed), a delay, a call to another service, or a task on a blocking scheduler (dropped if it hasn't
+    started yet, interrupted otherwise). The response is a 504, if nothing was sent yet.
+
+    A request that arrives after its deadline isn't processed at all. Requests w/o a deadline are left
+    alone.
+ */
+@Slf4j
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class DeadlineWebFilter implements WebFilter {
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+
+        Optional<Deadline> deadline = Deadline.fromHeader(exchange.getRequest().getHeaders().getFirst(Deadline.HEADER));
+        if (deadline.isEmpty()) {
+            return chain.filter(exchange);
+        }
+
+        String path = exchange.getRequest().getPath().pathWithinApplication().value();
+
+        if (deadline.get().isExpired()) {
+            log.debug("Deadline of {} passed before it arrived, not processing it", path);
+            return Mono.error(toResponseStatus(deadline.get().exceeded(path)));
+        }
+
+        return chain.filter(exchange)
+                .timeout(deadline.get().remaining(), Mono.error(() -> deadline.get().exceeded(path)))
+                .doOnError(DeadlineExceededException.class, ex -> log.debug("{}, cancelled", ex.getMessage()))
+                // the handler's own DeadlineExceededExceptions are 504s already (GlobalControllerExceptionHandler)
+                .onErrorMap(DeadlineExceededException.class, this::toResponseStatus)
+                .contextWrite(context -> context.put(Deadline.class, deadline.get()));
+    }
+
+    private ResponseStatusException toResponseStatus(DeadlineExceededException ex) {
+        return new ResponseStatusException(GATEWAY_TIMEOUT, ex.getMessage(), ex);
+    }
+}
@@ -0,0 +1,73 @@
+package org.tbl.microdaddy.util.paging;
+
+import org.tbl.microdaddy.api.exceptions.InvalidInputException;
+import org.tbl.microdaddy.api.paging.Page;
+
+import java.util.Base64;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/*
+    Keyset pagination of the recommendations/reviews of a product, on their unique (productId, id) index.
+
+    A page is read as "productId = ? AND id > <last id of the previous page> ORDER BY id LIMIT pageSize + 1",
+    the extra row only tells whether there is a next page. Unlike an offset, every page is a single index
+    seek no matter how deep it is, and inserts/deletes in the meantime don't shift the pages.
+
+    The page token is the productId and the last id of the page, base64url encoded. It is bound to the
+    productId, a token of another product is rejected.
+ */
+public final class KeysetPaging {
+
+    // before any id, where the first page starts
+    public static final int FIRST_PAGE = Integer.MIN_VALUE;
+
+    private KeysetPaging() {}
+
+    // pageSize 0 means the default
+    public static int pageSize(int pageSize, int defaultPageSize, int maxPageSize) {
+        if (pageSize == 0) {
+            return defaultPageSize;
+        }
+        if (pageSize < 0 || pageSize > maxPageSize) {
+            throw new InvalidInputException("Invalid pageSize: " + pageSize + ", expected 1 to " + maxPageSize);
+        }
+        return pageSize;
+    }
+
+    // the id the page starts after, FIRST_PAGE w/o a token
+    public static int afterId(String pageToken, int productId) {
+
+        if (pageToken == null || pageToken.isEmpty()) {
+            return FIRST_PAGE;
+        }
+
+        try {
+            String[] keys = new String(Base64.getUrlDecoder().decode(pageToken), UTF_8).split(":");
+            if (keys.length == 2 && Integer.parseInt(keys[0]) == productId) {
+                return Integer.parseInt(keys[1]);
+            }
+        } catch (IllegalArgumentException ex) {
+            // not base64 or not a number, same as a token of another product
+        }
+
+        throw new InvalidInputException("Invalid pageToken: " + pageToken);
+    }
+
+    public static String pageToken(int productId, int lastId) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString((productId + ":" + lastId).getBytes(UTF_8));
+    }
+
+    // items is the result of a read of up to pageSize + 1 rows
+    public static <T> Page<T> toPage(List<T> items, int pageSize, int productId, ToIntFunction<T> id) {
+
+        if (items.size() <= pageSize) {
+            return new Page<>(items, null);
+        }
+
+        List<T> page = List.copyOf(items.subList(0, pageSize));
+        return new Page<>(page, pageToken(productId, id.applyAsInt(page.get(pageSize - 1))));
+    }
+}
@@ -0,0 +1,92 @@
+package org.tbl.microdaddy.util.scheduling;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/*
+    Schedulers for blocking calls (JDBC), selected by app.schedulerType:
+
+    - boundedElastic (default): Schedulers.newBoundedElastic w/ threadPoolSize platform threads and up to
+      taskQueueSize queued tasks.
+    - virtual: a new virtual thread per task, at most virtualThreadConcurrency of them running at a time
+      and up to taskQueueSize waiting for a permit (parked, which costs next to nothing for a virtual
+      thread). Further tasks are rejected.
+
+    Virtual threads need a Java 21 runtime. The build and the Docker images are on Java 17, so they are
+    looked up reflectively, and on an older runtime the virtual type falls back to boundedElastic w/ a
+    warning.
+ */
+@Slf4j
+public final class BlockingSchedulers {
+
+    public static final String BOUNDED_ELASTIC = "boundedElastic";
+    public static final String VIRTUAL = "virtual";
+
+    private BlockingSchedulers() {
+    }
+
+    public static Scheduler create(
+            String type,
+            String name,
+            int threadPoolSize,
+            int taskQueueSize,
+            int virtualThreadConcurrency) {
+
+        if (VIRTUAL.equals(type)) {
+            Optional<ExecutorService> virtualThreads = newVirtualThreadPerTaskExecutor(name + "-vt-");
+            if (virtualThreads.isPresent()) {
+                log.info("Creating {} on virtual threads with concurrency = {}, task queue size = {}",
+                        name, virtualThreadConcurrency, taskQueueSize);
+                return Schedulers.fromExecutorService(
+                        new SemaphoreLimitedExecutorService(
+                                virtualThreads.get(), virtualThreadConcurrency, taskQueueSize),
+                        name);
+            }
+            log.warn("Virtual threads need Java 21, running on {}. Falling back to {} for {}",
+                    Runtime.version(), BOUNDED_ELASTIC, name);
+        } else if (!BOUNDED_ELASTIC.equals(type)) {
+            throw new IllegalArgumentException("Unknown scheduler type: " + type +
+                    ", expected " + BOUNDED_ELASTIC + " or " + VIRTUAL);
+        }
+
+        log.info("Creating {} with thread pool size = {}", name, threadPoolSize);
+        return Schedulers.newBoundedElastic(threadPoolSize, taskQueueSize, name);
+    }
+
+    public static boolean virtualThreadsAvailable() {
+        return Runtime.version().feature() >= 21;
+    }
+
+    /*
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 0).factory()), if the runtime
+        has virtual threads.
+     */
+    private static Optional<ExecutorService> newVirtualThreadPerTaskExecutor(String threadNamePrefix) {
+
+        if (!virtualThreadsAvailable()) {
+            return Optional.empty();
+        }
+
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class)
+                    .invoke(builder, threadNamePrefix, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+
+            Method newThreadPerTaskExecutor =
+                    Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return Optional.of((ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory));
+        } catch (ReflectiveOperationException ex) {
+            log.warn("Failed to create a virtual thread executor: {}", ex.toString());
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.tbl.microdaddy.util.scheduling;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Runs every task on the delegate right away, but lets at most maxConcurrency of them past the semaphore
+    at a time. Meant for a thread-per-task delegate on virtual threads, where a task waiting for a permit
+    only costs a parked virtual thread.
+
+    At most maxWaiting tasks wait for a permit, more are rejected w/ a RejectedExecutionException, the way
+    a bounded elastic scheduler rejects tasks once its queue is full.
+ */
+class SemaphoreLimitedExecutorService extends AbstractExecutorService {
+
+    private final ExecutorService delegate;
+    private final Semaphore permits;
+    private final int maxTasks;
+
+    // running or waiting for a permit
+    private final AtomicInteger tasks = new AtomicInteger();
+
+    SemaphoreLimitedExecutorService(ExecutorService delegate, int maxConcurrency, int maxWaiting) {
+        this.delegate = delegate;
+        this.permits = new Semaphore(maxConcurrency);
+        this.maxTasks = maxConcurrency + maxWaiting;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (tasks.incrementAndGet() > maxTasks) {
+            tasks.decrementAndGet();
+            throw new RejectedExecutionException("Too many tasks waiting for a permit");
+        }
+
+        try {
+            delegate.execute(() -> {
+                try {
+                    runWithPermit(task);
+                } finally {
+                    tasks.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            tasks.decrementAndGet();
+            throw ex;
+        }
+    }
+
+    private void runWithPermit(Runnable task) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException ex) {
+            // the task was cancelled while waiting for a permit
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        try {
+            task.run();
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,129 @@
+package org.tbl.microdaddy.util.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtValidators;
+import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+
+/*
+    Bearer tokens are sent again and again until they expire, so the gateway and product-composite keep the
+    Jwt of each token they have validated, instead of parsing it and verifying its signature on every request.
+
+    The cache is keyed by the SHA-256 of the token, and an entry is evicted when the token expires (tokens
+    w/o exp aren't cached). A token that isn't in the cache is validated by the delegate, normally a
+    NimbusReactiveJwtDecoder w/ the keys of a RefreshingJwkSource (see create()), and only cached if it's
+    valid. Hits, misses and evictions are reported as cache.* meters tagged w/ cache=jwt.
+ */
+@Slf4j
+public class CachingReactiveJwtDecoder implements ReactiveJwtDecoder {
+
+    private static final String CACHE_NAME = "jwt";
+
+    private final ReactiveJwtDecoder delegate;
+    private final Cache<String, Jwt> cache;
+    private final RefreshingJwkSource jwkSource;
+
+    public CachingReactiveJwtDecoder(
+            ReactiveJwtDecoder delegate,
+            RefreshingJwkSource jwkSource,
+            int maxSize,
+            MeterRegistry meterRegistry) {
+
+        log.info("Creating jwt cache with maxSize = {}", maxSize);
+
+        this.delegate = delegate;
+        this.jwkSource = jwkSource;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<String, Jwt>() {
+                    @Override
+                    public long expireAfterCreate(String key, Jwt jwt, long currentTime) {
+                        return Math.max(0, Duration.between(Instant.now(), jwt.getExpiresAt()).toNanos());
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Jwt jwt, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Jwt jwt, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    /*
+        Validates tokens of issuerUri (if set) signed w/ the keys of jwkSetUri, or those listed in the
+        OpenID configuration of issuerUri, see RefreshingJwkSource.
+     */
+    public static CachingReactiveJwtDecoder create(
+            String issuerUri,
+            String jwkSetUri,
+            int maxSize,
+            Duration jwkSetRefreshInterval,
+            MeterRegistry meterRegistry) {
+
+        RefreshingJwkSource jwkSource = new RefreshingJwkSource(
+                issuerUri, jwkSetUri, jwkSetRefreshInterval, Duration.ofSeconds(30), WebClient.create());
+
+        NimbusReactiveJwtDecoder delegate = NimbusReactiveJwtDecoder.withJwkSource(jwkSource::keys).build();
+        delegate.setJwtValidator(issuerUri.isEmpty()
+                ? JwtValidators.createDefault()
+                : JwtValidators.createDefaultWithIssuer(issuerUri));
+
+        return new CachingReactiveJwtDecoder(delegate, jwkSource, maxSize, meterRegistry);
+    }
+
+    @Override
+    public Mono<Jwt> decode(String token) {
+        String key = sha256(token);
+
+        Jwt cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+
+        return delegate.decode(token)
+                .doOnNext(jwt -> {
+                    if (jwt.getExpiresAt() != null) {
+                        cache.put(key, jwt);
+                    }
+                });
+    }
+
+    // called by Spring when the context is closed (inferred destroy method of @Bean)
+    public void close() {
+        if (jwkSource != null) {
+            jwkSource.close();
+        }
+    }
+
+    private static String sha256(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
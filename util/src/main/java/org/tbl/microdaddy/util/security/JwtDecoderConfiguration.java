@@ -0,0 +1,29 @@
+package org.tbl.microdaddy.util.security;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+
+import java.time.Duration;
+
+/*
+    The jwtDecoder of the resource servers, the gateway and product-composite, which @Import it into their
+    SecurityConfiguration. Validated tokens are cached until they expire, see CachingReactiveJwtDecoder. Used by
+    oauth2ResourceServer().
+
+    Not a @Configuration, the core services scan org.tbl.microdaddy too, and don't validate tokens.
+ */
+public class JwtDecoderConfiguration {
+
+    @Bean
+    public ReactiveJwtDecoder jwtDecoder(
+            @Value("${spring.security.oauth2.resourceserver.jwt.issuer-uri:}") String issuerUri,
+            @Value("${spring.security.oauth2.resourceserver.jwt.jwk-set-uri:}") String jwkSetUri,
+            @Value("${app.jwtCache.maxSize:10000}") Integer maxSize,
+            @Value("${app.jwtCache.jwkSetRefreshSeconds:300}") Integer jwkSetRefreshSeconds,
+            MeterRegistry meterRegistry) {
+        return CachingReactiveJwtDecoder.create(
+                issuerUri, jwkSetUri, maxSize, Duration.ofSeconds(jwkSetRefreshSeconds), meterRegistry);
+    }
+}
@@ -0,0 +1,146 @@
+package org.tbl.microdaddy.util.security;
+
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jwt.SignedJWT;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    The keys that JWTs are verified with, fetched ahead of time.
+
+    The JWK set is fetched as soon as the source is created, and again every refreshInterval in the
+    background, so verifying a token never waits for it. Its URI is jwkSetUri, or the jwks_uri of the
+    OpenID configuration of issuerUri.
+
+    Only a token signed w/ a key that isn't in the set (yet) triggers a fetch on the request path, at most
+    one per minRefreshInterval, so tokens w/ made up key ids can't be used to hammer the issuer.
+ */
+@Slf4j
+public class RefreshingJwkSource {
+
+    private final String issuerUri;
+    private final String jwkSetUri;
+    private final Duration minRefreshInterval;
+    private final WebClient webClient;
+
+    private final AtomicReference<JWKSet> jwkSet = new AtomicReference<>();
+    private final AtomicReference<String> resolvedJwkSetUri = new AtomicReference<>();
+    private final AtomicLong lastOnDemandRefresh;
+    private final Disposable refreshing;
+
+    public RefreshingJwkSource(
+            String issuerUri,
+            String jwkSetUri,
+            Duration refreshInterval,
+            Duration minRefreshInterval,
+            WebClient webClient) {
+
+        log.info("Creating JWK source for issuerUri = {}, jwkSetUri = {} with refreshInterval = {}",
+                issuerUri, jwkSetUri, refreshInterval);
+
+        this.issuerUri = issuerUri;
+        this.jwkSetUri = jwkSetUri;
+        this.minRefreshInterval = minRefreshInterval;
+        this.webClient = webClient;
+        this.lastOnDemandRefresh = new AtomicLong(System.nanoTime() - minRefreshInterval.toNanos());
+
+        this.refreshing = isConfigured() ? Flux.interval(Duration.ZERO, refreshInterval)
+                .onBackpressureDrop()
+                .concatMap(tick -> refresh()
+                        .onErrorResume(ex -> {
+                            log.warn("Failed to fetch the JWK set, retrying in {}: {}", refreshInterval, ex.toString());
+                            return Mono.empty();
+                        }))
+                .subscribe() : null;
+    }
+
+    // the keys the JWT may have been signed w/, for NimbusReactiveJwtDecoder.withJwkSource()
+    public Flux<JWK> keys(SignedJWT jwt) {
+        JWKSelector selector = new JWKSelector(JWKMatcher.forJWSHeader(jwt.getHeader()));
+
+        JWKSet current = jwkSet.get();
+        List<JWK> keys = current == null ? List.of() : selector.select(current);
+        if (!keys.isEmpty()) {
+            return Flux.fromIterable(keys);
+        }
+
+        return refreshOnDemand().flatMapIterable(selector::select);
+    }
+
+    public void close() {
+        if (refreshing != null) {
+            refreshing.dispose();
+        }
+    }
+
+    private Mono<JWKSet> refreshOnDemand() {
+        long last = lastOnDemandRefresh.get();
+        long now = System.nanoTime();
+        if (!isConfigured() || now - last < minRefreshInterval.toNanos()
+                || !lastOnDemandRefresh.compareAndSet(last, now)) {
+            return Mono.justOrEmpty(jwkSet.get());
+        }
+
+        log.debug("Unknown key, fetching the JWK set");
+        return refresh();
+    }
+
+    private Mono<JWKSet> refresh() {
+        return jwkSetUri()
+                .flatMap(uri -> webClient.get()
+                        .uri(uri)
+                        .retrieve()
+                        .bodyToMono(String.class))
+                .map(RefreshingJwkSource::parse)
+                .doOnNext(keys -> {
+                    log.debug("Fetched JWK set w/ {} keys", keys.getKeys().size());
+                    jwkSet.set(keys);
+                });
+    }
+
+    private Mono<String> jwkSetUri() {
+        if (!jwkSetUri.isEmpty()) {
+            return Mono.just(jwkSetUri);
+        }
+
+        String resolved = resolvedJwkSetUri.get();
+        if (resolved != null) {
+            return Mono.just(resolved);
+        }
+
+        String configurationUri = (issuerUri.endsWith("/") ? issuerUri : issuerUri + "/")
+                + ".well-known/openid-configuration";
+        return webClient.get()
+                .uri(configurationUri)
+                .retrieve()
+                .bodyToMono(new ParameterizedTypeReference<Map<String, Object>>() {})
+                .mapNotNull(configuration -> (String) configuration.get("jwks_uri"))
+                .doOnNext(resolvedJwkSetUri::set);
+    }
+
+    private boolean isConfigured() {
+        return !jwkSetUri.isEmpty() || !issuerUri.isEmpty();
+    }
+
+    private static JWKSet parse(String body) {
+        try {
+            return JWKSet.parse(body);
+        } catch (ParseException ex) {
+            throw new IllegalStateException("Invalid JWK set: " + ex.getMessage(), ex);
+        }
+    }
+}